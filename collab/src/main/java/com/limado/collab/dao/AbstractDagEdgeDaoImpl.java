@@ -0,0 +1,189 @@
+package com.limado.collab.dao;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import com.limado.collab.model.Identifiable;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.Query;
+import javax.persistence.TypedQuery;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * The part of {@link DagEdgeDao} which doesn't depend on the rows of the dag: the vertex lookups and the rebuild through the shadow table.
+ *
+ * @author csieflyman
+ */
+abstract class AbstractDagEdgeDaoImpl<EdgeType extends Identifiable<Long>, VertexID extends Serializable>
+        extends JpaGenericDaoImpl<EdgeType, Long> implements DagEdgeDao<VertexID> {
+
+    private static final Logger log = LogManager.getLogger(AbstractDagEdgeDaoImpl.class);
+
+    static final int IN_CLAUSE_SIZE = 1000;
+
+    static final int REBUILD_BATCH_SIZE = 1000;
+
+    static final int DEFAULT_REBUILD_PARALLELISM = 4;
+
+    private int rebuildParallelism = DEFAULT_REBUILD_PARALLELISM;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    abstract protected String getDagId();
+
+    abstract protected Class<VertexID> getVertexIdClass();
+
+    /**
+     * read the edges of the relationship the dag is derived from, e.g. by {@link #scroll}
+     */
+    abstract protected void scrollEdges(BiConsumer<VertexID, VertexID> edgeConsumer);
+
+    /**
+     * @param firstId the id of the first row, the rows of the dag get consecutive ids
+     * @return the writer of the rows of a chunk of start vertices into the shadow table, it returns the number of written rows.
+     * The chunks are written in parallel, each one by its own transaction.
+     */
+    abstract protected ToLongFunction<List<VertexID>> newShadowWriter(DagRebuilder<VertexID> rebuilder, long firstId);
+
+    /**
+     * the properties which refer to the ids of other rows of the dag
+     */
+    abstract protected String[] getIdProperties();
+
+    /**
+     * the table with the columns of the entity table which the edges are rebuilt into
+     */
+    protected String getShadowTableName() {
+        return getTableName() + "_shadow";
+    }
+
+    /**
+     * the number of chunks of start vertices rebuilt at the same time
+     */
+    @Value("${dag_rebuild_parallelism:" + DEFAULT_REBUILD_PARALLELISM + "}")
+    public void setRebuildParallelism(int rebuildParallelism) {
+        Preconditions.checkArgument(rebuildParallelism >= 1, "rebuildParallelism must be greater than 0");
+        this.rebuildParallelism = rebuildParallelism;
+    }
+
+    @Override
+    public Set<VertexID> findIncomingVertices(VertexID vertexId) {
+        Set<VertexID> incomingVertexIds = new HashSet<>(findVertices("startVertexId", "endVertexId", vertexId));
+        log.debug(String.format("incoming vertices of %s: %s", vertexId, incomingVertexIds));
+        return incomingVertexIds;
+    }
+
+    @Override
+    public Set<VertexID> findOutgoingVertices(VertexID vertexId) {
+        Set<VertexID> outgoingVertexIds = new HashSet<>(findVertices("endVertexId", "startVertexId", vertexId));
+        log.debug(String.format("outgoing vertices of %s: %s", vertexId, outgoingVertexIds));
+        return outgoingVertexIds;
+    }
+
+    @Override
+    public Map<VertexID, Set<VertexID>> findIncomingVertices(Collection<VertexID> vertexIds) {
+        return findVertices("startVertexId", "endVertexId", vertexIds);
+    }
+
+    @Override
+    public Map<VertexID, Set<VertexID>> findOutgoingVertices(Collection<VertexID> vertexIds) {
+        return findVertices("endVertexId", "startVertexId", vertexIds);
+    }
+
+    @Override
+    public Set<VertexID> findOutgoingVertices(VertexID vertexId, int maxHops) {
+        return new HashSet<>(findOutgoingVertexHops(vertexId, maxHops).keySet());
+    }
+
+    /**
+     * The rows are written into the shadow table and swapped in by one transaction, which deletes and inserts only the rows of this dag.
+     * That transaction reads the edges again and fails if they changed during the rebuild instead of discarding the change.
+     */
+    @Override
+    public DagRebuildReport rebuild() {
+        long start = System.nanoTime();
+        TransactionTemplate readTemplate = new TransactionTemplate(transactionManager);
+        readTemplate.setReadOnly(true);
+        DagRebuilder<VertexID> rebuilder = new DagRebuilder<>(readTemplate.execute(status -> loadChildrenMap()));
+
+        TransactionTemplate writeTemplate = new TransactionTemplate(transactionManager);
+        long firstId = writeTemplate.execute(status -> {
+            clearShadowTable(getShadowTableName(), "dagId", getDagId());
+            // the rows are shifted above the ids of the table when they are swapped in
+            Long maxId = (Long) entityManager.createQuery("select max(id) from " + getEntityName()).getSingleResult();
+            return maxId == null ? 1L : maxId + 1;
+        });
+        ToLongFunction<List<VertexID>> shadowWriter = newShadowWriter(rebuilder, firstId);
+        AtomicLong insertedRows = new AtomicLong();
+        rebuilder.forEachChunk(rebuildParallelism, vertexIds -> writeTemplate.execute(status -> insertedRows.addAndGet(shadowWriter.applyAsLong(vertexIds))));
+        writeTemplate.execute(status -> {
+            if (!rebuilder.hasEdges(loadChildrenMap()))
+                throw new ConcurrencyFailureException(String.format("the edges of dag %s changed during the rebuild", getDagId()));
+            swapShadowTable(getShadowTableName(), "dagId", getDagId(), getIdProperties());
+            return null;
+        });
+
+        DagRebuildReport report = new DagRebuildReport(getDagId(), rebuilder.getVertexCount(), rebuilder.getEdgeCount(),
+                insertedRows.get(), (System.nanoTime() - start) / 1000000);
+        log.info(report);
+        return report;
+    }
+
+    private Map<VertexID, List<VertexID>> loadChildrenMap() {
+        Map<VertexID, List<VertexID>> childrenMap = new HashMap<>();
+        scrollEdges((startVertexId, endVertexId) -> childrenMap.computeIfAbsent(startVertexId, key -> new ArrayList<>()).add(endVertexId));
+        return childrenMap;
+    }
+
+    /**
+     * one query per chunk of vertices instead of one per vertex, the rows are grouped by the given vertex in memory
+     */
+    private Map<VertexID, Set<VertexID>> findVertices(String selectProperty, String whereProperty, Collection<VertexID> vertexIds) {
+        Preconditions.checkArgument(vertexIds != null, "Argument [vertexIds] can not be null.");
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("select distinct ").append(whereProperty).append(", ").append(selectProperty).append(" from ").append(getEntityName())
+                .append(" where dagId = :dagId and ").append(whereProperty).append(" in (:vertexIds)");
+        Map<VertexID, Set<VertexID>> verticesMap = Maps.newHashMapWithExpectedSize(vertexIds.size());
+        vertexIds.forEach(vertexId -> verticesMap.put(vertexId, new HashSet<>()));
+        for (List<VertexID> partition : Iterables.partition(verticesMap.keySet(), IN_CLAUSE_SIZE)) {
+            Query query = entityManager.createQuery(sb.toString());
+            query.setParameter("dagId", getDagId());
+            query.setParameter("vertexIds", partition);
+            scroll(query, row -> verticesMap.get(row[0]).add(getVertexIdClass().cast(row[1])));
+        }
+        return verticesMap;
+    }
+
+    /**
+     * There may be one row per path, so the vertex ids are deduplicated by the database.
+     * The query reads only the (dag_id, end_vertex_id, start_vertex_id) or (dag_id, start_vertex_id, end_vertex_id) index.
+     */
+    private List<VertexID> findVertices(String selectProperty, String whereProperty, VertexID vertexId) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("select distinct ").append(selectProperty).append(" from ").append(getEntityName())
+                .append(" where dagId = :dagId and ").append(whereProperty).append(" = :vertexId");
+        TypedQuery<VertexID> query = entityManager.createQuery(sb.toString(), getVertexIdClass());
+        query.setParameter("dagId", getDagId());
+        query.setParameter("vertexId", vertexId);
+        return query.getResultList();
+    }
+}
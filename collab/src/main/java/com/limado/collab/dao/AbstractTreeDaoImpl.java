@@ -0,0 +1,639 @@
+package com.limado.collab.dao;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterables;
+import com.limado.collab.model.TreeNode;
+import com.limado.collab.util.query.Operator;
+import com.limado.collab.util.query.OrderBy;
+import com.limado.collab.util.query.Predicate;
+import com.limado.collab.util.query.QueryParams;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.hibernate.engine.spi.EntityEntry;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.LockModeType;
+import javax.persistence.Query;
+import javax.persistence.TypedQuery;
+import java.io.Serializable;
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+
+/**
+ * The part of {@link IntervalTreeDao} which doesn't depend on the encoding of the trees, a subclass encodes the nodes of one tree.
+ *
+ * @author csieflyman
+ */
+abstract class AbstractTreeDaoImpl<NodeType extends TreeNode<NodeIdType>, NodeIdType extends Serializable>
+        extends JpaGenericDaoImpl<NodeType, Long> implements IntervalTreeDao<NodeIdType> {
+
+    private static final Logger log = LogManager.getLogger(AbstractTreeDaoImpl.class);
+
+    public static final int DEFAULT_VERIFY_PARALLELISM = 4;
+
+    static final int IN_CLAUSE_SIZE = 1000;
+
+    private int verifyParallelism = DEFAULT_VERIFY_PARALLELISM;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private IntervalTreeLockManager lockManager;
+
+    @Autowired
+    private IntervalTreeIdSequence treeIdSequence;
+
+    abstract protected short getTreeType();
+
+    abstract protected Class<NodeIdType> getNodeIdClass();
+
+    /**
+     * stream the parent-child edges which the trees are rebuilt from
+     */
+    abstract protected void scrollEdges(BiConsumer<NodeIdType, NodeIdType> edgeConsumer);
+
+    /**
+     * encode a new tree whose root doesn't belong to any tree yet
+     */
+    abstract protected List<NodeType> encodeTree(NodeIdType rootId, Long treeId, Map<NodeIdType, List<NodeIdType>> childrenMap);
+
+    /**
+     * rewrite the tree of the root after its trees are locked, only the rows whose encoding changed are written
+     */
+    abstract protected IntervalTreeRebuildReport rebuildTree(NodeIdType rootId, List<NodeIdType> nodeIds, Map<NodeIdType, List<NodeIdType>> childrenMap);
+
+    abstract protected IntervalTreeVerifyReport verifyTree(Long treeId, IntervalTreeVerifier<NodeIdType> verifier);
+
+    /**
+     * delete the node after its tree is locked, its children become the roots of new trees
+     */
+    abstract protected void deleteAndSplitTree(NodeType node);
+
+    /**
+     * delete the node and its descendants after its tree is locked
+     */
+    abstract protected void deleteSubTree(NodeType node);
+
+    /**
+     * make the child the root of a new tree after its tree is locked, a leaf child and a parent left without child are deleted
+     */
+    abstract protected void removeFromParent(NodeType childNode);
+
+    /**
+     * make the node the last child of the parent after their trees are locked, the node is null if it doesn't belong to a tree yet
+     */
+    abstract protected void moveUnder(NodeIdType childNodeId, NodeType childNode, NodeIdType parentNodeId);
+
+    /**
+     * @return true if the node is the ancestor node itself or one of its descendants
+     */
+    abstract protected boolean isInSubTree(NodeType node, NodeType ancestorNode);
+
+    abstract protected int countSubTree(NodeType node);
+
+    abstract protected void insertNodes(List<NodeType> nodes);
+
+    /**
+     * the number of trees verified at the same time
+     */
+    @Value("${interval_tree_verify_parallelism:" + DEFAULT_VERIFY_PARALLELISM + "}")
+    public void setVerifyParallelism(int verifyParallelism) {
+        Preconditions.checkArgument(verifyParallelism >= 1, "verifyParallelism must be greater than 0");
+        this.verifyParallelism = verifyParallelism;
+    }
+
+    @Override
+    public void addChild(NodeIdType parentNodeId, NodeIdType childNodeId) {
+        addChildren(parentNodeId, Collections.singletonList(childNodeId));
+    }
+
+    /**
+     * the parent and all children are locked by one call before the first child is added
+     */
+    @Override
+    public void addChildren(NodeIdType parentNodeId, Collection<NodeIdType> childNodeIds) {
+        lockTrees(getParentAndChildren(parentNodeId, childNodeIds));
+        for (NodeIdType childNodeId : childNodeIds) {
+            NodeType childNode = getNode(childNodeId);
+            Preconditions.checkArgument(childNode == null || isRoot(childNode), "node %s already has parent %s",
+                    childNodeId, childNode == null ? null : childNode.getParentNodeId());
+            moveUnder(childNodeId, childNode, parentNodeId);
+        }
+    }
+
+    @Override
+    public void removeChild(NodeIdType parentNodeId, NodeIdType childNodeId) {
+        removeChildren(parentNodeId, Collections.singletonList(childNodeId));
+    }
+
+    /**
+     * the parent and all children are locked by one call before the first child is removed
+     */
+    @Override
+    public void removeChildren(NodeIdType parentNodeId, Collection<NodeIdType> childNodeIds) {
+        lockTrees(getParentAndChildren(parentNodeId, childNodeIds));
+        for (NodeIdType childNodeId : childNodeIds) {
+            NodeType childNode = getNode(childNodeId);
+            Preconditions.checkArgument(childNode != null && parentNodeId.equals(childNode.getParentNodeId()),
+                    "node %s is not a child of %s", childNodeId, parentNodeId);
+            removeFromParent(childNode);
+        }
+    }
+
+    private List<NodeIdType> getParentAndChildren(NodeIdType parentNodeId, Collection<NodeIdType> childNodeIds) {
+        Preconditions.checkArgument(parentNodeId != null, "parentNodeId must not be null");
+        Preconditions.checkArgument(childNodeIds != null, "childNodeIds must not be null");
+
+        List<NodeIdType> nodeIds = new ArrayList<>(childNodeIds.size() + 1);
+        nodeIds.add(parentNodeId);
+        for (NodeIdType childNodeId : childNodeIds) {
+            Preconditions.checkArgument(childNodeId != null, "childNodeId must not be null");
+            Preconditions.checkArgument(!childNodeId.equals(parentNodeId), "node %s can't be the parent of itself", childNodeId);
+            nodeIds.add(childNodeId);
+        }
+        return nodeIds;
+    }
+
+    @Override
+    public void move(NodeIdType newParentNodeId, NodeIdType childNodeId) {
+        Preconditions.checkArgument(newParentNodeId != null, "newParentNodeId must not be null");
+        Preconditions.checkArgument(childNodeId != null, "childNodeId must not be null");
+
+        lockTrees(Arrays.asList(newParentNodeId, childNodeId));
+        NodeType childNode = getNode(childNodeId);
+        NodeType newParentNode = getNode(newParentNodeId);
+        Preconditions.checkArgument(childNode == null || newParentNode == null || !isInSubTree(newParentNode, childNode),
+                "node %s can't be moved into its own subtree", childNodeId);
+        moveUnder(childNodeId, childNode, newParentNodeId);
+    }
+
+    @Override
+    public void moveAll(Map<NodeIdType, NodeIdType> newParentMap) {
+        Preconditions.checkArgument(newParentMap != null, "newParentMap must not be null");
+        if (newParentMap.isEmpty())
+            return;
+
+        Set<NodeIdType> movedNodeIds = new HashSet<>();
+        for (Map.Entry<NodeIdType, NodeIdType> entry : newParentMap.entrySet()) {
+            Preconditions.checkArgument(entry.getKey() != null, "childNodeId must not be null");
+            Preconditions.checkArgument(entry.getValue() != null, "newParentNodeId of %s must not be null", entry.getKey());
+            Preconditions.checkArgument(!entry.getKey().equals(entry.getValue()), "node %s can't be the parent of itself", entry.getKey());
+            movedNodeIds.add(entry.getKey());
+            movedNodeIds.add(entry.getValue());
+        }
+        lockTrees(movedNodeIds);
+        applyMoves(newParentMap, movedNodeIds);
+    }
+
+    /**
+     * The moves are checked for cycles first, then applied one by one and each rewrites only the moved subtree.
+     * A move into the subtree of a node which is moved later waits until that node is moved away.
+     *
+     * @param movedNodeIds the moved nodes and their new parents, their trees are locked
+     */
+    protected void applyMoves(Map<NodeIdType, NodeIdType> newParentMap, Set<NodeIdType> movedNodeIds) {
+        for (NodeIdType childNodeId : newParentMap.keySet()) {
+            // follow the parents after the moves up to the root
+            Set<NodeIdType> visited = new HashSet<>();
+            NodeIdType ancestorId = newParentMap.get(childNodeId);
+            while (ancestorId != null && visited.add(ancestorId)) {
+                Preconditions.checkArgument(!ancestorId.equals(childNodeId), "hierarchy must not contain a cycle");
+                ancestorId = newParentMap.containsKey(ancestorId) ? newParentMap.get(ancestorId) : getParent(ancestorId);
+            }
+        }
+
+        Map<NodeIdType, NodeIdType> pendingMoves = new LinkedHashMap<>(newParentMap);
+        while (!pendingMoves.isEmpty()) {
+            boolean moved = false;
+            for (Iterator<Map.Entry<NodeIdType, NodeIdType>> i = pendingMoves.entrySet().iterator(); i.hasNext(); ) {
+                Map.Entry<NodeIdType, NodeIdType> entry = i.next();
+                NodeType childNode = getNode(entry.getKey());
+                NodeType newParentNode = getNode(entry.getValue());
+                if (childNode != null && newParentNode != null && isInSubTree(newParentNode, childNode))
+                    continue;
+                if (childNode == null || !entry.getValue().equals(childNode.getParentNodeId())) {
+                    moveUnder(entry.getKey(), childNode, entry.getValue());
+                }
+                i.remove();
+                moved = true;
+            }
+            Preconditions.checkState(moved, "no move of %s is applicable", pendingMoves.keySet());
+        }
+        log.debug(String.format("move %d nodes", newParentMap.size()));
+    }
+
+    @Override
+    public void delete(NodeIdType nodeId) {
+        Preconditions.checkArgument(nodeId != null, "nodeId must not be null");
+
+        NodeType node = getNode(nodeId);
+        if (node == null)
+            return;
+
+        delete(node);
+    }
+
+    @Override
+    public void delete(NodeType node) {
+        Preconditions.checkArgument(node != null, "node must not be null");
+
+        lockTrees(Collections.singleton(node.getNodeId()));
+        node = getNode(node.getNodeId());
+        if (node == null)
+            return;
+
+        deleteAndSplitTree(node);
+    }
+
+    @Override
+    public void deleteSubTree(NodeIdType nodeId) {
+        Preconditions.checkArgument(nodeId != null, "nodeId must not be null");
+
+        lockTrees(Collections.singleton(nodeId));
+        NodeType node = getNode(nodeId);
+        if (node == null)
+            return;
+
+        deleteSubTree(node);
+    }
+
+    @Override
+    public void bulkLoad(Map<NodeIdType, List<NodeIdType>> childrenMap) {
+        Preconditions.checkArgument(childrenMap != null, "childrenMap must not be null");
+
+        // a root without child is not stored, the same as removeChild deletes it
+        Set<NodeIdType> nodeIds = new LinkedHashSet<>();
+        Set<NodeIdType> childIds = new HashSet<>();
+        for (Map.Entry<NodeIdType, List<NodeIdType>> entry : childrenMap.entrySet()) {
+            Preconditions.checkArgument(entry.getKey() != null, "parentNodeId must not be null");
+            Preconditions.checkArgument(entry.getValue() != null, "children of %s must not be null", entry.getKey());
+            if (!entry.getValue().isEmpty()) {
+                nodeIds.add(entry.getKey());
+            }
+            for (NodeIdType childId : entry.getValue()) {
+                Preconditions.checkArgument(childId != null, "childNodeId must not be null");
+                Preconditions.checkArgument(childIds.add(childId), "node %s has more than one parent", childId);
+                nodeIds.add(childId);
+            }
+        }
+        if (nodeIds.isEmpty())
+            return;
+        lockTrees(nodeIds.stream().filter(nodeId -> !childIds.contains(nodeId)).collect(Collectors.toList()));
+        checkNotExist(nodeIds);
+
+        List<NodeType> nodes = new ArrayList<>(nodeIds.size());
+        nodeIds.stream().filter(nodeId -> !childIds.contains(nodeId)).forEach(rootId -> nodes.addAll(encodeTree(rootId, nextTreeId(), childrenMap)));
+        Preconditions.checkArgument(nodes.size() == nodeIds.size(), "hierarchy must not contain a cycle");
+
+        insertNodes(nodes);
+        log.debug(String.format("bulk load %d nodes", nodes.size()));
+    }
+
+    /**
+     * rebuild all trees from the edges returned by {@link #scrollEdges(BiConsumer)}.
+     * Each tree is written in its own transaction by {@link #rebuildTree}. Nodes which don't belong to any tree anymore are deleted at last.
+     */
+    @Override
+    public List<IntervalTreeRebuildReport> rebuild() {
+        TransactionTemplate readTemplate = new TransactionTemplate(transactionManager);
+        readTemplate.setReadOnly(true);
+        Map<NodeIdType, List<NodeIdType>> childrenMap = readTemplate.execute(status -> loadChildrenMap());
+        Set<NodeIdType> childIds = childrenMap.values().stream().flatMap(List::stream).collect(Collectors.toSet());
+        List<NodeIdType> rootIds = childrenMap.keySet().stream().filter(nodeId -> !childIds.contains(nodeId)).collect(Collectors.toList());
+
+        TransactionTemplate writeTemplate = new TransactionTemplate(transactionManager);
+        List<IntervalTreeRebuildReport> reports = new ArrayList<>(rootIds.size());
+        Set<NodeIdType> treeNodeIds = new HashSet<>();
+        for (NodeIdType rootId : rootIds) {
+            List<NodeIdType> nodeIds = collectTree(rootId, childrenMap);
+            treeNodeIds.addAll(nodeIds);
+            IntervalTreeRebuildReport report = writeTemplate.execute(status -> {
+                lockTrees(nodeIds);
+                return rebuildTree(rootId, nodeIds, childrenMap);
+            });
+            log.info(report);
+            reports.add(report);
+        }
+        int deletedRows = writeTemplate.execute(status -> deleteNodesNotIn(treeNodeIds));
+        log.info(String.format("delete %d nodes which don't belong to any tree", deletedRows));
+        return reports;
+    }
+
+    /**
+     * Each tree is checked by {@link #verifyTree} in a read only transaction, up to verifyParallelism trees at the same time.
+     */
+    @Override
+    public List<IntervalTreeVerifyReport> verify() {
+        TransactionTemplate readTemplate = new TransactionTemplate(transactionManager);
+        readTemplate.setReadOnly(true);
+        IntervalTreeVerifier<NodeIdType> verifier = new IntervalTreeVerifier<>(readTemplate.execute(status -> loadChildrenMap()));
+        List<Long> treeIds = readTemplate.execute(status -> findAllTreeIds());
+        List<IntervalTreeVerifyReport> reports = verifier.verify(treeIds, verifyParallelism,
+                treeId -> readTemplate.execute(status -> verifyTree(treeId, verifier)));
+        reports.forEach(log::warn);
+        log.info(String.format("verify %d trees, %d are corrupted", treeIds.size(), reports.size()));
+        return reports;
+    }
+
+    @Override
+    public int getSubTreeSize(NodeIdType nodeId) {
+        Preconditions.checkArgument(nodeId != null, "nodeId must not be null");
+
+        NodeType node = getNode(nodeId);
+        return node == null ? 0 : countSubTree(node);
+    }
+
+    @Override
+    public Map<NodeIdType, Integer> getSubTreeSizes(Set<NodeIdType> nodeIds) {
+        Preconditions.checkArgument(nodeIds != null, "nodeIds must not be null");
+
+        Map<NodeIdType, Integer> sizes = new HashMap<>();
+        nodeIds.forEach(nodeId -> sizes.put(nodeId, 0));
+        if (nodeIds.isEmpty())
+            return sizes;
+
+        for (NodeType node : findNodesIn("nodeId", nodeIds)) {
+            sizes.put(node.getNodeId(), countSubTree(node));
+        }
+        return sizes;
+    }
+
+    @Override
+    public boolean isDescendant(NodeIdType ancestorNodeId, NodeIdType nodeId) {
+        Preconditions.checkArgument(ancestorNodeId != null, "ancestorNodeId must not be null");
+        Preconditions.checkArgument(nodeId != null, "nodeId must not be null");
+
+        NodeType node = getNode(nodeId);
+        if (node == null || isRoot(node)) {
+            return false;
+        }
+        NodeType ancestorNode = getNode(ancestorNodeId);
+        return ancestorNode != null && !ancestorNode.getNodeId().equals(nodeId) && isInSubTree(node, ancestorNode);
+    }
+
+    /**
+     * The pairs whose node is in a cached tree snapshot are answered by the snapshot, the nodes of the other pairs
+     * are read by one query per 1000 nodes and compared in memory.
+     */
+    @Override
+    public List<Boolean> areDescendants(Collection<Map.Entry<NodeIdType, NodeIdType>> pairs) {
+        Preconditions.checkArgument(pairs != null, "pairs must not be null");
+
+        List<IntervalTreeSnapshot<NodeIdType>> snapshots = new ArrayList<>(pairs.size());
+        Set<NodeIdType> uncachedNodeIds = new HashSet<>();
+        for (Map.Entry<NodeIdType, NodeIdType> pair : pairs) {
+            Preconditions.checkArgument(pair.getKey() != null && pair.getValue() != null, "pair %s must not contain null", pair);
+            IntervalTreeSnapshot<NodeIdType> snapshot = snapshotIfPresent(pair.getValue());
+            if (snapshot == null) {
+                uncachedNodeIds.add(pair.getKey());
+                uncachedNodeIds.add(pair.getValue());
+            }
+            snapshots.add(snapshot);
+        }
+        Map<NodeIdType, NodeType> nodeMap = uncachedNodeIds.isEmpty() ? Collections.emptyMap()
+                : findNodesIn("nodeId", uncachedNodeIds).stream().collect(Collectors.toMap(NodeType::getNodeId, node -> node));
+
+        List<Boolean> result = new ArrayList<>(pairs.size());
+        Iterator<IntervalTreeSnapshot<NodeIdType>> snapshotIterator = snapshots.iterator();
+        for (Map.Entry<NodeIdType, NodeIdType> pair : pairs) {
+            IntervalTreeSnapshot<NodeIdType> snapshot = snapshotIterator.next();
+            if (snapshot != null) {
+                result.add(snapshot.isDescendant(pair.getKey(), pair.getValue()));
+            } else {
+                NodeType ancestorNode = nodeMap.get(pair.getKey());
+                NodeType node = nodeMap.get(pair.getValue());
+                result.add(ancestorNode != null && node != null && !ancestorNode.getNodeId().equals(node.getNodeId())
+                        && isInSubTree(node, ancestorNode));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the cached snapshot of the tree containing the node without loading it, or null if the tree must be read from the database
+     */
+    protected IntervalTreeSnapshot<NodeIdType> snapshotIfPresent(NodeIdType nodeId) {
+        return null;
+    }
+
+    @Override
+    public NodeIdType getParent(NodeIdType nodeId) {
+        Preconditions.checkArgument(nodeId != null, "nodeId must not be null");
+
+        NodeType node = getNode(nodeId);
+        return node == null ? null : node.getParentNodeId();
+    }
+
+    /**
+     * lock the trees of the nodes before they are read for writing. The nodes are also locked in process by their own ids,
+     * so a node which doesn't belong to a tree yet is added by one writer at a time. The keys of the nodes and their trees
+     * are locked by one call in a fixed order, so writers of overlapping trees queue instead of deadlocking.
+     * If a node has moved to another tree before the locks are acquired, they are released and the new trees are locked
+     * from scratch. The root rows of the trees are locked at last in the order of the tree ids for the writers in other processes,
+     * a root row locked by an attempt which is retried stays locked until the transaction completes.
+     */
+    protected void lockTrees(Collection<NodeIdType> nodeIds) {
+        Set<Long> treeIds = findTreeIds(nodeIds);
+        while (true) {
+            List<String> keys = nodeIds.stream().map(nodeId -> getEntityName() + ":node:" + nodeId).collect(Collectors.toList());
+            keys.addAll(getTreeKeys(treeIds));
+            lockManager.lock(keys);
+            Set<Long> lockedTreeIds = treeIds;
+            treeIds = findTreeIds(nodeIds);
+            if (lockedTreeIds.containsAll(treeIds)) {
+                lockRootRows(lockedTreeIds);
+                // a writer in another process may have moved a node before the root rows are locked
+                treeIds = findTreeIds(nodeIds);
+                if (lockedTreeIds.containsAll(treeIds))
+                    return;
+            }
+            lockManager.unlock(keys);
+        }
+    }
+
+    /**
+     * lock the trees in process by one call, then lock their root rows in the database for the writers in other processes
+     */
+    private void lockTreeIds(Collection<Long> treeIds) {
+        lockManager.lock(getTreeKeys(treeIds));
+        lockRootRows(treeIds);
+    }
+
+    private List<String> getTreeKeys(Collection<Long> treeIds) {
+        return treeIds.stream().map(treeId -> getEntityName() + ":tree:" + treeId).collect(Collectors.toList());
+    }
+
+    /**
+     * lock the root rows in ascending order of the tree ids, so the writers in different processes lock them in the same order
+     */
+    private void lockRootRows(Collection<Long> treeIds) {
+        String hql = "from " + getEntityName() + " where treeId in (:treeIds) and treeType = :treeType and depth = 0 order by treeId";
+        for (List<Long> partition : Iterables.partition(new TreeSet<>(treeIds), IN_CLAUSE_SIZE)) {
+            TypedQuery<NodeType> query = entityManager.createQuery(hql, clazz);
+            query.setParameter("treeIds", partition);
+            query.setParameter("treeType", getTreeType());
+            query.setLockMode(LockModeType.PESSIMISTIC_WRITE);
+            query.getResultList().forEach(entityManager::detach);
+        }
+    }
+
+    private Set<Long> findTreeIds(Collection<NodeIdType> nodeIds) {
+        String hql = "select distinct treeId from " + getEntityName() + " where treeType = :treeType and nodeId in (:nodeIds)";
+        Set<Long> treeIds = new HashSet<>();
+        for (List<NodeIdType> partition : Iterables.partition(nodeIds, IN_CLAUSE_SIZE)) {
+            TypedQuery<Long> query = entityManager.createQuery(hql, Long.class);
+            query.setParameter("treeType", getTreeType());
+            query.setParameter("nodeIds", partition);
+            treeIds.addAll(query.getResultList());
+        }
+        return treeIds;
+    }
+
+    /**
+     * called after the trees are locked and before their nodes which don't belong to any tree anymore are deleted by the rebuild
+     */
+    protected void beforeDelete(Collection<Long> treeIds) {
+    }
+
+    private int deleteNodesNotIn(Set<NodeIdType> nodeIds) {
+        Query query = entityManager.createQuery("select id, nodeId, treeId from " + getEntityName() + " where treeType = :treeType");
+        query.setParameter("treeType", getTreeType());
+        List<Long> deletedIds = new ArrayList<>();
+        Set<Long> treeIds = new HashSet<>();
+        scroll(query, row -> {
+            if (!nodeIds.contains(row[1])) {
+                deletedIds.add((Long) row[0]);
+                treeIds.add((Long) row[2]);
+            }
+        });
+        lockTreeIds(treeIds);
+        beforeDelete(treeIds);
+        batchDeleteById(deletedIds);
+        return deletedIds.size();
+    }
+
+    private Map<NodeIdType, List<NodeIdType>> loadChildrenMap() {
+        Map<NodeIdType, List<NodeIdType>> childrenMap = new HashMap<>();
+        Map<NodeIdType, NodeIdType> parentMap = new HashMap<>();
+        scrollEdges((parentId, childId) -> {
+            NodeIdType otherParentId = parentMap.putIfAbsent(childId, parentId);
+            if (otherParentId != null) {
+                log.warn(String.format("skip edge %s -> %s, node %s already has parent %s", parentId, childId, childId, otherParentId));
+                return;
+            }
+            childrenMap.computeIfAbsent(parentId, key -> new ArrayList<>()).add(childId);
+        });
+        return childrenMap;
+    }
+
+    private List<NodeIdType> collectTree(NodeIdType rootId, Map<NodeIdType, List<NodeIdType>> childrenMap) {
+        List<NodeIdType> nodeIds = new ArrayList<>();
+        Deque<NodeIdType> stack = new ArrayDeque<>();
+        stack.push(rootId);
+        while (!stack.isEmpty()) {
+            NodeIdType nodeId = stack.pop();
+            nodeIds.add(nodeId);
+            childrenMap.getOrDefault(nodeId, Collections.emptyList()).forEach(stack::push);
+        }
+        return nodeIds;
+    }
+
+    private List<Long> findAllTreeIds() {
+        TypedQuery<Long> query = entityManager.createQuery("select distinct treeId from " + getEntityName() + " where treeType = :treeType", Long.class);
+        query.setParameter("treeType", getTreeType());
+        return query.getResultList();
+    }
+
+    private void checkNotExist(Collection<NodeIdType> nodeIds) {
+        String hql = "select nodeId from " + getEntityName() + " where treeType = :treeType and nodeId in (:nodeIds)";
+        for (List<NodeIdType> partition : Iterables.partition(nodeIds, IN_CLAUSE_SIZE)) {
+            Query query = entityManager.createQuery(hql);
+            query.setParameter("treeType", getTreeType());
+            query.setParameter("nodeIds", partition);
+            query.setMaxResults(1);
+            List<?> existingNodeIds = query.getResultList();
+            Preconditions.checkArgument(existingNodeIds.isEmpty(), "node %s already belongs to a tree", existingNodeIds.isEmpty() ? null : existingNodeIds.get(0));
+        }
+    }
+
+    protected Long nextTreeId() {
+        return treeIdSequence.next(getTreeType());
+    }
+
+    protected NodeType getNode(NodeIdType nodeId) {
+        Preconditions.checkArgument(nodeId != null, "nodeId must not be null");
+
+        QueryParams params = new QueryParams();
+        params.addPredicate(new Predicate("nodeId", Operator.EQ, nodeId));
+        params.addPredicate(new Predicate("treeType", Operator.EQ, getTreeType()));
+        List<NodeType> result = find(params);
+        return result.isEmpty() ? null : result.get(0);
+    }
+
+    protected List<NodeType> findNodesIn(String property, Collection<?> values) {
+        return findNodesIn(property, values, null);
+    }
+
+    /**
+     * @param orderBy the order of the nodes read by each query of 1000 values, or null
+     */
+    protected List<NodeType> findNodesIn(String property, Collection<?> values, OrderBy orderBy) {
+        List<NodeType> nodes = new ArrayList<>();
+        for (List<?> partition : Iterables.partition(values, IN_CLAUSE_SIZE)) {
+            QueryParams params = new QueryParams();
+            params.addPredicate(new Predicate(property, Operator.IN, partition));
+            params.addPredicate(new Predicate("treeType", Operator.EQ, getTreeType()));
+            if (orderBy != null) {
+                params.addOrderBy(orderBy);
+            }
+            nodes.addAll(find(params));
+        }
+        return nodes;
+    }
+
+    protected boolean isRoot(NodeType node) {
+        Preconditions.checkArgument(node != null, "node must not be null");
+
+        return node.getParentNodeId() == null;
+    }
+
+    protected boolean isLeaf(NodeType node) {
+        Preconditions.checkArgument(node != null, "node must not be null");
+
+        QueryParams params = new QueryParams();
+        params.addPredicate(new Predicate("parentNodeId", Operator.EQ, node.getNodeId()));
+        params.addPredicate(new Predicate("treeType", Operator.EQ, getTreeType()));
+        return findSize(params) == 0;
+    }
+
+    protected void deleteIfRootWithoutChild(NodeIdType nodeId) {
+        NodeType node = getNode(nodeId);
+        if (node != null && isRoot(node) && isLeaf(node)) {
+            deleteNode(node);
+        }
+    }
+
+    protected void deleteNode(NodeType node) {
+        super.delete(entityManager.getReference(clazz, node.getId()));
+        entityManager.flush();
+        entityManager.detach(node);
+    }
+
+    /**
+     * detach the nodes in the persistence context, a bulk update or a jdbc batch bypasses them
+     */
+    protected void detachNodes() {
+        SessionImplementor session = entityManager.unwrap(SessionImplementor.class);
+        for (Map.Entry<Object, EntityEntry> entry : session.getPersistenceContext().reentrantSafeEntityEntries()) {
+            if (clazz.isInstance(entry.getKey())) {
+                entityManager.detach(entry.getKey());
+            }
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package com.limado.collab.dao;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Table;
+import com.limado.collab.model.DagClosureEdge;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.persistence.Query;
+import javax.persistence.TypedQuery;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
+
+/**
+ * Closure table implementation of {@link DagEdgeDao}, which keeps one edge per connected pair of vertices with the number of paths between them.
+ *
+ * @author csieflyman
+ */
+abstract class DagClosureEdgeDaoImpl<DagClosureEdgeType extends DagClosureEdge<VertexID>, VertexID extends Serializable>
+        extends AbstractDagEdgeDaoImpl<DagClosureEdgeType, VertexID> {
+
+    private static final Logger log = LogManager.getLogger(DagClosureEdgeDaoImpl.class);
+
+    @Override
+    public void addEdges(VertexID startVertexId, VertexID endVertexId) {
+        Preconditions.checkArgument(startVertexId != null, "Argument [startVertexId] can not be null.");
+        Preconditions.checkArgument(endVertexId != null, "Argument [endVertexId] can not be null.");
+        addEdges(startVertexId, Collections.singleton(endVertexId));
+    }
+
+    /**
+     * The paths through the new edges contain only one of them, so their counts are added together
+     */
+    @Override
+    public void addEdges(VertexID startVertexId, Set<VertexID> endVertexIds) {
+        Preconditions.checkArgument(startVertexId != null, "Argument [startVertexId] can not be null.");
+        Preconditions.checkArgument(endVertexIds != null, "Argument [endVertexIds] can not be null.");
+        Preconditions.checkArgument(!endVertexIds.contains(null), "Argument [endVertexId] can not be null.");
+        if (endVertexIds.isEmpty())
+            return;
+        log.debug(String.format("add edges: from %s to %s ", startVertexId, endVertexIds));
+
+        for (List<VertexID> partition : Iterables.partition(endVertexIds, IN_CLAUSE_SIZE)) {
+            VertexID existEndVertexId = findFirstVertex("endVertexId", "startVertexId = :startVertexId and endVertexId in (:endVertexIds) and direct = true",
+                    startVertexId, partition);
+            if (existEndVertexId != null) {
+                throw new IllegalArgumentException(String.format("edge from %s to %s has been exist", startVertexId, existEndVertexId));
+            }
+            VertexID cycleEndVertexId = partition.contains(startVertexId) ? startVertexId :
+                    findFirstVertex("startVertexId", "endVertexId = :startVertexId and startVertexId in (:endVertexIds)", startVertexId, partition);
+            if (cycleEndVertexId != null) {
+                throw new IllegalArgumentException(String.format("add edge from %s to %s will cause cycle", startVertexId, cycleEndVertexId));
+            }
+        }
+        for (List<VertexID> partition : Iterables.partition(endVertexIds, IN_CLAUSE_SIZE)) {
+            updatePathCounts(startVertexId, partition, true);
+        }
+    }
+
+    /**
+     * the edges are added per start vertex, so the edges of a start vertex see the paths through the edges added before them
+     */
+    @Override
+    public void addEdges(Map<VertexID, Set<VertexID>> endVertexIdsMap) {
+        Preconditions.checkArgument(endVertexIdsMap != null, "Argument [endVertexIdsMap] can not be null.");
+        endVertexIdsMap.forEach(this::addEdges);
+    }
+
+    @Override
+    public void removeEdges(VertexID startVertexId, VertexID endVertexId) {
+        Preconditions.checkArgument(startVertexId != null, "Argument [startVertexId] can not be null.");
+        Preconditions.checkArgument(endVertexId != null, "Argument [endVertexId] can not be null.");
+        log.debug(String.format("remove edge: from %s to %s ", startVertexId, endVertexId));
+
+        Object[] edge = findEdge(startVertexId, endVertexId);
+        if (edge == null || !(Boolean) edge[1]) {
+            throw new IllegalArgumentException(String.format("edge from %s to %s does not exist", startVertexId, endVertexId));
+        }
+        updatePathCounts(startVertexId, Collections.singletonList(endVertexId), false);
+    }
+
+    @Override
+    public void removeEdgesOfVertex(VertexID vertexId) {
+        Preconditions.checkArgument(vertexId != null, "Argument [vertex] can not be null.");
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("select startVertexId, endVertexId from ").append(getEntityName())
+                .append(" where (startVertexId = :startVertexId or endVertexId = :endVertexId) ")
+                .append("and direct = true and dagId = :dagId");
+        TypedQuery<Object[]> query = entityManager.createQuery(sb.toString(), Object[].class);
+        query.setParameter("startVertexId", vertexId);
+        query.setParameter("endVertexId", vertexId);
+        query.setParameter("dagId", getDagId());
+        List<Object[]> directEdges = query.getResultList();
+        directEdges.forEach(row -> updatePathCounts(getVertexIdClass().cast(row[0]), Collections.singletonList(getVertexIdClass().cast(row[1])), false));
+    }
+
+    /**
+     * The closure doesn't keep the length of the paths, so the direct edges are walked breadth first by one query per hop
+     */
+    @Override
+    public Map<VertexID, Integer> findOutgoingVertexHops(VertexID vertexId, int maxHops) {
+        Preconditions.checkArgument(vertexId != null, "Argument [vertexId] can not be null.");
+        Preconditions.checkArgument(maxHops > 0, "Argument [maxHops] must be greater than 0.");
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("select distinct endVertexId from ").append(getEntityName())
+                .append(" where dagId = :dagId and startVertexId in (:vertexIds) and direct = true");
+        Map<VertexID, Integer> vertexHops = new HashMap<>();
+        Set<VertexID> frontier = Collections.singleton(vertexId);
+        for (int hops = 1; hops <= maxHops && !frontier.isEmpty(); hops++) {
+            Set<VertexID> nextFrontier = new HashSet<>();
+            for (List<VertexID> partition : Iterables.partition(frontier, IN_CLAUSE_SIZE)) {
+                TypedQuery<VertexID> query = entityManager.createQuery(sb.toString(), getVertexIdClass());
+                query.setParameter("dagId", getDagId());
+                query.setParameter("vertexIds", partition);
+                List<VertexID> endVertexIds = query.getResultList();
+                endVertexIds.stream().filter(endVertexId -> !vertexHops.containsKey(endVertexId)).forEach(nextFrontier::add);
+            }
+            for (VertexID endVertexId : nextFrontier) {
+                vertexHops.put(endVertexId, hops);
+            }
+            frontier = nextFrontier;
+        }
+        log.debug(String.format("outgoing vertices of %s within %d hops: %s", vertexId, maxHops, vertexHops));
+        return vertexHops;
+    }
+
+    /**
+     * The edges of a start vertex are the path counts to its outgoing vertices. The edges don't refer to each other,
+     * so each chunk of start vertices takes the next block of ids when its edges are written.
+     */
+    @Override
+    protected ToLongFunction<List<VertexID>> newShadowWriter(DagRebuilder<VertexID> rebuilder, long firstId) {
+        AtomicLong nextId = new AtomicLong(firstId);
+        return vertexIds -> {
+            List<DagClosureEdgeType> edges = new ArrayList<>();
+            for (VertexID vertexId : vertexIds) {
+                Set<VertexID> childIds = new HashSet<>(rebuilder.getChildren(vertexId));
+                rebuilder.countPaths(vertexId).forEach((endVertexId, pathCount) -> {
+                    DagClosureEdgeType edge = newDagClosureEdge(vertexId, endVertexId);
+                    edge.setPathCount(pathCount);
+                    edge.setDirect(childIds.contains(endVertexId));
+                    edges.add(edge);
+                });
+            }
+            long id = nextId.getAndAdd(edges.size());
+            for (DagClosureEdgeType edge : edges) {
+                edge.setId(id++);
+            }
+            for (List<DagClosureEdgeType> partition : Iterables.partition(edges, REBUILD_BATCH_SIZE)) {
+                jdbcBatchInsert(getShadowTableName(), partition, "id", "startVertexId", "endVertexId", "pathCount", "direct", "dagId");
+            }
+            return edges.size();
+        };
+    }
+
+    @Override
+    protected String[] getIdProperties() {
+        return new String[0];
+    }
+
+    /**
+     * @return the path count and the direct flag of the edge, or null if the end vertex is not reachable from the start vertex
+     */
+    private Object[] findEdge(VertexID startVertexId, VertexID endVertexId) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("select pathCount, direct from ").append(getEntityName())
+                .append(" where startVertexId = :startVertexId and endVertexId = :endVertexId and dagId = :dagId");
+        TypedQuery<Object[]> query = entityManager.createQuery(sb.toString(), Object[].class);
+        query.setParameter("startVertexId", startVertexId);
+        query.setParameter("endVertexId", endVertexId);
+        query.setParameter("dagId", getDagId());
+        List<Object[]> rows = query.setMaxResults(1).getResultList();
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+
+    private VertexID findFirstVertex(String selectProperty, String where, VertexID startVertexId, List<VertexID> endVertexIds) {
+        TypedQuery<VertexID> query = entityManager.createQuery("select " + selectProperty + " from " + getEntityName() + " where " + where + " and dagId = :dagId", getVertexIdClass());
+        query.setParameter("startVertexId", startVertexId);
+        query.setParameter("endVertexIds", endVertexIds);
+        query.setParameter("dagId", getDagId());
+        List<VertexID> vertexIds = query.setMaxResults(1).getResultList();
+        return vertexIds.isEmpty() ? null : vertexIds.get(0);
+    }
+
+    /**
+     * the number of paths from each incoming vertex to the vertex, the vertex itself counts as one path
+     */
+    private Map<VertexID, Long> countIncomingPaths(VertexID vertexId) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("select startVertexId, pathCount from ").append(getEntityName())
+                .append(" where endVertexId = :vertexId and dagId = :dagId");
+        Query query = entityManager.createQuery(sb.toString());
+        query.setParameter("vertexId", vertexId);
+        query.setParameter("dagId", getDagId());
+        Map<VertexID, Long> pathCounts = new HashMap<>();
+        scroll(query, row -> pathCounts.put(getVertexIdClass().cast(row[0]), (Long) row[1]));
+        pathCounts.put(vertexId, 1L);
+        return pathCounts;
+    }
+
+    /**
+     * the number of paths from the vertices to each outgoing vertex, each vertex itself counts as one path
+     */
+    private Map<VertexID, Long> countOutgoingPaths(List<VertexID> vertexIds) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("select endVertexId, pathCount from ").append(getEntityName())
+                .append(" where startVertexId in (:vertexIds) and dagId = :dagId");
+        Query query = entityManager.createQuery(sb.toString());
+        query.setParameter("vertexIds", vertexIds);
+        query.setParameter("dagId", getDagId());
+        Map<VertexID, Long> pathCounts = new HashMap<>();
+        scroll(query, row -> pathCounts.merge(getVertexIdClass().cast(row[0]), (Long) row[1], Math::addExact));
+        vertexIds.forEach(vertexId -> pathCounts.merge(vertexId, 1L, Math::addExact));
+        return pathCounts;
+    }
+
+    /**
+     * add or subtract the paths through the direct edges from the start vertex. Only the edges between the start vertex or
+     * its incoming vertices and the end vertices or their outgoing vertices are read, then they are written by batch statements.
+     */
+    private void updatePathCounts(VertexID startVertexId, List<VertexID> endVertexIds, boolean add) {
+        Map<VertexID, Long> incomingPathCounts = countIncomingPaths(startVertexId);
+        Map<VertexID, Long> outgoingPathCounts = countOutgoingPaths(endVertexIds);
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("select id, startVertexId, endVertexId, pathCount, direct from ").append(getEntityName())
+                .append(" where dagId = :dagId")
+                .append(" and (startVertexId = :startVertexId or startVertexId in (select incoming.startVertexId from ").append(getEntityName())
+                .append(" incoming where incoming.endVertexId = :startVertexId and incoming.dagId = :dagId))")
+                .append(" and (endVertexId in (:endVertexIds) or endVertexId in (select outgoing.endVertexId from ").append(getEntityName())
+                .append(" outgoing where outgoing.startVertexId in (:endVertexIds) and outgoing.dagId = :dagId))");
+        Query query = entityManager.createQuery(sb.toString());
+        query.setParameter("dagId", getDagId());
+        query.setParameter("startVertexId", startVertexId);
+        query.setParameter("endVertexIds", endVertexIds);
+        Table<VertexID, VertexID, DagClosureEdgeType> edges = HashBasedTable.create();
+        scroll(query, row -> {
+            DagClosureEdgeType edge = newDagClosureEdge(getVertexIdClass().cast(row[1]), getVertexIdClass().cast(row[2]));
+            edge.setId((Long) row[0]);
+            edge.setPathCount((Long) row[3]);
+            edge.setDirect((Boolean) row[4]);
+            edges.put(edge.getStartVertexId(), edge.getEndVertexId(), edge);
+        });
+
+        List<DagClosureEdgeType> insertEdges = new ArrayList<>();
+        List<DagClosureEdgeType> updateEdges = new ArrayList<>();
+        Set<Long> removeEdgeIds = new HashSet<>();
+        for (Map.Entry<VertexID, Long> incoming : incomingPathCounts.entrySet()) {
+            for (Map.Entry<VertexID, Long> outgoing : outgoingPathCounts.entrySet()) {
+                long pathCount = Math.multiplyExact(incoming.getValue(), outgoing.getValue());
+                DagClosureEdgeType edge = edges.get(incoming.getKey(), outgoing.getKey());
+                if (edge == null) {
+                    Preconditions.checkState(add, "edge from %s to %s does not exist in the closure", incoming.getKey(), outgoing.getKey());
+                    edge = newDagClosureEdge(incoming.getKey(), outgoing.getKey());
+                    edge.setPathCount(pathCount);
+                    insertEdges.add(edge);
+                } else {
+                    edge.setPathCount(add ? Math.addExact(edge.getPathCount(), pathCount) : Math.subtractExact(edge.getPathCount(), pathCount));
+                    Preconditions.checkState(edge.getPathCount() >= 0, "negative path count from %s to %s", incoming.getKey(), outgoing.getKey());
+                    if (edge.getPathCount() == 0) {
+                        removeEdgeIds.add(edge.getId());
+                    } else {
+                        updateEdges.add(edge);
+                    }
+                }
+                if (incoming.getKey().equals(startVertexId) && endVertexIds.contains(outgoing.getKey())) {
+                    edge.setDirect(add);
+                }
+            }
+        }
+        log.debug(String.format("insert %d, update %d, remove %d closure edges", insertEdges.size(), updateEdges.size(), removeEdgeIds.size()));
+        batchDeleteById(removeEdgeIds);
+        jdbcBatchUpdate(updateEdges, "pathCount", "direct");
+        jdbcBatchInsert(insertEdges, "startVertexId", "endVertexId", "pathCount", "direct", "dagId");
+    }
+
+    private DagClosureEdgeType newDagClosureEdge(VertexID startVertexId, VertexID endVertexId) {
+        DagClosureEdgeType edge = super.newInstance();
+        edge.setStartVertexId(startVertexId);
+        edge.setEndVertexId(endVertexId);
+        edge.setDagId(getDagId());
+        return edge;
+    }
+}
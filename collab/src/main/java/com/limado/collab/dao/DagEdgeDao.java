@@ -1,12 +1,24 @@
 package com.limado.collab.dao;
 
 import java.io.Serializable;
+import java.util.Collection;
+import java.util.Map;
 import java.util.Set;
 
 public interface DagEdgeDao<VertexID extends Serializable> {
 
     void addEdges(VertexID startVertexId, VertexID endVertexId);
 
+    /**
+     * add the edges from the start vertex to each end vertex, fails if one of them exists or causes a cycle
+     */
+    void addEdges(VertexID startVertexId, Set<VertexID> endVertexIds);
+
+    /**
+     * add the edges from each start vertex to its end vertices, fails if one of them exists or causes a cycle
+     */
+    void addEdges(Map<VertexID, Set<VertexID>> endVertexIdsMap);
+
     void removeEdges(VertexID startVertexId, VertexID endVertexId);
 
     void removeEdgesOfVertex(VertexID vertexId);
@@ -14,4 +26,31 @@ public interface DagEdgeDao<VertexID extends Serializable> {
     Set<VertexID> findIncomingVertices(VertexID vertexId);
 
     Set<VertexID> findOutgoingVertices(VertexID vertexId);
+
+    /**
+     * @return the incoming vertices of each vertex, the map contains every given vertex
+     */
+    Map<VertexID, Set<VertexID>> findIncomingVertices(Collection<VertexID> vertexIds);
+
+    /**
+     * @return the outgoing vertices of each vertex, the map contains every given vertex
+     */
+    Map<VertexID, Set<VertexID>> findOutgoingVertices(Collection<VertexID> vertexIds);
+
+    /**
+     * @param maxHops the maximum number of edges of the paths, 1 returns only the end vertices of the direct edges
+     */
+    Set<VertexID> findOutgoingVertices(VertexID vertexId, int maxHops);
+
+    /**
+     * @param maxHops the maximum number of edges of the paths, 1 returns only the end vertices of the direct edges
+     * @return the minimum number of edges of the paths to each outgoing vertex which is reachable within maxHops
+     */
+    Map<VertexID, Integer> findOutgoingVertexHops(VertexID vertexId, int maxHops);
+
+    /**
+     * rebuild all edges of the dag from the relationship it is derived from into a shadow table, then swap its rows in.
+     * The edges of the other dags are kept, the rebuild fails if the dag was changed during the rebuild.
+     */
+    DagRebuildReport rebuild();
 }
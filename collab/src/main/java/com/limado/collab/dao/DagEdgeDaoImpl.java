@@ -1,6 +1,7 @@
 package com.limado.collab.dao;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterables;
 import com.limado.collab.model.DagEdge;
 import com.limado.collab.util.query.Operator;
 import com.limado.collab.util.query.Predicate;
@@ -9,90 +10,87 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import javax.persistence.Query;
+import javax.persistence.TypedQuery;
 import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.function.ToLongFunction;
 import java.util.stream.Collectors;
 
-abstract class DagEdgeDaoImpl<DagEdgeType extends DagEdge<VertexID>, VertexID extends Serializable> extends JpaGenericDaoImpl<DagEdgeType, Long> implements DagEdgeDao<VertexID> {
+abstract class DagEdgeDaoImpl<DagEdgeType extends DagEdge<VertexID>, VertexID extends Serializable> extends AbstractDagEdgeDaoImpl<DagEdgeType, VertexID> {
 
     private static final Logger log = LogManager.getLogger(DagEdgeDaoImpl.class);
 
-    abstract protected String getDagId();
-
     @Override
     public void addEdges(VertexID startVertexId, VertexID endVertexId) {
         Preconditions.checkArgument(startVertexId != null, "Argument [startVertexId] can not be null.");
         Preconditions.checkArgument(endVertexId != null, "Argument [endVertexId] can not be null.");
-        log.debug(String.format("add edge: from %s to %s ", startVertexId, endVertexId));
-
-        QueryParams params = new QueryParams();
-        params.addPredicate(new Predicate("startVertexId", Operator.EQ, startVertexId));
-        params.addPredicate(new Predicate("endVertexId", Operator.EQ, endVertexId));
-        params.addPredicate(new Predicate("hops", Operator.EQ, 0));
-        int size = findSize(params);
-        if (size > 0) {
-            throw new IllegalArgumentException(String.format("edge from %s to %s has been exist", startVertexId, endVertexId));
-        }
+        addEdges(Collections.singletonMap(startVertexId, Collections.singleton(endVertexId)));
+    }
 
-        Set incomingVertices = findIncomingVertices(startVertexId);
-        boolean hasCycle = incomingVertices.contains(endVertexId);
-        if (hasCycle) {
-            throw new IllegalArgumentException(String.format("add edge from %s to %s will cause cycle", startVertexId, endVertexId));
-        }
+    @Override
+    public void addEdges(VertexID startVertexId, Set<VertexID> endVertexIds) {
+        Preconditions.checkArgument(startVertexId != null, "Argument [startVertexId] can not be null.");
+        Preconditions.checkArgument(endVertexIds != null, "Argument [endVertexIds] can not be null.");
+        addEdges(Collections.singletonMap(startVertexId, endVertexIds));
+    }
 
-        // insert direct edge
-        DagEdgeType edge = newDagEdge();
-        edge.setStartVertexId(startVertexId);
-        edge.setEndVertexId(endVertexId);
-        entityManager.persist(edge);
-        Long id = edge.getId();
-        log.debug("edge id : " + edge.getId());
-
-        edge.setEntryEdgeId(id);
-        edge.setDirectEdgeId(id);
-        edge.setExitEdgeId(id);
-        entityManager.merge(edge);
-
-        //step 1: A's incoming edges to B
-        StringBuilder insertSQL1 = new StringBuilder();
-        insertSQL1.append("insert into ").append(getEntityName()).append("(entryEdgeId, directEdgeId, exitEdgeId, startVertexId, endVertexId, hops, dagId) ")
-                .append("select id, ").append(id).append("L, ").append(id).append("L, startVertexId, ")
-                .append(":endVertexId, (hops + 1), :dagId ")
-                .append("from ").append(getEntityName()).append(" where endVertexId = :startVertexId");
-        log.debug(insertSQL1.toString());
-        Query query = entityManager.createQuery(insertSQL1.toString());
-        query.setParameter("startVertexId", startVertexId);
-        query.setParameter("endVertexId", endVertexId);
-        query.setParameter("dagId", edge.getDagId());
-        query.executeUpdate();
+    /**
+     * A path contains at most one of the new edges if no end vertex of them is or reaches a start vertex of them,
+     * then the implied edges of all new edges are inserted together. Otherwise the edges are inserted per start vertex,
+     * because the edges from the same vertex always satisfy this.
+     */
+    @Override
+    public void addEdges(Map<VertexID, Set<VertexID>> endVertexIdsMap) {
+        Preconditions.checkArgument(endVertexIdsMap != null, "Argument [endVertexIdsMap] can not be null.");
+        List<Map.Entry<VertexID, VertexID>> edges = new ArrayList<>();
+        endVertexIdsMap.forEach((startVertexId, endVertexIds) -> {
+            Preconditions.checkArgument(startVertexId != null, "Argument [startVertexId] can not be null.");
+            Preconditions.checkArgument(endVertexIds != null, "Argument [endVertexIds] can not be null.");
+            endVertexIds.forEach(endVertexId -> {
+                Preconditions.checkArgument(endVertexId != null, "Argument [endVertexId] can not be null.");
+                edges.add(new AbstractMap.SimpleImmutableEntry<>(startVertexId, endVertexId));
+            });
+        });
+        if (edges.isEmpty())
+            return;
+        log.debug(String.format("add edges: %s", edges));
 
-        //step 2: A to B's outgoing edges
-        StringBuilder insertSQL2 = new StringBuilder();
-        insertSQL2.append("insert into ").append(getEntityName()).append("(entryEdgeId, directEdgeId, exitEdgeId, startVertexId, endVertexId, hops, dagId) ")
-                .append("select ").append(id).append("L, ").append(id).append("L, id, :startVertexId, ")
-                .append("endVertexId, (hops + 1), :dagId ")
-                .append("from ").append(getEntityName()).append(" where startVertexId = :endVertexId");
-        log.debug(insertSQL2.toString());
-        query = entityManager.createQuery(insertSQL2.toString());
-        query.setParameter("startVertexId", startVertexId);
-        query.setParameter("endVertexId", endVertexId);
-        query.setParameter("dagId", edge.getDagId());
-        query.executeUpdate();
+        Set<VertexID> startVertexIds = endVertexIdsMap.keySet();
+        Set<VertexID> endVertexIds = edges.stream().map(Map.Entry::getValue).collect(Collectors.toSet());
+        Set<Map.Entry<VertexID, VertexID>> directEdges = findDirectEdges(startVertexIds, endVertexIds);
+        for (Map.Entry<VertexID, VertexID> edge : edges) {
+            if (directEdges.contains(edge)) {
+                throw new IllegalArgumentException(String.format("edge from %s to %s has been exist", edge.getKey(), edge.getValue()));
+            }
+            if (edge.getKey().equals(edge.getValue())) {
+                throw new IllegalArgumentException(String.format("add edge from %s to %s will cause cycle", edge.getKey(), edge.getValue()));
+            }
+        }
 
-        // step 3: A’s incoming edges to end vertex of B's outgoing edges
-        StringBuilder insertSQL3 = new StringBuilder();
-        insertSQL3.append("insert into ").append(getEntityName()).append("(entryEdgeId, directEdgeId, exitEdgeId, startVertexId, endVertexId, hops, dagId) ")
-                .append("select edgeA.id, ").append(id).append("L, edgeB.id, edgeA.startVertexId, edgeB.endVertexId, (edgeA.hops + edgeB.hops + 1), :dagId ")
-                .append("from ").append(getEntityName()).append(" edgeA, ").append(getEntityName()).append(" edgeB ")
-                .append("where edgeA.endVertexId = :startVertexId ")
-                .append("and edgeB.startVertexId = :endVertexId");
-        log.debug(insertSQL3.toString());
-        query = entityManager.createQuery(insertSQL3.toString());
-        query.setParameter("startVertexId", startVertexId);
-        query.setParameter("endVertexId", endVertexId);
-        query.setParameter("dagId", edge.getDagId());
-        query.executeUpdate();
+        // an edge causes a cycle only if its end vertex reaches its start vertex, so no path from an end vertex to a start vertex means no cycle
+        if (Collections.disjoint(startVertexIds, endVertexIds) && findAnyPath(endVertexIds, startVertexIds) == null) {
+            insertEdges(edges);
+        } else {
+            // the new edges may form a cycle together, so the edges of each start vertex check the edges inserted before them
+            Map<VertexID, List<Map.Entry<VertexID, VertexID>>> edgesMap = edges.stream().collect(Collectors.groupingBy(Map.Entry::getKey, LinkedHashMap::new, Collectors.toList()));
+            edgesMap.forEach((startVertexId, startEdges) -> {
+                Set<VertexID> startEndVertexIds = startEdges.stream().map(Map.Entry::getValue).collect(Collectors.toSet());
+                Map.Entry<VertexID, VertexID> path = findAnyPath(startEndVertexIds, Collections.singleton(startVertexId));
+                if (path != null) {
+                    throw new IllegalArgumentException(String.format("add edge from %s to %s will cause cycle", startVertexId, path.getKey()));
+                }
+                insertEdges(startEdges);
+            });
+        }
     }
 
     @Override
@@ -111,7 +109,7 @@ abstract class DagEdgeDaoImpl<DagEdgeType extends DagEdge<VertexID>, VertexID ex
             throw new IllegalArgumentException(String.format("edge from %s to %s does not exist", startVertexId, endVertexId));
         } else {
             DagEdgeType edge = edges.get(0);
-            removeEdges(edge.getId());
+            removeEdges(edge.getId(), startVertexId, endVertexId);
         }
     }
 
@@ -119,38 +117,88 @@ abstract class DagEdgeDaoImpl<DagEdgeType extends DagEdge<VertexID>, VertexID ex
     public void removeEdgesOfVertex(VertexID vertexId) {
         Preconditions.checkArgument(vertexId != null, "Argument [vertex] can not be null.");
 
+        // every path from or to the vertex depends on one of its direct edges
         StringBuilder sb = new StringBuilder();
-        sb.append("select id from ").append(getEntityName())
+        sb.append("select id, startVertexId, endVertexId from ").append(getEntityName())
                 .append(" where (startVertexId = :startVertexId or endVertexId = :endVertexId) ")
-                .append("and dagId = :dagId ");
-        Query query = entityManager.createQuery(sb.toString());
+                .append("and hops = 0 and dagId = :dagId order by id");
+        TypedQuery<Object[]> query = entityManager.createQuery(sb.toString(), Object[].class);
         query.setParameter("startVertexId", vertexId);
         query.setParameter("endVertexId", vertexId);
         query.setParameter("dagId", getDagId());
-        List<Long> edgeIds = query.getResultList();
-        edgeIds.forEach(edgeId -> removeEdges(edgeId));
+        List<Object[]> directEdges = query.getResultList();
+        directEdges.forEach(row -> removeEdges((Long) row[0], getVertexIdClass().cast(row[1]), getVertexIdClass().cast(row[2])));
     }
 
+    /**
+     * The hops of a row are the number of edges of its path minus one. The query reads only the (dag_id, start_vertex_id, hops, end_vertex_id) index.
+     */
     @Override
-    public Set<VertexID> findIncomingVertices(VertexID vertexId) {
-        QueryParams params = new QueryParams();
-        params.addPredicate(new Predicate("endVertexId", Operator.EQ, vertexId));
-        params.addPredicate(new Predicate("dagId", Operator.EQ, getDagId()));
-        List<DagEdgeType> edges = find(params);
-        Set<VertexID> incomingVertexIds = edges.stream().map(DagEdge::getStartVertexId).collect(Collectors.toSet());
-        log.debug(String.format("incoming vertices of %s: %s", vertexId, incomingVertexIds));
-        return incomingVertexIds;
+    public Map<VertexID, Integer> findOutgoingVertexHops(VertexID vertexId, int maxHops) {
+        Preconditions.checkArgument(vertexId != null, "Argument [vertexId] can not be null.");
+        Preconditions.checkArgument(maxHops > 0, "Argument [maxHops] must be greater than 0.");
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("select endVertexId, min(hops) from ").append(getEntityName())
+                .append(" where dagId = :dagId and startVertexId = :vertexId and hops < :maxHops group by endVertexId");
+        TypedQuery<Object[]> query = entityManager.createQuery(sb.toString(), Object[].class);
+        query.setParameter("dagId", getDagId());
+        query.setParameter("vertexId", vertexId);
+        query.setParameter("maxHops", maxHops);
+        List<Object[]> rows = query.getResultList();
+        Map<VertexID, Integer> vertexHops = new HashMap<>();
+        rows.forEach(row -> vertexHops.put(getVertexIdClass().cast(row[0]), (Integer) row[1] + 1));
+        log.debug(String.format("outgoing vertices of %s within %d hops: %s", vertexId, maxHops, vertexHops));
+        return vertexHops;
     }
 
+    /**
+     * Each path is its first edge followed by a path from the end vertex of that edge, or the first edge alone. So the
+     * direct and entry edge id of a row are the id of its first edge and the exit edge id is the id of the rest of the path.
+     * The rows of a start vertex get ids after the rows of its outgoing vertices, in the order of {@link DagRebuilder#forEachPath},
+     * so a row refers only to older rows and its id is greater than the ids of the direct edges on its path, like the rows
+     * inserted by {@link #addEdges(Map)}. The ids are computed in advance, so the start vertices are written in parallel.
+     */
     @Override
-    public Set<VertexID> findOutgoingVertices(VertexID vertexId) {
-        QueryParams params = new QueryParams();
-        params.addPredicate(new Predicate("startVertexId", Operator.EQ, vertexId));
-        params.addPredicate(new Predicate("dagId", Operator.EQ, getDagId()));
-        List<DagEdgeType> edges = find(params);
-        Set<VertexID> outgoingVertices = edges.stream().map(DagEdge::getEndVertexId).collect(Collectors.toSet());
-        log.debug(String.format("outgoing vertices of %s: %s", vertexId, outgoingVertices));
-        return outgoingVertices;
+    protected ToLongFunction<List<VertexID>> newShadowWriter(DagRebuilder<VertexID> rebuilder, long firstId) {
+        Map<VertexID, Long> firstIds = new HashMap<>();
+        long nextId = firstId;
+        for (VertexID vertexId : rebuilder.getStartVertexIds()) {
+            firstIds.put(vertexId, nextId);
+            nextId += rebuilder.getPathCount(vertexId);
+        }
+        return vertexIds -> {
+            vertexIds.forEach(vertexId -> insertPaths(vertexId, rebuilder, firstIds));
+            return vertexIds.stream().mapToLong(rebuilder::getPathCount).sum();
+        };
+    }
+
+    @Override
+    protected String[] getIdProperties() {
+        return new String[]{"entryEdgeId", "directEdgeId", "exitEdgeId"};
+    }
+
+    private void insertPaths(VertexID startVertexId, DagRebuilder<VertexID> rebuilder, Map<VertexID, Long> firstIds) {
+        List<DagEdgeType> edges = new ArrayList<>(REBUILD_BATCH_SIZE);
+        long id = firstIds.get(startVertexId);
+        for (VertexID childId : rebuilder.getChildren(startVertexId)) {
+            long directEdgeId = id;
+            edges.add(newDagEdge(directEdgeId, directEdgeId, directEdgeId, directEdgeId, startVertexId, childId, 0));
+            Long childFirstId = firstIds.get(childId);
+            rebuilder.forEachPath(childId, (index, endVertexId, hops) -> {
+                edges.add(newDagEdge(directEdgeId + 1 + index, directEdgeId, directEdgeId, childFirstId + index, startVertexId, endVertexId, hops + 1));
+                if (edges.size() == REBUILD_BATCH_SIZE) {
+                    insertShadowEdges(edges);
+                }
+            });
+            id += 1 + rebuilder.getPathCount(childId);
+        }
+        insertShadowEdges(edges);
+    }
+
+    private void insertShadowEdges(List<DagEdgeType> edges) {
+        jdbcBatchInsert(getShadowTableName(), edges, "id", "entryEdgeId", "directEdgeId", "exitEdgeId", "startVertexId", "endVertexId", "hops", "dagId");
+        edges.clear();
     }
 
     protected DagEdgeType newDagEdge() {
@@ -159,33 +207,146 @@ abstract class DagEdgeDaoImpl<DagEdgeType extends DagEdge<VertexID>, VertexID ex
         return edge;
     }
 
-    private void removeEdges(Long edgeId) {
-        log.debug("remove edge : " + edgeId);
-        //step 1: rows that were originally inserted with the first AddEdge call for this direct edge
-        Query query = entityManager.createQuery("from " + getEntityName() + " where directEdgeId = :id");
-        query.setParameter("id", edgeId);
-        List<DagEdgeType> directEdges = query.getResultList();
+    private DagEdgeType newDagEdge(Long id, Long entryEdgeId, Long directEdgeId, Long exitEdgeId, VertexID startVertexId, VertexID endVertexId, int hops) {
+        DagEdgeType edge = newDagEdge();
+        edge.setId(id);
+        edge.setEntryEdgeId(entryEdgeId);
+        edge.setDirectEdgeId(directEdgeId);
+        edge.setExitEdgeId(exitEdgeId);
+        edge.setStartVertexId(startVertexId);
+        edge.setEndVertexId(endVertexId);
+        edge.setHops(hops);
+        return edge;
+    }
 
-        Set<Long> removeEdgeIds = directEdges.stream().map(DagEdge::getId).collect(Collectors.toSet());
-        removeEdgeIds.add(edgeId);
-        log.debug("removeEdgeIds = " + removeEdgeIds);
+    /**
+     * @return the start and end vertices of the direct edges from the start vertices to the end vertices
+     */
+    private Set<Map.Entry<VertexID, VertexID>> findDirectEdges(Collection<VertexID> startVertexIds, Collection<VertexID> endVertexIds) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("select startVertexId, endVertexId from ").append(getEntityName())
+                .append(" where startVertexId in (:startVertexIds) and endVertexId in (:endVertexIds) and hops = 0 and dagId = :dagId");
+        Set<Map.Entry<VertexID, VertexID>> edges = new HashSet<>();
+        for (List<VertexID> startPartition : Iterables.partition(startVertexIds, IN_CLAUSE_SIZE)) {
+            for (List<VertexID> endPartition : Iterables.partition(endVertexIds, IN_CLAUSE_SIZE)) {
+                TypedQuery<Object[]> query = entityManager.createQuery(sb.toString(), Object[].class);
+                query.setParameter("startVertexIds", startPartition);
+                query.setParameter("endVertexIds", endPartition);
+                query.setParameter("dagId", getDagId());
+                List<Object[]> rows = query.getResultList();
+                rows.forEach(row -> edges.add(new AbstractMap.SimpleImmutableEntry<>(getVertexIdClass().cast(row[0]), getVertexIdClass().cast(row[1]))));
+            }
+        }
+        return edges;
+    }
 
-        //step 2: scan and find all dependent rows that are inserted afterwards
+    /**
+     * an existence query which reads at most one row instead of all paths
+     *
+     * @return the start and end vertex of any path from one of the start vertices to one of the end vertices, or null if there is none
+     */
+    private Map.Entry<VertexID, VertexID> findAnyPath(Collection<VertexID> startVertexIds, Collection<VertexID> endVertexIds) {
         StringBuilder sb = new StringBuilder();
-        sb.append("select id from ").append(getEntityName()).append(" where hops > 0 ")
-                .append("and (entryEdgeId in :ids or exitEdgeId in :ids) ")
-                .append("and id not in :ids");
-        while (true) {
-            query = entityManager.createQuery(sb.toString());
-            query.setParameter("ids", removeEdgeIds);
-            List<Long> ids = query.getResultList();
-            log.debug(ids);
-            if (ids.isEmpty()) {
-                break;
+        sb.append("select startVertexId, endVertexId from ").append(getEntityName())
+                .append(" where startVertexId in (:startVertexIds) and endVertexId in (:endVertexIds) and dagId = :dagId");
+        for (List<VertexID> startPartition : Iterables.partition(startVertexIds, IN_CLAUSE_SIZE)) {
+            for (List<VertexID> endPartition : Iterables.partition(endVertexIds, IN_CLAUSE_SIZE)) {
+                TypedQuery<Object[]> query = entityManager.createQuery(sb.toString(), Object[].class);
+                query.setParameter("startVertexIds", startPartition);
+                query.setParameter("endVertexIds", endPartition);
+                query.setParameter("dagId", getDagId());
+                List<Object[]> rows = query.setMaxResults(1).getResultList();
+                if (!rows.isEmpty()) {
+                    return new AbstractMap.SimpleImmutableEntry<>(getVertexIdClass().cast(rows.get(0)[0]), getVertexIdClass().cast(rows.get(0)[1]));
+                }
             }
-            removeEdgeIds.addAll(ids);
         }
+        return null;
+    }
+
+    /**
+     * insert the direct edges and their implied edges by set based statements, a path must not contain more than one of the edges.
+     * The direct edges are inserted by jdbc batch statements, then they are the only edges without direct edge id.
+     */
+    private void insertEdges(List<Map.Entry<VertexID, VertexID>> edges) {
+        for (List<Map.Entry<VertexID, VertexID>> partition : Iterables.partition(edges, IN_CLAUSE_SIZE)) {
+            List<DagEdgeType> directEdges = partition.stream().map(entry -> {
+                DagEdgeType edge = newDagEdge();
+                edge.setStartVertexId(entry.getKey());
+                edge.setEndVertexId(entry.getValue());
+                return edge;
+            }).collect(Collectors.toList());
+            jdbcBatchInsert(directEdges, "startVertexId", "endVertexId", "hops", "dagId");
+
+            TypedQuery<Long> idQuery = entityManager.createQuery("select id from " + getEntityName() + " where directEdgeId is null and hops = 0 and dagId = :dagId", Long.class);
+            idQuery.setParameter("dagId", getDagId());
+            List<Long> ids = idQuery.getResultList();
+            log.debug("edge ids : " + ids);
+            Query query = entityManager.createQuery("update " + getEntityName() + " set entryEdgeId = id, directEdgeId = id, exitEdgeId = id where id in (:ids)");
+            query.setParameter("ids", ids);
+            query.executeUpdate();
+
+            //step 1: A's incoming edges to B
+            StringBuilder insertSQL1 = new StringBuilder();
+            insertSQL1.append("insert into ").append(getEntityName()).append("(entryEdgeId, directEdgeId, exitEdgeId, startVertexId, endVertexId, hops, dagId) ")
+                    .append("select incoming.id, edge.id, edge.id, incoming.startVertexId, edge.endVertexId, (incoming.hops + 1), edge.dagId ")
+                    .append("from ").append(getEntityName()).append(" edge, ").append(getEntityName()).append(" incoming ")
+                    .append("where edge.id in (:ids) and incoming.endVertexId = edge.startVertexId and incoming.dagId = edge.dagId");
+            executeInsert(insertSQL1.toString(), ids);
+
+            //step 2: A to B's outgoing edges
+            StringBuilder insertSQL2 = new StringBuilder();
+            insertSQL2.append("insert into ").append(getEntityName()).append("(entryEdgeId, directEdgeId, exitEdgeId, startVertexId, endVertexId, hops, dagId) ")
+                    .append("select edge.id, edge.id, outgoing.id, edge.startVertexId, outgoing.endVertexId, (outgoing.hops + 1), edge.dagId ")
+                    .append("from ").append(getEntityName()).append(" edge, ").append(getEntityName()).append(" outgoing ")
+                    .append("where edge.id in (:ids) and outgoing.startVertexId = edge.endVertexId and outgoing.dagId = edge.dagId");
+            executeInsert(insertSQL2.toString(), ids);
+
+            // step 3: A’s incoming edges to end vertex of B's outgoing edges
+            StringBuilder insertSQL3 = new StringBuilder();
+            insertSQL3.append("insert into ").append(getEntityName()).append("(entryEdgeId, directEdgeId, exitEdgeId, startVertexId, endVertexId, hops, dagId) ")
+                    .append("select incoming.id, edge.id, outgoing.id, incoming.startVertexId, outgoing.endVertexId, (incoming.hops + outgoing.hops + 1), edge.dagId ")
+                    .append("from ").append(getEntityName()).append(" edge, ").append(getEntityName()).append(" incoming, ").append(getEntityName()).append(" outgoing ")
+                    .append("where edge.id in (:ids) and incoming.endVertexId = edge.startVertexId and incoming.dagId = edge.dagId ")
+                    .append("and outgoing.startVertexId = edge.endVertexId and outgoing.dagId = edge.dagId");
+            executeInsert(insertSQL3.toString(), ids);
+        }
+    }
+
+    private void executeInsert(String hql, List<Long> ids) {
+        log.debug(hql);
+        Query query = entityManager.createQuery(hql);
+        query.setParameter("ids", ids);
+        query.executeUpdate();
+    }
+
+    /**
+     * Each row which depends on the direct edge is a path from the start vertex or one of its incoming vertices to the
+     * end vertex or one of its outgoing vertices, and it was inserted after the direct edge. Only these rows are read.
+     * A row refers to older rows by its entry and exit edge, so one pass in ascending id order finds all dependent rows.
+     */
+    private void removeEdges(Long edgeId, VertexID startVertexId, VertexID endVertexId) {
+        log.debug("remove edge : " + edgeId);
+        StringBuilder sb = new StringBuilder();
+        sb.append("select id, entryEdgeId, exitEdgeId, directEdgeId from ").append(getEntityName())
+                .append(" where dagId = :dagId and id >= :id")
+                .append(" and (startVertexId = :startVertexId or startVertexId in (select incoming.startVertexId from ").append(getEntityName())
+                .append(" incoming where incoming.endVertexId = :startVertexId and incoming.dagId = :dagId))")
+                .append(" and (endVertexId = :endVertexId or endVertexId in (select outgoing.endVertexId from ").append(getEntityName())
+                .append(" outgoing where outgoing.startVertexId = :endVertexId and outgoing.dagId = :dagId))")
+                .append(" order by id");
+        Query query = entityManager.createQuery(sb.toString());
+        query.setParameter("dagId", getDagId());
+        query.setParameter("id", edgeId);
+        query.setParameter("startVertexId", startVertexId);
+        query.setParameter("endVertexId", endVertexId);
+        Set<Long> removeEdgeIds = new HashSet<>();
+        scroll(query, row -> {
+            if (edgeId.equals(row[3]) || removeEdgeIds.contains(row[1]) || removeEdgeIds.contains(row[2])) {
+                removeEdgeIds.add((Long) row[0]);
+            }
+        });
         log.debug("removeEdgeIds = " + removeEdgeIds);
         batchDeleteById(removeEdgeIds);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,55 @@
+package com.limado.collab.dao;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * result of rebuilding the edges of one dag
+ *
+ * @author csieflyman
+ */
+public class DagRebuildReport {
+
+    private final String dagId;
+
+    private final int vertexCount;
+
+    private final int edgeCount;
+
+    private final long insertedRows;
+
+    private final long elapsedMillis;
+
+    public DagRebuildReport(String dagId, int vertexCount, int edgeCount, long insertedRows, long elapsedMillis) {
+        this.dagId = dagId;
+        this.vertexCount = vertexCount;
+        this.edgeCount = edgeCount;
+        this.insertedRows = insertedRows;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    public String getDagId() {
+        return dagId;
+    }
+
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    public int getEdgeCount() {
+        return edgeCount;
+    }
+
+    public long getInsertedRows() {
+        return insertedRows;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this).append("dagId", dagId).append("vertexCount", vertexCount).append("edgeCount", edgeCount)
+                .append("insertedRows", insertedRows).append("elapsedMillis", elapsedMillis).toString();
+    }
+}
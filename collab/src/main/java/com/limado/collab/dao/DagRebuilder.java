@@ -0,0 +1,219 @@
+package com.limado.collab.dao;
+
+import com.google.common.base.Preconditions;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+/**
+ * The adjacency of a dag in memory for a full rebuild of its edges by an {@link DagEdgeDao}.
+ * The vertices are ordered children before parents, so the rows of a vertex can be numbered after the rows of its children.
+ * The paths from a vertex are enumerated in depth first order, the paths from a vertex through its child come right after
+ * the edge to the child in the same order as the paths from the child.
+ * <p>
+ * The rows of the start vertices are computed in parallel on a ForkJoinPool, one transaction per chunk of start vertices.
+ * Within a transaction of the caller they are computed one by one in that transaction instead, like {@link IntervalTreeVerifier}.
+ *
+ * @author csieflyman
+ */
+final class DagRebuilder<VertexID> {
+
+    /**
+     * the start vertices of a chunk have about this number of paths
+     */
+    static final long CHUNK_PATHS = 10000;
+
+    private final Map<VertexID, List<VertexID>> childrenMap;
+
+    private final List<VertexID> startVertexIds = new ArrayList<>();
+
+    private final Map<VertexID, Integer> orderIndexes = new HashMap<>();
+
+    private final Map<VertexID, Long> pathCounts = new HashMap<>();
+
+    private long totalPathCount;
+
+    /**
+     * @param childrenMap the edges, the key is a start vertex and the value is its end vertices
+     */
+    DagRebuilder(Map<VertexID, List<VertexID>> childrenMap) {
+        this.childrenMap = childrenMap;
+        childrenMap.keySet().forEach(this::order);
+        for (VertexID vertexId : startVertexIds) {
+            long pathCount = 0;
+            for (VertexID childId : childrenMap.get(vertexId)) {
+                pathCount = Math.addExact(pathCount, Math.addExact(1, getPathCount(childId)));
+            }
+            pathCounts.put(vertexId, pathCount);
+            totalPathCount = Math.addExact(totalPathCount, pathCount);
+        }
+    }
+
+    /**
+     * iterative depth first search, the vertices are added to the order after their children
+     */
+    private void order(VertexID rootId) {
+        if (orderIndexes.containsKey(rootId))
+            return;
+        Set<VertexID> visiting = new HashSet<>();
+        Deque<Iterator<VertexID>> stack = new ArrayDeque<>();
+        Deque<VertexID> vertexStack = new ArrayDeque<>();
+        visiting.add(rootId);
+        vertexStack.push(rootId);
+        stack.push(getChildren(rootId).iterator());
+        while (!stack.isEmpty()) {
+            Iterator<VertexID> children = stack.peek();
+            if (children.hasNext()) {
+                VertexID childId = children.next();
+                Preconditions.checkState(!visiting.contains(childId), "edge from %s to %s causes cycle", vertexStack.peek(), childId);
+                if (!orderIndexes.containsKey(childId)) {
+                    visiting.add(childId);
+                    vertexStack.push(childId);
+                    stack.push(getChildren(childId).iterator());
+                }
+            } else {
+                stack.pop();
+                VertexID vertexId = vertexStack.pop();
+                visiting.remove(vertexId);
+                orderIndexes.put(vertexId, orderIndexes.size());
+                if (childrenMap.containsKey(vertexId)) {
+                    startVertexIds.add(vertexId);
+                }
+            }
+        }
+    }
+
+    int getVertexCount() {
+        return orderIndexes.size();
+    }
+
+    int getEdgeCount() {
+        return childrenMap.values().stream().mapToInt(List::size).sum();
+    }
+
+    long getTotalPathCount() {
+        return totalPathCount;
+    }
+
+    /**
+     * @return the vertices with outgoing edges, children before parents
+     */
+    List<VertexID> getStartVertexIds() {
+        return startVertexIds;
+    }
+
+    List<VertexID> getChildren(VertexID vertexId) {
+        return childrenMap.getOrDefault(vertexId, Collections.emptyList());
+    }
+
+    long getPathCount(VertexID vertexId) {
+        return pathCounts.getOrDefault(vertexId, 0L);
+    }
+
+    /**
+     * @return true if the edges are the edges this dag was built from, in any order
+     */
+    boolean hasEdges(Map<VertexID, List<VertexID>> otherChildrenMap) {
+        return toEdgeSets(childrenMap).equals(toEdgeSets(otherChildrenMap));
+    }
+
+    private static <VertexID> Map<VertexID, Set<VertexID>> toEdgeSets(Map<VertexID, List<VertexID>> childrenMap) {
+        Map<VertexID, Set<VertexID>> edgeSets = new HashMap<>();
+        childrenMap.forEach((vertexId, childIds) -> edgeSets.put(vertexId, new HashSet<>(childIds)));
+        return edgeSets;
+    }
+
+    /**
+     * @param pathConsumer accepts the index of the path in the order of the paths from the start vertex, its end vertex and its hops, which are the number of edges minus one
+     */
+    void forEachPath(VertexID startVertexId, PathConsumer<VertexID> pathConsumer) {
+        forEachPath(startVertexId, 0, 0, pathConsumer);
+    }
+
+    private long forEachPath(VertexID vertexId, long index, int hops, PathConsumer<VertexID> pathConsumer) {
+        for (VertexID childId : getChildren(vertexId)) {
+            pathConsumer.accept(index++, childId, hops);
+            index = forEachPath(childId, index, hops + 1, pathConsumer);
+        }
+        return index;
+    }
+
+    /**
+     * The number of paths to a vertex is the sum of the paths to its parents, which are counted before it in the reverse order of the vertices.
+     *
+     * @return the number of paths from the start vertex to each of its outgoing vertices
+     */
+    Map<VertexID, Long> countPaths(VertexID startVertexId) {
+        List<VertexID> reachableIds = new ArrayList<>();
+        Set<VertexID> visited = new HashSet<>();
+        Deque<VertexID> stack = new ArrayDeque<>();
+        stack.push(startVertexId);
+        while (!stack.isEmpty()) {
+            for (VertexID childId : getChildren(stack.pop())) {
+                if (visited.add(childId)) {
+                    reachableIds.add(childId);
+                    stack.push(childId);
+                }
+            }
+        }
+        reachableIds.sort(Comparator.comparing(orderIndexes::get).reversed());
+
+        Map<VertexID, Long> pathCounts = new HashMap<>();
+        getChildren(startVertexId).forEach(childId -> pathCounts.put(childId, 1L));
+        for (VertexID vertexId : reachableIds) {
+            long pathCount = pathCounts.get(vertexId);
+            getChildren(vertexId).forEach(childId -> pathCounts.merge(childId, pathCount, Math::addExact));
+        }
+        return pathCounts;
+    }
+
+    /**
+     * @param chunkWriter writes the rows of a chunk of start vertices
+     */
+    void forEachChunk(int parallelism, Consumer<List<VertexID>> chunkWriter) {
+        Preconditions.checkArgument(parallelism >= 1, "parallelism must be greater than 0");
+
+        List<List<VertexID>> chunks = new ArrayList<>();
+        List<VertexID> chunk = new ArrayList<>();
+        long chunkPaths = 0;
+        for (VertexID vertexId : startVertexIds) {
+            chunk.add(vertexId);
+            chunkPaths += getPathCount(vertexId);
+            if (chunkPaths >= CHUNK_PATHS) {
+                chunks.add(chunk);
+                chunk = new ArrayList<>();
+                chunkPaths = 0;
+            }
+        }
+        if (!chunk.isEmpty()) {
+            chunks.add(chunk);
+        }
+
+        if (parallelism == 1 || TransactionSynchronizationManager.isActualTransactionActive()) {
+            chunks.forEach(chunkWriter);
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                pool.submit(() -> chunks.parallelStream().forEach(chunkWriter)).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("rebuild is interrupted", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException)
+                    throw (RuntimeException) e.getCause();
+                throw new IllegalStateException(e.getCause());
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    @FunctionalInterface
+    interface PathConsumer<VertexID> {
+
+        void accept(long index, VertexID endVertexId, int hops);
+    }
+}
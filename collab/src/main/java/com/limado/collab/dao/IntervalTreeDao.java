@@ -1,7 +1,10 @@
 package com.limado.collab.dao;
 
 import java.io.Serializable;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * @author csieflyman
@@ -10,11 +13,105 @@ public interface IntervalTreeDao<NodeIdType extends Serializable> {
 
     void addChild(NodeIdType parentNodeId, NodeIdType childNodeId);
 
+    /**
+     * add the children in order, the nodes of all children are locked at once
+     */
+    void addChildren(NodeIdType parentNodeId, Collection<NodeIdType> childNodeIds);
+
     void removeChild(NodeIdType parentNodeId, NodeIdType childNodeId);
 
+    /**
+     * batch form of {@link #removeChild(Serializable, Serializable)}, the nodes of all children are locked at once
+     */
+    void removeChildren(NodeIdType parentNodeId, Collection<NodeIdType> childNodeIds);
+
     void move(NodeIdType newParentNodeId, NodeIdType childNodeId);
 
+    /**
+     * move many nodes at once, the key of newParentMap is a child node and the value is its new parent.
+     * A moved node becomes the last child of its new parent.
+     */
+    void moveAll(Map<NodeIdType, NodeIdType> newParentMap);
+
+    /**
+     * delete the node, each child of it becomes the root of a new tree
+     */
     void delete(NodeIdType nodeId);
 
+    /**
+     * delete the node together with all its descendants
+     */
+    void deleteSubTree(NodeIdType nodeId);
+
+    /**
+     * build whole trees at once. The key of childrenMap is a parent node, the value is its children in order.
+     * The nodes must not belong to any tree yet.
+     */
+    void bulkLoad(Map<NodeIdType, List<NodeIdType>> childrenMap);
+
+    /**
+     * renumber all trees from the relationship they are derived from, tree by tree
+     */
+    List<IntervalTreeRebuildReport> rebuild();
+
+    /**
+     * check every tree for a broken encoding and compare it with the relationship it is derived from.
+     * A tree written during the verification may be reported, verify again before rebuilding it.
+     *
+     * @return reports of the corrupted trees, empty if all trees are well-formed
+     */
+    List<IntervalTreeVerifyReport> verify();
+
     List<NodeIdType> getSubTree(NodeIdType nodeId);
+
+    /**
+     * @return descendants of the node down to maxDepth levels below it, e.g. maxDepth 1 returns the children
+     */
+    List<NodeIdType> getSubTree(NodeIdType nodeId, int maxDepth);
+
+    /**
+     * @return one page of the descendants down to maxDepth levels below the node in depth first order.
+     * Integer.MAX_VALUE as maxDepth doesn't limit the depth.
+     */
+    List<NodeIdType> getSubTree(NodeIdType nodeId, int maxDepth, int offset, int limit);
+
+    /**
+     * cursor form of the paging, the page starts behind afterNodeId which is the last node of the previous page.
+     * A null afterNodeId returns the first page.
+     */
+    List<NodeIdType> getSubTree(NodeIdType nodeId, int maxDepth, NodeIdType afterNodeId, int limit);
+
+    /**
+     * @return the number of descendants of the node without loading them, 0 if the node doesn't belong to any tree
+     */
+    int getSubTreeSize(NodeIdType nodeId);
+
+    /**
+     * batch form of {@link #getSubTreeSize(Serializable)}, the result contains every node of nodeIds
+     */
+    Map<NodeIdType, Integer> getSubTreeSizes(Set<NodeIdType> nodeIds);
+
+    /**
+     * @return ancestors of the node from the root to its parent
+     */
+    List<NodeIdType> getAncestors(NodeIdType nodeId);
+
+    boolean isDescendant(NodeIdType ancestorNodeId, NodeIdType nodeId);
+
+    /**
+     * batch form of {@link #isDescendant(Serializable, Serializable)}, the key of each pair is the ancestor node.
+     *
+     * @return the answers in the iteration order of the pairs
+     */
+    List<Boolean> areDescendants(Collection<Map.Entry<NodeIdType, NodeIdType>> pairs);
+
+    /**
+     * @return the deepest node which is the node itself or an ancestor of it for both nodes,
+     * null if the nodes don't belong to the same tree
+     */
+    NodeIdType getLowestCommonAncestor(NodeIdType nodeId, NodeIdType otherNodeId);
+
+    List<NodeIdType> getChildren(NodeIdType nodeId);
+
+    NodeIdType getParent(NodeIdType nodeId);
 }
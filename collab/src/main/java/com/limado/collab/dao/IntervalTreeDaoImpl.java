@@ -8,215 +8,842 @@ import com.limado.collab.util.query.Predicate;
 import com.limado.collab.util.query.QueryParams;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
 
 import javax.persistence.Query;
+import javax.persistence.TypedQuery;
 import java.io.Serializable;
 import java.util.*;
 import java.util.stream.Collectors;
 
 /**
+ * Nested set implementation of {@link IntervalTreeDao}, the low/high values of a node may be spaced out by a gap
+ * and the reads may be served by a snapshot cache.
+ *
  * @author csieflyman
  */
 abstract class IntervalTreeDaoImpl<NodeType extends IntervalTreeNode<NodeIdType>, NodeIdType extends Serializable>
-        extends JpaGenericDaoImpl<NodeType, Long> implements IntervalTreeDao<NodeIdType> {
+        extends AbstractTreeDaoImpl<NodeType, NodeIdType> {
 
     private static final Logger log = LogManager.getLogger(IntervalTreeDaoImpl.class);
 
-    abstract protected String getTreeType();
+    public static final int DEFAULT_GAP = 1;
+
+    public static final long DEFAULT_SNAPSHOT_MAX_NODES = 0;
+
+    private int gap = DEFAULT_GAP;
+
+    private IntervalTreeSnapshotCache<NodeIdType> snapshotCache;
+
+    public int getGap() {
+        return gap;
+    }
+
+    /**
+     * the space left between the low/high values of the nodes, 1 keeps them dense.
+     * A tree written with a larger gap must be compacted before the gap is set back to 1.
+     */
+    @Value("${interval_tree_gap:" + DEFAULT_GAP + "}")
+    public void setGap(int gap) {
+        Preconditions.checkArgument(gap >= 1, "gap must be greater than 0");
+        this.gap = gap;
+    }
+
+    /**
+     * the total number of nodes of the cached tree snapshots, 0 (the default) disables the cache.
+     * Enable it only on a single node, the other instances' writes don't invalidate the cached snapshots.
+     */
+    @Value("${interval_tree_snapshot_max_nodes:" + DEFAULT_SNAPSHOT_MAX_NODES + "}")
+    public void setSnapshotMaxNodes(long snapshotMaxNodes) {
+        Preconditions.checkArgument(snapshotMaxNodes >= 0, "snapshotMaxNodes must not be negative");
+        this.snapshotCache = snapshotMaxNodes > 0 ? new IntervalTreeSnapshotCache<>(snapshotMaxNodes) : null;
+    }
 
     @Override
-    public void addChild(NodeIdType parentNodeId, NodeIdType childNodeId) {
-        Preconditions.checkArgument(parentNodeId != null, "parentNodeId must not be null");
-        Preconditions.checkArgument(childNodeId != null, "childNodeId must not be null");
+    protected void removeFromParent(NodeType childNode) {
+        removeChild(getNode(childNode.getParentNodeId()), childNode, true);
+    }
 
-        NodeType parentNode = getNode(parentNodeId);
-        if (parentNode == null) {
-            parentNode = create(newNode(parentNodeId));
+    /**
+     * All trees touched by the moves are loaded once, the moves are applied to their parent-child structure in memory
+     * and each resulting tree is numbered once. Only the rows whose numbering changed are written by jdbc batches.
+     */
+    @Override
+    protected void applyMoves(Map<NodeIdType, NodeIdType> newParentMap, Set<NodeIdType> movedNodeIds) {
+        Set<Long> treeIds = findNodesIn("nodeId", movedNodeIds).stream().map(NodeType::getTreeId).collect(Collectors.toSet());
+        Map<NodeIdType, NodeType> existingNodes = new LinkedHashMap<>();
+        findNodesIn("treeId", treeIds).forEach(node -> existingNodes.put(node.getNodeId(), node));
+        detachNodes();
+        treeIds.forEach(this::invalidateSnapshot);
+
+        Map<NodeIdType, NodeIdType> parentMap = new HashMap<>();
+        Map<NodeIdType, List<NodeIdType>> childrenMap = new HashMap<>();
+        for (NodeType node : existingNodes.values()) {
+            if (node.getParentNodeId() != null) {
+                parentMap.put(node.getNodeId(), node.getParentNodeId());
+                childrenMap.computeIfAbsent(node.getParentNodeId(), key -> new ArrayList<>()).add(node.getNodeId());
+            }
         }
-        NodeType childNode = getNode(childNodeId);
-        if (childNode == null) {
-            childNode = create(newNode(childNodeId));
+        for (Map.Entry<NodeIdType, NodeIdType> entry : newParentMap.entrySet()) {
+            NodeIdType oldParentId = parentMap.put(entry.getKey(), entry.getValue());
+            if (entry.getValue().equals(oldParentId))
+                continue;
+            if (oldParentId != null) {
+                childrenMap.get(oldParentId).remove(entry.getKey());
+            }
+            childrenMap.computeIfAbsent(entry.getValue(), key -> new ArrayList<>()).add(entry.getKey());
         }
-        addChild(parentNode, childNode);
+
+        Set<NodeIdType> nodeIds = new LinkedHashSet<>(existingNodes.keySet());
+        nodeIds.addAll(movedNodeIds);
+        List<NodeType> numberedNodes = new ArrayList<>(nodeIds.size());
+        for (NodeIdType nodeId : nodeIds) {
+            if (!parentMap.containsKey(nodeId) && !childrenMap.getOrDefault(nodeId, Collections.emptyList()).isEmpty()) {
+                NodeType existingRoot = existingNodes.get(nodeId);
+                Long treeId = existingRoot != null && isRoot(existingRoot) ? existingRoot.getTreeId() : nextTreeId();
+                numberedNodes.addAll(encodeTree(nodeId, treeId, childrenMap));
+            }
+        }
+        long childCount = nodeIds.stream().filter(parentMap::containsKey).count();
+        long rootCount = numberedNodes.stream().filter(this::isRoot).count();
+        Preconditions.checkArgument(numberedNodes.size() == childCount + rootCount, "hierarchy must not contain a cycle");
+
+        List<NodeType> insertedNodes = new ArrayList<>();
+        List<NodeType> updatedNodes = new ArrayList<>();
+        diffNumbering(numberedNodes, existingNodes, insertedNodes, updatedNodes);
+        // the remaining existing nodes are roots without child
+        batchDeleteById(existingNodes.values().stream().map(NodeType::getId).collect(Collectors.toList()));
+        updateNodes(updatedNodes);
+        insertNodes(insertedNodes);
+        log.debug(String.format("move %d nodes in %d trees, insert %d nodes, update %d nodes, delete %d nodes", newParentMap.size(),
+                treeIds.size(), insertedNodes.size(), updatedNodes.size(), existingNodes.size()));
     }
 
+    /**
+     * The descendants are renumbered into the new trees of the children by one jdbc batch,
+     * then the range of the node is closed in its tree by one shift.
+     */
     @Override
-    public void removeChild(NodeIdType parentNodeId, NodeIdType childNodeId) {
-        Preconditions.checkArgument(parentNodeId != null, "parentNodeId must not be null");
-        Preconditions.checkArgument(childNodeId != null, "childNodeId must not be null");
+    protected void deleteAndSplitTree(NodeType node) {
+        invalidateSnapshot(node.getTreeId());
+        List<NodeType> descendants = getSubTree(node);
+        detachNodes();
+        Set<NodeIdType> parentNodeIds = descendants.stream().map(NodeType::getParentNodeId).collect(Collectors.toSet());
+        List<Long> deletedIds = new ArrayList<>();
+        deletedIds.add(node.getId());
+        List<NodeType> updatedNodes = new ArrayList<>(descendants.size());
+        NodeType child = null;
+        int childLow = 0;
+        for (NodeType descendant : descendants) {
+            if (descendant.getDepth() == node.getDepth() + 1) {
+                child = descendant;
+                childLow = child.getLow();
+                if (!parentNodeIds.contains(child.getNodeId())) {
+                    // a root without child is not stored
+                    deletedIds.add(child.getId());
+                    continue;
+                }
+                child.setParentNodeId(null);
+                child.setTreeId(nextTreeId());
+            }
+            descendant.setLow(descendant.getLow() - childLow + 1);
+            descendant.setHigh(descendant.getHigh() - childLow + 1);
+            descendant.setDepth(descendant.getDepth() - node.getDepth() - 1);
+            descendant.setTreeId(child.getTreeId());
+            updatedNodes.add(descendant);
+        }
+        batchDeleteById(deletedIds);
+        updateNodes(updatedNodes);
+        log.debug(String.format("delete node %s, split %d children into new trees", node.getNodeId(), updatedNodes.size()));
+        closeGap(node);
+    }
 
-        NodeType parentNode = getNode(parentNodeId);
-        NodeType childNode = getNode(childNodeId);
-        removeChild(parentNode, childNode, true);
+    @Override
+    protected void deleteSubTree(NodeType node) {
+        invalidateSnapshot(node.getTreeId());
+        StringBuilder sb = new StringBuilder();
+        sb.append("delete from ").append(getEntityName())
+                .append(" where treeId = :treeId and treeType = :treeType and low >= :low and high <= :high");
+        Query query = entityManager.createQuery(sb.toString());
+        query.setParameter("treeId", node.getTreeId());
+        query.setParameter("treeType", getTreeType());
+        query.setParameter("low", node.getLow());
+        query.setParameter("high", node.getHigh());
+        executeUpdate(query);
+        closeGap(node);
     }
 
     @Override
-    public void move(NodeIdType newParentNodeId, NodeIdType childNodeId) {
-        Preconditions.checkArgument(newParentNodeId != null, "newParentNodeId must not be null");
-        Preconditions.checkArgument(childNodeId != null, "childNodeId must not be null");
-
-        NodeType childNode = getNode(childNodeId);
-        NodeType currentParentNode = getParent(childNode);
-        if (currentParentNode != null) {
-            removeChild(currentParentNode, childNode, false);
-            childNode = getNode(childNodeId);
+    public List<NodeIdType> getSubTree(NodeIdType nodeId) {
+        Preconditions.checkArgument(nodeId != null, "nodeId must not be null");
+
+        IntervalTreeSnapshot<NodeIdType> snapshot = findSnapshot(nodeId);
+        if (snapshot != null) {
+            return new ArrayList<>(snapshot.getSubTree(nodeId));
+        }
+        NodeType node = getNode(nodeId);
+        if (node == null) {
+            return Collections.emptyList();
         }
-        NodeType newParentNode = getNode(newParentNodeId);
-        addChild(newParentNode, childNode);
+        List<NodeType> subTreeNodes = getSubTree(node);
+        return subTreeNodes.stream().map(NodeType::getNodeId).collect(Collectors.toList());
     }
 
     @Override
-    public void delete(NodeIdType nodeId) {
+    public List<NodeIdType> getSubTree(NodeIdType nodeId, int maxDepth) {
         Preconditions.checkArgument(nodeId != null, "nodeId must not be null");
+        Preconditions.checkArgument(maxDepth >= 1, "maxDepth must be greater than 0");
 
+        IntervalTreeSnapshot<NodeIdType> snapshot = findSnapshot(nodeId);
+        if (snapshot != null) {
+            return snapshot.getSubTree(nodeId, maxDepth);
+        }
         NodeType node = getNode(nodeId);
-        if (node == null)
-            return;
-
-        delete(node);
+        if (node == null || isLeaf(node)) {
+            return Collections.emptyList();
+        }
+        return findSubTree(node, maxDepth, node.getLow(), 0, Integer.MAX_VALUE);
     }
 
     @Override
-    public void delete(NodeType node) {
-        Preconditions.checkArgument(node != null, "node must not be null");
+    public List<NodeIdType> getSubTree(NodeIdType nodeId, int maxDepth, int offset, int limit) {
+        Preconditions.checkArgument(nodeId != null, "nodeId must not be null");
+        Preconditions.checkArgument(maxDepth >= 1, "maxDepth must be greater than 0");
+        Preconditions.checkArgument(offset >= 0, "offset must not be negative");
+        Preconditions.checkArgument(limit >= 1, "limit must be greater than 0");
 
-        NodeType parentNode = getParent(node);
-        if (parentNode != null) {
-            removeChild(parentNode, node, true);
-            node = getNode(node.getNodeId());
-        }
-        if (node != null && !isLeaf(node)) {
-            List<NodeType> children = getChildren(node);
-            for (NodeType child : children) {
-                node = getNode(node.getNodeId());
-                child = getNode(child.getNodeId());
-                removeChild(node, child, true);
-            }
+        IntervalTreeSnapshot<NodeIdType> snapshot = findSnapshot(nodeId);
+        if (snapshot != null) {
+            return snapshot.getSubTree(nodeId, maxDepth, offset, limit);
+        }
+        NodeType node = getNode(nodeId);
+        if (node == null) {
+            return Collections.emptyList();
         }
+        return findSubTree(node, maxDepth, node.getLow(), offset, limit);
     }
 
     @Override
-    public List<NodeIdType> getSubTree(NodeIdType nodeId) {
+    public List<NodeIdType> getSubTree(NodeIdType nodeId, int maxDepth, NodeIdType afterNodeId, int limit) {
         Preconditions.checkArgument(nodeId != null, "nodeId must not be null");
+        Preconditions.checkArgument(maxDepth >= 1, "maxDepth must be greater than 0");
+        Preconditions.checkArgument(limit >= 1, "limit must be greater than 0");
 
+        IntervalTreeSnapshot<NodeIdType> snapshot = findSnapshot(nodeId);
+        if (snapshot != null) {
+            return snapshot.getSubTree(nodeId, maxDepth, afterNodeId, limit);
+        }
         NodeType node = getNode(nodeId);
         if (node == null) {
             return Collections.emptyList();
         }
-        List<NodeType> subTreeNodes = getSubTree(node);
-        return subTreeNodes.stream().map(NodeType::getNodeId).collect(Collectors.toList());
+        int start = node.getLow();
+        if (afterNodeId != null) {
+            NodeType afterNode = getNode(afterNodeId);
+            Preconditions.checkArgument(afterNode != null && afterNode.getTreeId().equals(node.getTreeId())
+                    && node.getLow() < afterNode.getLow() && afterNode.getHigh() < node.getHigh(),
+                    "node %s is not a descendant of %s", afterNodeId, nodeId);
+            start = afterNode.getLow();
+        }
+        return findSubTree(node, maxDepth, start, 0, limit);
+    }
+
+    @Override
+    public List<NodeIdType> getAncestors(NodeIdType nodeId) {
+        Preconditions.checkArgument(nodeId != null, "nodeId must not be null");
+
+        IntervalTreeSnapshot<NodeIdType> snapshot = findSnapshot(nodeId);
+        if (snapshot != null) {
+            return snapshot.getAncestors(nodeId);
+        }
+        NodeType node = getNode(nodeId);
+        if (node == null || isRoot(node)) {
+            return Collections.emptyList();
+        }
+        List<NodeIdType> ancestors = getAncestorsWithSelf(node).stream().skip(1).map(NodeType::getNodeId).collect(Collectors.toList());
+        Collections.reverse(ancestors);
+        return ancestors;
+    }
+
+    @Override
+    public boolean isDescendant(NodeIdType ancestorNodeId, NodeIdType nodeId) {
+        Preconditions.checkArgument(ancestorNodeId != null, "ancestorNodeId must not be null");
+        Preconditions.checkArgument(nodeId != null, "nodeId must not be null");
+
+        IntervalTreeSnapshot<NodeIdType> snapshot = findSnapshot(nodeId);
+        if (snapshot != null) {
+            return snapshot.isDescendant(ancestorNodeId, nodeId);
+        }
+        return super.isDescendant(ancestorNodeId, nodeId);
+    }
+
+    @Override
+    public NodeIdType getLowestCommonAncestor(NodeIdType nodeId, NodeIdType otherNodeId) {
+        Preconditions.checkArgument(nodeId != null, "nodeId must not be null");
+        Preconditions.checkArgument(otherNodeId != null, "otherNodeId must not be null");
+
+        IntervalTreeSnapshot<NodeIdType> snapshot = findSnapshot(nodeId);
+        if (snapshot != null) {
+            return snapshot.getLowestCommonAncestor(nodeId, otherNodeId);
+        }
+        NodeType node = getNode(nodeId);
+        NodeType otherNode = getNode(otherNodeId);
+        if (node == null || otherNode == null || !node.getTreeId().equals(otherNode.getTreeId())) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append("select nodeId from ").append(getEntityName())
+                .append(" where treeId = :treeId and treeType = :treeType and low <= :low and high >= :high order by low desc");
+        TypedQuery<NodeIdType> query = entityManager.createQuery(sb.toString(), getNodeIdClass());
+        query.setParameter("treeId", node.getTreeId());
+        query.setParameter("treeType", getTreeType());
+        query.setParameter("low", Math.min(node.getLow(), otherNode.getLow()));
+        query.setParameter("high", Math.max(node.getHigh(), otherNode.getHigh()));
+        query.setMaxResults(1);
+        List<NodeIdType> result = query.getResultList();
+        return result.isEmpty() ? null : result.get(0);
+    }
+
+    @Override
+    public List<NodeIdType> getChildren(NodeIdType nodeId) {
+        Preconditions.checkArgument(nodeId != null, "nodeId must not be null");
+
+        return findChildren(nodeId).stream().map(NodeType::getNodeId).collect(Collectors.toList());
+    }
+
+    /**
+     * The node is removed from its current parent first, a node or a parent which doesn't belong to a tree yet
+     * is created as the root of a new tree.
+     */
+    @Override
+    protected void moveUnder(NodeIdType childNodeId, NodeType childNode, NodeIdType parentNodeId) {
+        NodeType parentNode = getNode(parentNodeId);
+        if (parentNode == null) {
+            parentNode = create(newNode(parentNodeId));
+        }
+        if (childNode == null) {
+            childNode = create(newNode(childNodeId));
+        } else if (!isRoot(childNode)) {
+            removeChild(getParent(childNode), childNode, false);
+            childNode = getNode(childNodeId);
+            parentNode = getNode(parentNodeId);
+        }
+        addChild(parentNode, childNode);
     }
 
     private void addChild(NodeType parentNode, NodeType childNode) {
         Preconditions.checkArgument(parentNode != null, "parentNode must not be null");
         Preconditions.checkArgument(childNode != null, "childNode must not be null");
 
+        invalidateSnapshot(parentNode.getTreeId());
+        invalidateSnapshot(childNode.getTreeId());
+        int depthOffset = parentNode.getDepth() + 1 - childNode.getDepth();
+        if (isGapped()) {
+            addChildIntoGap(parentNode, childNode, depthOffset);
+            return;
+        }
+
         int childTreeSize = getSize(childNode);
         updateFollowUpNodesOfParentTree(parentNode, parentNode.getHigh(), true, 2 * childTreeSize);
         updateAncestorsOfParentTree(parentNode, true, 2 * childTreeSize);
-        updateChildTree(childNode, childNode.getTreeId(), parentNode.getTreeId(), true, parentNode.getHigh() - 1);
+        updateChildTree(childNode, childNode.getTreeId(), parentNode.getTreeId(), true, parentNode.getHigh() - 1, depthOffset);
+        updateParent(childNode, parentNode.getNodeId());
     }
 
     private void removeChild(NodeType parentNode, NodeType childNode, boolean isDeleteLeafChild) {
         Preconditions.checkArgument(parentNode != null, "parentNode must not be null");
         Preconditions.checkArgument(childNode != null, "childNode must not be null");
 
+        invalidateSnapshot(childNode.getTreeId());
         if (isDeleteLeafChild && isLeaf(childNode)) {
-            NodeType childRef = entityManager.getReference(clazz, childNode.getId());
-            super.delete(childRef);
-            entityManager.flush();
-            entityManager.detach(childNode);
+            deleteNode(childNode);
         } else {
-            updateChildTree(childNode, childNode.getTreeId(), childNode.getNodeId().toString(), false, childNode.getLow() - 1);
+            updateChildTree(childNode, childNode.getTreeId(), nextTreeId(), false, childNode.getLow() - 1, -childNode.getDepth());
+            updateParent(childNode, null);
         }
 
-        int childTreeSize = getSize(childNode);
-        updateFollowUpNodesOfParentTree(parentNode, childNode.getHigh(), false, 2 * childTreeSize);
-        updateAncestorsOfParentTree(parentNode, false, 2 * childTreeSize);
+        if (!isGapped()) {
+            int childTreeSize = getSize(childNode);
+            updateFollowUpNodesOfParentTree(parentNode, childNode.getHigh(), false, 2 * childTreeSize);
+            updateAncestorsOfParentTree(parentNode, false, 2 * childTreeSize);
+        }
 
         parentNode = getNode(parentNode.getNodeId());
         if (isRootWithoutChild(parentNode)) {
-            super.delete(parentNode);
-            entityManager.flush();
-            entityManager.detach(parentNode);
+            deleteNode(parentNode);
         }
     }
 
-    private void updateFollowUpNodesOfParentTree(NodeType parentNode, int start, boolean incrementOffset, int offset) {
-        QueryParams params = new QueryParams();
-        params.addPredicate(new Predicate("low", Operator.GT, start));
-        params.addPredicate(new Predicate("treeId", Operator.EQ, parentNode.getTreeId()));
-        params.addPredicate(new Predicate("treeType", Operator.EQ, getTreeType()));
-        List<NodeType> nodes = find(params);
-        Set<Long> ids = nodes.stream().map(NodeType::getId).collect(Collectors.toSet());
-        log.debug(ids);
-        if (ids.isEmpty())
+    /**
+     * close the range of the deleted node in its tree. The ancestors shrink and the following nodes move left
+     * by one statement, a gapped tree keeps the free space instead. The parent is deleted if it becomes a root without child.
+     */
+    private void closeGap(NodeType deletedNode) {
+        if (isRoot(deletedNode))
             return;
 
+        if (!isGapped()) {
+            StringBuilder sb = new StringBuilder();
+            sb.append("update ").append(getEntityName())
+                    .append(" set low = case when low > :high then (low - :width) else low end, high = high - :width")
+                    .append(" where treeId = :treeId and treeType = :treeType and high > :high");
+            Query query = entityManager.createQuery(sb.toString());
+            query.setParameter("width", deletedNode.getHigh() - deletedNode.getLow() + 1);
+            query.setParameter("treeId", deletedNode.getTreeId());
+            query.setParameter("treeType", getTreeType());
+            query.setParameter("high", deletedNode.getHigh());
+            executeUpdate(query);
+        }
+
+        NodeType parentNode = getNode(deletedNode.getParentNodeId());
+        if (isRootWithoutChild(parentNode)) {
+            deleteNode(parentNode);
+        }
+    }
+
+    private void updateFollowUpNodesOfParentTree(NodeType parentNode, int start, boolean incrementOffset, int offset) {
         String operator = incrementOffset ? "+" : "-";
         StringBuilder sb = new StringBuilder();
         sb.append("update ").append(getEntityName()).append(" set low = low ").append(operator).append(" :offset, ")
                 .append("high = high ").append(operator).append(" :offset ")
-                .append("where id in :ids");
+                .append("where treeId = :treeId and treeType = :treeType and low > :start");
         Query query = entityManager.createQuery(sb.toString());
         query.setParameter("offset", offset);
-        query.setParameter("ids", ids);
-        query.executeUpdate();
-
-        entityManager.flush();
-        nodes.forEach(node -> entityManager.detach(node));
+        query.setParameter("treeId", parentNode.getTreeId());
+        query.setParameter("treeType", getTreeType());
+        query.setParameter("start", start);
+        executeUpdate(query);
     }
 
     private void updateAncestorsOfParentTree(NodeType parentNode, boolean incrementOffset, int offset) {
-        QueryParams params = new QueryParams();
-        params.addPredicate(new Predicate("low", Operator.LE, parentNode.getLow()));
-        params.addPredicate(new Predicate("high", Operator.GE, parentNode.getHigh()));
-        params.addPredicate(new Predicate("treeId", Operator.EQ, parentNode.getTreeId()));
-        params.addPredicate(new Predicate("treeType", Operator.EQ, getTreeType()));
-        List<NodeType> nodes = find(params);
-        Set<Long> ids = nodes.stream().map(NodeType::getId).collect(Collectors.toSet());
-        log.debug(ids);
-        if (ids.isEmpty())
-            return;
-
         String operator = incrementOffset ? "+" : "-";
         StringBuilder sb = new StringBuilder();
         sb.append("update ").append(getEntityName()).append(" set high = high ").append(operator).append(" :offset ")
-                .append("where id in :ids");
+                .append("where treeId = :treeId and treeType = :treeType and low <= :low and high >= :high");
         Query query = entityManager.createQuery(sb.toString());
         query.setParameter("offset", offset);
-        query.setParameter("ids", ids);
-        query.executeUpdate();
-
-        entityManager.flush();
-        nodes.forEach(node -> entityManager.detach(node));
+        query.setParameter("treeId", parentNode.getTreeId());
+        query.setParameter("treeType", getTreeType());
+        query.setParameter("low", parentNode.getLow());
+        query.setParameter("high", parentNode.getHigh());
+        executeUpdate(query);
     }
 
-    private void updateChildTree(NodeType childNode, String oldTreeId, String newTreeId, boolean incrementOffset, int offset) {
-        QueryParams params = new QueryParams();
-        params.addPredicate(new Predicate("low", Operator.GE, childNode.getLow()));
-        params.addPredicate(new Predicate("high", Operator.LE, childNode.getHigh()));
-        params.addPredicate(new Predicate("treeId", Operator.EQ, oldTreeId));
-        params.addPredicate(new Predicate("treeType", Operator.EQ, getTreeType()));
-        List<NodeType> nodes = find(params);
-        Set<Long> ids = nodes.stream().map(NodeType::getId).collect(Collectors.toSet());
-        log.debug(ids);
-        if (ids.isEmpty())
-            return;
-
+    private void updateChildTree(NodeType childNode, Long oldTreeId, Long newTreeId, boolean incrementOffset, int offset, int depthOffset) {
         String operator = incrementOffset ? "+" : "-";
         StringBuilder sb = new StringBuilder();
         sb.append("update ").append(getEntityName()).append(" set low = low ").append(operator).append(" :offset, ")
-                .append("high = high ").append(operator).append(" :offset, treeId = :newTreeId ")
-                .append("where id in :ids");
+                .append("high = high ").append(operator).append(" :offset, depth = depth + :depthOffset, treeId = :newTreeId ")
+                .append("where treeId = :oldTreeId and treeType = :treeType and low >= :low and high <= :high");
         Query query = entityManager.createQuery(sb.toString());
         query.setParameter("offset", offset);
+        query.setParameter("depthOffset", depthOffset);
         query.setParameter("newTreeId", newTreeId);
-        query.setParameter("ids", ids);
-        query.executeUpdate();
+        query.setParameter("oldTreeId", oldTreeId);
+        query.setParameter("treeType", getTreeType());
+        query.setParameter("low", childNode.getLow());
+        query.setParameter("high", childNode.getHigh());
+        executeUpdate(query);
+    }
+
+    private void updateParent(NodeType node, NodeIdType parentNodeId) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("update ").append(getEntityName()).append(" set parentNodeId = ")
+                .append(parentNodeId == null ? "null" : ":parentNodeId").append(" where id = :id");
+        Query query = entityManager.createQuery(sb.toString());
+        if (parentNodeId != null) {
+            query.setParameter("parentNodeId", parentNodeId);
+        }
+        query.setParameter("id", node.getId());
+        executeUpdate(query);
+    }
+
+    /**
+     * execute the bulk update without loading the affected nodes.
+     * The nodes in the persistence context are detached afterwards because the bulk update bypasses them.
+     */
+    private void executeUpdate(Query query) {
+        entityManager.flush();
+        int effectRows = query.executeUpdate();
+        log.debug("effectRows = " + effectRows);
+        detachNodes();
+    }
+
+    private void addChildIntoGap(NodeType parentNode, NodeType childNode, int depthOffset) {
+        List<NodeType> childTreeNodes = getSubTreeWithRoot(childNode);
+        childTreeNodes.forEach(node -> node.setDepth(node.getDepth() + depthOffset));
+        childTreeNodes.get(0).setParentNodeId(parentNode.getNodeId());
+        int low = getLastChildHigh(parentNode);
+        int spacing = Math.min(gap, (parentNode.getHigh() - low) / (2 * childTreeNodes.size() + 2));
+        if (spacing >= 1) {
+            // leave at least half of the free space behind the new child for the following siblings
+            log.debug(String.format("place %d nodes into the gap (%d, %d) with spacing %d", childTreeNodes.size(), low, parentNode.getHigh(), spacing));
+            List<NodeType> nodes = new ArrayList<>(toBoundaryMap(childTreeNodes).values());
+            renumber(nodes, low + spacing, spacing, parentNode.getTreeId(), false);
+            return;
+        }
+
+        List<NodeType> ancestors = getAncestorsWithSelf(parentNode);
+        for (NodeType ancestor : ancestors) {
+            int nodeCount = countSubTree(ancestor) + childTreeNodes.size();
+            if (isRoot(ancestor)) {
+                spacing = Math.min(gap, (Integer.MAX_VALUE - ancestor.getLow()) / (2 * nodeCount + 1));
+            } else {
+                spacing = Math.min(gap, (ancestor.getHigh() - ancestor.getLow()) / (2 * nodeCount + 1));
+                if (spacing < Math.max(1, gap / 2))
+                    continue;
+            }
+            log.debug(String.format("renumber subtree of %s (%d nodes) with spacing %d", ancestor.getNodeId(), nodeCount, spacing));
+            List<NodeType> nodes = sortByBoundary(getSubTreeWithRoot(ancestor), parentNode, childTreeNodes);
+            renumber(nodes, ancestor.getLow(), spacing, ancestor.getTreeId(), !isRoot(ancestor));
+            return;
+        }
+        throw new IllegalStateException(String.format("interval tree %s has no root", parentNode.getTreeId()));
+    }
+
+    /**
+     * @return nodes in ascending order of their boundaries, so each node appears twice (low and high).
+     * The insertedNodes are placed in front of the high of the parentNode.
+     */
+    private List<NodeType> sortByBoundary(List<NodeType> nodes, NodeType parentNode, List<NodeType> insertedNodes) {
+        TreeMap<Integer, NodeType> boundaryMap = toBoundaryMap(nodes);
+        List<NodeType> boundaries = new ArrayList<>(boundaryMap.values());
+        boundaries.addAll(boundaryMap.headMap(parentNode.getHigh()).size(), toBoundaryMap(insertedNodes).values());
+        return boundaries;
+    }
+
+    private TreeMap<Integer, NodeType> toBoundaryMap(List<NodeType> nodes) {
+        TreeMap<Integer, NodeType> boundaryMap = new TreeMap<>();
+        for (NodeType node : nodes) {
+            boundaryMap.put(node.getLow(), node);
+            boundaryMap.put(node.getHigh(), node);
+        }
+        return boundaryMap;
+    }
 
+    /**
+     * assign start, start + spacing, start + 2 * spacing ... to the boundaries in order.
+     * The high of the first node is kept if keepOuterHigh is true.
+     */
+    private void renumber(List<NodeType> boundaries, int start, int spacing, Long treeId, boolean keepOuterHigh) {
+        NodeType outerNode = boundaries.get(0);
+        int outerHigh = outerNode.getHigh();
+        Set<NodeType> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        int value = start;
+        for (NodeType node : boundaries) {
+            if (visited.add(node)) {
+                node.setLow(value);
+            } else {
+                node.setHigh(value);
+            }
+            node.setTreeId(treeId);
+            value += spacing;
+        }
+        if (keepOuterHigh) {
+            outerNode.setHigh(outerHigh);
+        }
         entityManager.flush();
-        nodes.forEach(node -> entityManager.detach(node));
+        visited.forEach(node -> entityManager.detach(node));
+    }
+
+    /**
+     * number the tree by an iterative depth first traversal, so deep trees don't overflow the stack.
+     * The values are dense first and spread out to the gap when the whole tree is known.
+     */
+    @Override
+    protected List<NodeType> encodeTree(NodeIdType rootId, Long treeId, Map<NodeIdType, List<NodeIdType>> childrenMap) {
+        List<NodeType> nodes = new ArrayList<>();
+        Deque<NodeType> path = new ArrayDeque<>();
+        Deque<Iterator<NodeIdType>> childIterators = new ArrayDeque<>();
+        NodeType root = newNode(rootId, treeId);
+        nodes.add(root);
+        path.push(root);
+        childIterators.push(childrenMap.getOrDefault(rootId, Collections.emptyList()).iterator());
+        int value = root.getLow();
+        while (!path.isEmpty()) {
+            Iterator<NodeIdType> childIterator = childIterators.peek();
+            if (childIterator.hasNext()) {
+                NodeType parent = path.peek();
+                NodeIdType childId = childIterator.next();
+                NodeType child = newNode(childId, treeId);
+                child.setLow(++value);
+                child.setParentNodeId(parent.getNodeId());
+                child.setDepth(parent.getDepth() + 1);
+                nodes.add(child);
+                path.push(child);
+                childIterators.push(childrenMap.getOrDefault(childId, Collections.emptyList()).iterator());
+            } else {
+                path.pop().setHigh(++value);
+                childIterators.pop();
+            }
+        }
+
+        int spacing = Math.min(gap, (Integer.MAX_VALUE - 1) / (2 * nodes.size()));
+        if (spacing > 1) {
+            for (NodeType node : nodes) {
+                node.setLow(1 + (node.getLow() - 1) * spacing);
+                node.setHigh(1 + (node.getHigh() - 1) * spacing);
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * The tree is renumbered, the children keep their current order and new children are appended.
+     * So only the rows whose numbering changed are rewritten and a consistent tree is not rewritten at all.
+     */
+    @Override
+    protected IntervalTreeRebuildReport rebuildTree(NodeIdType rootId, List<NodeIdType> nodeIds, Map<NodeIdType, List<NodeIdType>> childrenMap) {
+        long start = System.nanoTime();
+        Map<NodeIdType, NodeType> existingNodes = new HashMap<>();
+        findNodesIn("nodeId", nodeIds).forEach(node -> existingNodes.put(node.getNodeId(), node));
+        NodeType existingRoot = existingNodes.get(rootId);
+        Long treeId = existingRoot != null && isRoot(existingRoot) ? existingRoot.getTreeId() : nextTreeId();
+        findNodesIn("treeId", Collections.singleton(treeId)).forEach(node -> existingNodes.put(node.getNodeId(), node));
+        detachNodes();
+        invalidateSnapshot(treeId);
+        existingNodes.values().stream().map(NodeType::getTreeId).distinct().forEach(this::invalidateSnapshot);
+
+        Comparator<NodeIdType> currentOrder = Comparator.<NodeIdType>comparingInt(nodeId -> {
+            NodeType node = existingNodes.get(nodeId);
+            return node != null && node.getTreeId().equals(treeId) ? node.getLow() : Integer.MAX_VALUE;
+        }).thenComparing(Object::toString);
+        for (NodeIdType nodeId : nodeIds) {
+            List<NodeIdType> children = childrenMap.get(nodeId);
+            if (children != null) {
+                children.sort(currentOrder);
+            }
+        }
+
+        List<NodeType> insertedNodes = new ArrayList<>();
+        List<NodeType> updatedNodes = new ArrayList<>();
+        diffNumbering(encodeTree(rootId, treeId, childrenMap), existingNodes, insertedNodes, updatedNodes);
+        List<Long> deletedIds = existingNodes.values().stream().map(NodeType::getId).collect(Collectors.toList());
+        batchDeleteById(deletedIds);
+        updateNodes(updatedNodes);
+        insertNodes(insertedNodes);
+        return new IntervalTreeRebuildReport(treeId, rootId.toString(), nodeIds.size(), insertedNodes.size(), updatedNodes.size(), deletedIds.size(),
+                (System.nanoTime() - start) / 1000000);
+    }
+
+    /**
+     * split the numbered nodes into the new ones and the existing ones whose numbering changed.
+     * The existing nodes which are numbered are removed from existingNodes.
+     */
+    private void diffNumbering(List<NodeType> numberedNodes, Map<NodeIdType, NodeType> existingNodes,
+                               List<NodeType> insertedNodes, List<NodeType> updatedNodes) {
+        for (NodeType node : numberedNodes) {
+            NodeType existingNode = existingNodes.remove(node.getNodeId());
+            if (existingNode == null) {
+                insertedNodes.add(node);
+            } else if (!isSameNumbering(existingNode, node)) {
+                existingNode.setLow(node.getLow());
+                existingNode.setHigh(node.getHigh());
+                existingNode.setParentNodeId(node.getParentNodeId());
+                existingNode.setDepth(node.getDepth());
+                existingNode.setTreeId(node.getTreeId());
+                updatedNodes.add(existingNode);
+            }
+        }
+    }
+
+    /**
+     * The tree is read by one query in the order of low and checked by a stack of its open nodes: every node must lie
+     * strictly inside its parent and behind its previous sibling, and a tree without gap must be dense.
+     */
+    @Override
+    protected IntervalTreeVerifyReport verifyTree(Long treeId, IntervalTreeVerifier<NodeIdType> verifier) {
+        TypedQuery<Object[]> query = entityManager.createQuery("select nodeId, parentNodeId, low, high, depth from " + getEntityName()
+                + " where treeId = :treeId and treeType = :treeType order by low", Object[].class);
+        query.setParameter("treeId", treeId);
+        query.setParameter("treeType", getTreeType());
+        List<Object[]> rows = query.getResultList();
+
+        List<String> errors = new ArrayList<>();
+        Map<NodeIdType, NodeIdType> treeParentMap = new HashMap<>();
+        // row[0] nodeId, row[1] parentNodeId, row[2] low, row[3] high, row[4] depth
+        Deque<Object[]> openRows = new ArrayDeque<>();
+        for (int i = 0; i < rows.size(); i++) {
+            Object[] row = rows.get(i);
+            NodeIdType nodeId = getNodeIdClass().cast(row[0]);
+            int low = (Integer) row[2];
+            int high = (Integer) row[3];
+            treeParentMap.put(nodeId, getNodeIdClass().cast(row[1]));
+            if (low >= high) {
+                errors.add(String.format("node %s has low %d but high %d", nodeId, low, high));
+            }
+            if (i == 0) {
+                if (row[1] != null || (Integer) row[4] != 0) {
+                    errors.add(String.format("node %s has the lowest low but is not a root", nodeId));
+                }
+            } else {
+                while (!openRows.isEmpty() && (Integer) openRows.peek()[3] < low) {
+                    openRows.pop();
+                }
+                Object[] parentRow = openRows.peek();
+                if (parentRow == null) {
+                    errors.add(String.format("node %s lies outside of the root", nodeId));
+                } else if (low <= (Integer) parentRow[2] || high >= (Integer) parentRow[3]) {
+                    errors.add(String.format("node %s overlaps node %s", nodeId, parentRow[0]));
+                } else if (!parentRow[0].equals(row[1]) || (Integer) row[4] != (Integer) parentRow[4] + 1) {
+                    errors.add(String.format("node %s lies in node %s but has parent %s and depth %d", nodeId, parentRow[0], row[1], row[4]));
+                }
+            }
+            openRows.push(row);
+        }
+        NodeIdType rootId = getNodeIdClass().cast(rows.get(0)[0]);
+        if (!isGapped() && ((Integer) rows.get(0)[2] != 1 || (Integer) rows.get(0)[3] != 2 * rows.size())) {
+            errors.add(String.format("tree of %d nodes is not dense, root %s has low %d and high %d", rows.size(), rootId, rows.get(0)[2], rows.get(0)[3]));
+        }
+        verifier.verifyNodes(rootId, treeParentMap, errors);
+        return verifier.report(treeId, rootId, rows.size(), errors);
+    }
+
+    /**
+     * the nodes are read in the order of low, so the children of a node keep their order
+     */
+    @Override
+    protected List<NodeType> findNodesIn(String property, Collection<?> values) {
+        return findNodesIn(property, values, new OrderBy("low"));
+    }
+
+    private boolean isSameNumbering(NodeType node, NodeType otherNode) {
+        return node.getLow().equals(otherNode.getLow()) && node.getHigh().equals(otherNode.getHigh())
+                && Objects.equals(node.getParentNodeId(), otherNode.getParentNodeId())
+                && node.getDepth().equals(otherNode.getDepth()) && node.getTreeId().equals(otherNode.getTreeId());
+    }
+
+    @Override
+    protected void beforeDelete(Collection<Long> treeIds) {
+        treeIds.forEach(this::invalidateSnapshot);
+    }
+
+    /**
+     * @return the cached snapshot of the tree containing the node, or null if the tree must be read from the database
+     */
+    private IntervalTreeSnapshot<NodeIdType> findSnapshot(NodeIdType nodeId) {
+        if (snapshotCache == null)
+            return null;
+
+        return snapshotCache.get(nodeId, id -> {
+            NodeType node = getNode(id);
+            return node == null ? null : node.getTreeId();
+        }, this::loadSnapshot);
+    }
+
+    @Override
+    protected IntervalTreeSnapshot<NodeIdType> snapshotIfPresent(NodeIdType nodeId) {
+        return snapshotCache != null ? snapshotCache.getIfPresent(nodeId) : null;
+    }
+
+    private IntervalTreeSnapshot<NodeIdType> loadSnapshot(Long treeId) {
+        TypedQuery<Object[]> query = entityManager.createQuery("select nodeId, low, high from " + getEntityName()
+                + " where treeId = :treeId and treeType = :treeType order by low", Object[].class);
+        query.setParameter("treeId", treeId);
+        query.setParameter("treeType", getTreeType());
+        List<Object[]> rows = query.getResultList();
+        List<NodeIdType> nodeIds = new ArrayList<>(rows.size());
+        int[] low = new int[rows.size()];
+        int[] high = new int[rows.size()];
+        for (int i = 0; i < rows.size(); i++) {
+            Object[] row = rows.get(i);
+            nodeIds.add(getNodeIdClass().cast(row[0]));
+            low[i] = (Integer) row[1];
+            high[i] = (Integer) row[2];
+        }
+        log.debug(String.format("load snapshot of tree %s with %d nodes", treeId, nodeIds.size()));
+        return new IntervalTreeSnapshot<>(treeId, nodeIds, low, high);
+    }
+
+    private void invalidateSnapshot(Long treeId) {
+        if (snapshotCache != null) {
+            snapshotCache.invalidate(treeId);
+        }
+    }
+
+    /**
+     * allocate the id of a new tree, the new tree counts as written by the current transaction
+     */
+    @Override
+    protected Long nextTreeId() {
+        Long treeId = super.nextTreeId();
+        invalidateSnapshot(treeId);
+        return treeId;
+    }
+
+    /**
+     * insert the nodes by jdbc batch statements
+     */
+    @Override
+    protected void insertNodes(List<NodeType> nodes) {
+        jdbcBatchInsert(nodes, "nodeId", "low", "high", "parentNodeId", "depth", "treeId", "treeType");
+    }
+
+    /**
+     * update the numbering of the nodes by jdbc batch statements
+     */
+    private void updateNodes(List<NodeType> nodes) {
+        jdbcBatchUpdate(nodes, "low", "high", "parentNodeId", "depth", "treeId");
+    }
+
+    private int getLastChildHigh(NodeType node) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("select max(high) from ").append(getEntityName())
+                .append(" where treeId = :treeId and treeType = :treeType and low > :low and high < :high");
+        Query query = entityManager.createQuery(sb.toString());
+        query.setParameter("treeId", node.getTreeId());
+        query.setParameter("treeType", getTreeType());
+        query.setParameter("low", node.getLow());
+        query.setParameter("high", node.getHigh());
+        Integer lastChildHigh = (Integer) query.getSingleResult();
+        return lastChildHigh == null ? node.getLow() : lastChildHigh;
+    }
+
+    /**
+     * select the node ids only, a page of a large tree is not worth loading as entities
+     */
+    private List<NodeIdType> findSubTree(NodeType node, int maxDepth, int start, int offset, int limit) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("select nodeId from ").append(getEntityName())
+                .append(" where treeId = :treeId and treeType = :treeType and low > :start and high < :high");
+        int maxNodeDepth = (int) Math.min((long) node.getDepth() + maxDepth, Integer.MAX_VALUE);
+        if (maxDepth < Integer.MAX_VALUE) {
+            sb.append(" and depth <= :maxNodeDepth");
+        }
+        sb.append(" order by low");
+        TypedQuery<NodeIdType> query = entityManager.createQuery(sb.toString(), getNodeIdClass());
+        query.setParameter("treeId", node.getTreeId());
+        query.setParameter("treeType", getTreeType());
+        query.setParameter("start", start);
+        query.setParameter("high", node.getHigh());
+        if (maxDepth < Integer.MAX_VALUE) {
+            query.setParameter("maxNodeDepth", maxNodeDepth);
+        }
+        query.setFirstResult(offset);
+        if (limit < Integer.MAX_VALUE) {
+            query.setMaxResults(limit);
+        }
+        return query.getResultList();
+    }
+
+    private List<NodeType> getSubTreeWithRoot(NodeType node) {
+        QueryParams params = new QueryParams();
+        params.addPredicate(new Predicate("low", Operator.GE, node.getLow()));
+        params.addPredicate(new Predicate("high", Operator.LE, node.getHigh()));
+        params.addPredicate(new Predicate("treeId", Operator.EQ, node.getTreeId()));
+        params.addPredicate(new Predicate("treeType", Operator.EQ, getTreeType()));
+        params.addOrderBy(new OrderBy("low"));
+        return find(params);
+    }
+
+    private List<NodeType> getAncestorsWithSelf(NodeType node) {
+        QueryParams params = new QueryParams();
+        params.addPredicate(new Predicate("low", Operator.LE, node.getLow()));
+        params.addPredicate(new Predicate("high", Operator.GE, node.getHigh()));
+        params.addPredicate(new Predicate("treeId", Operator.EQ, node.getTreeId()));
+        params.addPredicate(new Predicate("treeType", Operator.EQ, getTreeType()));
+        params.addOrderBy(new OrderBy("low", false));
+        return find(params);
     }
 
     private List<NodeType> getSubTree(NodeType node) {
@@ -234,82 +861,88 @@ abstract class IntervalTreeDaoImpl<NodeType extends IntervalTreeNode<NodeIdType>
         return find(params);
     }
 
-    private NodeType getNode(NodeIdType nodeId) {
-        Preconditions.checkArgument(nodeId != null, "nodeId must not be null");
-
-        QueryParams params = new QueryParams();
-        params.addPredicate(new Predicate("nodeId", Operator.EQ, nodeId));
-        params.addPredicate(new Predicate("treeType", Operator.EQ, getTreeType()));
-        List<NodeType> result = find(params);
-        return result.isEmpty() ? null : result.get(0);
-    }
-
     private NodeType getParent(NodeType node) {
         Preconditions.checkArgument(node != null, "node must not be null");
 
         if (isRoot(node))
             return null;
 
-        QueryParams params = new QueryParams();
-        params.addPredicate(new Predicate("low", Operator.LT, node.getLow()));
-        params.addPredicate(new Predicate("high", Operator.GT, node.getHigh()));
-        params.addPredicate(new Predicate("treeId", Operator.EQ, node.getTreeId()));
-        params.addPredicate(new Predicate("treeType", Operator.EQ, getTreeType()));
-        List<NodeType> ancestors = find(params);
-        return ancestors.stream().min(Comparator.comparing(ancestor -> node.getLow() - ancestor.getLow())).get();
+        return getNode(node.getParentNodeId());
     }
 
-    private List<NodeType> getChildren(NodeType node) {
-        List<NodeType> subTreeNodes = getSubTree(node);
-        if (subTreeNodes.isEmpty())
-            return Collections.emptyList();
-
-        List<NodeType> children = new ArrayList<>();
-        do {
-            NodeType firstChild = subTreeNodes.get(0);
-            children.add(firstChild);
-            subTreeNodes.remove(firstChild);
-            subTreeNodes.removeAll(getSubTree(firstChild));
-        } while (!subTreeNodes.isEmpty());
-        return children;
+    private List<NodeType> findChildren(NodeIdType nodeId) {
+        QueryParams params = new QueryParams();
+        params.addPredicate(new Predicate("parentNodeId", Operator.EQ, nodeId));
+        params.addPredicate(new Predicate("treeType", Operator.EQ, getTreeType()));
+        params.addOrderBy(new OrderBy("low"));
+        return find(params);
     }
 
-    private int getSubTreeSize(NodeType node) {
+    /**
+     * computed from the low/high values of the node itself, a gapped tree counts the descendants by one query
+     */
+    @Override
+    protected int countSubTree(NodeType node) {
         Preconditions.checkArgument(node != null, "node must not be null");
 
+        if (isGapped()) {
+            QueryParams params = new QueryParams();
+            params.addPredicate(new Predicate("low", Operator.GT, node.getLow()));
+            params.addPredicate(new Predicate("high", Operator.LT, node.getHigh()));
+            params.addPredicate(new Predicate("treeId", Operator.EQ, node.getTreeId()));
+            params.addPredicate(new Predicate("treeType", Operator.EQ, getTreeType()));
+            return findSize(params);
+        }
         return (node.getHigh() - 1 - node.getLow()) / 2;
     }
 
     private int getSize(NodeType node) {
         Preconditions.checkArgument(node != null, "node must not be null");
 
-        return 1 + getSubTreeSize(node);
+        return 1 + countSubTree(node);
     }
 
-    private boolean isRoot(NodeType node) {
-        Preconditions.checkArgument(node != null, "node must not be null");
-
-        return node.getLow() == 1;
+    @Override
+    protected boolean isInSubTree(NodeType node, NodeType ancestorNode) {
+        return ancestorNode.getTreeId().equals(node.getTreeId())
+                && ancestorNode.getLow() <= node.getLow() && node.getHigh() <= ancestorNode.getHigh();
     }
 
     private boolean isRootWithoutChild(NodeType node) {
         Preconditions.checkArgument(node != null, "node must not be null");
 
-        return node.getLow() == 1 && node.getHigh() == 2;
+        return isRoot(node) && isLeaf(node);
     }
 
-    private boolean isLeaf(NodeType node) {
+    @Override
+    protected boolean isLeaf(NodeType node) {
         Preconditions.checkArgument(node != null, "node must not be null");
 
+        if (isGapped()) {
+            QueryParams params = new QueryParams();
+            params.addPredicate(new Predicate("parentNodeId", Operator.EQ, node.getNodeId()));
+            params.addPredicate(new Predicate("treeType", Operator.EQ, getTreeType()));
+            return findSize(params) == 0;
+        }
         return (node.getHigh() - node.getLow()) == 1;
     }
 
+    private boolean isGapped() {
+        return gap > 1;
+    }
+
     protected NodeType newNode(NodeIdType nodeId) {
+        return newNode(nodeId, nextTreeId());
+    }
+
+    private NodeType newNode(NodeIdType nodeId, Long treeId) {
         NodeType node = super.newInstance();
         node.setNodeId(nodeId);
         node.setLow(1);
-        node.setHigh(2);
-        node.setTreeId(nodeId.toString());
+        node.setHigh(1 + gap);
+        node.setParentNodeId(null);
+        node.setDepth(0);
+        node.setTreeId(treeId);
         node.setTreeType(getTreeType());
         return node;
     }
@@ -0,0 +1,97 @@
+package com.limado.collab.dao;
+
+import com.google.common.base.Preconditions;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.hibernate.exception.ConstraintViolationException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.PersistenceException;
+import javax.persistence.Query;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Allocates the ids of new trees per tree type from the interval_tree_seq table.
+ * The ids are reserved in blocks by a separate transaction, so the writers don't queue on the sequence row until they commit.
+ * A reserved id which is not used is skipped.
+ *
+ * @author csieflyman
+ */
+@Component
+class IntervalTreeIdSequence {
+
+    private static final Logger log = LogManager.getLogger(IntervalTreeIdSequence.class);
+
+    private static final String TABLE = "interval_tree_seq";
+
+    static final int BLOCK_SIZE = 100;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private final Map<Short, long[]> blocks = new HashMap<>();
+
+    synchronized long next(short treeType) {
+        // block[0] is the next id, block[1] is the end (exclusive) of the reserved ids
+        long[] block = blocks.computeIfAbsent(treeType, key -> new long[2]);
+        if (block[0] == block[1]) {
+            block[1] = reserve(treeType, BLOCK_SIZE);
+            block[0] = block[1] - BLOCK_SIZE;
+        }
+        return block[0]++;
+    }
+
+    /**
+     * The row of a tree type is inserted by the first reservation. Another process may insert it at the same time,
+     * then the insert fails with a duplicate key and the reservation is retried on the row of the other process.
+     *
+     * @return the end (exclusive) of the reserved ids
+     */
+    private long reserve(short treeType, int count) {
+        TransactionTemplate template = new TransactionTemplate(transactionManager);
+        template.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        Long end = template.execute(status -> increment(treeType, count));
+        if (end != null)
+            return end;
+
+        try {
+            template.execute(status -> {
+                Query insert = entityManager.createNativeQuery("insert into " + TABLE + " (tree_type, next_val) values (?, ?)");
+                insert.setParameter(1, treeType);
+                insert.setParameter(2, 1L);
+                return insert.executeUpdate();
+            });
+        } catch (PersistenceException e) {
+            if (!(e.getCause() instanceof ConstraintViolationException))
+                throw e;
+            log.debug(String.format("the sequence row of tree type %d is inserted by another process", treeType));
+        }
+        end = template.execute(status -> increment(treeType, count));
+        Preconditions.checkState(end != null, "the sequence row of tree type %s is missing", treeType);
+        return end;
+    }
+
+    /**
+     * @return the end (exclusive) of the reserved ids, or null if the tree type has no row yet
+     */
+    private Long increment(short treeType, int count) {
+        Query update = entityManager.createNativeQuery("update " + TABLE + " set next_val = next_val + ? where tree_type = ?");
+        update.setParameter(1, count);
+        update.setParameter(2, treeType);
+        if (update.executeUpdate() == 0)
+            return null;
+        Query select = entityManager.createNativeQuery("select next_val from " + TABLE + " where tree_type = ?");
+        select.setParameter(1, treeType);
+        return ((Number) select.getSingleResult()).longValue();
+    }
+}
@@ -0,0 +1,185 @@
+package com.limado.collab.dao;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Striped;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Striped in-process locks keyed by tree, held until the current transaction completes.
+ * Writers of the same tree queue here instead of colliding on the interval indexes in the database,
+ * writers of different trees only wait for each other if their trees share a stripe.
+ * <p>
+ * The wait statistics are exported by JMX.
+ *
+ * @author csieflyman
+ */
+@Component
+@ManagedResource(objectName = "com.limado.collab:type=IntervalTreeLockManager", description = "interval tree lock statistics")
+public class IntervalTreeLockManager {
+
+    private static final Logger log = LogManager.getLogger(IntervalTreeLockManager.class);
+
+    public static final int DEFAULT_STRIPES = 1024;
+
+    public static final long DEFAULT_TIMEOUT_MILLIS = 10000;
+
+    private final Striped<Lock> locks;
+
+    private long timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+
+    private final AtomicLong acquiredCount = new AtomicLong();
+
+    private final AtomicLong contendedCount = new AtomicLong();
+
+    private final AtomicLong timeoutCount = new AtomicLong();
+
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    public IntervalTreeLockManager() {
+        this(DEFAULT_STRIPES);
+    }
+
+    public IntervalTreeLockManager(int stripes) {
+        this.locks = Striped.lock(stripes);
+    }
+
+    @Value("${interval_tree_lock_timeout_millis:" + DEFAULT_TIMEOUT_MILLIS + "}")
+    public void setTimeoutMillis(long timeoutMillis) {
+        Preconditions.checkArgument(timeoutMillis > 0, "timeoutMillis must be greater than 0");
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * lock the keys until the current transaction completes. The stripes of one call are locked in a fixed order,
+     * so the keys which a writer needs together must be locked by one call.
+     *
+     * @throws CannotAcquireLockException if a lock is not acquired within the timeout
+     */
+    public void lock(Collection<String> keys) {
+        Preconditions.checkArgument(keys != null, "keys must not be null");
+        Preconditions.checkState(TransactionSynchronizationManager.isSynchronizationActive(), "interval tree locks require a transaction");
+
+        List<Lock> heldLocks = getHeldLocks();
+        for (Lock lock : locks.bulkGet(keys)) {
+            acquire(lock, keys);
+            heldLocks.add(lock);
+        }
+    }
+
+    /**
+     * unlock the keys which the current transaction locked by {@link #lock(Collection)} before it completes
+     */
+    public void unlock(Collection<String> keys) {
+        Preconditions.checkArgument(keys != null, "keys must not be null");
+
+        List<Lock> heldLocks = getHeldLocks();
+        for (Lock lock : Lists.reverse(Lists.newArrayList(locks.bulkGet(keys)))) {
+            int index = heldLocks.lastIndexOf(lock);
+            Preconditions.checkState(index >= 0, "the lock of %s is not held by the current transaction", keys);
+            heldLocks.remove(index);
+            lock.unlock();
+        }
+    }
+
+    private void acquire(Lock lock, Collection<String> keys) {
+        acquiredCount.incrementAndGet();
+        if (lock.tryLock())
+            return;
+
+        contendedCount.incrementAndGet();
+        long start = System.nanoTime();
+        boolean acquired;
+        try {
+            acquired = lock.tryLock(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CannotAcquireLockException(String.format("interrupted while waiting for the lock of %s", keys), e);
+        }
+        long waitNanos = System.nanoTime() - start;
+        totalWaitNanos.addAndGet(waitNanos);
+        maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+        if (!acquired) {
+            timeoutCount.incrementAndGet();
+            throw new CannotAcquireLockException(String.format("can't acquire the lock of %s within %d ms", keys, timeoutMillis));
+        }
+        log.debug(String.format("wait %d ms for the lock of %s", TimeUnit.NANOSECONDS.toMillis(waitNanos), keys));
+    }
+
+    private List<Lock> getHeldLocks() {
+        HeldLocks heldLocks = (HeldLocks) TransactionSynchronizationManager.getResource(this);
+        if (heldLocks == null) {
+            HeldLocks transactionLocks = new HeldLocks();
+            TransactionSynchronizationManager.bindResource(this, transactionLocks);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void suspend() {
+                    TransactionSynchronizationManager.unbindResource(IntervalTreeLockManager.this);
+                }
+
+                @Override
+                public void resume() {
+                    TransactionSynchronizationManager.bindResource(IntervalTreeLockManager.this, transactionLocks);
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(IntervalTreeLockManager.this);
+                    transactionLocks.locks.forEach(Lock::unlock);
+                }
+            });
+            heldLocks = transactionLocks;
+        }
+        return heldLocks.locks;
+    }
+
+    @ManagedAttribute(description = "number of lock acquisitions")
+    public long getAcquiredCount() {
+        return acquiredCount.get();
+    }
+
+    @ManagedAttribute(description = "number of lock acquisitions which had to wait")
+    public long getContendedCount() {
+        return contendedCount.get();
+    }
+
+    @ManagedAttribute(description = "number of lock acquisitions which timed out")
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    @ManagedAttribute(description = "total time waited for locks in milliseconds")
+    public long getTotalWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.get());
+    }
+
+    @ManagedAttribute(description = "longest time waited for a lock in milliseconds")
+    public long getMaxWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get());
+    }
+
+    /**
+     * the locks held by a transaction, bound to it as the resource of this manager
+     */
+    private static final class HeldLocks {
+
+        private final List<Lock> locks = new ArrayList<>();
+    }
+}
@@ -0,0 +1,73 @@
+package com.limado.collab.dao;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * result of rebuilding one interval tree
+ *
+ * @author csieflyman
+ */
+public class IntervalTreeRebuildReport {
+
+    private final Long treeId;
+
+    private final String rootNodeId;
+
+    private final int nodeCount;
+
+    private final int insertedRows;
+
+    private final int updatedRows;
+
+    private final int deletedRows;
+
+    private final long elapsedMillis;
+
+    public IntervalTreeRebuildReport(Long treeId, String rootNodeId, int nodeCount, int insertedRows, int updatedRows, int deletedRows, long elapsedMillis) {
+        this.treeId = treeId;
+        this.rootNodeId = rootNodeId;
+        this.nodeCount = nodeCount;
+        this.insertedRows = insertedRows;
+        this.updatedRows = updatedRows;
+        this.deletedRows = deletedRows;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    public Long getTreeId() {
+        return treeId;
+    }
+
+    public String getRootNodeId() {
+        return rootNodeId;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public int getInsertedRows() {
+        return insertedRows;
+    }
+
+    public int getUpdatedRows() {
+        return updatedRows;
+    }
+
+    public int getDeletedRows() {
+        return deletedRows;
+    }
+
+    public int getRewrittenRows() {
+        return insertedRows + updatedRows + deletedRows;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this).append("treeId", treeId).append("rootNodeId", rootNodeId).append("nodeCount", nodeCount).append("insertedRows", insertedRows)
+                .append("updatedRows", updatedRows).append("deletedRows", deletedRows).append("elapsedMillis", elapsedMillis).toString();
+    }
+}
@@ -0,0 +1,168 @@
+package com.limado.collab.dao;
+
+import com.google.common.base.Preconditions;
+
+import java.util.*;
+
+/**
+ * Immutable in-memory copy of one interval tree.
+ * The nodes are kept in ascending order of low, so the subtree of a node is the range of nodes behind it
+ * up to its high, which is found by binary search.
+ *
+ * @author csieflyman
+ */
+final class IntervalTreeSnapshot<NodeIdType> {
+
+    private final Long treeId;
+
+    private final List<NodeIdType> nodeIds;
+
+    private final int[] low;
+
+    private final int[] high;
+
+    private final int[] parent;
+
+    private final int[] depth;
+
+    private final Map<NodeIdType, Integer> indexMap;
+
+    /**
+     * @param nodeIds nodes of the tree in ascending order of low
+     */
+    IntervalTreeSnapshot(Long treeId, List<NodeIdType> nodeIds, int[] low, int[] high) {
+        Preconditions.checkArgument(treeId != null, "treeId must not be null");
+        Preconditions.checkArgument(nodeIds.size() == low.length && nodeIds.size() == high.length, "nodeIds, low and high must have the same length");
+
+        this.treeId = treeId;
+        this.nodeIds = Collections.unmodifiableList(new ArrayList<>(nodeIds));
+        this.low = low.clone();
+        this.high = high.clone();
+        this.parent = new int[low.length];
+        this.depth = new int[low.length];
+        this.indexMap = new HashMap<>(nodeIds.size() * 4 / 3 + 1);
+
+        Deque<Integer> path = new ArrayDeque<>();
+        for (int i = 0; i < low.length; i++) {
+            Preconditions.checkArgument(i == 0 || this.low[i - 1] < this.low[i], "nodes must be in ascending order of low");
+            while (!path.isEmpty() && this.high[path.peek()] < this.low[i]) {
+                path.pop();
+            }
+            parent[i] = path.isEmpty() ? -1 : path.peek();
+            depth[i] = path.size();
+            path.push(i);
+            indexMap.put(nodeIds.get(i), i);
+        }
+    }
+
+    Long getTreeId() {
+        return treeId;
+    }
+
+    List<NodeIdType> getNodeIds() {
+        return nodeIds;
+    }
+
+    int size() {
+        return nodeIds.size();
+    }
+
+    boolean contains(NodeIdType nodeId) {
+        return indexMap.containsKey(nodeId);
+    }
+
+    /**
+     * @return descendants in ascending order of low
+     */
+    List<NodeIdType> getSubTree(NodeIdType nodeId) {
+        int index = indexOf(nodeId);
+        return nodeIds.subList(index + 1, lastDescendantIndex(index) + 1);
+    }
+
+    List<NodeIdType> getSubTree(NodeIdType nodeId, int maxDepth) {
+        int index = indexOf(nodeId);
+        return page(index, index + 1, maxDepth, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return the page of the descendants down to maxDepth levels below the node in ascending order of low
+     */
+    List<NodeIdType> getSubTree(NodeIdType nodeId, int maxDepth, int offset, int limit) {
+        int index = indexOf(nodeId);
+        return page(index, index + 1, maxDepth, offset, limit);
+    }
+
+    /**
+     * @param afterNodeId the last descendant of the previous page, null for the first page
+     */
+    List<NodeIdType> getSubTree(NodeIdType nodeId, int maxDepth, NodeIdType afterNodeId, int limit) {
+        int index = indexOf(nodeId);
+        int start = index + 1;
+        if (afterNodeId != null) {
+            int afterIndex = indexOf(afterNodeId);
+            Preconditions.checkArgument(afterIndex > index && afterIndex <= lastDescendantIndex(index),
+                    "node %s is not a descendant of %s", afterNodeId, nodeId);
+            start = afterIndex + 1;
+        }
+        return page(index, start, maxDepth, 0, limit);
+    }
+
+    /**
+     * @return ancestors from the root to the parent of the node
+     */
+    List<NodeIdType> getAncestors(NodeIdType nodeId) {
+        int index = indexOf(nodeId);
+        LinkedList<NodeIdType> ancestors = new LinkedList<>();
+        for (int i = parent[index]; i >= 0; i = parent[i]) {
+            ancestors.addFirst(nodeIds.get(i));
+        }
+        return ancestors;
+    }
+
+    boolean isDescendant(NodeIdType ancestorNodeId, NodeIdType nodeId) {
+        Integer ancestorIndex = indexMap.get(ancestorNodeId);
+        Integer index = indexMap.get(nodeId);
+        if (ancestorIndex == null || index == null)
+            return false;
+        return low[ancestorIndex] < low[index] && high[index] < high[ancestorIndex];
+    }
+
+    /**
+     * @return the deepest node whose subtree contains both nodes, a node is regarded as its own ancestor.
+     * null if the other node is not in this tree.
+     */
+    NodeIdType getLowestCommonAncestor(NodeIdType nodeId, NodeIdType otherNodeId) {
+        int index = indexOf(nodeId);
+        Integer otherIndex = indexMap.get(otherNodeId);
+        if (otherIndex == null)
+            return null;
+
+        while (low[index] > low[otherIndex] || high[index] < high[otherIndex]) {
+            index = parent[index];
+        }
+        return nodeIds.get(index);
+    }
+
+    private int indexOf(NodeIdType nodeId) {
+        Integer index = indexMap.get(nodeId);
+        Preconditions.checkArgument(index != null, "node %s doesn't belong to tree %s", nodeId, treeId);
+        return index;
+    }
+
+    private List<NodeIdType> page(int index, int start, int maxDepth, int offset, int limit) {
+        int end = lastDescendantIndex(index) + 1;
+        List<NodeIdType> subTree = new ArrayList<>();
+        int skipped = 0;
+        for (int i = start; i < end && subTree.size() < limit; i++) {
+            if (depth[i] - depth[index] <= maxDepth && skipped++ >= offset) {
+                subTree.add(nodeIds.get(i));
+            }
+        }
+        return subTree;
+    }
+
+    private int lastDescendantIndex(int index) {
+        int insertionPoint = Arrays.binarySearch(low, index + 1, low.length, high[index]);
+        return (insertionPoint < 0 ? -insertionPoint - 1 : insertionPoint) - 1;
+    }
+}
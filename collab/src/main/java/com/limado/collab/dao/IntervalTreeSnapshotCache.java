@@ -0,0 +1,138 @@
+package com.limado.collab.dao;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.Weigher;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * Process-local cache of {@link IntervalTreeSnapshot}, bounded by the total number of cached nodes.
+ * <p>
+ * A written tree is invalidated immediately and again when the writing transaction completes, so a snapshot loaded
+ * from the uncommitted state in between is dropped. The writing transaction itself reads that tree from the database.
+ * A snapshot whose loading overlapped an invalidation is returned to the caller but not cached.
+ * <p>
+ * Only the writes of this process invalidate the cache, a tree written by another instance is served stale until it is evicted.
+ * The cache is therefore meant for single-node deployments.
+ *
+ * @author csieflyman
+ */
+final class IntervalTreeSnapshotCache<NodeIdType> {
+
+    private final Cache<Long, IntervalTreeSnapshot<NodeIdType>> snapshots;
+
+    private final ConcurrentMap<NodeIdType, IntervalTreeSnapshot<NodeIdType>> nodeIndex = new ConcurrentHashMap<>();
+
+    private final Object lock = new Object();
+
+    private long generation;
+
+    IntervalTreeSnapshotCache(long maxNodes) {
+        Weigher<Long, IntervalTreeSnapshot<NodeIdType>> weigher = (treeId, snapshot) -> snapshot.size();
+        RemovalListener<Long, IntervalTreeSnapshot<NodeIdType>> removalListener = notification ->
+                notification.getValue().getNodeIds().forEach(nodeId -> nodeIndex.remove(nodeId, notification.getValue()));
+        snapshots = CacheBuilder.newBuilder().maximumWeight(maxNodes).weigher(weigher).removalListener(removalListener).build();
+    }
+
+    /**
+     * @param treeIdResolver returns the tree id of a node which is not cached, or null if the node doesn't belong to a tree
+     * @param loader         loads the snapshot of a tree from the database
+     * @return the snapshot of the tree containing the node, or null if there is no such tree or the current transaction has written it
+     */
+    IntervalTreeSnapshot<NodeIdType> get(NodeIdType nodeId, Function<NodeIdType, Long> treeIdResolver,
+                                         Function<Long, IntervalTreeSnapshot<NodeIdType>> loader) {
+        IntervalTreeSnapshot<NodeIdType> snapshot = nodeIndex.get(nodeId);
+        Long treeId = snapshot != null ? snapshot.getTreeId() : treeIdResolver.apply(nodeId);
+        if (treeId == null || isWrittenInTransaction(treeId))
+            return null;
+
+        if (snapshot == null) {
+            snapshot = snapshots.getIfPresent(treeId);
+        }
+        if (snapshot == null) {
+            long loadGeneration;
+            synchronized (lock) {
+                loadGeneration = generation;
+            }
+            snapshot = loader.apply(treeId);
+            synchronized (lock) {
+                if (loadGeneration == generation) {
+                    IntervalTreeSnapshot<NodeIdType> loadedSnapshot = snapshot;
+                    snapshot.getNodeIds().forEach(id -> nodeIndex.put(id, loadedSnapshot));
+                    snapshots.put(treeId, snapshot);
+                }
+            }
+        }
+        return snapshot.contains(nodeId) ? snapshot : null;
+    }
+
+    /**
+     * @return the cached snapshot containing the node without resolving or loading its tree, or null
+     */
+    IntervalTreeSnapshot<NodeIdType> getIfPresent(NodeIdType nodeId) {
+        IntervalTreeSnapshot<NodeIdType> snapshot = nodeIndex.get(nodeId);
+        return snapshot == null || isWrittenInTransaction(snapshot.getTreeId()) ? null : snapshot;
+    }
+
+    void invalidate(Long treeId) {
+        invalidateNow(treeId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            getWrittenTreeIds().add(treeId);
+        }
+    }
+
+    private void invalidateNow(Long treeId) {
+        synchronized (lock) {
+            generation++;
+            snapshots.invalidate(treeId);
+        }
+    }
+
+    private boolean isWrittenInTransaction(Long treeId) {
+        WrittenTreeIds writtenTreeIds = (WrittenTreeIds) TransactionSynchronizationManager.getResource(this);
+        return writtenTreeIds != null && writtenTreeIds.treeIds.contains(treeId);
+    }
+
+    private Set<Long> getWrittenTreeIds() {
+        WrittenTreeIds writtenTreeIds = (WrittenTreeIds) TransactionSynchronizationManager.getResource(this);
+        if (writtenTreeIds == null) {
+            WrittenTreeIds transactionTreeIds = new WrittenTreeIds();
+            TransactionSynchronizationManager.bindResource(this, transactionTreeIds);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void suspend() {
+                    TransactionSynchronizationManager.unbindResource(IntervalTreeSnapshotCache.this);
+                }
+
+                @Override
+                public void resume() {
+                    TransactionSynchronizationManager.bindResource(IntervalTreeSnapshotCache.this, transactionTreeIds);
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(IntervalTreeSnapshotCache.this);
+                    transactionTreeIds.treeIds.forEach(treeId -> invalidateNow(treeId));
+                }
+            });
+            writtenTreeIds = transactionTreeIds;
+        }
+        return writtenTreeIds.treeIds;
+    }
+
+    /**
+     * the trees written by a transaction, bound to it as the resource of this cache
+     */
+    private static final class WrittenTreeIds {
+
+        private final Set<Long> treeIds = new HashSet<>();
+    }
+}
@@ -0,0 +1,111 @@
+package com.limado.collab.dao;
+
+import com.google.common.base.Preconditions;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * One verification of the trees of an {@link IntervalTreeDao} against the relationship they are derived from.
+ * The dao checks the encoding of each tree and passes the parent of each node in the tree to {@link #verifyNodes},
+ * which checks that the tree contains exactly the tree of its root in the relationship. The roots of the relationship
+ * without a tree are reported at last.
+ * <p>
+ * The trees are verified in parallel on a ForkJoinPool. Within a transaction of the caller they are verified one by one
+ * in that transaction instead, because the threads of the pool can't see its uncommitted writes.
+ *
+ * @author csieflyman
+ */
+final class IntervalTreeVerifier<NodeIdType> {
+
+    static final int MAX_REPORTED_ERRORS = 100;
+
+    private final Map<NodeIdType, List<NodeIdType>> childrenMap;
+
+    private final Map<NodeIdType, NodeIdType> parentMap = new HashMap<>();
+
+    private final Set<NodeIdType> verifiedRootIds = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param childrenMap the relationship, the key is a parent node and the value is its children
+     */
+    IntervalTreeVerifier(Map<NodeIdType, List<NodeIdType>> childrenMap) {
+        this.childrenMap = childrenMap;
+        childrenMap.forEach((parentId, childIds) -> childIds.forEach(childId -> parentMap.put(childId, parentId)));
+    }
+
+    /**
+     * @param treeVerifier verifies the tree of the given id
+     * @return the reports of the corrupted trees
+     */
+    List<IntervalTreeVerifyReport> verify(List<Long> treeIds, int parallelism, Function<Long, IntervalTreeVerifyReport> treeVerifier) {
+        Preconditions.checkArgument(parallelism >= 1, "parallelism must be greater than 0");
+
+        List<IntervalTreeVerifyReport> reports;
+        if (parallelism == 1 || TransactionSynchronizationManager.isActualTransactionActive()) {
+            reports = treeIds.stream().map(treeVerifier).collect(Collectors.toList());
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                reports = pool.submit(() -> treeIds.parallelStream().map(treeVerifier).collect(Collectors.toList())).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("verification is interrupted", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException)
+                    throw (RuntimeException) e.getCause();
+                throw new IllegalStateException(e.getCause());
+            } finally {
+                pool.shutdown();
+            }
+        }
+        List<IntervalTreeVerifyReport> corruptedReports = reports.stream().filter(report -> report.getErrorCount() > 0).collect(Collectors.toList());
+        childrenMap.keySet().stream().filter(nodeId -> !parentMap.containsKey(nodeId) && !verifiedRootIds.contains(nodeId))
+                .forEach(rootId -> corruptedReports.add(report(null, rootId, 0, Collections.singletonList(String.format("root %s has no tree", rootId)))));
+        return corruptedReports;
+    }
+
+    /**
+     * @param treeParentMap the key is a node of the tree and the value is its parent in the tree
+     */
+    void verifyNodes(NodeIdType rootId, Map<NodeIdType, NodeIdType> treeParentMap, List<String> errors) {
+        if (parentMap.containsKey(rootId)) {
+            errors.add(String.format("root %s has parent %s in the relationship", rootId, parentMap.get(rootId)));
+        }
+        verifiedRootIds.add(rootId);
+
+        Set<NodeIdType> expectedNodeIds = new HashSet<>();
+        Deque<NodeIdType> stack = new ArrayDeque<>();
+        stack.push(rootId);
+        while (!stack.isEmpty()) {
+            NodeIdType nodeId = stack.pop();
+            if (expectedNodeIds.add(nodeId)) {
+                childrenMap.getOrDefault(nodeId, Collections.emptyList()).forEach(stack::push);
+            }
+        }
+        if (expectedNodeIds.size() != treeParentMap.size()) {
+            errors.add(String.format("tree has %d nodes but the relationship has %d", treeParentMap.size(), expectedNodeIds.size()));
+        }
+        treeParentMap.forEach((nodeId, parentId) -> {
+            if (nodeId.equals(rootId))
+                return;
+            if (!expectedNodeIds.contains(nodeId)) {
+                errors.add(String.format("node %s doesn't belong to the tree of %s in the relationship", nodeId, rootId));
+            } else if (!parentMap.get(nodeId).equals(parentId)) {
+                errors.add(String.format("node %s has parent %s but %s in the relationship", nodeId, parentId, parentMap.get(nodeId)));
+            }
+        });
+        expectedNodeIds.stream().filter(nodeId -> !treeParentMap.containsKey(nodeId))
+                .forEach(nodeId -> errors.add(String.format("node %s of the relationship is missing", nodeId)));
+    }
+
+    IntervalTreeVerifyReport report(Long treeId, NodeIdType rootId, int nodeCount, List<String> errors) {
+        return new IntervalTreeVerifyReport(treeId, rootId == null ? null : rootId.toString(), nodeCount,
+                new ArrayList<>(errors.subList(0, Math.min(errors.size(), MAX_REPORTED_ERRORS))), errors.size());
+    }
+}
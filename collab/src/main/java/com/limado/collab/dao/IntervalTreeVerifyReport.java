@@ -0,0 +1,63 @@
+package com.limado.collab.dao;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+import java.util.List;
+
+/**
+ * corruptions found by verifying one interval tree, the errors name the affected nodes
+ *
+ * @author csieflyman
+ */
+public class IntervalTreeVerifyReport {
+
+    private final Long treeId;
+
+    private final String rootNodeId;
+
+    private final int nodeCount;
+
+    private final List<String> errors;
+
+    private final int errorCount;
+
+    /**
+     * @param errors the first errors of the tree, errorCount counts all of them
+     */
+    public IntervalTreeVerifyReport(Long treeId, String rootNodeId, int nodeCount, List<String> errors, int errorCount) {
+        this.treeId = treeId;
+        this.rootNodeId = rootNodeId;
+        this.nodeCount = nodeCount;
+        this.errors = errors;
+        this.errorCount = errorCount;
+    }
+
+    /**
+     * null if the root of the relationship has no tree
+     */
+    public Long getTreeId() {
+        return treeId;
+    }
+
+    public String getRootNodeId() {
+        return rootNodeId;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    public int getErrorCount() {
+        return errorCount;
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this).append("treeId", treeId).append("rootNodeId", rootNodeId).append("nodeCount", nodeCount)
+                .append("errorCount", errorCount).append("errors", errors).toString();
+    }
+}
@@ -5,14 +5,21 @@ import com.limado.collab.util.query.QueryParams;
 import com.limado.collab.util.query.QueryUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.springframework.core.GenericTypeResolver;
 
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 import javax.persistence.Query;
 import javax.persistence.metamodel.EntityType;
 import java.io.Serializable;
-import java.lang.reflect.ParameterizedType;
+import java.sql.PreparedStatement;
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 /**
  * author flyman
@@ -25,12 +32,16 @@ abstract class JpaGenericDaoImpl<T extends Identifiable<ID>, ID extends Serializ
     @PersistenceContext
     EntityManager entityManager;
 
+    private static final int JDBC_BATCH_SIZE = 1000;
+
+    private static final int SCROLL_FETCH_SIZE = 1000;
+
     private int batchSize = 20;
 
     protected Class<T> clazz;
 
     JpaGenericDaoImpl() {
-        clazz = (Class<T>) ((ParameterizedType) getClass().getGenericSuperclass()).getActualTypeArguments()[0];
+        clazz = (Class<T>) GenericTypeResolver.resolveTypeArguments(getClass(), JpaGenericDaoImpl.class)[0];
     }
 
     protected T newInstance() {
@@ -45,6 +56,10 @@ abstract class JpaGenericDaoImpl<T extends Identifiable<ID>, ID extends Serializ
         return clazz.getSimpleName();
     }
 
+    protected String getTableName() {
+        return getPersister().getTableName();
+    }
+
     @Override
     public T create(T entity) {
         entityManager.persist(entity);
@@ -284,4 +299,144 @@ abstract class JpaGenericDaoImpl<T extends Identifiable<ID>, ID extends Serializ
         }
         return effectRows;
     }
-}
\ No newline at end of file
+
+    /**
+     * read the rows of the query one by one instead of loading the whole result
+     */
+    protected void scroll(Query query, Consumer<Object[]> rowConsumer) {
+        org.hibernate.query.Query hibernateQuery = query.unwrap(org.hibernate.query.Query.class);
+        hibernateQuery.setFetchSize(SCROLL_FETCH_SIZE);
+        ScrollableResults results = hibernateQuery.scroll(ScrollMode.FORWARD_ONLY);
+        try {
+            while (results.next()) {
+                rowConsumer.accept(results.get());
+            }
+        } finally {
+            results.close();
+        }
+    }
+
+    /**
+     * insert the properties of the entities by jdbc batch statements, the id must be generated by the database.
+     * The table and columns are resolved from the entity mapping.
+     */
+    protected void jdbcBatchInsert(List<T> entities, String... properties) {
+        jdbcBatchInsert(getTableName(), entities, properties);
+    }
+
+    /**
+     * insert the properties of the entities into a table with the columns of the entity table, e.g. its shadow table.
+     * The properties may contain the id.
+     */
+    protected void jdbcBatchInsert(String table, List<T> entities, String... properties) {
+        String columns = Arrays.stream(properties).map(this::getColumnName).collect(Collectors.joining(", "));
+        String sql = "insert into " + table + " (" + columns + ") values (" + String.join(", ", Collections.nCopies(properties.length, "?")) + ")";
+        executeJdbcBatch(sql, entities, properties, false);
+    }
+
+    /**
+     * update the properties of the entities by jdbc batch statements
+     */
+    protected void jdbcBatchUpdate(List<T> entities, String... properties) {
+        AbstractEntityPersister persister = getPersister();
+        String columns = Arrays.stream(properties).map(property -> getColumnName(property) + " = ?").collect(Collectors.joining(", "));
+        String sql = "update " + persister.getTableName() + " set " + columns + " where " + persister.getIdentifierColumnNames()[0] + " = ?";
+        executeJdbcBatch(sql, entities, properties, true);
+    }
+
+    private void executeJdbcBatch(String sql, List<T> entities, String[] properties, boolean bindId) {
+        if (entities.isEmpty())
+            return;
+
+        log.debug(sql);
+        entityManager.flush();
+        SessionImplementor session = entityManager.unwrap(SessionImplementor.class);
+        AbstractEntityPersister persister = getPersister();
+        session.doWork(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                int count = 0;
+                for (T entity : entities) {
+                    for (int i = 0; i < properties.length; i++) {
+                        if (properties[i].equals(persister.getIdentifierPropertyName())) {
+                            persister.getIdentifierType().nullSafeSet(statement, entity.getId(), i + 1, session);
+                        } else {
+                            persister.getPropertyType(properties[i]).nullSafeSet(statement, persister.getPropertyValue(entity, properties[i]), i + 1, session);
+                        }
+                    }
+                    if (bindId) {
+                        persister.getIdentifierType().nullSafeSet(statement, entity.getId(), properties.length + 1, session);
+                    }
+                    statement.addBatch();
+                    if (++count % JDBC_BATCH_SIZE == 0) {
+                        statement.executeBatch();
+                    }
+                }
+                if (count % JDBC_BATCH_SIZE != 0) {
+                    statement.executeBatch();
+                }
+            }
+        });
+    }
+
+    /**
+     * Empty the rows of the shadow table whose partition property has the given value, e.g. the rows of one dag, before they are rebuilt.
+     * The shadow table must have the columns of the entity table.
+     */
+    protected void clearShadowTable(String shadowTable, String partitionProperty, Object partitionValue) {
+        Query query = entityManager.createNativeQuery("delete from " + shadowTable + " where " + getColumnName(partitionProperty) + " = ?");
+        query.setParameter(1, partitionValue);
+        query.executeUpdate();
+    }
+
+    /**
+     * Replace the rows of the partition by its rows of the shadow table within the current transaction, then remove them from the shadow table.
+     * The rows of the other partitions are not touched. The ids of the shadow rows are shifted above the ids of the table, so they never collide
+     * with rows inserted in the meantime.
+     *
+     * @param idProperties the properties which refer to the ids of other rows of the partition, they are shifted like the ids
+     */
+    protected void swapShadowTable(String shadowTable, String partitionProperty, Object partitionValue, String... idProperties) {
+        AbstractEntityPersister persister = getPersister();
+        String table = persister.getTableName();
+        String idColumn = persister.getIdentifierColumnNames()[0];
+        String partitionColumn = getColumnName(partitionProperty);
+
+        Query minIdQuery = entityManager.createNativeQuery("select min(" + idColumn + ") from " + shadowTable + " where " + partitionColumn + " = ?");
+        minIdQuery.setParameter(1, partitionValue);
+        Number minShadowId = (Number) minIdQuery.getSingleResult();
+        Number maxId = (Number) entityManager.createNativeQuery("select max(" + idColumn + ") from " + table).getSingleResult();
+
+        Query delete = entityManager.createNativeQuery("delete from " + table + " where " + partitionColumn + " = ?");
+        delete.setParameter(1, partitionValue);
+        delete.executeUpdate();
+        if (minShadowId == null)
+            return;
+
+        long offset = (maxId == null ? 0 : maxId.longValue()) + 1 - minShadowId.longValue();
+        Set<String> shiftedColumns = Arrays.stream(idProperties).map(this::getColumnName).collect(Collectors.toSet());
+        shiftedColumns.add(idColumn);
+        List<String> columns = new ArrayList<>();
+        columns.add(idColumn);
+        for (int i = 0; i < persister.getPropertyNames().length; i++) {
+            columns.addAll(Arrays.asList(persister.getPropertyColumnNames(i)));
+        }
+        String values = columns.stream().map(column -> shiftedColumns.contains(column) ? column + " + " + offset : column).collect(Collectors.joining(", "));
+        Query insert = entityManager.createNativeQuery("insert into " + table + " (" + String.join(", ", columns) + ") select " + values
+                + " from " + shadowTable + " where " + partitionColumn + " = ?");
+        insert.setParameter(1, partitionValue);
+        insert.executeUpdate();
+        clearShadowTable(shadowTable, partitionProperty, partitionValue);
+    }
+
+    private String getColumnName(String property) {
+        AbstractEntityPersister persister = getPersister();
+        if (property.equals(persister.getIdentifierPropertyName()))
+            return persister.getIdentifierColumnNames()[0];
+        return persister.getPropertyColumnNames(property)[0];
+    }
+
+    private AbstractEntityPersister getPersister() {
+        SessionImplementor session = entityManager.unwrap(SessionImplementor.class);
+        return (AbstractEntityPersister) session.getFactory().getMetamodel().entityPersister(clazz);
+    }
+}
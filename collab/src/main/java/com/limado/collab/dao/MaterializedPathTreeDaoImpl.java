@@ -0,0 +1,524 @@
+package com.limado.collab.dao;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.limado.collab.model.MaterializedPathTreeNode;
+import com.limado.collab.util.query.Operator;
+import com.limado.collab.util.query.OrderBy;
+import com.limado.collab.util.query.Predicate;
+import com.limado.collab.util.query.QueryParams;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.persistence.Query;
+import javax.persistence.TypedQuery;
+import java.io.Serializable;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Materialized path implementation of {@link IntervalTreeDao}.
+ * <p>
+ * The path of a node is the path of its parent followed by its sibling ordinal, written as a segment of
+ * {@link #SEGMENT_LENGTH} base 36 digits, so the paths sort in depth first order. The descendants of a node are read
+ * by one range scan of the path prefix, adding a leaf inserts one row and moving a subtree rewrites the prefix of
+ * the moved nodes by one update statement. A path is limited to {@link #MAX_PATH_LENGTH} characters,
+ * which suits deep trees whose nodes have few children.
+ *
+ * @author csieflyman
+ */
+abstract class MaterializedPathTreeDaoImpl<NodeType extends MaterializedPathTreeNode<NodeIdType>, NodeIdType extends Serializable>
+        extends AbstractTreeDaoImpl<NodeType, NodeIdType> {
+
+    private static final Logger log = LogManager.getLogger(MaterializedPathTreeDaoImpl.class);
+
+    static final int SEGMENT_LENGTH = 6;
+
+    static final int MAX_PATH_LENGTH = 1024;
+
+    private static final int RADIX = 36;
+
+    private static final String ROOT_PATH = segment(0);
+
+    @Override
+    protected void removeFromParent(NodeType childNode) {
+        NodeIdType parentNodeId = childNode.getParentNodeId();
+        if (isLeaf(childNode)) {
+            // a root without child is not stored
+            deleteNode(childNode);
+        } else {
+            moveSubTree(childNode, null);
+        }
+        deleteIfRootWithoutChild(parentNodeId);
+    }
+
+    /**
+     * Each child with children becomes the root of a new tree by one prefix update, the leaf children are deleted.
+     */
+    @Override
+    protected void deleteAndSplitTree(NodeType node) {
+        List<NodeType> children = findChildren(node.getNodeId());
+        List<Long> deletedIds = new ArrayList<>();
+        deletedIds.add(node.getId());
+        for (NodeType child : children) {
+            if (isLeaf(child)) {
+                // a root without child is not stored
+                deletedIds.add(child.getId());
+            } else {
+                moveSubTree(child, null);
+            }
+        }
+        batchDeleteById(deletedIds);
+        detachNodes();
+        log.debug(String.format("delete node %s, move %d children into new trees", node.getNodeId(), children.size() - (deletedIds.size() - 1)));
+        if (!isRoot(node)) {
+            deleteIfRootWithoutChild(node.getParentNodeId());
+        }
+    }
+
+    @Override
+    protected void deleteSubTree(NodeType node) {
+        Query query = entityManager.createQuery("delete from " + getEntityName()
+                + " where treeId = :treeId and treeType = :treeType and path like :pathPrefix");
+        query.setParameter("treeId", node.getTreeId());
+        query.setParameter("treeType", getTreeType());
+        query.setParameter("pathPrefix", node.getPath() + "%");
+        entityManager.flush();
+        log.debug("effectRows = " + query.executeUpdate());
+        detachNodes();
+        if (!isRoot(node)) {
+            deleteIfRootWithoutChild(node.getParentNodeId());
+        }
+    }
+
+    @Override
+    public List<NodeIdType> getSubTree(NodeIdType nodeId) {
+        Preconditions.checkArgument(nodeId != null, "nodeId must not be null");
+
+        NodeType node = getNode(nodeId);
+        if (node == null) {
+            return Collections.emptyList();
+        }
+        return findSubTree(node, Integer.MAX_VALUE, node.getPath(), 0, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<NodeIdType> getSubTree(NodeIdType nodeId, int maxDepth) {
+        Preconditions.checkArgument(nodeId != null, "nodeId must not be null");
+        Preconditions.checkArgument(maxDepth >= 1, "maxDepth must be greater than 0");
+
+        NodeType node = getNode(nodeId);
+        if (node == null) {
+            return Collections.emptyList();
+        }
+        return findSubTree(node, maxDepth, node.getPath(), 0, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<NodeIdType> getSubTree(NodeIdType nodeId, int maxDepth, int offset, int limit) {
+        Preconditions.checkArgument(nodeId != null, "nodeId must not be null");
+        Preconditions.checkArgument(maxDepth >= 1, "maxDepth must be greater than 0");
+        Preconditions.checkArgument(offset >= 0, "offset must not be negative");
+        Preconditions.checkArgument(limit >= 1, "limit must be greater than 0");
+
+        NodeType node = getNode(nodeId);
+        if (node == null) {
+            return Collections.emptyList();
+        }
+        return findSubTree(node, maxDepth, node.getPath(), offset, limit);
+    }
+
+    @Override
+    public List<NodeIdType> getSubTree(NodeIdType nodeId, int maxDepth, NodeIdType afterNodeId, int limit) {
+        Preconditions.checkArgument(nodeId != null, "nodeId must not be null");
+        Preconditions.checkArgument(maxDepth >= 1, "maxDepth must be greater than 0");
+        Preconditions.checkArgument(limit >= 1, "limit must be greater than 0");
+
+        NodeType node = getNode(nodeId);
+        if (node == null) {
+            return Collections.emptyList();
+        }
+        String start = node.getPath();
+        if (afterNodeId != null) {
+            NodeType afterNode = getNode(afterNodeId);
+            Preconditions.checkArgument(afterNode != null && isInSubTree(afterNode, node) && !afterNode.getNodeId().equals(nodeId),
+                    "node %s is not a descendant of %s", afterNodeId, nodeId);
+            start = afterNode.getPath();
+        }
+        return findSubTree(node, maxDepth, start, 0, limit);
+    }
+
+    /**
+     * the paths of the ancestors are the prefixes of the path of the node, so they are read by one lookup of the path index
+     */
+    @Override
+    public List<NodeIdType> getAncestors(NodeIdType nodeId) {
+        Preconditions.checkArgument(nodeId != null, "nodeId must not be null");
+
+        NodeType node = getNode(nodeId);
+        if (node == null || isRoot(node)) {
+            return Collections.emptyList();
+        }
+        List<String> ancestorPaths = new ArrayList<>(node.getDepth());
+        for (int length = SEGMENT_LENGTH; length < node.getPath().length(); length += SEGMENT_LENGTH) {
+            ancestorPaths.add(node.getPath().substring(0, length));
+        }
+        TypedQuery<NodeIdType> query = entityManager.createQuery("select nodeId from " + getEntityName()
+                + " where treeId = :treeId and treeType = :treeType and path in (:paths) order by path", getNodeIdClass());
+        query.setParameter("treeId", node.getTreeId());
+        query.setParameter("treeType", getTreeType());
+        query.setParameter("paths", ancestorPaths);
+        return query.getResultList();
+    }
+
+    /**
+     * the path of the lowest common ancestor is the longest common prefix of whole segments
+     */
+    @Override
+    public NodeIdType getLowestCommonAncestor(NodeIdType nodeId, NodeIdType otherNodeId) {
+        Preconditions.checkArgument(nodeId != null, "nodeId must not be null");
+        Preconditions.checkArgument(otherNodeId != null, "otherNodeId must not be null");
+
+        NodeType node = getNode(nodeId);
+        NodeType otherNode = getNode(otherNodeId);
+        if (node == null || otherNode == null || !node.getTreeId().equals(otherNode.getTreeId())) {
+            return null;
+        }
+        String commonPrefix = Strings.commonPrefix(node.getPath(), otherNode.getPath());
+        String path = commonPrefix.substring(0, commonPrefix.length() - commonPrefix.length() % SEGMENT_LENGTH);
+        TypedQuery<NodeIdType> query = entityManager.createQuery("select nodeId from " + getEntityName()
+                + " where treeId = :treeId and treeType = :treeType and path = :path", getNodeIdClass());
+        query.setParameter("treeId", node.getTreeId());
+        query.setParameter("treeType", getTreeType());
+        query.setParameter("path", path);
+        List<NodeIdType> result = query.getResultList();
+        return result.isEmpty() ? null : result.get(0);
+    }
+
+    @Override
+    public List<NodeIdType> getChildren(NodeIdType nodeId) {
+        Preconditions.checkArgument(nodeId != null, "nodeId must not be null");
+
+        TypedQuery<NodeIdType> query = entityManager.createQuery("select nodeId from " + getEntityName()
+                + " where parentNodeId = :parentNodeId and treeType = :treeType order by path", getNodeIdClass());
+        query.setParameter("parentNodeId", nodeId);
+        query.setParameter("treeType", getTreeType());
+        return query.getResultList();
+    }
+
+    /**
+     * A node which doesn't belong to a tree yet is inserted as a leaf, a parent which doesn't belong to a tree yet becomes the root of a new tree.
+     */
+    @Override
+    protected void moveUnder(NodeIdType childNodeId, NodeType childNode, NodeIdType parentNodeId) {
+        NodeType parentNode = getNode(parentNodeId);
+        if (parentNode == null) {
+            parentNode = newNode(parentNodeId);
+            parentNode.setPath(ROOT_PATH);
+            parentNode.setTreeId(nextTreeId());
+            create(parentNode);
+        }
+        if (childNode == null) {
+            childNode = newNode(childNodeId);
+            childNode.setParentNodeId(parentNodeId);
+            childNode.setPath(childPath(parentNode.getPath(), nextOrdinal(parentNode)));
+            childNode.setDepth(parentNode.getDepth() + 1);
+            childNode.setTreeId(parentNode.getTreeId());
+            create(childNode);
+            return;
+        }
+        NodeIdType oldParentNodeId = childNode.getParentNodeId();
+        moveSubTree(childNode, parentNode);
+        if (oldParentNodeId != null) {
+            deleteIfRootWithoutChild(oldParentNodeId);
+        }
+    }
+
+    /**
+     * replace the path prefix of the subtree of the node by the next child path of the new parent,
+     * or by the root path of a new tree if newParentNode is null
+     */
+    private void moveSubTree(NodeType node, NodeType newParentNode) {
+        String newPath;
+        Long treeId;
+        int depthOffset;
+        if (newParentNode == null) {
+            newPath = ROOT_PATH;
+            treeId = nextTreeId();
+            depthOffset = -node.getDepth();
+        } else {
+            newPath = childPath(newParentNode.getPath(), nextOrdinal(newParentNode));
+            treeId = newParentNode.getTreeId();
+            depthOffset = newParentNode.getDepth() + 1 - node.getDepth();
+            checkPathLength(node.getNodeId(), newPath.length() + findMaxPathLength(node) - node.getPath().length());
+        }
+
+        Query query = entityManager.createQuery("update " + getEntityName()
+                + " set path = concat(:newPath, substring(path, :suffixStart)), depth = depth + :depthOffset, treeId = :newTreeId"
+                + " where treeId = :treeId and treeType = :treeType and path like :pathPrefix");
+        query.setParameter("newPath", newPath);
+        query.setParameter("suffixStart", node.getPath().length() + 1);
+        query.setParameter("depthOffset", depthOffset);
+        query.setParameter("newTreeId", treeId);
+        query.setParameter("treeId", node.getTreeId());
+        query.setParameter("treeType", getTreeType());
+        query.setParameter("pathPrefix", node.getPath() + "%");
+        entityManager.flush();
+        int effectRows = query.executeUpdate();
+
+        Query parentQuery = entityManager.createQuery("update " + getEntityName() + " set parentNodeId = :parentNodeId where id = :id");
+        parentQuery.setParameter("parentNodeId", newParentNode == null ? null : newParentNode.getNodeId());
+        parentQuery.setParameter("id", node.getId());
+        parentQuery.executeUpdate();
+        detachNodes();
+        log.debug(String.format("move %d nodes of the subtree of %s", effectRows, node.getNodeId()));
+    }
+
+    @Override
+    protected List<NodeType> encodeTree(NodeIdType rootId, Long treeId, Map<NodeIdType, List<NodeIdType>> childrenMap) {
+        return encodeTree(rootId, treeId, childrenMap, Collections.emptyMap());
+    }
+
+    /**
+     * encode the tree by an iterative depth first traversal.
+     *
+     * @param ordinals the ordinals to keep, the other children get the next ordinals in the order of childrenMap
+     */
+    private List<NodeType> encodeTree(NodeIdType rootId, Long treeId, Map<NodeIdType, List<NodeIdType>> childrenMap,
+                                      Map<NodeIdType, Integer> ordinals) {
+        List<NodeType> nodes = new ArrayList<>();
+        Deque<NodeType> stack = new ArrayDeque<>();
+        NodeType root = newNode(rootId);
+        root.setPath(ROOT_PATH);
+        root.setTreeId(treeId);
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            NodeType parent = stack.pop();
+            nodes.add(parent);
+            List<NodeIdType> childIds = childrenMap.getOrDefault(parent.getNodeId(), Collections.emptyList());
+            int nextOrdinal = childIds.stream().map(ordinals::get).filter(Objects::nonNull).max(Integer::compare).orElse(0) + 1;
+            List<NodeType> children = new ArrayList<>(childIds.size());
+            for (NodeIdType childId : childIds) {
+                Integer ordinal = ordinals.get(childId);
+                NodeType child = newNode(childId);
+                child.setParentNodeId(parent.getNodeId());
+                child.setPath(childPath(parent.getPath(), ordinal != null ? ordinal : nextOrdinal++));
+                child.setDepth(parent.getDepth() + 1);
+                child.setTreeId(treeId);
+                checkPathLength(childId, child.getPath().length());
+                children.add(child);
+            }
+            // push in reverse order, so the nodes are listed in depth first order
+            for (ListIterator<NodeType> i = children.listIterator(children.size()); i.hasPrevious(); ) {
+                stack.push(i.previous());
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * The children which keep their parent keep their ordinal, so only the rows whose path changed are rewritten.
+     */
+    @Override
+    protected IntervalTreeRebuildReport rebuildTree(NodeIdType rootId, List<NodeIdType> nodeIds, Map<NodeIdType, List<NodeIdType>> childrenMap) {
+        long start = System.nanoTime();
+        Map<NodeIdType, NodeType> existingNodes = new HashMap<>();
+        findNodesIn("nodeId", nodeIds).forEach(node -> existingNodes.put(node.getNodeId(), node));
+        NodeType existingRoot = existingNodes.get(rootId);
+        Long treeId = existingRoot != null && isRoot(existingRoot) ? existingRoot.getTreeId() : nextTreeId();
+        findNodesIn("treeId", Collections.singleton(treeId)).forEach(node -> existingNodes.put(node.getNodeId(), node));
+        detachNodes();
+
+        Map<NodeIdType, Integer> ordinals = new HashMap<>();
+        for (NodeIdType nodeId : nodeIds) {
+            List<NodeIdType> children = childrenMap.get(nodeId);
+            if (children == null)
+                continue;
+            for (NodeIdType childId : children) {
+                NodeType child = existingNodes.get(childId);
+                if (child != null && child.getTreeId().equals(treeId) && nodeId.equals(child.getParentNodeId())) {
+                    ordinals.put(childId, lastOrdinal(child.getPath()));
+                }
+            }
+            children.sort(Comparator.<NodeIdType>comparingInt(childId -> ordinals.getOrDefault(childId, Integer.MAX_VALUE))
+                    .thenComparing(Object::toString));
+        }
+
+        List<NodeType> insertedNodes = new ArrayList<>();
+        List<NodeType> updatedNodes = new ArrayList<>();
+        for (NodeType node : encodeTree(rootId, treeId, childrenMap, ordinals)) {
+            NodeType existingNode = existingNodes.remove(node.getNodeId());
+            if (existingNode == null) {
+                insertedNodes.add(node);
+            } else if (!isSameEncoding(existingNode, node)) {
+                existingNode.setPath(node.getPath());
+                existingNode.setParentNodeId(node.getParentNodeId());
+                existingNode.setDepth(node.getDepth());
+                existingNode.setTreeId(node.getTreeId());
+                updatedNodes.add(existingNode);
+            }
+        }
+        List<Long> deletedIds = existingNodes.values().stream().map(NodeType::getId).collect(Collectors.toList());
+        batchDeleteById(deletedIds);
+        updateNodes(updatedNodes);
+        insertNodes(insertedNodes);
+        return new IntervalTreeRebuildReport(treeId, rootId.toString(), nodeIds.size(), insertedNodes.size(), updatedNodes.size(), deletedIds.size(),
+                (System.nanoTime() - start) / 1000000);
+    }
+
+    private boolean isSameEncoding(NodeType node, NodeType otherNode) {
+        return node.getPath().equals(otherNode.getPath()) && Objects.equals(node.getParentNodeId(), otherNode.getParentNodeId())
+                && node.getDepth().equals(otherNode.getDepth()) && node.getTreeId().equals(otherNode.getTreeId());
+    }
+
+    private void checkPathLength(NodeIdType nodeId, int pathLength) {
+        if (pathLength > MAX_PATH_LENGTH)
+            throw new IllegalStateException(String.format("the path of node %s would be longer than %d, the tree is too deep for materialized paths",
+                    nodeId, MAX_PATH_LENGTH));
+    }
+
+    private int nextOrdinal(NodeType parentNode) {
+        Query query = entityManager.createQuery("select max(path) from " + getEntityName()
+                + " where parentNodeId = :parentNodeId and treeType = :treeType");
+        query.setParameter("parentNodeId", parentNode.getNodeId());
+        query.setParameter("treeType", getTreeType());
+        String maxPath = (String) query.getSingleResult();
+        return maxPath == null ? 1 : lastOrdinal(maxPath) + 1;
+    }
+
+    private int findMaxPathLength(NodeType node) {
+        Query query = entityManager.createQuery("select max(depth) from " + getEntityName()
+                + " where treeId = :treeId and treeType = :treeType and path like :pathPrefix");
+        query.setParameter("treeId", node.getTreeId());
+        query.setParameter("treeType", getTreeType());
+        query.setParameter("pathPrefix", node.getPath() + "%");
+        return ((Integer) query.getSingleResult() + 1) * SEGMENT_LENGTH;
+    }
+
+    private static String childPath(String parentPath, int ordinal) {
+        return parentPath + segment(ordinal);
+    }
+
+    private static String segment(int ordinal) {
+        String segment = Integer.toString(ordinal, RADIX);
+        Preconditions.checkState(segment.length() <= SEGMENT_LENGTH, "ordinal %s exceeds the path segment", ordinal);
+        return Strings.padStart(segment, SEGMENT_LENGTH, '0');
+    }
+
+    private static int lastOrdinal(String path) {
+        return Integer.parseInt(path.substring(path.length() - SEGMENT_LENGTH), RADIX);
+    }
+
+    private List<NodeIdType> findSubTree(NodeType node, int maxDepth, String start, int offset, int limit) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("select nodeId from ").append(getEntityName())
+                .append(" where treeId = :treeId and treeType = :treeType and path like :pathPrefix and path > :start");
+        if (maxDepth < Integer.MAX_VALUE) {
+            sb.append(" and depth <= :maxNodeDepth");
+        }
+        sb.append(" order by path");
+        TypedQuery<NodeIdType> query = entityManager.createQuery(sb.toString(), getNodeIdClass());
+        query.setParameter("treeId", node.getTreeId());
+        query.setParameter("treeType", getTreeType());
+        query.setParameter("pathPrefix", node.getPath() + "%");
+        query.setParameter("start", start);
+        if (maxDepth < Integer.MAX_VALUE) {
+            query.setParameter("maxNodeDepth", (int) Math.min((long) node.getDepth() + maxDepth, Integer.MAX_VALUE));
+        }
+        query.setFirstResult(offset);
+        if (limit < Integer.MAX_VALUE) {
+            query.setMaxResults(limit);
+        }
+        return query.getResultList();
+    }
+
+    /**
+     * counts the descendants by one prefix range query on the path of the node
+     */
+    @Override
+    protected int countSubTree(NodeType node) {
+        Query query = entityManager.createQuery("select count(*) from " + getEntityName()
+                + " where treeId = :treeId and treeType = :treeType and path like :pathPrefix and path > :path");
+        query.setParameter("treeId", node.getTreeId());
+        query.setParameter("treeType", getTreeType());
+        query.setParameter("pathPrefix", node.getPath() + "%");
+        query.setParameter("path", node.getPath());
+        return ((Number) query.getSingleResult()).intValue();
+    }
+
+    private List<NodeType> findChildren(NodeIdType nodeId) {
+        QueryParams params = new QueryParams();
+        params.addPredicate(new Predicate("parentNodeId", Operator.EQ, nodeId));
+        params.addPredicate(new Predicate("treeType", Operator.EQ, getTreeType()));
+        params.addOrderBy(new OrderBy("path", true));
+        return find(params);
+    }
+
+    /**
+     * The tree is read by one query in the order of path. The path of every node must be the path of its parent
+     * followed by one segment, and the paths of the tree must be distinct.
+     */
+    @Override
+    protected IntervalTreeVerifyReport verifyTree(Long treeId, IntervalTreeVerifier<NodeIdType> verifier) {
+        TypedQuery<Object[]> query = entityManager.createQuery("select nodeId, parentNodeId, path, depth from " + getEntityName()
+                + " where treeId = :treeId and treeType = :treeType order by path", Object[].class);
+        query.setParameter("treeId", treeId);
+        query.setParameter("treeType", getTreeType());
+        List<Object[]> rows = query.getResultList();
+
+        List<String> errors = new ArrayList<>();
+        Map<NodeIdType, NodeIdType> treeParentMap = new HashMap<>();
+        // row[0] nodeId, row[1] parentNodeId, row[2] path, row[3] depth
+        Deque<Object[]> openRows = new ArrayDeque<>();
+        for (int i = 0; i < rows.size(); i++) {
+            Object[] row = rows.get(i);
+            NodeIdType nodeId = getNodeIdClass().cast(row[0]);
+            String path = (String) row[2];
+            treeParentMap.put(nodeId, getNodeIdClass().cast(row[1]));
+            if (i == 0) {
+                if (row[1] != null || (Integer) row[3] != 0 || !ROOT_PATH.equals(path)) {
+                    errors.add(String.format("node %s has the lowest path %s but is not a root", nodeId, path));
+                }
+            } else {
+                while (!openRows.isEmpty() && !path.startsWith((String) openRows.peek()[2])) {
+                    openRows.pop();
+                }
+                Object[] parentRow = openRows.peek();
+                if (parentRow == null) {
+                    errors.add(String.format("node %s has path %s outside of the root", nodeId, path));
+                } else if (path.length() != ((String) parentRow[2]).length() + SEGMENT_LENGTH) {
+                    errors.add(String.format("node %s has path %s which is not a child path of node %s", nodeId, path, parentRow[0]));
+                } else if (!parentRow[0].equals(row[1]) || (Integer) row[3] != (Integer) parentRow[3] + 1) {
+                    errors.add(String.format("node %s lies in node %s but has parent %s and depth %d", nodeId, parentRow[0], row[1], row[3]));
+                }
+            }
+            openRows.push(row);
+        }
+        NodeIdType rootId = getNodeIdClass().cast(rows.get(0)[0]);
+        verifier.verifyNodes(rootId, treeParentMap, errors);
+        return verifier.report(treeId, rootId, rows.size(), errors);
+    }
+
+    @Override
+    protected boolean isInSubTree(NodeType node, NodeType ancestorNode) {
+        return node.getTreeId().equals(ancestorNode.getTreeId()) && node.getPath().startsWith(ancestorNode.getPath());
+    }
+
+    @Override
+    protected void insertNodes(List<NodeType> nodes) {
+        jdbcBatchInsert(nodes, "nodeId", "parentNodeId", "path", "depth", "treeId", "treeType");
+    }
+
+    private void updateNodes(List<NodeType> nodes) {
+        jdbcBatchUpdate(nodes, "parentNodeId", "path", "depth", "treeId");
+    }
+
+    private NodeType newNode(NodeIdType nodeId) {
+        NodeType node = super.newInstance();
+        node.setNodeId(nodeId);
+        node.setParentNodeId(null);
+        node.setDepth(0);
+        node.setTreeType(getTreeType());
+        return node;
+    }
+}
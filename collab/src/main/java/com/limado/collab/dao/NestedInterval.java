@@ -0,0 +1,126 @@
+package com.limado.collab.dao;
+
+import com.google.common.base.Preconditions;
+import com.limado.collab.model.NestedIntervalTreeNode;
+
+import java.math.BigInteger;
+import java.util.Objects;
+
+/**
+ * The interval lowNum/lowDen < highNum/highDen of a node in the nested intervals encoding, written as the matrix
+ * [[highNum, lowNum], [highDen, lowDen]] whose determinant is 1. The root of a tree is (0/1, 1/1) and the interval of
+ * the k-th child (k >= 1) is the interval of its parent times [[1, 1], [k, k + 1]]. The products of such matrices also
+ * map a subtree from one interval to another.
+ * <p>
+ * The arithmetic is exact and fails with ArithmeticException on overflow. The queries use the interval scaled by 2^62
+ * and rounded down, which keeps the order of the fractions but not always their difference.
+ *
+ * @author csieflyman
+ */
+final class NestedInterval {
+
+    static final NestedInterval ROOT = new NestedInterval(1, 0, 1, 1);
+
+    private static final int SCALE_BITS = 62;
+
+    private final long highNum;
+
+    private final long lowNum;
+
+    private final long highDen;
+
+    private final long lowDen;
+
+    private NestedInterval(long highNum, long lowNum, long highDen, long lowDen) {
+        this.highNum = highNum;
+        this.lowNum = lowNum;
+        this.highDen = highDen;
+        this.lowDen = lowDen;
+    }
+
+    static NestedInterval of(NestedIntervalTreeNode<?> node) {
+        return new NestedInterval(node.getHighNum(), node.getLowNum(), node.getHighDen(), node.getLowDen());
+    }
+
+    static NestedInterval of(long highNum, long lowNum, long highDen, long lowDen) {
+        return new NestedInterval(highNum, lowNum, highDen, lowDen);
+    }
+
+    /**
+     * @param index the sibling index of the child, starting from 1
+     */
+    NestedInterval child(int index) {
+        Preconditions.checkArgument(index >= 1, "index must be greater than 0");
+        return multiply(new NestedInterval(1, 1, index, index + 1L));
+    }
+
+    NestedInterval multiply(NestedInterval other) {
+        return new NestedInterval(
+                Math.addExact(Math.multiplyExact(highNum, other.highNum), Math.multiplyExact(lowNum, other.highDen)),
+                Math.addExact(Math.multiplyExact(highNum, other.lowNum), Math.multiplyExact(lowNum, other.lowDen)),
+                Math.addExact(Math.multiplyExact(highDen, other.highNum), Math.multiplyExact(lowDen, other.highDen)),
+                Math.addExact(Math.multiplyExact(highDen, other.lowNum), Math.multiplyExact(lowDen, other.lowDen)));
+    }
+
+    NestedInterval inverse() {
+        return new NestedInterval(lowDen, Math.negateExact(lowNum), Math.negateExact(highDen), highNum);
+    }
+
+    /**
+     * @return the matrix which maps this interval and the intervals nested in it onto the target interval
+     */
+    NestedInterval mapTo(NestedInterval target) {
+        return target.multiply(inverse());
+    }
+
+    long getScaledLow() {
+        return scale(lowNum, lowDen);
+    }
+
+    long getScaledHigh() {
+        return scale(highNum, highDen);
+    }
+
+    /**
+     * the scaled values of a node must lie strictly inside those of its parent and must differ from each other,
+     * otherwise the queries can't tell the node apart from its parent or siblings
+     */
+    boolean isDistinctlyNestedIn(NestedInterval parent) {
+        long low = getScaledLow();
+        long high = getScaledHigh();
+        return parent.getScaledLow() < low && low < high && high < parent.getScaledHigh();
+    }
+
+    void copyTo(NestedIntervalTreeNode<?> node) {
+        node.setHighNum(highNum);
+        node.setLowNum(lowNum);
+        node.setHighDen(highDen);
+        node.setLowDen(lowDen);
+        node.setLow(getScaledLow());
+        node.setHigh(getScaledHigh());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof NestedInterval))
+            return false;
+        NestedInterval other = (NestedInterval) o;
+        return highNum == other.highNum && lowNum == other.lowNum && highDen == other.highDen && lowDen == other.lowDen;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(highNum, lowNum, highDen, lowDen);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("(%d/%d, %d/%d)", lowNum, lowDen, highNum, highDen);
+    }
+
+    private static long scale(long num, long den) {
+        return BigInteger.valueOf(num).shiftLeft(SCALE_BITS).divide(BigInteger.valueOf(den)).longValue();
+    }
+}
@@ -0,0 +1,541 @@
+package com.limado.collab.dao;
+
+import com.google.common.base.Preconditions;
+import com.limado.collab.model.NestedIntervalTreeNode;
+import com.limado.collab.util.query.Operator;
+import com.limado.collab.util.query.OrderBy;
+import com.limado.collab.util.query.Predicate;
+import com.limado.collab.util.query.QueryParams;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.persistence.Query;
+import javax.persistence.TypedQuery;
+import java.io.Serializable;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Nested intervals implementation of {@link IntervalTreeDao}, see {@link NestedInterval} for the encoding.
+ * <p>
+ * A node has room for any number of children without renumbering, so adding a leaf inserts one row and moving
+ * a subtree rewrites only the moved nodes, which are mapped onto their new intervals by one matrix.
+ * The descendants of a node are the nodes whose high lies in (low, high) of the node, in depth first order of descending high.
+ * <p>
+ * The denominators grow with the depth and the sibling indexes, a node is only written if its scaled interval
+ * is distinctly nested in the one of its parent and fails with IllegalStateException otherwise. This holds as long as
+ * the product of the sibling indexes plus 2 along the path of a node stays below about 2 * 10^9,
+ * e.g. 20 levels of first children or 8 levels of 10 children.
+ *
+ * @author csieflyman
+ */
+abstract class NestedIntervalTreeDaoImpl<NodeType extends NestedIntervalTreeNode<NodeIdType>, NodeIdType extends Serializable>
+        extends AbstractTreeDaoImpl<NodeType, NodeIdType> {
+
+    private static final Logger log = LogManager.getLogger(NestedIntervalTreeDaoImpl.class);
+
+    @Override
+    protected void removeFromParent(NodeType childNode) {
+        NodeIdType parentNodeId = childNode.getParentNodeId();
+        if (isLeaf(childNode)) {
+            // a root without child is not stored
+            deleteNode(childNode);
+        } else {
+            moveSubTree(childNode, null);
+        }
+        deleteIfRootWithoutChild(parentNodeId);
+    }
+
+    /**
+     * The descendants are mapped into the new trees of the children by one jdbc batch, no other node is rewritten.
+     */
+    @Override
+    protected void deleteAndSplitTree(NodeType node) {
+        List<NodeType> descendants = findSubTreeNodes(node, false);
+        detachNodes();
+        Set<NodeIdType> parentNodeIds = descendants.stream().map(NodeType::getParentNodeId).collect(Collectors.toSet());
+        List<Long> deletedIds = new ArrayList<>();
+        deletedIds.add(node.getId());
+        List<NodeType> updatedNodes = new ArrayList<>(descendants.size());
+        Map<NodeIdType, NestedInterval> intervals = new HashMap<>();
+        NestedInterval mapping = null;
+        Long treeId = null;
+        for (NodeType descendant : descendants) {
+            if (descendant.getDepth() == node.getDepth() + 1) {
+                if (!parentNodeIds.contains(descendant.getNodeId())) {
+                    // a root without child is not stored
+                    deletedIds.add(descendant.getId());
+                    continue;
+                }
+                mapping = NestedInterval.of(descendant).mapTo(NestedInterval.ROOT);
+                treeId = nextTreeId();
+                descendant.setParentNodeId(null);
+                descendant.setSiblingIndex(0);
+            }
+            setInterval(descendant, mapping.multiply(NestedInterval.of(descendant)), intervals);
+            descendant.setDepth(descendant.getDepth() - node.getDepth() - 1);
+            descendant.setTreeId(treeId);
+            updatedNodes.add(descendant);
+        }
+        batchDeleteById(deletedIds);
+        updateNodes(updatedNodes);
+        log.debug(String.format("delete node %s, move %d descendants into new trees", node.getNodeId(), updatedNodes.size()));
+        if (!isRoot(node)) {
+            deleteIfRootWithoutChild(node.getParentNodeId());
+        }
+    }
+
+    @Override
+    protected void deleteSubTree(NodeType node) {
+        Query query = entityManager.createQuery("delete from " + getEntityName()
+                + " where treeId = :treeId and treeType = :treeType and high <= :high and high > :low");
+        query.setParameter("treeId", node.getTreeId());
+        query.setParameter("treeType", getTreeType());
+        query.setParameter("high", node.getHigh());
+        query.setParameter("low", node.getLow());
+        entityManager.flush();
+        log.debug("effectRows = " + query.executeUpdate());
+        detachNodes();
+        if (!isRoot(node)) {
+            deleteIfRootWithoutChild(node.getParentNodeId());
+        }
+    }
+
+    @Override
+    public List<NodeIdType> getSubTree(NodeIdType nodeId) {
+        Preconditions.checkArgument(nodeId != null, "nodeId must not be null");
+
+        NodeType node = getNode(nodeId);
+        if (node == null) {
+            return Collections.emptyList();
+        }
+        return findSubTree(node, Integer.MAX_VALUE, node.getHigh(), 0, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<NodeIdType> getSubTree(NodeIdType nodeId, int maxDepth) {
+        Preconditions.checkArgument(nodeId != null, "nodeId must not be null");
+        Preconditions.checkArgument(maxDepth >= 1, "maxDepth must be greater than 0");
+
+        NodeType node = getNode(nodeId);
+        if (node == null) {
+            return Collections.emptyList();
+        }
+        return findSubTree(node, maxDepth, node.getHigh(), 0, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<NodeIdType> getSubTree(NodeIdType nodeId, int maxDepth, int offset, int limit) {
+        Preconditions.checkArgument(nodeId != null, "nodeId must not be null");
+        Preconditions.checkArgument(maxDepth >= 1, "maxDepth must be greater than 0");
+        Preconditions.checkArgument(offset >= 0, "offset must not be negative");
+        Preconditions.checkArgument(limit >= 1, "limit must be greater than 0");
+
+        NodeType node = getNode(nodeId);
+        if (node == null) {
+            return Collections.emptyList();
+        }
+        return findSubTree(node, maxDepth, node.getHigh(), offset, limit);
+    }
+
+    @Override
+    public List<NodeIdType> getSubTree(NodeIdType nodeId, int maxDepth, NodeIdType afterNodeId, int limit) {
+        Preconditions.checkArgument(nodeId != null, "nodeId must not be null");
+        Preconditions.checkArgument(maxDepth >= 1, "maxDepth must be greater than 0");
+        Preconditions.checkArgument(limit >= 1, "limit must be greater than 0");
+
+        NodeType node = getNode(nodeId);
+        if (node == null) {
+            return Collections.emptyList();
+        }
+        long start = node.getHigh();
+        if (afterNodeId != null) {
+            NodeType afterNode = getNode(afterNodeId);
+            Preconditions.checkArgument(afterNode != null && isInSubTree(afterNode, node) && !afterNode.getNodeId().equals(nodeId),
+                    "node %s is not a descendant of %s", afterNodeId, nodeId);
+            start = afterNode.getHigh();
+        }
+        return findSubTree(node, maxDepth, start, 0, limit);
+    }
+
+    @Override
+    public List<NodeIdType> getAncestors(NodeIdType nodeId) {
+        Preconditions.checkArgument(nodeId != null, "nodeId must not be null");
+
+        NodeType node = getNode(nodeId);
+        if (node == null || isRoot(node)) {
+            return Collections.emptyList();
+        }
+        TypedQuery<NodeIdType> query = entityManager.createQuery("select nodeId from " + getEntityName()
+                + " where treeId = :treeId and treeType = :treeType and low < :low and high > :high order by depth", getNodeIdClass());
+        query.setParameter("treeId", node.getTreeId());
+        query.setParameter("treeType", getTreeType());
+        query.setParameter("low", node.getLow());
+        query.setParameter("high", node.getHigh());
+        return query.getResultList();
+    }
+
+    @Override
+    public NodeIdType getLowestCommonAncestor(NodeIdType nodeId, NodeIdType otherNodeId) {
+        Preconditions.checkArgument(nodeId != null, "nodeId must not be null");
+        Preconditions.checkArgument(otherNodeId != null, "otherNodeId must not be null");
+
+        NodeType node = getNode(nodeId);
+        NodeType otherNode = getNode(otherNodeId);
+        if (node == null || otherNode == null || !node.getTreeId().equals(otherNode.getTreeId())) {
+            return null;
+        }
+        TypedQuery<NodeIdType> query = entityManager.createQuery("select nodeId from " + getEntityName()
+                + " where treeId = :treeId and treeType = :treeType and low <= :low and high >= :high order by depth desc", getNodeIdClass());
+        query.setParameter("treeId", node.getTreeId());
+        query.setParameter("treeType", getTreeType());
+        query.setParameter("low", Math.min(node.getLow(), otherNode.getLow()));
+        query.setParameter("high", Math.max(node.getHigh(), otherNode.getHigh()));
+        query.setMaxResults(1);
+        List<NodeIdType> result = query.getResultList();
+        return result.isEmpty() ? null : result.get(0);
+    }
+
+    @Override
+    public List<NodeIdType> getChildren(NodeIdType nodeId) {
+        Preconditions.checkArgument(nodeId != null, "nodeId must not be null");
+
+        TypedQuery<NodeIdType> query = entityManager.createQuery("select nodeId from " + getEntityName()
+                + " where parentNodeId = :parentNodeId and treeType = :treeType order by high desc", getNodeIdClass());
+        query.setParameter("parentNodeId", nodeId);
+        query.setParameter("treeType", getTreeType());
+        return query.getResultList();
+    }
+
+    /**
+     * A node which doesn't belong to a tree yet is inserted as a leaf, a parent which doesn't belong to a tree yet becomes the root of a new tree.
+     */
+    @Override
+    protected void moveUnder(NodeIdType childNodeId, NodeType childNode, NodeIdType parentNodeId) {
+        NodeType parentNode = getNode(parentNodeId);
+        if (parentNode == null) {
+            parentNode = newNode(parentNodeId);
+            setInterval(parentNode, NestedInterval.ROOT, new HashMap<>());
+            parentNode.setTreeId(nextTreeId());
+            create(parentNode);
+        }
+        if (childNode == null) {
+            childNode = newNode(childNodeId);
+            int index = nextSiblingIndex(parentNode);
+            Map<NodeIdType, NestedInterval> intervals = new HashMap<>();
+            intervals.put(parentNodeId, NestedInterval.of(parentNode));
+            childNode.setParentNodeId(parentNodeId);
+            childNode.setSiblingIndex(index);
+            setInterval(childNode, intervals.get(parentNodeId).child(index), intervals);
+            childNode.setDepth(parentNode.getDepth() + 1);
+            childNode.setTreeId(parentNode.getTreeId());
+            create(childNode);
+            return;
+        }
+        NodeIdType oldParentNodeId = childNode.getParentNodeId();
+        moveSubTree(childNode, parentNode);
+        if (oldParentNodeId != null) {
+            deleteIfRootWithoutChild(oldParentNodeId);
+        }
+    }
+
+    /**
+     * map the subtree of the node onto the next child interval of the new parent, or onto a new tree if newParentNode is null
+     */
+    private void moveSubTree(NodeType node, NodeType newParentNode) {
+        NestedInterval target;
+        Long treeId;
+        int index;
+        int depthOffset;
+        Map<NodeIdType, NestedInterval> intervals = new HashMap<>();
+        if (newParentNode == null) {
+            index = 0;
+            target = NestedInterval.ROOT;
+            treeId = nextTreeId();
+            depthOffset = -node.getDepth();
+        } else {
+            index = nextSiblingIndex(newParentNode);
+            target = NestedInterval.of(newParentNode).child(index);
+            treeId = newParentNode.getTreeId();
+            depthOffset = newParentNode.getDepth() + 1 - node.getDepth();
+            intervals.put(newParentNode.getNodeId(), NestedInterval.of(newParentNode));
+        }
+        NestedInterval mapping = NestedInterval.of(node).mapTo(target);
+
+        List<NodeType> nodes = findSubTreeNodes(node, true);
+        detachNodes();
+        nodes.get(0).setParentNodeId(newParentNode == null ? null : newParentNode.getNodeId());
+        nodes.get(0).setSiblingIndex(index);
+        for (NodeType subTreeNode : nodes) {
+            setInterval(subTreeNode, mapping.multiply(NestedInterval.of(subTreeNode)), intervals);
+            subTreeNode.setDepth(subTreeNode.getDepth() + depthOffset);
+            subTreeNode.setTreeId(treeId);
+        }
+        updateNodes(nodes);
+        log.debug(String.format("move %d nodes of the subtree of %s", nodes.size(), node.getNodeId()));
+    }
+
+    /**
+     * @param intervals the intervals which are already set, the parent of the node must be in it unless the node is a root
+     */
+    private void setInterval(NodeType node, NestedInterval interval, Map<NodeIdType, NestedInterval> intervals) {
+        if (node.getParentNodeId() != null) {
+            NestedInterval parentInterval = intervals.get(node.getParentNodeId());
+            if (!interval.isDistinctlyNestedIn(parentInterval))
+                throw new IllegalStateException(String.format("the interval of node %s can't be told apart from its parent %s, the tree is too deep or too wide for nested intervals",
+                        node.getNodeId(), node.getParentNodeId()));
+        }
+        interval.copyTo(node);
+        intervals.put(node.getNodeId(), interval);
+    }
+
+    @Override
+    protected List<NodeType> encodeTree(NodeIdType rootId, Long treeId, Map<NodeIdType, List<NodeIdType>> childrenMap) {
+        return encodeTree(rootId, treeId, childrenMap, Collections.emptyMap());
+    }
+
+    /**
+     * encode the tree by an iterative depth first traversal.
+     *
+     * @param siblingIndexes the sibling indexes to keep, the other children get the next indexes in the order of childrenMap
+     */
+    private List<NodeType> encodeTree(NodeIdType rootId, Long treeId, Map<NodeIdType, List<NodeIdType>> childrenMap,
+                                      Map<NodeIdType, Integer> siblingIndexes) {
+        List<NodeType> nodes = new ArrayList<>();
+        Map<NodeIdType, NestedInterval> intervals = new HashMap<>();
+        Deque<NodeType> stack = new ArrayDeque<>();
+        NodeType root = newNode(rootId);
+        setInterval(root, NestedInterval.ROOT, intervals);
+        root.setTreeId(treeId);
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            NodeType parent = stack.pop();
+            nodes.add(parent);
+            List<NodeIdType> childIds = childrenMap.getOrDefault(parent.getNodeId(), Collections.emptyList());
+            int nextIndex = childIds.stream().map(siblingIndexes::get).filter(Objects::nonNull).max(Integer::compare).orElse(0) + 1;
+            List<NodeType> children = new ArrayList<>(childIds.size());
+            for (NodeIdType childId : childIds) {
+                Integer index = siblingIndexes.get(childId);
+                NodeType child = newNode(childId);
+                child.setParentNodeId(parent.getNodeId());
+                child.setSiblingIndex(index != null ? index : nextIndex++);
+                child.setDepth(parent.getDepth() + 1);
+                child.setTreeId(treeId);
+                setInterval(child, intervals.get(parent.getNodeId()).child(child.getSiblingIndex()), intervals);
+                children.add(child);
+            }
+            // push in reverse order, so the nodes are listed in depth first order
+            for (ListIterator<NodeType> i = children.listIterator(children.size()); i.hasPrevious(); ) {
+                stack.push(i.previous());
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * The children which keep their parent keep their sibling index, so only the rows whose interval changed are rewritten.
+     */
+    @Override
+    protected IntervalTreeRebuildReport rebuildTree(NodeIdType rootId, List<NodeIdType> nodeIds, Map<NodeIdType, List<NodeIdType>> childrenMap) {
+        long start = System.nanoTime();
+        Map<NodeIdType, NodeType> existingNodes = new HashMap<>();
+        findNodesIn("nodeId", nodeIds).forEach(node -> existingNodes.put(node.getNodeId(), node));
+        NodeType existingRoot = existingNodes.get(rootId);
+        Long treeId = existingRoot != null && isRoot(existingRoot) ? existingRoot.getTreeId() : nextTreeId();
+        findNodesIn("treeId", Collections.singleton(treeId)).forEach(node -> existingNodes.put(node.getNodeId(), node));
+        detachNodes();
+
+        Map<NodeIdType, Integer> siblingIndexes = new HashMap<>();
+        for (NodeIdType nodeId : nodeIds) {
+            List<NodeIdType> children = childrenMap.get(nodeId);
+            if (children == null)
+                continue;
+            for (NodeIdType childId : children) {
+                NodeType child = existingNodes.get(childId);
+                if (child != null && child.getTreeId().equals(treeId) && nodeId.equals(child.getParentNodeId())) {
+                    siblingIndexes.put(childId, child.getSiblingIndex());
+                }
+            }
+            children.sort(Comparator.<NodeIdType>comparingInt(childId -> siblingIndexes.getOrDefault(childId, Integer.MAX_VALUE))
+                    .thenComparing(Object::toString));
+        }
+
+        List<NodeType> insertedNodes = new ArrayList<>();
+        List<NodeType> updatedNodes = new ArrayList<>();
+        for (NodeType node : encodeTree(rootId, treeId, childrenMap, siblingIndexes)) {
+            NodeType existingNode = existingNodes.remove(node.getNodeId());
+            if (existingNode == null) {
+                insertedNodes.add(node);
+            } else if (!isSameEncoding(existingNode, node)) {
+                NestedInterval.of(node).copyTo(existingNode);
+                existingNode.setParentNodeId(node.getParentNodeId());
+                existingNode.setSiblingIndex(node.getSiblingIndex());
+                existingNode.setDepth(node.getDepth());
+                existingNode.setTreeId(node.getTreeId());
+                updatedNodes.add(existingNode);
+            }
+        }
+        List<Long> deletedIds = existingNodes.values().stream().map(NodeType::getId).collect(Collectors.toList());
+        batchDeleteById(deletedIds);
+        updateNodes(updatedNodes);
+        insertNodes(insertedNodes);
+        return new IntervalTreeRebuildReport(treeId, rootId.toString(), nodeIds.size(), insertedNodes.size(), updatedNodes.size(), deletedIds.size(),
+                (System.nanoTime() - start) / 1000000);
+    }
+
+    private boolean isSameEncoding(NodeType node, NodeType otherNode) {
+        return node.getLowNum().equals(otherNode.getLowNum()) && node.getLowDen().equals(otherNode.getLowDen())
+                && node.getHighNum().equals(otherNode.getHighNum()) && node.getHighDen().equals(otherNode.getHighDen())
+                && Objects.equals(node.getParentNodeId(), otherNode.getParentNodeId()) && node.getSiblingIndex().equals(otherNode.getSiblingIndex())
+                && node.getDepth().equals(otherNode.getDepth()) && node.getTreeId().equals(otherNode.getTreeId());
+    }
+
+    private int nextSiblingIndex(NodeType parentNode) {
+        Query query = entityManager.createQuery("select max(siblingIndex) from " + getEntityName()
+                + " where parentNodeId = :parentNodeId and treeType = :treeType");
+        query.setParameter("parentNodeId", parentNode.getNodeId());
+        query.setParameter("treeType", getTreeType());
+        Integer maxIndex = (Integer) query.getSingleResult();
+        return maxIndex == null ? 1 : maxIndex + 1;
+    }
+
+    private List<NodeIdType> findSubTree(NodeType node, int maxDepth, long start, int offset, int limit) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("select nodeId from ").append(getEntityName())
+                .append(" where treeId = :treeId and treeType = :treeType and high < :start and high > :low");
+        if (maxDepth < Integer.MAX_VALUE) {
+            sb.append(" and depth <= :maxNodeDepth");
+        }
+        sb.append(" order by high desc");
+        TypedQuery<NodeIdType> query = entityManager.createQuery(sb.toString(), getNodeIdClass());
+        query.setParameter("treeId", node.getTreeId());
+        query.setParameter("treeType", getTreeType());
+        query.setParameter("start", start);
+        query.setParameter("low", node.getLow());
+        if (maxDepth < Integer.MAX_VALUE) {
+            query.setParameter("maxNodeDepth", (int) Math.min((long) node.getDepth() + maxDepth, Integer.MAX_VALUE));
+        }
+        query.setFirstResult(offset);
+        if (limit < Integer.MAX_VALUE) {
+            query.setMaxResults(limit);
+        }
+        return query.getResultList();
+    }
+
+    /**
+     * counts the descendants by one range query on the interval of the node
+     */
+    @Override
+    protected int countSubTree(NodeType node) {
+        Query query = entityManager.createQuery("select count(*) from " + getEntityName()
+                + " where treeId = :treeId and treeType = :treeType and high < :high and high > :low");
+        query.setParameter("treeId", node.getTreeId());
+        query.setParameter("treeType", getTreeType());
+        query.setParameter("high", node.getHigh());
+        query.setParameter("low", node.getLow());
+        return ((Number) query.getSingleResult()).intValue();
+    }
+
+    /**
+     * @return the nodes of the subtree in depth first order
+     */
+    private List<NodeType> findSubTreeNodes(NodeType node, boolean withRoot) {
+        QueryParams params = new QueryParams();
+        params.addPredicate(new Predicate("high", withRoot ? Operator.LE : Operator.LT, node.getHigh()));
+        params.addPredicate(new Predicate("high", Operator.GT, node.getLow()));
+        params.addPredicate(new Predicate("treeId", Operator.EQ, node.getTreeId()));
+        params.addPredicate(new Predicate("treeType", Operator.EQ, getTreeType()));
+        params.addOrderBy(new OrderBy("high", false));
+        return find(params);
+    }
+
+    /**
+     * The tree is read by one query in depth first order. The interval of every node must be the exact child interval
+     * of its parent for its sibling index, its scaled values must match the fractions and lie strictly inside its parent.
+     */
+    @Override
+    protected IntervalTreeVerifyReport verifyTree(Long treeId, IntervalTreeVerifier<NodeIdType> verifier) {
+        TypedQuery<Object[]> query = entityManager.createQuery("select nodeId, parentNodeId, depth, siblingIndex, highNum, lowNum, highDen, lowDen, low, high from "
+                + getEntityName() + " where treeId = :treeId and treeType = :treeType order by high desc", Object[].class);
+        query.setParameter("treeId", treeId);
+        query.setParameter("treeType", getTreeType());
+        List<Object[]> rows = query.getResultList();
+
+        List<String> errors = new ArrayList<>();
+        Map<NodeIdType, NodeIdType> treeParentMap = new HashMap<>();
+        // row[0] nodeId, row[1] parentNodeId, row[2] depth, row[3] siblingIndex, row[4..7] fractions, row[8] low, row[9] high
+        Deque<Object[]> openRows = new ArrayDeque<>();
+        for (int i = 0; i < rows.size(); i++) {
+            Object[] row = rows.get(i);
+            NodeIdType nodeId = getNodeIdClass().cast(row[0]);
+            long low = (Long) row[8];
+            long high = (Long) row[9];
+            NestedInterval interval = intervalOf(row);
+            treeParentMap.put(nodeId, getNodeIdClass().cast(row[1]));
+            if (low >= high || interval.getScaledLow() != low || interval.getScaledHigh() != high) {
+                errors.add(String.format("node %s has low %d and high %d which don't match its interval %s", nodeId, low, high, interval));
+            }
+            if (i == 0) {
+                if (row[1] != null || (Integer) row[2] != 0 || !interval.equals(NestedInterval.ROOT)) {
+                    errors.add(String.format("node %s has the highest high but is not a root", nodeId));
+                }
+            } else {
+                while (!openRows.isEmpty() && (Long) openRows.peek()[8] >= high) {
+                    openRows.pop();
+                }
+                Object[] parentRow = openRows.peek();
+                if (parentRow == null) {
+                    errors.add(String.format("node %s lies outside of the root", nodeId));
+                } else if (low <= (Long) parentRow[8] || high >= (Long) parentRow[9]) {
+                    errors.add(String.format("node %s overlaps node %s", nodeId, parentRow[0]));
+                } else if (!parentRow[0].equals(row[1]) || (Integer) row[2] != (Integer) parentRow[2] + 1) {
+                    errors.add(String.format("node %s lies in node %s but has parent %s and depth %d", nodeId, parentRow[0], row[1], row[2]));
+                } else if (!isChildInterval(interval, intervalOf(parentRow), (Integer) row[3])) {
+                    errors.add(String.format("node %s has interval %s which is not child %d of %s", nodeId, interval, row[3], intervalOf(parentRow)));
+                }
+            }
+            openRows.push(row);
+        }
+        NodeIdType rootId = getNodeIdClass().cast(rows.get(0)[0]);
+        verifier.verifyNodes(rootId, treeParentMap, errors);
+        return verifier.report(treeId, rootId, rows.size(), errors);
+    }
+
+    private static NestedInterval intervalOf(Object[] row) {
+        return NestedInterval.of((Long) row[4], (Long) row[5], (Long) row[6], (Long) row[7]);
+    }
+
+    private static boolean isChildInterval(NestedInterval interval, NestedInterval parentInterval, int siblingIndex) {
+        try {
+            return siblingIndex >= 1 && interval.equals(parentInterval.child(siblingIndex));
+        } catch (ArithmeticException e) {
+            return false;
+        }
+    }
+
+    @Override
+    protected boolean isInSubTree(NodeType node, NodeType ancestorNode) {
+        return node.getTreeId().equals(ancestorNode.getTreeId())
+                && node.getHigh() <= ancestorNode.getHigh() && node.getHigh() > ancestorNode.getLow();
+    }
+
+    @Override
+    protected void insertNodes(List<NodeType> nodes) {
+        jdbcBatchInsert(nodes, "nodeId", "parentNodeId", "siblingIndex", "depth", "lowNum", "lowDen", "highNum", "highDen",
+                "low", "high", "treeId", "treeType");
+    }
+
+    private void updateNodes(List<NodeType> nodes) {
+        jdbcBatchUpdate(nodes, "parentNodeId", "siblingIndex", "depth", "lowNum", "lowDen", "highNum", "highDen", "low", "high", "treeId");
+    }
+
+    private NodeType newNode(NodeIdType nodeId) {
+        NodeType node = super.newInstance();
+        node.setNodeId(nodeId);
+        node.setParentNodeId(null);
+        node.setSiblingIndex(0);
+        node.setDepth(0);
+        node.setTreeType(getTreeType());
+        return node;
+    }
+}
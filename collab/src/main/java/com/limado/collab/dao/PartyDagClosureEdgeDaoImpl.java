@@ -0,0 +1,30 @@
+package com.limado.collab.dao;
+
+import com.limado.collab.model.PartyDagClosureEdge;
+import com.limado.collab.model.PartyDagEdge;
+import org.springframework.stereotype.Repository;
+
+import java.util.UUID;
+import java.util.function.BiConsumer;
+
+/**
+ * @author csieflyman
+ */
+@Repository("partyDagClosureEdgeDao")
+class PartyDagClosureEdgeDaoImpl extends DagClosureEdgeDaoImpl<PartyDagClosureEdge, UUID> {
+
+    @Override
+    protected String getDagId() {
+        return PartyDagEdge.DAG_ID;
+    }
+
+    @Override
+    protected Class<UUID> getVertexIdClass() {
+        return UUID.class;
+    }
+
+    @Override
+    protected void scrollEdges(BiConsumer<UUID, UUID> edgeConsumer) {
+        PartyDagEdgeDaoImpl.scrollPartyEdges(this, edgeConsumer);
+    }
+}
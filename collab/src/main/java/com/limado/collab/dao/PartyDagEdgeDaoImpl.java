@@ -3,7 +3,9 @@ package com.limado.collab.dao;
 import com.limado.collab.model.PartyDagEdge;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.Query;
 import java.util.UUID;
+import java.util.function.BiConsumer;
 
 /**
  * @author csieflyman
@@ -15,4 +17,22 @@ class PartyDagEdgeDaoImpl extends DagEdgeDaoImpl<PartyDagEdge, UUID> {
     protected String getDagId() {
         return PartyDagEdge.DAG_ID;
     }
+
+    @Override
+    protected Class<UUID> getVertexIdClass() {
+        return UUID.class;
+    }
+
+    @Override
+    protected void scrollEdges(BiConsumer<UUID, UUID> edgeConsumer) {
+        scrollPartyEdges(this, edgeConsumer);
+    }
+
+    /**
+     * the party dags are derived from the parent-child relationship of the parties
+     */
+    static void scrollPartyEdges(JpaGenericDaoImpl<?, ?> dao, BiConsumer<UUID, UUID> edgeConsumer) {
+        Query query = dao.entityManager.createQuery("select parent.id, child.id from Party parent join parent.children child");
+        dao.scroll(query, row -> edgeConsumer.accept((UUID) row[0], (UUID) row[1]));
+    }
 }
@@ -3,16 +3,32 @@ package com.limado.collab.dao;
 import com.limado.collab.model.PartyIntervalTreeNode;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.Query;
 import java.util.UUID;
+import java.util.function.BiConsumer;
 
 /**
  * @author csieflyman
  */
-@Repository("partyIntervalTreeDao")
+@Repository("partyNestedSetTreeDao")
 public class PartyIntervalTreeDaoImpl extends IntervalTreeDaoImpl<PartyIntervalTreeNode, UUID> {
 
     @Override
-    protected String getTreeType() {
+    protected short getTreeType() {
         return PartyIntervalTreeNode.TREE_TYPE;
     }
+
+    @Override
+    protected Class<UUID> getNodeIdClass() {
+        return UUID.class;
+    }
+
+    /**
+     * the trees consist of the party_rel edges whose parent is an organization
+     */
+    @Override
+    protected void scrollEdges(BiConsumer<UUID, UUID> edgeConsumer) {
+        Query query = entityManager.createQuery("select parent.id, child.id from Organization parent join parent.children child");
+        scroll(query, row -> edgeConsumer.accept((UUID) row[0], (UUID) row[1]));
+    }
 }
@@ -0,0 +1,34 @@
+package com.limado.collab.dao;
+
+import com.limado.collab.model.PartyNestedIntervalTreeNode;
+import org.springframework.stereotype.Repository;
+
+import javax.persistence.Query;
+import java.util.UUID;
+import java.util.function.BiConsumer;
+
+/**
+ * @author csieflyman
+ */
+@Repository("partyNestedIntervalTreeDao")
+public class PartyNestedIntervalTreeDaoImpl extends NestedIntervalTreeDaoImpl<PartyNestedIntervalTreeNode, UUID> {
+
+    @Override
+    protected short getTreeType() {
+        return PartyNestedIntervalTreeNode.TREE_TYPE;
+    }
+
+    @Override
+    protected Class<UUID> getNodeIdClass() {
+        return UUID.class;
+    }
+
+    /**
+     * the trees consist of the party_rel edges whose parent is an organization
+     */
+    @Override
+    protected void scrollEdges(BiConsumer<UUID, UUID> edgeConsumer) {
+        Query query = entityManager.createQuery("select parent.id, child.id from Organization parent join parent.children child");
+        scroll(query, row -> edgeConsumer.accept((UUID) row[0], (UUID) row[1]));
+    }
+}
@@ -0,0 +1,34 @@
+package com.limado.collab.model;
+
+import java.io.Serializable;
+
+/**
+ * edge of the transitive closure of a DAG which counts the paths instead of storing each of them.
+ * There is one edge for each pair of vertices connected by at least one path.
+ *
+ * @author csieflyman
+ */
+public interface DagClosureEdge<VertexID extends Serializable> extends Identifiable<Long> {
+
+    void setId(Long id);
+
+    VertexID getStartVertexId();
+
+    void setStartVertexId(VertexID startVertexId);
+
+    VertexID getEndVertexId();
+
+    void setEndVertexId(VertexID endVertexId);
+
+    Long getPathCount();
+
+    void setPathCount(Long pathCount);
+
+    Boolean getDirect();
+
+    void setDirect(Boolean direct);
+
+    String getDagId();
+
+    void setDagId(String dagId);
+}
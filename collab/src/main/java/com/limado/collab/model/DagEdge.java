@@ -4,6 +4,8 @@ import java.io.Serializable;
 
 public interface DagEdge<VertexID extends Serializable> extends Identifiable<Long> {
 
+    void setId(Long id);
+
     Long getEntryEdgeId();
 
     void setEntryEdgeId(Long entryEdgeId);
@@ -5,11 +5,7 @@ import java.io.Serializable;
 /**
  * @author csieflyman
  */
-public interface IntervalTreeNode<NodeIdType extends Serializable> extends Identifiable<Long> {
-
-    NodeIdType getNodeId();
-
-    void setNodeId(NodeIdType nodeId);
+public interface IntervalTreeNode<NodeIdType extends Serializable> extends TreeNode<NodeIdType> {
 
     Integer getLow();
 
@@ -18,12 +14,4 @@ public interface IntervalTreeNode<NodeIdType extends Serializable> extends Ident
     Integer getHigh();
 
     void setHigh(Integer high);
-
-    String getTreeId();
-
-    void setTreeId(String treeId);
-
-    String getTreeType();
-
-    void setTreeType(String treeType);
 }
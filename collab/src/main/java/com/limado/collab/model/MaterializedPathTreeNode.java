@@ -0,0 +1,16 @@
+package com.limado.collab.model;
+
+import java.io.Serializable;
+
+/**
+ * node of a materialized path tree. The path concatenates one fixed width segment per level from the root down to the node,
+ * so the descendants of a node are the nodes whose path starts with its path.
+ *
+ * @author csieflyman
+ */
+public interface MaterializedPathTreeNode<NodeIdType extends Serializable> extends TreeNode<NodeIdType> {
+
+    String getPath();
+
+    void setPath(String path);
+}
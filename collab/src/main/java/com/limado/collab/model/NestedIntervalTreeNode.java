@@ -0,0 +1,40 @@
+package com.limado.collab.model;
+
+import java.io.Serializable;
+
+/**
+ * node of a nested intervals tree. The interval is kept exactly as the fractions lowNum/lowDen and highNum/highDen
+ * and as their scaled integer values low and high for the queries.
+ *
+ * @author csieflyman
+ */
+public interface NestedIntervalTreeNode<NodeIdType extends Serializable> extends TreeNode<NodeIdType> {
+
+    Integer getSiblingIndex();
+
+    void setSiblingIndex(Integer siblingIndex);
+
+    Long getLowNum();
+
+    void setLowNum(Long lowNum);
+
+    Long getLowDen();
+
+    void setLowDen(Long lowDen);
+
+    Long getHighNum();
+
+    void setHighNum(Long highNum);
+
+    Long getHighDen();
+
+    void setHighDen(Long highDen);
+
+    Long getLow();
+
+    void setLow(Long low);
+
+    Long getHigh();
+
+    void setHigh(Long high);
+}
@@ -0,0 +1,124 @@
+package com.limado.collab.model;
+
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+import javax.persistence.*;
+import java.util.UUID;
+
+/**
+ * @author csieflyman
+ */
+@Entity
+@Table(name = "dag_closure_edge")
+public class PartyDagClosureEdge implements DagClosureEdge<UUID> {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    //edges are inserted by jdbc batch insertion, so the id must be generated by the database
+    private Long id;
+
+    @Basic(optional = false)
+    @Column(name = "start_vertex_id")
+    private UUID startVertexId;
+
+    @Basic(optional = false)
+    @Column(name = "end_vertex_id")
+    private UUID endVertexId;
+
+    /**
+     * The number of distinct paths from the start vertex to the end vertex, including the direct edge
+     */
+    @Basic(optional = false)
+    @Column(name = "path_count")
+    private Long pathCount = 0L;
+
+    /**
+     * Indicates whether one of the paths is a direct edge
+     */
+    @Basic(optional = false)
+    @Column(name = "direct_edge")
+    private Boolean direct = false;
+
+    @Column(name = "dag_id")
+    private String dagId = PartyDagEdge.DAG_ID;
+
+    @Override
+    public Long getId() {
+        return id;
+    }
+
+    @Override
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    @Override
+    public UUID getStartVertexId() {
+        return startVertexId;
+    }
+
+    @Override
+    public void setStartVertexId(UUID startVertexId) {
+        this.startVertexId = startVertexId;
+    }
+
+    @Override
+    public UUID getEndVertexId() {
+        return endVertexId;
+    }
+
+    @Override
+    public void setEndVertexId(UUID endVertexId) {
+        this.endVertexId = endVertexId;
+    }
+
+    @Override
+    public Long getPathCount() {
+        return pathCount;
+    }
+
+    @Override
+    public void setPathCount(Long pathCount) {
+        this.pathCount = pathCount;
+    }
+
+    @Override
+    public Boolean getDirect() {
+        return direct;
+    }
+
+    @Override
+    public void setDirect(Boolean direct) {
+        this.direct = direct;
+    }
+
+    @Override
+    public String getDagId() {
+        return dagId;
+    }
+
+    @Override
+    public void setDagId(String dagId) {
+        this.dagId = dagId;
+    }
+
+    @Override
+    public int hashCode() {
+        return new HashCodeBuilder().append(id).toHashCode();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        DagClosureEdge edge = (DagClosureEdge) o;
+        return this.getId().equals(edge.getId());
+    }
+
+    @Override
+    public String toString() {
+        return ToStringBuilder.reflectionToString(this);
+    }
+}
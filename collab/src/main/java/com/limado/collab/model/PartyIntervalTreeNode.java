@@ -14,10 +14,11 @@ import java.util.UUID;
 @Table(name = "interval_tree")
 public class PartyIntervalTreeNode implements IntervalTreeNode<UUID> {
 
-    public static final String TREE_TYPE = "member";
+    public static final short TREE_TYPE = 1;
 
     @Id
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    //nodes are bulk loaded by jdbc batch insertion, so the id must be generated by the database
     private Long id;
 
     @Basic(optional = false)
@@ -32,13 +33,20 @@ public class PartyIntervalTreeNode implements IntervalTreeNode<UUID> {
     @Column(name = "high")
     private Integer high;
 
+    @Column(name = "parent_node_id")
+    private UUID parentNodeId;
+
+    @Basic(optional = false)
+    @Column(name = "depth")
+    private Integer depth = 0;
+
     @Basic(optional = false)
     @Column(name = "tree_id")
-    private String treeId;
+    private Long treeId;
 
     @Basic(optional = false)
     @Column(name = "tree_type")
-    private String treeType = TREE_TYPE;
+    private Short treeType = TREE_TYPE;
 
     @Override
     public Long getId() {
@@ -76,22 +84,42 @@ public class PartyIntervalTreeNode implements IntervalTreeNode<UUID> {
     }
 
     @Override
-    public String getTreeId() {
+    public UUID getParentNodeId() {
+        return parentNodeId;
+    }
+
+    @Override
+    public void setParentNodeId(UUID parentNodeId) {
+        this.parentNodeId = parentNodeId;
+    }
+
+    @Override
+    public Integer getDepth() {
+        return depth;
+    }
+
+    @Override
+    public void setDepth(Integer depth) {
+        this.depth = depth;
+    }
+
+    @Override
+    public Long getTreeId() {
         return treeId;
     }
 
     @Override
-    public void setTreeId(String treeId) {
+    public void setTreeId(Long treeId) {
         this.treeId = treeId;
     }
 
     @Override
-    public String getTreeType() {
+    public Short getTreeType() {
         return treeType;
     }
 
     @Override
-    public void setTreeType(String treeType) {
+    public void setTreeType(Short treeType) {
         this.treeType = treeType;
     }
 
@@ -0,0 +1,130 @@
+package com.limado.collab.model;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+import javax.persistence.*;
+import java.util.UUID;
+
+/**
+ * @author csieflyman
+ */
+@Entity
+@Table(name = "materialized_path_tree")
+public class PartyMaterializedPathTreeNode implements MaterializedPathTreeNode<UUID> {
+
+    public static final short TREE_TYPE = 1;
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    //nodes are bulk loaded by jdbc batch insertion, so the id must be generated by the database
+    private Long id;
+
+    @Basic(optional = false)
+    @Column(name = "node_id")
+    private UUID nodeId;
+
+    @Column(name = "parent_node_id")
+    private UUID parentNodeId;
+
+    @Basic(optional = false)
+    @Column(name = "path")
+    private String path;
+
+    @Basic(optional = false)
+    @Column(name = "depth")
+    private Integer depth = 0;
+
+    @Basic(optional = false)
+    @Column(name = "tree_id")
+    private Long treeId;
+
+    @Basic(optional = false)
+    @Column(name = "tree_type")
+    private Short treeType = TREE_TYPE;
+
+    @Override
+    public Long getId() {
+        return id;
+    }
+
+    @Override
+    public UUID getNodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public void setNodeId(UUID nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    @Override
+    public UUID getParentNodeId() {
+        return parentNodeId;
+    }
+
+    @Override
+    public void setParentNodeId(UUID parentNodeId) {
+        this.parentNodeId = parentNodeId;
+    }
+
+    @Override
+    public String getPath() {
+        return path;
+    }
+
+    @Override
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    @Override
+    public Integer getDepth() {
+        return depth;
+    }
+
+    @Override
+    public void setDepth(Integer depth) {
+        this.depth = depth;
+    }
+
+    @Override
+    public Long getTreeId() {
+        return treeId;
+    }
+
+    @Override
+    public void setTreeId(Long treeId) {
+        this.treeId = treeId;
+    }
+
+    @Override
+    public Short getTreeType() {
+        return treeType;
+    }
+
+    @Override
+    public void setTreeType(Short treeType) {
+        this.treeType = treeType;
+    }
+
+    @Override
+    public int hashCode() {
+        return new HashCodeBuilder().append(nodeId).append(treeType).toHashCode();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        MaterializedPathTreeNode node = (MaterializedPathTreeNode) o;
+        return new EqualsBuilder().append(this.getNodeId(), node.getNodeId()).append(this.getTreeType(), node.getTreeType()).isEquals();
+    }
+
+    @Override
+    public String toString() {
+        return ToStringBuilder.reflectionToString(this);
+    }
+}
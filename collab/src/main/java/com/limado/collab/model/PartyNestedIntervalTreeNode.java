@@ -0,0 +1,218 @@
+package com.limado.collab.model;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+import javax.persistence.*;
+import java.util.UUID;
+
+/**
+ * @author csieflyman
+ */
+@Entity
+@Table(name = "nested_interval_tree")
+public class PartyNestedIntervalTreeNode implements NestedIntervalTreeNode<UUID> {
+
+    public static final short TREE_TYPE = 1;
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    //nodes are bulk loaded by jdbc batch insertion, so the id must be generated by the database
+    private Long id;
+
+    @Basic(optional = false)
+    @Column(name = "node_id")
+    private UUID nodeId;
+
+    @Column(name = "parent_node_id")
+    private UUID parentNodeId;
+
+    @Basic(optional = false)
+    @Column(name = "sibling_index")
+    private Integer siblingIndex;
+
+    @Basic(optional = false)
+    @Column(name = "depth")
+    private Integer depth = 0;
+
+    @Basic(optional = false)
+    @Column(name = "low_num")
+    private Long lowNum;
+
+    @Basic(optional = false)
+    @Column(name = "low_den")
+    private Long lowDen;
+
+    @Basic(optional = false)
+    @Column(name = "high_num")
+    private Long highNum;
+
+    @Basic(optional = false)
+    @Column(name = "high_den")
+    private Long highDen;
+
+    @Basic(optional = false)
+    @Column(name = "low")
+    private Long low;
+
+    @Basic(optional = false)
+    @Column(name = "high")
+    private Long high;
+
+    @Basic(optional = false)
+    @Column(name = "tree_id")
+    private Long treeId;
+
+    @Basic(optional = false)
+    @Column(name = "tree_type")
+    private Short treeType = TREE_TYPE;
+
+    @Override
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    @Override
+    public UUID getNodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public void setNodeId(UUID nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    @Override
+    public UUID getParentNodeId() {
+        return parentNodeId;
+    }
+
+    @Override
+    public void setParentNodeId(UUID parentNodeId) {
+        this.parentNodeId = parentNodeId;
+    }
+
+    @Override
+    public Integer getSiblingIndex() {
+        return siblingIndex;
+    }
+
+    @Override
+    public void setSiblingIndex(Integer siblingIndex) {
+        this.siblingIndex = siblingIndex;
+    }
+
+    @Override
+    public Integer getDepth() {
+        return depth;
+    }
+
+    @Override
+    public void setDepth(Integer depth) {
+        this.depth = depth;
+    }
+
+    @Override
+    public Long getLowNum() {
+        return lowNum;
+    }
+
+    @Override
+    public void setLowNum(Long lowNum) {
+        this.lowNum = lowNum;
+    }
+
+    @Override
+    public Long getLowDen() {
+        return lowDen;
+    }
+
+    @Override
+    public void setLowDen(Long lowDen) {
+        this.lowDen = lowDen;
+    }
+
+    @Override
+    public Long getHighNum() {
+        return highNum;
+    }
+
+    @Override
+    public void setHighNum(Long highNum) {
+        this.highNum = highNum;
+    }
+
+    @Override
+    public Long getHighDen() {
+        return highDen;
+    }
+
+    @Override
+    public void setHighDen(Long highDen) {
+        this.highDen = highDen;
+    }
+
+    @Override
+    public Long getLow() {
+        return low;
+    }
+
+    @Override
+    public void setLow(Long low) {
+        this.low = low;
+    }
+
+    @Override
+    public Long getHigh() {
+        return high;
+    }
+
+    @Override
+    public void setHigh(Long high) {
+        this.high = high;
+    }
+
+    @Override
+    public Long getTreeId() {
+        return treeId;
+    }
+
+    @Override
+    public void setTreeId(Long treeId) {
+        this.treeId = treeId;
+    }
+
+    @Override
+    public Short getTreeType() {
+        return treeType;
+    }
+
+    @Override
+    public void setTreeType(Short treeType) {
+        this.treeType = treeType;
+    }
+
+    @Override
+    public int hashCode() {
+        return new HashCodeBuilder().append(nodeId).append(treeType).toHashCode();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        NestedIntervalTreeNode node = (NestedIntervalTreeNode) o;
+        return new EqualsBuilder().append(this.getNodeId(), node.getNodeId()).append(this.getTreeType(), node.getTreeType()).isEquals();
+    }
+
+    @Override
+    public String toString() {
+        return ToStringBuilder.reflectionToString(this);
+    }
+}
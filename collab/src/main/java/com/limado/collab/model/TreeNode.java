@@ -0,0 +1,32 @@
+package com.limado.collab.model;
+
+import java.io.Serializable;
+
+/**
+ * node of a tree stored one row per node. The root of a tree has no parent and depth 0,
+ * all nodes of a tree share the tree id which is unique per tree type.
+ *
+ * @author csieflyman
+ */
+public interface TreeNode<NodeIdType extends Serializable> extends Identifiable<Long> {
+
+    NodeIdType getNodeId();
+
+    void setNodeId(NodeIdType nodeId);
+
+    NodeIdType getParentNodeId();
+
+    void setParentNodeId(NodeIdType parentNodeId);
+
+    Integer getDepth();
+
+    void setDepth(Integer depth);
+
+    Long getTreeId();
+
+    void setTreeId(Long treeId);
+
+    Short getTreeType();
+
+    void setTreeType(Short treeType);
+}
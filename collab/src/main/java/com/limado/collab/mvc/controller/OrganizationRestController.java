@@ -1,5 +1,6 @@
 package com.limado.collab.mvc.controller;
 
+import com.limado.collab.dao.IntervalTreeVerifyReport;
 import com.limado.collab.model.Organization;
 import com.limado.collab.model.Party;
 import com.limado.collab.mvc.exception.BadRequestException;
@@ -31,6 +32,10 @@ public class OrganizationRestController {
 
     private static final Logger log = LogManager.getLogger(OrganizationRestController.class);
 
+    private static final String Q_MAX_DEPTH = "q_maxDepth";
+
+    private static final String Q_CURSOR = "q_cursor";
+
     @Autowired
     private OrganizationService organizationService;
 
@@ -76,6 +81,19 @@ public class OrganizationRestController {
         organizationService.movePartyToOrganization(child, (Organization) organization);
     }
 
+    /**
+     * move many parties at once, the request body maps the id of each party to the id of its new organization
+     */
+    @PutMapping(value = "children", consumes = MediaType.APPLICATION_JSON_UTF8_VALUE)
+    public void movePartiesToOrganizations(@RequestBody Map<String, String> organizationIds) {
+        if (organizationIds.isEmpty())
+            return;
+
+        Map<UUID, UUID> organizationIdMap = organizationIds.entrySet().stream()
+                .collect(Collectors.toMap(entry -> UUID.fromString(entry.getKey()), entry -> UUID.fromString(entry.getValue())));
+        organizationService.movePartiesToOrganizations(organizationIdMap);
+    }
+
     @PostMapping("{parentId}/child/{childId}")
     public void addChild(@PathVariable String parentId, @PathVariable String childId) {
         UUID parentUUID = UUID.fromString(parentId);
@@ -168,10 +186,28 @@ public class OrganizationRestController {
         organizationService.removeParents((Organization) organization, new HashSet<>(parents));
     }
 
+    @GetMapping(value = "{id}/ancestors", produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
+    @ResponseBody
+    public List<Party> getAncestors(@PathVariable String id) {
+        UUID uuid = UUID.fromString(id);
+        return organizationService.getAncestors(uuid);
+    }
+
+    /**
+     * Without q_offset, q_limit, q_cursor or q_maxDepth all descendants are loaded and returned by one response,
+     * so the descendants of a large organization should be read page by page.
+     */
     @GetMapping(value = "{id}/descendants", produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
     @ResponseBody
     public Object getDescendants(@PathVariable String id, @RequestParam() Map<String, String> requestParam) {
         UUID uuid = UUID.fromString(id);
+        if (isDescendantsPageRequest(requestParam)) {
+            return getDescendantsPage(uuid, requestParam);
+        }
+        if (!requestParam.containsKey(QueryParams.Q_PREDICATES) && Boolean.parseBoolean(requestParam.get(QueryParams.Q_ONLY_SIZE))) {
+            return organizationService.getDescendantsSize(uuid);
+        }
+
         Set<Party> descendants = organizationService.getDescendants(uuid);
         if (requestParam != null && !requestParam.isEmpty()) {
             QueryParams params = new QueryParams();
@@ -186,4 +222,53 @@ public class OrganizationRestController {
         }
         return descendants;
     }
+
+    /**
+     * admin endpoint which checks the organization tree, it reads every tree and may run for a while on a large tree
+     */
+    @GetMapping(value = "tree/verification", produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
+    @ResponseBody
+    public List<IntervalTreeVerifyReport> verifyTree() {
+        return organizationService.verifyTree();
+    }
+
+    /**
+     * check many memberships by one request, the request body is a list of [organizationId, partyId] pairs
+     * and the response tells whether each party is a descendant of its organization
+     */
+    @PostMapping(value = "descendants", consumes = MediaType.APPLICATION_JSON_UTF8_VALUE, produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
+    @ResponseBody
+    public List<Boolean> areDescendants(@RequestBody List<List<String>> idPairs) {
+        List<Map.Entry<UUID, UUID>> pairs = new ArrayList<>(idPairs.size());
+        for (List<String> idPair : idPairs) {
+            if (idPair == null || idPair.size() != 2) {
+                throw new BadRequestException(String.format("%s is not a pair of organization id and party id", idPair));
+            }
+            pairs.add(new AbstractMap.SimpleImmutableEntry<>(UUID.fromString(idPair.get(0)), UUID.fromString(idPair.get(1))));
+        }
+        return organizationService.areDescendants(pairs);
+    }
+
+    /**
+     * the descendants are paged only if a page parameter is given, otherwise all descendants are returned at once
+     */
+    private boolean isDescendantsPageRequest(Map<String, String> requestParam) {
+        if (requestParam.containsKey(QueryParams.Q_PREDICATES) || requestParam.containsKey(QueryParams.Q_ONLY_SIZE))
+            return false;
+        return requestParam.containsKey(QueryParams.Q_OFFSET) || requestParam.containsKey(QueryParams.Q_LIMIT)
+                || requestParam.containsKey(Q_CURSOR) || requestParam.containsKey(Q_MAX_DEPTH);
+    }
+
+    /**
+     * return one page of the descendants, the next page starts behind q_cursor which is the id of the last party of the previous page
+     */
+    private List<Party> getDescendantsPage(UUID uuid, Map<String, String> requestParam) {
+        int maxDepth = ValidationUtils.parseIntParam(requestParam, Q_MAX_DEPTH, Integer.MAX_VALUE, 1);
+        int limit = ValidationUtils.parseIntParam(requestParam, QueryParams.Q_LIMIT, Integer.MAX_VALUE, 1);
+        if (requestParam.containsKey(Q_CURSOR)) {
+            return organizationService.getDescendants(uuid, maxDepth, UUID.fromString(requestParam.get(Q_CURSOR)), limit);
+        }
+        int offset = ValidationUtils.parseIntParam(requestParam, QueryParams.Q_OFFSET, 0, 0);
+        return organizationService.getDescendants(uuid, maxDepth, offset, limit);
+    }
 }
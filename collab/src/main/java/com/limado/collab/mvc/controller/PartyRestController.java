@@ -5,6 +5,7 @@ import com.limado.collab.model.Organization;
 import com.limado.collab.model.Party;
 import com.limado.collab.model.User;
 import com.limado.collab.mvc.exception.ResourceNotFoundException;
+import com.limado.collab.mvc.validator.ValidationUtils;
 import com.limado.collab.service.GroupService;
 import com.limado.collab.service.OrganizationService;
 import com.limado.collab.service.PartyService;
@@ -30,6 +31,8 @@ public class PartyRestController {
 
     private static final Logger log = LogManager.getLogger(PartyRestController.class);
 
+    private static final String Q_MAX_HOPS = "q_maxHops";
+
     @Autowired
     private PartyService<Party> partyService;
     @Autowired
@@ -94,12 +97,18 @@ public class PartyRestController {
         return ascendants;
     }
 
+    /**
+     * q_maxHops limits the descendants to the parties within the given number of parent-child relations
+     */
     @GetMapping(value = "{id}/descendants", produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
     @ResponseBody
     public Object getDescendants(@PathVariable String id, @RequestParam() Map<String, String> requestParam) {
         UUID uuid = UUID.fromString(id);
-        Set<Party> descendants = partyService.getDescendants(uuid);
-        if (requestParam != null && !requestParam.isEmpty()) {
+        Set<Party> descendants = requestParam.containsKey(Q_MAX_HOPS) ?
+                partyService.getDescendants(uuid, ValidationUtils.parseIntParam(requestParam, Q_MAX_HOPS, Integer.MAX_VALUE, 1)) : partyService.getDescendants(uuid);
+        requestParam = new HashMap<>(requestParam);
+        requestParam.remove(Q_MAX_HOPS);
+        if (!requestParam.isEmpty()) {
             QueryParams params = new QueryParams();
             params.putAll(requestParam);
             List<Party> parties = partyService.find(params);
@@ -113,6 +122,16 @@ public class PartyRestController {
         return descendants;
     }
 
+    /**
+     * the minimum number of parent-child relations from the party to each descendant within q_maxHops, which is unlimited by default
+     */
+    @GetMapping(value = "{id}/descendants/hops", produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
+    @ResponseBody
+    public Map<UUID, Integer> getDescendantHops(@PathVariable String id, @RequestParam() Map<String, String> requestParam) {
+        UUID uuid = UUID.fromString(id);
+        return partyService.getDescendantHops(uuid, ValidationUtils.parseIntParam(requestParam, Q_MAX_HOPS, Integer.MAX_VALUE, 1));
+    }
+
     @GetMapping(produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
     @ResponseBody
     public Object find(@RequestParam() Map<String, String> requestParam) {
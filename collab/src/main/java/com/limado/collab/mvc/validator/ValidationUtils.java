@@ -1,8 +1,11 @@
 package com.limado.collab.mvc.validator;
 
+import com.limado.collab.mvc.exception.BadRequestException;
 import org.springframework.validation.BindingResult;
 import org.springframework.validation.FieldError;
 
+import java.util.Map;
+
 /**
  * @author csieflyman
  */
@@ -24,4 +27,24 @@ public class ValidationUtils {
         }
         return sb.toString();
     }
+
+    /**
+     * @return the integer value of the request parameter, or the default value if the parameter is absent
+     * @throws BadRequestException if the value is not an integer or less than the minimum value
+     */
+    public static int parseIntParam(Map<String, String> requestParam, String name, int defaultValue, int minValue) {
+        String value = requestParam.get(name);
+        if (value == null)
+            return defaultValue;
+        int intValue;
+        try {
+            intValue = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new BadRequestException(String.format("%s must be an integer", name), e, value);
+        }
+        if (intValue < minValue) {
+            throw new BadRequestException(String.format("%s must not be less than %d", name, minValue), value);
+        }
+        return intValue;
+    }
 }
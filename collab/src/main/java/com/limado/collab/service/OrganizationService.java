@@ -1,8 +1,11 @@
 package com.limado.collab.service;
 
+import com.limado.collab.dao.IntervalTreeVerifyReport;
 import com.limado.collab.model.Organization;
 import com.limado.collab.model.Party;
 
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 /**
@@ -11,4 +14,45 @@ import java.util.UUID;
 public interface OrganizationService extends PartyService<Organization> {
 
     void movePartyToOrganization(Party child, Organization organization);
+
+    /**
+     * move many parties at once, the key of organizationIdMap is the id of a party and the value is the id of its new organization
+     */
+    void movePartiesToOrganizations(Map<UUID, UUID> organizationIdMap);
+
+    /**
+     * @return one page of the descendants down to maxDepth levels below the organization in depth first order
+     */
+    List<Party> getDescendants(UUID id, int maxDepth, int offset, int limit);
+
+    /**
+     * @param afterId the last descendant of the previous page, null for the first page
+     */
+    List<Party> getDescendants(UUID id, int maxDepth, UUID afterId, int limit);
+
+    /**
+     * @return the number of descendants of the organization, computed from the tree without loading the parties
+     */
+    int getDescendantsSize(UUID id);
+
+    /**
+     * @return ancestors in the organization tree ordered from the root to the parent of the party
+     */
+    List<Party> getAncestors(UUID id);
+
+    /**
+     * check many memberships at once, the key of each pair is an organization and the value is a party
+     *
+     * @return whether each party is a descendant of its organization, in the order of the pairs
+     */
+    List<Boolean> areDescendants(List<Map.Entry<UUID, UUID>> pairs);
+
+    Party getLowestCommonAncestor(UUID id, UUID otherId);
+
+    /**
+     * check the organization tree against the relationship of the parties
+     *
+     * @return reports of the corrupted trees
+     */
+    List<IntervalTreeVerifyReport> verifyTree();
 }
@@ -3,6 +3,7 @@ package com.limado.collab.service;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Sets;
 import com.limado.collab.dao.IntervalTreeDao;
+import com.limado.collab.dao.IntervalTreeVerifyReport;
 import com.limado.collab.model.Group;
 import com.limado.collab.model.Organization;
 import com.limado.collab.model.Party;
@@ -51,6 +52,40 @@ public class OrganizationServiceImpl extends PartyServiceImpl<Organization> impl
         }
     }
 
+    @Override
+    public void movePartiesToOrganizations(Map<UUID, UUID> organizationIdMap) {
+        Preconditions.checkArgument(organizationIdMap != null, "organizationIdMap must not be null");
+
+        if (organizationIdMap.isEmpty())
+            return;
+
+        Map<UUID, Party> childMap = loadParties(organizationIdMap.keySet(), Party.RELATION_PARENT);
+        Map<UUID, Party> organizationMap = loadParties(new HashSet<>(organizationIdMap.values()));
+        Map<UUID, UUID> movedOrganizationIdMap = new LinkedHashMap<>();
+        Map<Organization, Set<Party>> childrenMap = new HashMap<>();
+        for (Map.Entry<UUID, UUID> entry : organizationIdMap.entrySet()) {
+            Party child = childMap.get(entry.getKey());
+            Party organization = organizationMap.get(entry.getValue());
+            if (!organization.getType().equals(Organization.TYPE)) {
+                throw new IllegalArgumentException(String.format("%s is not a organization", organization));
+            }
+            if (child.getType().equals(Group.TYPE)) {
+                throw new IllegalArgumentException(String.format("organization %s can't add group child %s", organization, child));
+            }
+            Optional<Party> parentOrg = child.getParents().stream().filter(parent -> parent.getType().equals(Organization.TYPE)).findFirst();
+            if (parentOrg.isPresent()) {
+                if (parentOrg.get().equals(organization))
+                    continue;
+                super.removeChild((Organization) parentOrg.get(), child);
+            }
+            validateParentsRelationship((Organization) organization, child);
+            childrenMap.computeIfAbsent((Organization) organization, key -> new HashSet<>()).add(child);
+            movedOrganizationIdMap.put(entry.getKey(), entry.getValue());
+        }
+        super.addChildren(childrenMap);
+        intervalTreeDao.moveAll(movedOrganizationIdMap);
+    }
+
     @Override
     public void addChild(Organization parent, Party child) {
         Preconditions.checkArgument(parent != null, "parent must not be null");
@@ -88,7 +123,7 @@ public class OrganizationServiceImpl extends PartyServiceImpl<Organization> impl
         }
 
         super.addChildren(parent, children);
-        children.forEach(child -> intervalTreeDao.addChild(parent.getId(), child.getId()));
+        intervalTreeDao.addChildren(parent.getId(), children.stream().map(Party::getId).collect(Collectors.toList()));
     }
 
     @Override
@@ -99,7 +134,7 @@ public class OrganizationServiceImpl extends PartyServiceImpl<Organization> impl
         if (children.isEmpty())
             return;
 
-        children.forEach(child -> intervalTreeDao.removeChild(parent.getId(), child.getId()));
+        intervalTreeDao.removeChildren(parent.getId(), children.stream().map(Party::getId).collect(Collectors.toList()));
         super.removeChildren(parent, children);
     }
 
@@ -119,10 +154,8 @@ public class OrganizationServiceImpl extends PartyServiceImpl<Organization> impl
         }
 
         super.addParents(child, parents);
-        for (Party parent : parents) {
-            if (parent.getType().equals(Organization.TYPE)) {
-                intervalTreeDao.addChild(parent.getId(), child.getId());
-            }
+        if (parentsTypeMap.get(Organization.TYPE) != null) {
+            intervalTreeDao.addChild(parentsTypeMap.get(Organization.TYPE).get(0).getId(), child.getId());
         }
     }
 
@@ -134,10 +167,11 @@ public class OrganizationServiceImpl extends PartyServiceImpl<Organization> impl
         if (parents.isEmpty())
             return;
 
-        for (Party parent : parents) {
-            if (parent.getType().equals(Organization.TYPE)) {
-                intervalTreeDao.removeChild(parent.getId(), child.getId());
-            }
+        List<Party> organizationParents = parents.stream().filter(parent -> parent.getType().equals(Organization.TYPE)).collect(Collectors.toList());
+        if (organizationParents.size() > 1) {
+            throw new IllegalArgumentException(String.format("organization %s doesn't have above two organization parents %s", child, organizationParents));
+        } else if (organizationParents.size() == 1) {
+            intervalTreeDao.removeChild(organizationParents.get(0).getId(), child.getId());
         }
         super.removeParents(child, parents);
     }
@@ -158,25 +192,96 @@ public class OrganizationServiceImpl extends PartyServiceImpl<Organization> impl
         if (descendantIds.isEmpty())
             return new HashSet<>();
 
+        Set<Party> descendants = new LinkedHashSet<>(findInOrder(descendantIds));
+        return descendants;
+    }
+
+    @Override
+    public List<Party> getDescendants(UUID id, int maxDepth, int offset, int limit) {
+        Preconditions.checkArgument(id != null, "id must not be null");
+
+        List<UUID> descendantIds = intervalTreeDao.getSubTree(id, maxDepth, offset, limit);
+        if (descendantIds.isEmpty())
+            return new ArrayList<>();
+
+        return findInOrder(descendantIds);
+    }
+
+    @Override
+    public List<Party> getDescendants(UUID id, int maxDepth, UUID afterId, int limit) {
+        Preconditions.checkArgument(id != null, "id must not be null");
+
+        List<UUID> descendantIds = intervalTreeDao.getSubTree(id, maxDepth, afterId, limit);
+        if (descendantIds.isEmpty())
+            return new ArrayList<>();
+
+        return findInOrder(descendantIds);
+    }
+
+    @Override
+    public int getDescendantsSize(UUID id) {
+        Preconditions.checkArgument(id != null, "id must not be null");
+
+        return intervalTreeDao.getSubTreeSize(id);
+    }
+
+    @Override
+    public List<Party> getAncestors(UUID id) {
+        Preconditions.checkArgument(id != null, "id must not be null");
+
+        List<UUID> ancestorIds = intervalTreeDao.getAncestors(id);
+        if (ancestorIds.isEmpty())
+            return new ArrayList<>();
+
+        return findInOrder(ancestorIds);
+    }
+
+    @Override
+    public List<Boolean> areDescendants(List<Map.Entry<UUID, UUID>> pairs) {
+        Preconditions.checkArgument(pairs != null, "pairs must not be null");
+
+        return intervalTreeDao.areDescendants(pairs);
+    }
+
+    @Override
+    public Party getLowestCommonAncestor(UUID id, UUID otherId) {
+        Preconditions.checkArgument(id != null, "id must not be null");
+        Preconditions.checkArgument(otherId != null, "otherId must not be null");
+
+        UUID ancestorId = intervalTreeDao.getLowestCommonAncestor(id, otherId);
+        return ancestorId == null ? null : getById(ancestorId);
+    }
+
+    @Override
+    public List<IntervalTreeVerifyReport> verifyTree() {
+        return intervalTreeDao.verify();
+    }
+
+    private List<Party> findInOrder(List<UUID> ids) {
         QueryParams params = new QueryParams();
-        params.addPredicate(new Predicate("id", Operator.IN, descendantIds));
+        params.addPredicate(new Predicate("id", Operator.IN, ids));
         List<Party> parties = find(params);
-        parties = parties.stream().sorted(Comparator.comparing(party -> descendantIds.indexOf(party.getId()))).collect(Collectors.toList());
-        Set<Party> descendants = new LinkedHashSet<>(parties);
-        return descendants;
+        Map<UUID, Integer> positionMap = new HashMap<>(ids.size() * 4 / 3 + 1);
+        for (int i = 0; i < ids.size(); i++) {
+            positionMap.put(ids.get(i), i);
+        }
+        return parties.stream().sorted(Comparator.comparing(party -> positionMap.get(party.getId()))).collect(Collectors.toList());
     }
 
     private Set<Party> loadChildren(Set<Party> children) {
         Set<UUID> childrenIds = children.stream().map(Party::getId).collect(Collectors.toSet());
+        return new HashSet<>(loadParties(childrenIds, Party.RELATION_PARENT).values());
+    }
+
+    private Map<UUID, Party> loadParties(Set<UUID> ids, String... relations) {
         QueryParams params = new QueryParams();
-        params.addPredicate(new Predicate("id", Operator.IN, childrenIds));
-        params.setFetchRelations(Sets.newHashSet(Party.RELATION_PARENT));
-        children = new HashSet<>(find(params));
-        if (children.size() != childrenIds.size()) {
-            Set<UUID> foundChildrenIds = children.stream().map(Party::getId).collect(Collectors.toSet());
-            throw new IllegalArgumentException(String.format("children id %s are not exist", CollectionUtils.subtract(childrenIds, foundChildrenIds)));
+        params.addPredicate(new Predicate("id", Operator.IN, ids));
+        params.setFetchRelations(Sets.newHashSet(relations));
+        Map<UUID, Party> partyMap = find(params).stream().collect(Collectors.toMap(Party::getId, party -> party));
+        if (partyMap.size() != ids.size()) {
+            throw new IllegalArgumentException(String.format("party id %s are not exist", CollectionUtils.subtract(ids, partyMap.keySet())));
         }
-        return children;
+        return partyMap;
     }
 
     private void validateChildType(Party child) {
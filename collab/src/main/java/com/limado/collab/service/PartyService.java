@@ -5,6 +5,7 @@ import com.limado.collab.util.query.QueryParams;
 
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 
@@ -45,6 +46,21 @@ public interface PartyService<T extends Party> {
 
     Set<Party> getDescendants(UUID id);
 
+    /**
+     * @return the ids of the ascendants of each party, the map contains every given id
+     */
+    Map<UUID, Set<UUID>> getAscendantIds(Collection<UUID> ids);
+
+    /**
+     * @param maxHops the maximum number of parent-child relations between the party and a descendant, 1 returns the children
+     */
+    Set<Party> getDescendants(UUID id, int maxHops);
+
+    /**
+     * @return the ids of the descendants within maxHops and the minimum number of parent-child relations from the party to each of them
+     */
+    Map<UUID, Integer> getDescendantHops(UUID id, int maxHops);
+
     void addChild(T parent, Party child);
 
     void removeChild(T parent, Party child);
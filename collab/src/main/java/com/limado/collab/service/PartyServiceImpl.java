@@ -17,6 +17,7 @@ import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
+import java.util.stream.Collectors;
 
 /**
  * author flyman
@@ -31,7 +32,7 @@ public class PartyServiceImpl<T extends Party> implements PartyService<T> {
     private PartyDao partyDao;
 
     @Autowired
-    @Qualifier("partyDagEdgeDao")
+    @Qualifier("partyDagDao")
     private DagEdgeDao<UUID> dagEdgeDao;
 
     @Override
@@ -227,6 +228,13 @@ public class PartyServiceImpl<T extends Party> implements PartyService<T> {
         return new HashSet<>(find(params));
     }
 
+    @Override
+    public Map<UUID, Set<UUID>> getAscendantIds(Collection<UUID> ids) {
+        Preconditions.checkArgument(ids != null, "ids must not be null");
+
+        return dagEdgeDao.findIncomingVertices(ids);
+    }
+
     @Override
     public Set<Party> getDescendants(UUID id) {
         Preconditions.checkArgument(id != null, "id must not be null");
@@ -239,6 +247,27 @@ public class PartyServiceImpl<T extends Party> implements PartyService<T> {
         return new HashSet<>(find(params));
     }
 
+    @Override
+    public Set<Party> getDescendants(UUID id, int maxHops) {
+        Preconditions.checkArgument(id != null, "id must not be null");
+        Preconditions.checkArgument(maxHops > 0, "maxHops must be greater than 0");
+
+        Set<UUID> descendantIds = dagEdgeDao.findOutgoingVertices(id, maxHops);
+        if (descendantIds.isEmpty())
+            return new HashSet<>();
+        QueryParams params = new QueryParams();
+        params.addPredicate(new Predicate("id", Operator.IN, descendantIds));
+        return new HashSet<>(find(params));
+    }
+
+    @Override
+    public Map<UUID, Integer> getDescendantHops(UUID id, int maxHops) {
+        Preconditions.checkArgument(id != null, "id must not be null");
+        Preconditions.checkArgument(maxHops > 0, "maxHops must be greater than 0");
+
+        return dagEdgeDao.findOutgoingVertexHops(id, maxHops);
+    }
+
     @Override
     public void addChild(T parent, Party child) {
         Preconditions.checkArgument(parent != null, "parent must not be null");
@@ -265,7 +294,20 @@ public class PartyServiceImpl<T extends Party> implements PartyService<T> {
         if (children.isEmpty())
             return;
         partyDao.addChildren(parent, children);
-        children.forEach(child -> dagEdgeDao.addEdges(parent.getId(), child.getId()));
+        dagEdgeDao.addEdges(parent.getId(), children.stream().map(Party::getId).collect(Collectors.toSet()));
+    }
+
+    /**
+     * add the children of several parents, the edges of the dag are added by one call
+     */
+    protected void addChildren(Map<T, Set<Party>> childrenMap) {
+        Preconditions.checkArgument(childrenMap != null, "childrenMap must not be null");
+
+        if (childrenMap.isEmpty())
+            return;
+        childrenMap.forEach(partyDao::addChildren);
+        dagEdgeDao.addEdges(childrenMap.entrySet().stream().collect(Collectors.toMap(entry -> entry.getKey().getId(),
+                entry -> entry.getValue().stream().map(Party::getId).collect(Collectors.toSet()))));
     }
 
     @Override
@@ -287,7 +329,7 @@ public class PartyServiceImpl<T extends Party> implements PartyService<T> {
         if (parents.isEmpty())
             return;
         partyDao.addParents(child, parents);
-        parents.forEach(parent -> dagEdgeDao.addEdges(parent.getId(), child.getId()));
+        dagEdgeDao.addEdges(parents.stream().collect(Collectors.toMap(Party::getId, parent -> Collections.singleton(child.getId()))));
     }
 
     @Override
@@ -0,0 +1,3 @@
+ALTER TABLE interval_tree ADD COLUMN parent_node_id BINARY(16) NULL AFTER high, ADD COLUMN depth INT NOT NULL DEFAULT 0 AFTER parent_node_id, ADD INDEX parent_node_type_idx (parent_node_id, tree_type), ADD INDEX tree_id_depth_idx (tree_id, depth);
+UPDATE interval_tree t JOIN (SELECT c.id, COUNT(a.id) AS depth FROM interval_tree c JOIN interval_tree a ON a.tree_id = c.tree_id AND a.tree_type = c.tree_type AND a.low < c.low AND a.high > c.high GROUP BY c.id) d ON d.id = t.id SET t.depth = d.depth;
+UPDATE interval_tree t JOIN (SELECT c.id, a.node_id FROM interval_tree c JOIN interval_tree a ON a.tree_id = c.tree_id AND a.tree_type = c.tree_type AND a.low < c.low AND a.high > c.high AND a.depth = c.depth - 1) p ON p.id = t.id SET t.parent_node_id = p.node_id;
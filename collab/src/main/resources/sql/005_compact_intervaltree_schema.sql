@@ -0,0 +1,7 @@
+ALTER TABLE interval_tree ADD COLUMN tree_id_v2 BIGINT NULL, ADD COLUMN tree_type_v2 SMALLINT NULL;
+UPDATE interval_tree SET tree_type_v2 = 1 WHERE tree_type = 'member';
+UPDATE interval_tree t JOIN interval_tree r ON r.tree_id = t.tree_id AND r.tree_type = t.tree_type AND r.depth = 0 SET t.tree_id_v2 = r.id;
+CREATE TABLE interval_tree_seq (tree_type SMALLINT NOT NULL, next_val BIGINT NOT NULL, PRIMARY KEY (tree_type));
+INSERT INTO interval_tree_seq (tree_type, next_val) SELECT tree_type_v2, MAX(tree_id_v2) + 1 FROM interval_tree WHERE tree_type_v2 IS NOT NULL GROUP BY tree_type_v2;
+ALTER TABLE interval_tree DROP INDEX node_id_idx, DROP INDEX low_idx, DROP INDEX high_idx, DROP INDEX tree_id_idx, DROP INDEX tree_type_idx, DROP INDEX tree_id_depth_idx, DROP INDEX parent_node_type_idx, DROP INDEX unique_node_type_idx, ADD UNIQUE unique_node_type_idx (node_id, tree_type_v2), DROP COLUMN tree_id, DROP COLUMN tree_type;
+ALTER TABLE interval_tree CHANGE tree_id_v2 tree_id BIGINT NOT NULL AFTER depth, CHANGE tree_type_v2 tree_type SMALLINT NOT NULL AFTER tree_id, ADD INDEX parent_node_type_idx (parent_node_id, tree_type), ADD INDEX tree_range_idx (tree_type, tree_id, low, high), ADD INDEX tree_depth_idx (tree_type, tree_id, depth);
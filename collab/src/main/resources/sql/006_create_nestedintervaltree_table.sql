@@ -0,0 +1 @@
+CREATE TABLE nested_interval_tree (id BIGINT UNSIGNED NOT NULL AUTO_INCREMENT, node_id BINARY(16) NOT NULL, parent_node_id BINARY(16) NULL, sibling_index INT NOT NULL, depth INT NOT NULL DEFAULT 0, low_num BIGINT NOT NULL, low_den BIGINT NOT NULL, high_num BIGINT NOT NULL, high_den BIGINT NOT NULL, low BIGINT NOT NULL, high BIGINT NOT NULL, tree_id BIGINT NOT NULL, tree_type SMALLINT NOT NULL, PRIMARY KEY (id), UNIQUE nested_node_type_idx (node_id, tree_type), INDEX nested_parent_node_type_idx (parent_node_id, tree_type), INDEX nested_tree_range_idx (tree_type, tree_id, high, low), INDEX nested_tree_depth_idx (tree_type, tree_id, depth), CONSTRAINT FK_nested_interval_tree_node_id FOREIGN KEY (node_id) REFERENCES party (id));
@@ -0,0 +1 @@
+CREATE TABLE materialized_path_tree (id BIGINT UNSIGNED NOT NULL AUTO_INCREMENT, node_id BINARY(16) NOT NULL, parent_node_id BINARY(16) NULL, path VARCHAR(1024) CHARACTER SET ascii COLLATE ascii_bin NOT NULL, depth INT NOT NULL DEFAULT 0, tree_id BIGINT NOT NULL, tree_type SMALLINT NOT NULL, PRIMARY KEY (id), UNIQUE path_node_type_idx (node_id, tree_type), INDEX path_parent_node_type_idx (parent_node_id, tree_type), INDEX path_tree_path_idx (tree_type, tree_id, path), CONSTRAINT FK_materialized_path_tree_node_id FOREIGN KEY (node_id) REFERENCES party (id));
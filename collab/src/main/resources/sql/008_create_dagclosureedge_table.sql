@@ -0,0 +1,2 @@
+CREATE TABLE dag_closure_edge (id BIGINT UNSIGNED NOT NULL AUTO_INCREMENT, start_vertex_id BINARY(16) NOT NULL, end_vertex_id BINARY(16) NOT NULL, path_count BIGINT NOT NULL, direct_edge BOOLEAN NOT NULL DEFAULT FALSE, dag_id VARCHAR(150) NOT NULL, PRIMARY KEY (id), UNIQUE closure_dag_start_end_idx (dag_id, start_vertex_id, end_vertex_id), INDEX closure_dag_end_start_idx (dag_id, end_vertex_id, start_vertex_id), CONSTRAINT FK_dag_closure_edge_start_vertex_id FOREIGN KEY (start_vertex_id) REFERENCES party (id), CONSTRAINT FK_dag_closure_edge_end_vertex_id FOREIGN KEY (end_vertex_id) REFERENCES party (id));
+INSERT INTO dag_closure_edge (start_vertex_id, end_vertex_id, path_count, direct_edge, dag_id) SELECT start_vertex_id, end_vertex_id, COUNT(*), MAX(hops = 0), dag_id FROM dag_edge GROUP BY dag_id, start_vertex_id, end_vertex_id;
@@ -0,0 +1 @@
+ALTER TABLE dag_edge ADD INDEX dag_end_start_idx (dag_id, end_vertex_id, start_vertex_id), ADD INDEX dag_start_end_idx (dag_id, start_vertex_id, end_vertex_id);
@@ -0,0 +1 @@
+ALTER TABLE dag_edge ADD INDEX dag_start_hops_idx (dag_id, start_vertex_id, hops, end_vertex_id);
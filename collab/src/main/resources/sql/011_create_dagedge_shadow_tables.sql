@@ -0,0 +1,4 @@
+CREATE TABLE dag_edge_shadow LIKE dag_edge;
+ALTER TABLE dag_edge_shadow ADD CONSTRAINT FK_dag_edge_shadow_start_vertex_id FOREIGN KEY (start_vertex_id) REFERENCES party (id), ADD CONSTRAINT FK_dag_edge_shadow_end_vertex_id FOREIGN KEY (end_vertex_id) REFERENCES party (id);
+CREATE TABLE dag_closure_edge_shadow LIKE dag_closure_edge;
+ALTER TABLE dag_closure_edge_shadow ADD CONSTRAINT FK_dag_closure_edge_shadow_start_vertex_id FOREIGN KEY (start_vertex_id) REFERENCES party (id), ADD CONSTRAINT FK_dag_closure_edge_shadow_end_vertex_id FOREIGN KEY (end_vertex_id) REFERENCES party (id);
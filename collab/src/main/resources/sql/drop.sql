@@ -1,6 +1,12 @@
+DROP TABLE materialized_path_tree;
+DROP TABLE nested_interval_tree;
+DROP TABLE interval_tree_seq;
 DROP TABLE interval_tree;
+DROP TABLE dag_closure_edge_shadow;
+DROP TABLE dag_closure_edge;
+DROP TABLE dag_edge_shadow;
 DROP TABLE dag_edge;
 DROP TABLE party_rel;
 DROP TABLE party;
 DROP TABLE hibernate_sequence;
-DELETE FROM changelog where change_number in (1, 2, 3);
+DELETE FROM changelog where change_number in (1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11);
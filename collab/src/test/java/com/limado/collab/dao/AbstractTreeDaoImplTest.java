@@ -0,0 +1,609 @@
+package com.limado.collab.dao;
+
+import com.google.common.collect.Sets;
+import com.limado.collab.model.Organization;
+import com.limado.collab.model.Party;
+import com.limado.collab.model.TreeNode;
+import com.limado.collab.model.User;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.AbstractTransactionalJUnit4SpringContextTests;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import java.util.*;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * The scenarios shared by the {@link IntervalTreeDao} implementations, a subclass checks the encoding of its nodes.
+ *
+ * @author csieflyman
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = {"/spring-config.xml", "/spring-config-test.xml"})
+@DirtiesContext
+public abstract class AbstractTreeDaoImplTest<NodeType extends TreeNode<UUID>> extends AbstractTransactionalJUnit4SpringContextTests {
+
+    private static final Logger log = LogManager.getLogger(AbstractTreeDaoImplTest.class);
+
+    private final Class<NodeType> nodeClass;
+
+    protected IntervalTreeDao<UUID> intervalTreeDao;
+
+    @Autowired
+    protected PartyDao partyDao;
+
+    @PersistenceContext
+    protected EntityManager entityManager;
+
+    protected Map<String, Party> userMap;
+    protected Map<String, Party> orgMap;
+    protected UUID org1Id;
+    protected UUID org2Id;
+    protected UUID org3Id;
+    protected UUID org4Id;
+    protected UUID user1Id;
+    protected UUID user2Id;
+    protected UUID user3Id;
+    protected UUID user4Id;
+    protected UUID user5Id;
+    protected UUID user6Id;
+
+    protected AbstractTreeDaoImplTest(Class<NodeType> nodeClass) {
+        this.nodeClass = nodeClass;
+    }
+
+    abstract protected IntervalTreeDao<UUID> getIntervalTreeDao();
+
+    abstract protected void assertSameEncoding(NodeType expected, NodeType actual);
+
+    /**
+     * org4 is appended as the third child of org1 and user2 as the second child of org2
+     */
+    abstract protected void assertAddedEncoding();
+
+    /**
+     * org3 is moved under org2 as its third child, user4 is the second child of org3
+     */
+    abstract protected void assertMovedEncoding();
+
+    /**
+     * corrupt the encoding of a child of org2
+     *
+     * @return the beginning of the error which verify reports for the corrupted node
+     */
+    abstract protected String corruptEncoding();
+
+    @Before
+    public void initTestData() {
+        intervalTreeDao = getIntervalTreeDao();
+        userMap = new HashMap<>();
+        for (int i = 1; i <= 6; i++) {
+            String identity = "user" + i;
+            User user = new User(identity);
+            user.setName(" I am " + identity);
+            userMap.put(identity, user);
+        }
+        orgMap = new HashMap<>();
+        for (int i = 1; i <= 4; i++) {
+            String identity = "org" + i;
+            Organization org = new Organization(identity);
+            org.setName(" I am " + identity);
+            orgMap.put(identity, org);
+        }
+        userMap = userMap.values().stream().map(user -> partyDao.create(user)).collect(Collectors.toMap(Party::getIdentity, user -> user));
+        orgMap = orgMap.values().stream().map(org -> partyDao.create(org)).collect(Collectors.toMap(Party::getIdentity, user -> user));
+
+        org1Id = orgMap.get("org1").getId();
+        org2Id = orgMap.get("org2").getId();
+        org3Id = orgMap.get("org3").getId();
+        org4Id = orgMap.get("org4").getId();
+        user1Id = userMap.get("user1").getId();
+        user2Id = userMap.get("user2").getId();
+        user3Id = userMap.get("user3").getId();
+        user4Id = userMap.get("user4").getId();
+        user5Id = userMap.get("user5").getId();
+        user6Id = userMap.get("user6").getId();
+    }
+
+    @Test
+    public void testAddRemoveChild() {
+        intervalTreeDao.addChild(org1Id, org2Id);
+        intervalTreeDao.addChild(org1Id, org3Id);
+        intervalTreeDao.addChild(org1Id, org4Id);
+        intervalTreeDao.addChild(org2Id, user1Id);
+        intervalTreeDao.addChild(org2Id, user2Id);
+        intervalTreeDao.addChild(org3Id, user3Id);
+        intervalTreeDao.addChild(org3Id, user4Id);
+        intervalTreeDao.addChild(org4Id, user5Id);
+        intervalTreeDao.addChild(org4Id, user6Id);
+
+        Assert.assertEquals(Arrays.asList(org2Id, user1Id, user2Id, org3Id, user3Id, user4Id, org4Id, user5Id, user6Id), intervalTreeDao.getSubTree(org1Id));
+        Assert.assertEquals(Arrays.asList(user1Id, user2Id), intervalTreeDao.getSubTree(org2Id));
+        Assert.assertEquals(Collections.emptyList(), intervalTreeDao.getSubTree(user1Id));
+
+        intervalTreeDao.removeChild(org2Id, user1Id);
+        Assert.assertEquals(Arrays.asList(user2Id), intervalTreeDao.getSubTree(org2Id));
+        Assert.assertNull(getNode(user1Id));
+
+        intervalTreeDao.removeChild(org1Id, org3Id);
+        Assert.assertEquals(Arrays.asList(org2Id, user2Id, org4Id, user5Id, user6Id), intervalTreeDao.getSubTree(org1Id));
+        Assert.assertEquals(Arrays.asList(user3Id, user4Id), intervalTreeDao.getSubTree(org3Id));
+        Assert.assertEquals(Integer.valueOf(1), getNode(user4Id).getDepth());
+
+        intervalTreeDao.removeChild(org1Id, org2Id);
+        intervalTreeDao.removeChild(org2Id, user2Id);
+        Assert.assertEquals(Collections.emptyList(), intervalTreeDao.getSubTree(org2Id));
+        Assert.assertNull(getNode(org2Id));
+        Assert.assertEquals(Arrays.asList(org4Id, user5Id, user6Id), intervalTreeDao.getSubTree(org1Id));
+
+        try {
+            intervalTreeDao.addChild(org1Id, user5Id);
+            Assert.fail("node with a parent must be rejected");
+        } catch (InvalidDataAccessApiUsageException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+    }
+
+    @Test
+    public void testAddRemoveChildren() {
+        intervalTreeDao.addChildren(org1Id, Arrays.asList(org2Id, org3Id));
+        intervalTreeDao.addChildren(org2Id, Arrays.asList(user1Id, user2Id, user3Id));
+        Assert.assertEquals(Arrays.asList(org2Id, user1Id, user2Id, user3Id, org3Id), intervalTreeDao.getSubTree(org1Id));
+
+        intervalTreeDao.removeChildren(org2Id, Arrays.asList(user3Id, user1Id));
+        Assert.assertEquals(Arrays.asList(org2Id, user2Id, org3Id), intervalTreeDao.getSubTree(org1Id));
+        try {
+            intervalTreeDao.removeChildren(org1Id, Arrays.asList(org3Id, user2Id));
+            Assert.fail("user2 is not a child of org1");
+        } catch (InvalidDataAccessApiUsageException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+    }
+
+    /**
+     * Two writers add the same children in opposite order under different parents. Each locks all its nodes by one call,
+     * so the second waits for the first and then finds the children taken, instead of both waiting until the lock timeout.
+     */
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void testCrossingAddChildren() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        CyclicBarrier barrier = new CyclicBarrier(2);
+        try {
+            List<Future<?>> writers = Arrays.asList(
+                    executor.submit(() -> addChildrenTogether(barrier, org1Id, Arrays.asList(user1Id, user2Id))),
+                    executor.submit(() -> addChildrenTogether(barrier, org2Id, Arrays.asList(user2Id, user1Id))));
+            List<Throwable> failures = new ArrayList<>();
+            for (Future<?> writer : writers) {
+                try {
+                    writer.get(30, TimeUnit.SECONDS);
+                } catch (ExecutionException e) {
+                    failures.add(e.getCause());
+                }
+            }
+            Assert.assertEquals(1, failures.size());
+            Assert.assertTrue(failures.get(0) instanceof InvalidDataAccessApiUsageException);
+            Assert.assertTrue(failures.get(0).getCause() instanceof IllegalArgumentException);
+            UUID parentId = intervalTreeDao.getParent(user1Id);
+            Assert.assertEquals(parentId, intervalTreeDao.getParent(user2Id));
+            Assert.assertEquals(2, intervalTreeDao.getChildren(parentId).size());
+        } finally {
+            executor.shutdownNow();
+            deleteFromTables("interval_tree", "nested_interval_tree", "materialized_path_tree", "party");
+        }
+    }
+
+    private void addChildrenTogether(CyclicBarrier barrier, UUID parentId, List<UUID> childIds) {
+        try {
+            barrier.await(10, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        intervalTreeDao.addChildren(parentId, childIds);
+    }
+
+    @Test
+    public void testAddChildOnlyWritesNewNode() {
+        intervalTreeDao.addChild(org1Id, org2Id);
+        intervalTreeDao.addChild(org1Id, org3Id);
+        intervalTreeDao.addChild(org2Id, user1Id);
+        NodeType org2Node = getNode(org2Id);
+        NodeType org3Node = getNode(org3Id);
+        NodeType user1Node = getNode(user1Id);
+
+        intervalTreeDao.addChild(org2Id, user2Id);
+        intervalTreeDao.addChild(org1Id, org4Id);
+        Assert.assertEquals(Arrays.asList(org2Id, user1Id, user2Id, org3Id, org4Id), intervalTreeDao.getSubTree(org1Id));
+        for (NodeType node : Arrays.asList(org2Node, org3Node, user1Node)) {
+            assertSameEncoding(node, getNode(node.getNodeId()));
+        }
+        assertAddedEncoding();
+    }
+
+    @Test
+    public void testDeleteNode() {
+        intervalTreeDao.addChild(org1Id, org2Id);
+        intervalTreeDao.addChild(org1Id, org3Id);
+        intervalTreeDao.addChild(org1Id, org4Id);
+        intervalTreeDao.addChild(org2Id, user1Id);
+        intervalTreeDao.addChild(org2Id, user2Id);
+        intervalTreeDao.addChild(org3Id, user3Id);
+        intervalTreeDao.addChild(org3Id, user4Id);
+        intervalTreeDao.addChild(org4Id, user5Id);
+        intervalTreeDao.addChild(org4Id, user6Id);
+
+        intervalTreeDao.delete(org2Id);
+        Assert.assertEquals(Collections.emptyList(), intervalTreeDao.getSubTree(org2Id));
+        Assert.assertEquals(Arrays.asList(org3Id, user3Id, user4Id, org4Id, user5Id, user6Id), intervalTreeDao.getSubTree(org1Id));
+        Assert.assertNull(getNode(user1Id));
+
+        intervalTreeDao.delete(user3Id);
+        Assert.assertEquals(Arrays.asList(user4Id), intervalTreeDao.getSubTree(org3Id));
+
+        intervalTreeDao.delete(org1Id);
+        Assert.assertEquals(Arrays.asList(user5Id, user6Id), intervalTreeDao.getSubTree(org4Id));
+        Assert.assertEquals(Collections.emptyList(), intervalTreeDao.getSubTree(org1Id));
+        Assert.assertNull(intervalTreeDao.getParent(org4Id));
+        Assert.assertEquals(Integer.valueOf(1), getNode(user6Id).getDepth());
+        Assert.assertNotEquals(getNode(org3Id).getTreeId(), getNode(org4Id).getTreeId());
+
+        intervalTreeDao.deleteSubTree(org4Id);
+        Assert.assertNull(getNode(org4Id));
+        Assert.assertNull(getNode(user5Id));
+        Assert.assertEquals(Arrays.asList(user4Id), intervalTreeDao.getSubTree(org3Id));
+    }
+
+    @Test
+    public void testMoveNodeOnlyWritesMovedNodes() {
+        intervalTreeDao.addChild(org1Id, org2Id);
+        intervalTreeDao.addChild(org1Id, org3Id);
+        intervalTreeDao.addChild(org1Id, org4Id);
+        intervalTreeDao.addChild(org2Id, user1Id);
+        intervalTreeDao.addChild(org2Id, user2Id);
+        intervalTreeDao.addChild(org3Id, user3Id);
+        intervalTreeDao.addChild(org3Id, user4Id);
+        intervalTreeDao.addChild(org4Id, user5Id);
+        intervalTreeDao.addChild(org4Id, user6Id);
+        NodeType org4Node = getNode(org4Id);
+        NodeType user1Node = getNode(user1Id);
+
+        intervalTreeDao.move(org2Id, org3Id);
+        Assert.assertEquals(Arrays.asList(user1Id, user2Id, org3Id, user3Id, user4Id), intervalTreeDao.getSubTree(org2Id));
+        Assert.assertEquals(Arrays.asList(org1Id, org2Id, org3Id), intervalTreeDao.getAncestors(user4Id));
+        Assert.assertEquals(Integer.valueOf(3), getNode(user4Id).getDepth());
+        assertSameEncoding(org4Node, getNode(org4Id));
+        assertSameEncoding(user1Node, getNode(user1Id));
+        assertMovedEncoding();
+
+        intervalTreeDao.move(org4Id, org2Id);
+        Assert.assertEquals(Arrays.asList(org4Id, user5Id, user6Id, org2Id, user1Id, user2Id, org3Id, user3Id, user4Id), intervalTreeDao.getSubTree(org1Id));
+
+        intervalTreeDao.move(org2Id, user3Id);
+        Assert.assertEquals(Arrays.asList(user1Id, user2Id, org3Id, user4Id, user3Id), intervalTreeDao.getSubTree(org2Id));
+
+        try {
+            intervalTreeDao.move(user4Id, org2Id);
+            Assert.fail("move into its own subtree must be rejected");
+        } catch (InvalidDataAccessApiUsageException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+    }
+
+    @Test
+    public void testMoveAll() {
+        Map<UUID, List<UUID>> childrenMap = new LinkedHashMap<>();
+        childrenMap.put(org1Id, Arrays.asList(org2Id, org3Id));
+        childrenMap.put(org2Id, Arrays.asList(user1Id, user2Id));
+        childrenMap.put(org3Id, Arrays.asList(user3Id));
+        childrenMap.put(org4Id, Arrays.asList(user4Id));
+        intervalTreeDao.bulkLoad(childrenMap);
+
+        Map<UUID, UUID> newParentMap = new LinkedHashMap<>();
+        newParentMap.put(user1Id, org3Id);
+        newParentMap.put(org4Id, user2Id);
+        newParentMap.put(user5Id, org4Id);
+        newParentMap.put(user3Id, user6Id);
+        intervalTreeDao.moveAll(newParentMap);
+
+        Assert.assertEquals(Arrays.asList(org2Id, user2Id, org4Id, user4Id, user5Id, org3Id, user1Id), intervalTreeDao.getSubTree(org1Id));
+        Assert.assertEquals(Arrays.asList(user3Id), intervalTreeDao.getSubTree(user6Id));
+        Assert.assertEquals(Arrays.asList(org1Id, org2Id, user2Id, org4Id), intervalTreeDao.getAncestors(user5Id));
+        Assert.assertEquals(Integer.valueOf(4), getNode(user5Id).getDepth());
+        Assert.assertEquals(getNode(org1Id).getTreeId(), getNode(user4Id).getTreeId());
+
+        newParentMap = new LinkedHashMap<>();
+        newParentMap.put(org3Id, user4Id);
+        newParentMap.put(org2Id, user1Id);
+        try {
+            intervalTreeDao.moveAll(newParentMap);
+            Assert.fail("cycle must be rejected");
+        } catch (InvalidDataAccessApiUsageException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+        Assert.assertEquals(org1Id, intervalTreeDao.getParent(org3Id));
+
+        newParentMap = new LinkedHashMap<>();
+        newParentMap.put(user1Id, org1Id);
+        newParentMap.put(org3Id, user4Id);
+        intervalTreeDao.moveAll(newParentMap);
+        Assert.assertEquals(Arrays.asList(org2Id, user2Id, org4Id, user4Id, org3Id, user5Id, user1Id), intervalTreeDao.getSubTree(org1Id));
+
+        newParentMap = new LinkedHashMap<>();
+        newParentMap.put(user3Id, org1Id);
+        intervalTreeDao.moveAll(newParentMap);
+        Assert.assertNull(getNode(user6Id));
+        Assert.assertEquals(org1Id, intervalTreeDao.getParent(user3Id));
+    }
+
+    @Test
+    public void testParentAndDepth() {
+        intervalTreeDao.addChild(org1Id, org2Id);
+        intervalTreeDao.addChild(org1Id, org3Id);
+        intervalTreeDao.addChild(org2Id, user1Id);
+        intervalTreeDao.addChild(org2Id, user2Id);
+        intervalTreeDao.addChild(org3Id, user3Id);
+
+        Assert.assertEquals(Arrays.asList(org2Id, org3Id), intervalTreeDao.getChildren(org1Id));
+        Assert.assertEquals(Arrays.asList(user1Id, user2Id), intervalTreeDao.getChildren(org2Id));
+        Assert.assertEquals(Collections.emptyList(), intervalTreeDao.getChildren(user1Id));
+        Assert.assertNull(intervalTreeDao.getParent(org1Id));
+        Assert.assertEquals(org2Id, intervalTreeDao.getParent(user1Id));
+        Assert.assertEquals(Arrays.asList(org2Id, org3Id), intervalTreeDao.getSubTree(org1Id, 1));
+        Assert.assertEquals(Arrays.asList(org2Id, user1Id, user2Id, org3Id, user3Id), intervalTreeDao.getSubTree(org1Id, 2));
+        Assert.assertEquals(Integer.valueOf(2), getNode(user3Id).getDepth());
+
+        intervalTreeDao.move(user1Id, org3Id);
+        Assert.assertEquals(user1Id, intervalTreeDao.getParent(org3Id));
+        Assert.assertEquals(Arrays.asList(org2Id), intervalTreeDao.getChildren(org1Id));
+        Assert.assertEquals(Arrays.asList(org2Id, user1Id, user2Id), intervalTreeDao.getSubTree(org1Id, 2));
+        Assert.assertEquals(Integer.valueOf(4), getNode(user3Id).getDepth());
+
+        intervalTreeDao.removeChild(org2Id, user1Id);
+        Assert.assertNull(intervalTreeDao.getParent(user1Id));
+        Assert.assertEquals(Integer.valueOf(0), getNode(user1Id).getDepth());
+        Assert.assertEquals(Integer.valueOf(2), getNode(user3Id).getDepth());
+        Assert.assertEquals(Arrays.asList(org3Id), intervalTreeDao.getSubTree(user1Id, 1));
+
+        intervalTreeDao.delete(org1Id);
+        intervalTreeDao.delete(user1Id);
+        Assert.assertNull(intervalTreeDao.getParent(org2Id));
+        Assert.assertNull(intervalTreeDao.getParent(org3Id));
+        Assert.assertEquals(Integer.valueOf(1), getNode(user3Id).getDepth());
+    }
+
+    @Test
+    public void testSubTreePage() {
+        Map<UUID, List<UUID>> childrenMap = new LinkedHashMap<>();
+        childrenMap.put(org1Id, Arrays.asList(org2Id, org3Id));
+        childrenMap.put(org2Id, Arrays.asList(user1Id, user2Id));
+        childrenMap.put(org3Id, Arrays.asList(user3Id));
+        intervalTreeDao.bulkLoad(childrenMap);
+
+        Assert.assertEquals(Arrays.asList(org2Id, user1Id), intervalTreeDao.getSubTree(org1Id, Integer.MAX_VALUE, 0, 2));
+        Assert.assertEquals(Arrays.asList(user2Id, org3Id), intervalTreeDao.getSubTree(org1Id, Integer.MAX_VALUE, 2, 2));
+        Assert.assertEquals(Arrays.asList(org3Id), intervalTreeDao.getSubTree(org1Id, 1, 1, 2));
+        Assert.assertEquals(Arrays.asList(org2Id, user1Id), intervalTreeDao.getSubTree(org1Id, Integer.MAX_VALUE, null, 2));
+        Assert.assertEquals(Arrays.asList(user2Id, org3Id), intervalTreeDao.getSubTree(org1Id, Integer.MAX_VALUE, user1Id, 2));
+        Assert.assertEquals(Arrays.asList(user3Id), intervalTreeDao.getSubTree(org1Id, Integer.MAX_VALUE, org3Id, 2));
+        Assert.assertEquals(Arrays.asList(org3Id), intervalTreeDao.getSubTree(org1Id, 1, org2Id, 2));
+        Assert.assertEquals(Collections.emptyList(), intervalTreeDao.getSubTree(user3Id, 1, 0, 2));
+        try {
+            intervalTreeDao.getSubTree(org2Id, Integer.MAX_VALUE, user3Id, 2);
+            Assert.fail("cursor outside of the subtree must be rejected");
+        } catch (InvalidDataAccessApiUsageException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+    }
+
+    @Test
+    public void testAncestorsAndIsDescendant() {
+        intervalTreeDao.addChild(org1Id, org2Id);
+        intervalTreeDao.addChild(org1Id, org3Id);
+        intervalTreeDao.addChild(org2Id, user1Id);
+        intervalTreeDao.addChild(org3Id, user2Id);
+
+        Assert.assertEquals(Arrays.asList(org1Id, org2Id), intervalTreeDao.getAncestors(user1Id));
+        Assert.assertEquals(Arrays.asList(org1Id), intervalTreeDao.getAncestors(org3Id));
+        Assert.assertEquals(Collections.emptyList(), intervalTreeDao.getAncestors(org1Id));
+        Assert.assertEquals(Collections.emptyList(), intervalTreeDao.getAncestors(org4Id));
+        Assert.assertTrue(intervalTreeDao.isDescendant(org1Id, user1Id));
+        Assert.assertTrue(intervalTreeDao.isDescendant(org2Id, user1Id));
+        Assert.assertFalse(intervalTreeDao.isDescendant(org3Id, user1Id));
+        Assert.assertFalse(intervalTreeDao.isDescendant(user1Id, org1Id));
+        Assert.assertFalse(intervalTreeDao.isDescendant(user1Id, user1Id));
+        Assert.assertFalse(intervalTreeDao.isDescendant(org4Id, user1Id));
+        List<Map.Entry<UUID, UUID>> pairs = Arrays.asList(new AbstractMap.SimpleEntry<>(org1Id, user1Id), new AbstractMap.SimpleEntry<>(org3Id, user1Id),
+                new AbstractMap.SimpleEntry<>(user1Id, user1Id), new AbstractMap.SimpleEntry<>(org1Id, user2Id), new AbstractMap.SimpleEntry<>(org4Id, user1Id));
+        Assert.assertEquals(Arrays.asList(true, false, false, true, false), intervalTreeDao.areDescendants(pairs));
+        Assert.assertEquals(Collections.emptyList(), intervalTreeDao.areDescendants(Collections.emptyList()));
+
+        Assert.assertEquals(org1Id, intervalTreeDao.getLowestCommonAncestor(user1Id, user2Id));
+        Assert.assertEquals(org2Id, intervalTreeDao.getLowestCommonAncestor(user1Id, org2Id));
+        Assert.assertEquals(user1Id, intervalTreeDao.getLowestCommonAncestor(user1Id, user1Id));
+        Assert.assertNull(intervalTreeDao.getLowestCommonAncestor(user1Id, org4Id));
+
+        intervalTreeDao.move(user1Id, org3Id);
+        Assert.assertEquals(Arrays.asList(org1Id, org2Id, user1Id, org3Id), intervalTreeDao.getAncestors(user2Id));
+        Assert.assertTrue(intervalTreeDao.isDescendant(user1Id, org3Id));
+        Assert.assertTrue(intervalTreeDao.isDescendant(org2Id, user2Id));
+    }
+
+    @Test
+    public void testSubTreeSize() {
+        intervalTreeDao.addChild(org1Id, org2Id);
+        intervalTreeDao.addChild(org1Id, org3Id);
+        intervalTreeDao.addChild(org2Id, user1Id);
+        intervalTreeDao.addChild(org2Id, user2Id);
+        intervalTreeDao.addChild(org3Id, user3Id);
+
+        Assert.assertEquals(5, intervalTreeDao.getSubTreeSize(org1Id));
+        Assert.assertEquals(2, intervalTreeDao.getSubTreeSize(org2Id));
+        Assert.assertEquals(0, intervalTreeDao.getSubTreeSize(user1Id));
+        Assert.assertEquals(0, intervalTreeDao.getSubTreeSize(org4Id));
+        Map<UUID, Integer> expectedSizes = new HashMap<>();
+        expectedSizes.put(org1Id, 5);
+        expectedSizes.put(org3Id, 1);
+        expectedSizes.put(user3Id, 0);
+        expectedSizes.put(org4Id, 0);
+        Assert.assertEquals(expectedSizes, intervalTreeDao.getSubTreeSizes(expectedSizes.keySet()));
+        Assert.assertEquals(Collections.emptyMap(), intervalTreeDao.getSubTreeSizes(Collections.emptySet()));
+
+        intervalTreeDao.move(org2Id, org3Id);
+        Assert.assertEquals(4, intervalTreeDao.getSubTreeSize(org2Id));
+        Assert.assertEquals(intervalTreeDao.getSubTree(org1Id).size(), intervalTreeDao.getSubTreeSize(org1Id));
+    }
+
+    @Test
+    public void testBulkLoad() {
+        Map<UUID, List<UUID>> childrenMap = new LinkedHashMap<>();
+        childrenMap.put(org1Id, Arrays.asList(org2Id, org3Id, org4Id));
+        childrenMap.put(org2Id, Arrays.asList(user1Id, user2Id));
+        childrenMap.put(org3Id, Arrays.asList(user3Id, user4Id));
+        childrenMap.put(org4Id, Arrays.asList(user5Id, user6Id));
+        intervalTreeDao.bulkLoad(childrenMap);
+
+        Assert.assertEquals(Arrays.asList(org2Id, user1Id, user2Id, org3Id, user3Id, user4Id, org4Id, user5Id, user6Id), intervalTreeDao.getSubTree(org1Id));
+        Assert.assertEquals(Arrays.asList(user3Id, user4Id), intervalTreeDao.getChildren(org3Id));
+        Assert.assertEquals(org4Id, intervalTreeDao.getParent(user5Id));
+        Assert.assertEquals(Integer.valueOf(2), getNode(user5Id).getDepth());
+
+        intervalTreeDao.removeChild(org1Id, org2Id);
+        Assert.assertEquals(Arrays.asList(org3Id, user3Id, user4Id, org4Id, user5Id, user6Id), intervalTreeDao.getSubTree(org1Id));
+        intervalTreeDao.addChild(org3Id, org2Id);
+        Assert.assertEquals(Arrays.asList(user3Id, user4Id, org2Id, user1Id, user2Id), intervalTreeDao.getSubTree(org3Id));
+        Assert.assertEquals(Integer.valueOf(3), getNode(user2Id).getDepth());
+    }
+
+    @Test
+    public void testBulkLoadInvalidHierarchy() {
+        Map<UUID, List<UUID>> childrenMap = new HashMap<>();
+        childrenMap.put(org1Id, Arrays.asList(user1Id));
+        childrenMap.put(org2Id, Arrays.asList(user1Id));
+        assertBulkLoadFails(childrenMap);
+
+        childrenMap = new HashMap<>();
+        childrenMap.put(org1Id, Arrays.asList(org2Id));
+        childrenMap.put(org2Id, Arrays.asList(org1Id));
+        assertBulkLoadFails(childrenMap);
+
+        intervalTreeDao.addChild(org1Id, org2Id);
+        childrenMap = new HashMap<>();
+        childrenMap.put(org3Id, Arrays.asList(org2Id));
+        assertBulkLoadFails(childrenMap);
+    }
+
+    @Test
+    public void testVerify() {
+        orgMap.get("org1").addChild(orgMap.get("org2"));
+        orgMap.get("org2").addChild(userMap.get("user1"));
+        orgMap.get("org2").addChild(userMap.get("user2"));
+        orgMap.get("org4").addChild(userMap.get("user4"));
+        entityManager.flush();
+        intervalTreeDao.rebuild();
+        Assert.assertEquals(Collections.emptyList(), intervalTreeDao.verify());
+
+        String corruptionError = corruptEncoding();
+        intervalTreeDao.addChild(org1Id, user3Id);
+        intervalTreeDao.removeChild(org4Id, user4Id);
+        entityManager.clear();
+
+        Map<String, IntervalTreeVerifyReport> reportMap = intervalTreeDao.verify().stream()
+                .collect(Collectors.toMap(IntervalTreeVerifyReport::getRootNodeId, report -> report));
+        Assert.assertEquals(Sets.newHashSet(org1Id.toString(), org4Id.toString()), reportMap.keySet());
+        List<String> errors = reportMap.get(org1Id.toString()).getErrors();
+        Assert.assertEquals(3, errors.size());
+        Assert.assertTrue(errors.contains("tree has 5 nodes but the relationship has 4"));
+        Assert.assertTrue(errors.stream().anyMatch(error -> error.startsWith(corruptionError)));
+        Assert.assertTrue(errors.stream().anyMatch(error -> error.startsWith("node " + user3Id + " doesn't belong")));
+        Assert.assertNull(reportMap.get(org4Id.toString()).getTreeId());
+    }
+
+    @Test
+    public void testRebuild() {
+        orgMap.get("org1").addChild(orgMap.get("org2"));
+        orgMap.get("org1").addChild(orgMap.get("org3"));
+        orgMap.get("org2").addChild(userMap.get("user1"));
+        orgMap.get("org2").addChild(userMap.get("user2"));
+        orgMap.get("org3").addChild(userMap.get("user3"));
+        orgMap.get("org4").addChild(userMap.get("user4"));
+        entityManager.flush();
+
+        intervalTreeDao.addChild(org1Id, org2Id);
+        intervalTreeDao.addChild(org2Id, user1Id);
+        intervalTreeDao.addChild(org1Id, user2Id);
+        intervalTreeDao.addChild(org1Id, user5Id);
+        intervalTreeDao.addChild(user6Id, org3Id);
+
+        List<IntervalTreeRebuildReport> reports = intervalTreeDao.rebuild();
+        Assert.assertEquals(2, reports.size());
+        Map<String, IntervalTreeRebuildReport> reportMap = reports.stream().collect(Collectors.toMap(IntervalTreeRebuildReport::getRootNodeId, report -> report));
+        Assert.assertEquals(getNode(org1Id).getTreeId(), reportMap.get(org1Id.toString()).getTreeId());
+        Assert.assertEquals(6, reportMap.get(org1Id.toString()).getNodeCount());
+        Assert.assertEquals(1, reportMap.get(org1Id.toString()).getInsertedRows());
+        Assert.assertEquals(2, reportMap.get(org4Id.toString()).getInsertedRows());
+
+        Assert.assertEquals(Arrays.asList(org2Id, user1Id, user2Id, org3Id, user3Id), intervalTreeDao.getSubTree(org1Id));
+        Assert.assertEquals(Arrays.asList(user1Id, user2Id), intervalTreeDao.getChildren(org2Id));
+        Assert.assertEquals(org1Id, intervalTreeDao.getParent(org3Id));
+        Assert.assertEquals(Arrays.asList(user4Id), intervalTreeDao.getSubTree(org4Id));
+        Assert.assertEquals(Integer.valueOf(2), getNode(user3Id).getDepth());
+        Assert.assertNull(intervalTreeDao.getParent(user5Id));
+        Assert.assertEquals(Collections.emptyList(), intervalTreeDao.getSubTree(user6Id));
+
+        reports = intervalTreeDao.rebuild();
+        Assert.assertTrue(reports.stream().allMatch(report -> report.getRewrittenRows() == 0));
+    }
+
+    /**
+     * bulk load a chain of the test parties followed by the given number of new organizations
+     */
+    protected void bulkLoadChain(int extraNodeCount) {
+        List<UUID> nodeIds = new ArrayList<>(userMap.values().stream().map(Party::getId).collect(Collectors.toList()));
+        nodeIds.addAll(orgMap.values().stream().map(Party::getId).collect(Collectors.toList()));
+        for (int i = 0; i < extraNodeCount; i++) {
+            Organization org = new Organization("deep" + i);
+            org.setName(" I am deep" + i);
+            nodeIds.add(partyDao.create(org).getId());
+        }
+        Map<UUID, List<UUID>> childrenMap = new LinkedHashMap<>();
+        for (int i = 0; i + 1 < nodeIds.size(); i++) {
+            childrenMap.put(nodeIds.get(i), Collections.singletonList(nodeIds.get(i + 1)));
+        }
+        intervalTreeDao.bulkLoad(childrenMap);
+    }
+
+    private void assertBulkLoadFails(Map<UUID, List<UUID>> childrenMap) {
+        try {
+            intervalTreeDao.bulkLoad(childrenMap);
+            Assert.fail("bulkLoad should reject " + childrenMap);
+        } catch (InvalidDataAccessApiUsageException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+    }
+
+    protected NodeType getNode(UUID nodeId) {
+        List<NodeType> nodes = entityManager.createQuery("from " + nodeClass.getSimpleName() + " where nodeId = :nodeId", nodeClass)
+                .setParameter("nodeId", nodeId).getResultList();
+        nodes.forEach(node -> entityManager.detach(node));
+        return nodes.isEmpty() ? null : nodes.get(0);
+    }
+}
@@ -0,0 +1,380 @@
+package com.limado.collab.dao;
+
+import com.google.common.collect.Sets;
+import com.limado.collab.model.Group;
+import com.limado.collab.model.Party;
+import com.limado.collab.model.PartyDagEdge;
+import com.limado.collab.model.User;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.AbstractTransactionalJUnit4SpringContextTests;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.BiConsumer;
+
+/**
+ * @author csieflyman
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = {"/spring-config.xml", "/spring-config-test.xml"})
+@DirtiesContext
+public class DagClosureEdgeDaoImplTest extends AbstractTransactionalJUnit4SpringContextTests {
+
+    private static final Logger log = LogManager.getLogger(DagClosureEdgeDaoImplTest.class);
+
+    @Autowired
+    @Qualifier("partyDagClosureEdgeDao")
+    private DagEdgeDao<UUID> dagEdgeDao;
+
+    @Autowired
+    private PartyDao partyDao;
+
+    private UUID group1Id;
+    private UUID group2Id;
+    private UUID group3Id;
+    private UUID user4Id;
+    private UUID user5Id;
+    private UUID user6Id;
+    private UUID user7Id;
+
+    @Before
+    public void initTestData() {
+        Party group1 = new Group("group1");
+        group1.setName("G1");
+        group1 = partyDao.create(group1);
+        group1Id = group1.getId();
+        Party group2 = new Group("group2");
+        group2.setName("G2");
+        group2 = partyDao.create(group2);
+        group2Id = group2.getId();
+        Party group3 = new Group("group3");
+        group3.setName("G3");
+        group3 = partyDao.create(group3);
+        group3Id = group3.getId();
+
+        Party user4 = new User("user4");
+        user4.setName("U4");
+        user4 = partyDao.create(user4);
+        user4Id = user4.getId();
+        Party user5 = new User("user5");
+        user5.setName("U5");
+        user5 = partyDao.create(user5);
+        user5Id = user5.getId();
+        Party user6 = new User("user6");
+        user6.setName("U6");
+        user6 = partyDao.create(user6);
+        user6Id = user6.getId();
+        Party user7 = new User("user7");
+        user7.setName("U7");
+        user7 = partyDao.create(user7);
+        user7Id = user7.getId();
+    }
+
+    @Test
+    public void testAddRemoveEdges() {
+        dagEdgeDao.addEdges(group1Id, group2Id);
+        dagEdgeDao.addEdges(group1Id, group3Id);
+        dagEdgeDao.addEdges(group2Id, user4Id);
+        dagEdgeDao.addEdges(group2Id, user5Id);
+        dagEdgeDao.addEdges(group3Id, user6Id);
+        dagEdgeDao.addEdges(group3Id, user7Id);
+
+        Set<UUID> incomingVertices = dagEdgeDao.findIncomingVertices(user4Id);
+        Assert.assertEquals(Sets.newHashSet(group1Id, group2Id), incomingVertices);
+        Set<UUID> outgoingVertices = dagEdgeDao.findOutgoingVertices(group1Id);
+        Assert.assertEquals(Sets.newHashSet(group2Id, group3Id, user4Id, user5Id, user6Id, user7Id), outgoingVertices);
+
+        dagEdgeDao.removeEdges(group2Id, user4Id);
+        outgoingVertices = dagEdgeDao.findOutgoingVertices(group2Id);
+        Assert.assertEquals(Sets.newHashSet(user5Id), outgoingVertices);
+        incomingVertices = dagEdgeDao.findIncomingVertices(user4Id);
+        Assert.assertEquals(Sets.newHashSet(), incomingVertices);
+
+        dagEdgeDao.removeEdges(group1Id, group3Id);
+        outgoingVertices = dagEdgeDao.findOutgoingVertices(group1Id);
+        Assert.assertEquals(Sets.newHashSet(group2Id, user5Id), outgoingVertices);
+        incomingVertices = dagEdgeDao.findIncomingVertices(user7Id);
+        Assert.assertEquals(Sets.newHashSet(group3Id), incomingVertices);
+    }
+
+    @Test
+    public void testRemoveEdgesOfVertex() {
+        dagEdgeDao.addEdges(group1Id, group2Id);
+        dagEdgeDao.addEdges(group1Id, group3Id);
+        dagEdgeDao.addEdges(group2Id, user4Id);
+        dagEdgeDao.addEdges(group2Id, user5Id);
+        dagEdgeDao.addEdges(group3Id, user6Id);
+        dagEdgeDao.addEdges(group3Id, user7Id);
+
+        dagEdgeDao.removeEdgesOfVertex(group3Id);
+        Set<UUID> outgoingVertices = dagEdgeDao.findOutgoingVertices(group1Id);
+        Assert.assertEquals(Sets.newHashSet(group2Id, user4Id, user5Id), outgoingVertices);
+
+        dagEdgeDao.removeEdgesOfVertex(group1Id);
+        Set<UUID> incomingVertices = dagEdgeDao.findIncomingVertices(user4Id);
+        Assert.assertEquals(Sets.newHashSet(group2Id), incomingVertices);
+    }
+
+    @Test
+    public void testAddEdgesInBatch() {
+        dagEdgeDao.addEdges(group1Id, Sets.newHashSet(group2Id, group3Id));
+        Map<UUID, Set<UUID>> endVertexIdsMap = new HashMap<>();
+        endVertexIdsMap.put(group2Id, Sets.newHashSet(user4Id, user5Id));
+        endVertexIdsMap.put(group3Id, Sets.newHashSet(user6Id, user7Id));
+        dagEdgeDao.addEdges(endVertexIdsMap);
+        Assert.assertEquals(10, countRowsInTable("dag_closure_edge"));
+        Assert.assertEquals(Sets.newHashSet(group2Id, group3Id, user4Id, user5Id, user6Id, user7Id), dagEdgeDao.findOutgoingVertices(group1Id));
+        Assert.assertEquals(Sets.newHashSet(group1Id, group3Id), dagEdgeDao.findIncomingVertices(user7Id));
+
+        dagEdgeDao.removeEdges(group1Id, group3Id);
+        Assert.assertEquals(Sets.newHashSet(group2Id, user4Id, user5Id), dagEdgeDao.findOutgoingVertices(group1Id));
+        Assert.assertEquals(7, countRowsInTable("dag_closure_edge"));
+    }
+
+    @Test
+    public void testAddDependentEdgesInBatch() {
+        // the edge from group2 extends the paths through the edge to group2
+        Map<UUID, Set<UUID>> endVertexIdsMap = new LinkedHashMap<>();
+        endVertexIdsMap.put(group1Id, Sets.newHashSet(group2Id));
+        endVertexIdsMap.put(group2Id, Sets.newHashSet(group3Id, user4Id));
+        dagEdgeDao.addEdges(endVertexIdsMap);
+        Assert.assertEquals(Sets.newHashSet(group2Id, group3Id, user4Id), dagEdgeDao.findOutgoingVertices(group1Id));
+        Assert.assertEquals(5, countRowsInTable("dag_closure_edge"));
+
+        endVertexIdsMap = new LinkedHashMap<>();
+        endVertexIdsMap.put(user5Id, Sets.newHashSet(group1Id));
+        endVertexIdsMap.put(group3Id, Sets.newHashSet(user5Id));
+        try {
+            dagEdgeDao.addEdges(endVertexIdsMap);
+            Assert.fail("add edges from user5 to group1 and group3 to user5 will cause cycle");
+        } catch (InvalidDataAccessApiUsageException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+        try {
+            dagEdgeDao.addEdges(group2Id, Sets.newHashSet(user6Id, group3Id));
+            Assert.fail("edge from group2 to group3 has been exist");
+        } catch (InvalidDataAccessApiUsageException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+    }
+
+    @Test
+    public void testFindOutgoingVerticesWithinHops() {
+        dagEdgeDao.addEdges(group1Id, group2Id);
+        dagEdgeDao.addEdges(group2Id, group3Id);
+        dagEdgeDao.addEdges(group3Id, user4Id);
+        dagEdgeDao.addEdges(group1Id, group3Id);
+
+        Assert.assertEquals(Sets.newHashSet(group2Id, group3Id), dagEdgeDao.findOutgoingVertices(group1Id, 1));
+        Assert.assertEquals(Sets.newHashSet(group2Id, group3Id, user4Id), dagEdgeDao.findOutgoingVertices(group1Id, 2));
+        Assert.assertEquals(Sets.newHashSet(group3Id), dagEdgeDao.findOutgoingVertices(group2Id, 1));
+        Map<UUID, Integer> vertexHops = new HashMap<>();
+        vertexHops.put(group2Id, 1);
+        vertexHops.put(group3Id, 1);
+        vertexHops.put(user4Id, 2);
+        Assert.assertEquals(vertexHops, dagEdgeDao.findOutgoingVertexHops(group1Id, Integer.MAX_VALUE));
+        Assert.assertEquals(Collections.singletonMap(user4Id, 1), dagEdgeDao.findOutgoingVertexHops(group3Id, 3));
+        Assert.assertEquals(Collections.emptyMap(), dagEdgeDao.findOutgoingVertexHops(user4Id, 3));
+    }
+
+    @Test
+    public void testFindVerticesOfManyVertices() {
+        dagEdgeDao.addEdges(group1Id, Sets.newHashSet(group2Id, group3Id));
+        dagEdgeDao.addEdges(group2Id, Sets.newHashSet(user4Id, user5Id));
+        dagEdgeDao.addEdges(group3Id, Sets.newHashSet(user4Id, user6Id));
+
+        Map<UUID, Set<UUID>> incomingVerticesMap = dagEdgeDao.findIncomingVertices(Sets.newHashSet(user4Id, user5Id, user7Id));
+        Assert.assertEquals(3, incomingVerticesMap.size());
+        Assert.assertEquals(Sets.newHashSet(group1Id, group2Id, group3Id), incomingVerticesMap.get(user4Id));
+        Assert.assertEquals(Sets.newHashSet(group1Id, group2Id), incomingVerticesMap.get(user5Id));
+        Assert.assertEquals(Sets.newHashSet(), incomingVerticesMap.get(user7Id));
+
+        Map<UUID, Set<UUID>> outgoingVerticesMap = dagEdgeDao.findOutgoingVertices(Sets.newHashSet(group1Id, group3Id));
+        Assert.assertEquals(dagEdgeDao.findOutgoingVertices(group1Id), outgoingVerticesMap.get(group1Id));
+        Assert.assertEquals(Sets.newHashSet(user4Id, user6Id), outgoingVerticesMap.get(group3Id));
+        Assert.assertEquals(Collections.emptyMap(), dagEdgeDao.findOutgoingVertices(Collections.emptySet()));
+    }
+
+    @Test
+    public void testPathCounts() {
+        dagEdgeDao.addEdges(group1Id, group2Id);
+        dagEdgeDao.addEdges(group2Id, group3Id);
+        dagEdgeDao.addEdges(group1Id, group3Id);
+        dagEdgeDao.addEdges(group3Id, user4Id);
+        Assert.assertEquals(6, countRowsInTable("dag_closure_edge"));
+        Assert.assertEquals(2, getPathCount(group1Id, group3Id));
+        Assert.assertEquals(2, getPathCount(group1Id, user4Id));
+        Assert.assertEquals(1, getPathCount(group2Id, user4Id));
+
+        // group1 -> group3 is still reachable through group2
+        dagEdgeDao.removeEdges(group1Id, group3Id);
+        Assert.assertEquals(6, countRowsInTable("dag_closure_edge"));
+        Assert.assertEquals(1, getPathCount(group1Id, group3Id));
+        Assert.assertEquals(Sets.newHashSet(group2Id, group3Id, user4Id), dagEdgeDao.findOutgoingVertices(group1Id));
+
+        dagEdgeDao.addEdges(group1Id, group3Id);
+        dagEdgeDao.removeEdges(group2Id, group3Id);
+        Assert.assertEquals(4, countRowsInTable("dag_closure_edge"));
+        Assert.assertEquals(1, getPathCount(group1Id, user4Id));
+        Assert.assertEquals(Sets.newHashSet(group1Id, group3Id), dagEdgeDao.findIncomingVertices(user4Id));
+        Assert.assertEquals(Sets.newHashSet(), dagEdgeDao.findOutgoingVertices(group2Id));
+
+        dagEdgeDao.removeEdges(group1Id, group3Id);
+        Assert.assertEquals(2, countRowsInTable("dag_closure_edge"));
+        Assert.assertEquals(Sets.newHashSet(group3Id), dagEdgeDao.findIncomingVertices(user4Id));
+    }
+
+    @Test
+    public void testAddEdgesWithCycleOrDuplicate() {
+        dagEdgeDao.addEdges(group1Id, group2Id);
+        dagEdgeDao.addEdges(group2Id, group3Id);
+        try {
+            dagEdgeDao.addEdges(group3Id, group1Id);
+            Assert.fail("add edge from group3 to group1 will cause cycle");
+        } catch (InvalidDataAccessApiUsageException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+        try {
+            dagEdgeDao.addEdges(group1Id, group2Id);
+            Assert.fail("edge from group1 to group2 has been exist");
+        } catch (InvalidDataAccessApiUsageException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+        // an indirect path doesn't prevent adding the direct edge
+        dagEdgeDao.addEdges(group1Id, group3Id);
+        Assert.assertEquals(2, getPathCount(group1Id, group3Id));
+        try {
+            dagEdgeDao.removeEdges(group2Id, user4Id);
+            Assert.fail("edge from group2 to user4 does not exist");
+        } catch (InvalidDataAccessApiUsageException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+    }
+
+    @Test
+    public void testRebuild() {
+        dagEdgeDao.addEdges(group1Id, group2Id);
+        dagEdgeDao.addEdges(group2Id, group3Id);
+        dagEdgeDao.addEdges(group1Id, group3Id);
+        dagEdgeDao.addEdges(group3Id, user4Id);
+        addPartyRelationships();
+        jdbcTemplate.update("delete from dag_closure_edge where direct_edge = false");
+
+        DagRebuildReport report = dagEdgeDao.rebuild();
+        Assert.assertEquals(4, report.getVertexCount());
+        Assert.assertEquals(4, report.getEdgeCount());
+        Assert.assertEquals(6, report.getInsertedRows());
+        Assert.assertEquals(6, countRowsInTable("dag_closure_edge"));
+        Assert.assertEquals(0, countRowsInTable("dag_closure_edge_shadow"));
+        Assert.assertEquals(2, getPathCount(group1Id, group3Id));
+        Assert.assertEquals(2, getPathCount(group1Id, user4Id));
+        Assert.assertEquals(Sets.newHashSet(group1Id, group2Id, group3Id), dagEdgeDao.findIncomingVertices(user4Id));
+
+        dagEdgeDao.removeEdges(group2Id, group3Id);
+        Assert.assertEquals(1, getPathCount(group1Id, user4Id));
+        dagEdgeDao.addEdges(group2Id, group3Id);
+        Assert.assertEquals(2, getPathCount(group1Id, user4Id));
+    }
+    @Test
+    public void testRebuildKeepsEdgesOfOtherDags() {
+        dagEdgeDao.addEdges(group1Id, group2Id);
+        dagEdgeDao.addEdges(group2Id, group3Id);
+        dagEdgeDao.addEdges(group1Id, group3Id);
+        dagEdgeDao.addEdges(group3Id, user4Id);
+        addPartyRelationships();
+        jdbcTemplate.update("delete from dag_closure_edge where direct_edge = false");
+
+        DagEdgeDao<UUID> rebuildDao = newInterruptedRebuildDao(() -> jdbcTemplate.update(
+                "insert into dag_closure_edge (start_vertex_id, end_vertex_id, path_count, direct_edge, dag_id) values (?, ?, 1, true, 'other')", uuidToBytes(user5Id), uuidToBytes(user6Id)));
+        rebuildDao.rebuild();
+        Assert.assertEquals(1, countRowsInTableWhere("dag_closure_edge", "dag_id = 'other'"));
+        Assert.assertEquals(6, countRowsInTableWhere("dag_closure_edge", "dag_id = '" + PartyDagEdge.DAG_ID + "'"));
+        Assert.assertEquals(0, countRowsInTable("dag_closure_edge_shadow"));
+        Assert.assertEquals(Sets.newHashSet(group1Id, group2Id, group3Id), dagEdgeDao.findIncomingVertices(user4Id));
+        Assert.assertEquals(Sets.newHashSet(), dagEdgeDao.findIncomingVertices(user6Id));
+
+        // the rebuilt rows refer to each other like the inserted rows
+        dagEdgeDao.removeEdges(group2Id, group3Id);
+        Assert.assertEquals(1, getPathCount(group1Id, user4Id));
+        Assert.assertEquals(1, countRowsInTableWhere("dag_closure_edge", "dag_id = 'other'"));
+    }
+
+    @Test(expected = ConcurrencyFailureException.class)
+    public void testRebuildFailsIfDagChanged() {
+        dagEdgeDao.addEdges(group1Id, group2Id);
+        addPartyRelationships();
+
+        DagEdgeDao<UUID> rebuildDao = newInterruptedRebuildDao(() -> partyDao.addChild(partyDao.getById(group2Id), partyDao.getById(user5Id)));
+        rebuildDao.rebuild();
+    }
+
+    /**
+     * the relationships of the parties which the dag is rebuilt from
+     */
+    private void addPartyRelationships() {
+        Party group1 = partyDao.getById(group1Id);
+        Party group2 = partyDao.getById(group2Id);
+        Party group3 = partyDao.getById(group3Id);
+        partyDao.addChild(group1, group2);
+        partyDao.addChild(group2, group3);
+        partyDao.addChild(group1, group3);
+        partyDao.addChild(group3, partyDao.getById(user4Id));
+    }
+
+    private long getPathCount(UUID startVertexId, UUID endVertexId) {
+        return jdbcTemplate.queryForObject("select path_count from dag_closure_edge where start_vertex_id = ? and end_vertex_id = ?",
+                Long.class, uuidToBytes(startVertexId), uuidToBytes(endVertexId));
+    }
+
+    private static byte[] uuidToBytes(UUID uuid) {
+        return ByteBuffer.allocate(16).putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits()).array();
+    }
+
+    /**
+     * the dao of the party dag whose rebuild runs the action after the rebuilt rows are written into the shadow table
+     */
+    private DagEdgeDao<UUID> newInterruptedRebuildDao(Runnable action) {
+        InterruptedRebuildDagClosureEdgeDao dao = new InterruptedRebuildDagClosureEdgeDao(action);
+        applicationContext.getAutowireCapableBeanFactory().autowireBean(dao);
+        return dao;
+    }
+
+    /**
+     * the rebuild reads the edges a second time right before it swaps the rebuilt rows in
+     */
+    private static class InterruptedRebuildDagClosureEdgeDao extends PartyDagClosureEdgeDaoImpl {
+
+        private final Runnable action;
+
+        private int scrollCount;
+
+        InterruptedRebuildDagClosureEdgeDao(Runnable action) {
+            this.action = action;
+        }
+
+        @Override
+        protected void scrollEdges(BiConsumer<UUID, UUID> edgeConsumer) {
+            if (++scrollCount == 2) {
+                action.run();
+            }
+            super.scrollEdges(edgeConsumer);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.limado.collab.dao;
+
+import com.google.common.base.Splitter;
+import com.limado.collab.model.Group;
+import com.limado.collab.model.Party;
+import com.limado.collab.model.PartyDagEdge;
+import com.limado.collab.util.query.Operator;
+import com.limado.collab.util.query.Predicate;
+import com.limado.collab.util.query.QueryParams;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.AbstractTransactionalJUnit4SpringContextTests;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Compares the rows, statements, materialized entities and elapsed time of the dag stored one row per path (dag_edge)
+ * and one row per connected pair with the path count (dag_closure_edge). The rows of dag_edge are also read as entities,
+ * which shows the cost of hydrating one entity per path instead of projecting the distinct vertex ids.
+ * Run with -Dbenchmark=true, the numbers of vertices can be changed by -Dbenchmark.sizes=300,1000,3000.
+ *
+ * @author csieflyman
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = {"/spring-config.xml", "/spring-config-test.xml"})
+@DirtiesContext
+public class DagEdgeDaoBenchmark extends AbstractTransactionalJUnit4SpringContextTests {
+
+    private static final Logger log = LogManager.getLogger(DagEdgeDaoBenchmark.class);
+
+    private static final int LAYERS = 6;
+    private static final int PARENTS = 2;
+    private static final int ROUNDS = 5;
+    private static final int QUERIES = 100;
+
+    @Autowired
+    @Qualifier("partyDagEdgeDao")
+    private DagEdgeDao<UUID> dagEdgeDao;
+
+    @Autowired
+    @Qualifier("partyDagClosureEdgeDao")
+    private DagEdgeDao<UUID> dagClosureEdgeDao;
+
+    @Autowired
+    private PartyDao partyDao;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private Statistics statistics;
+
+    @Before
+    public void enableStatistics() {
+        Assume.assumeTrue(Boolean.getBoolean("benchmark"));
+        statistics = entityManager.getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+        statistics.setStatisticsEnabled(true);
+    }
+
+    @After
+    public void disableStatistics() {
+        if (statistics != null) {
+            statistics.setStatisticsEnabled(false);
+        }
+    }
+
+    @Test
+    public void benchmark() {
+        List<Integer> sizes = Splitter.on(",").splitToList(System.getProperty("benchmark.sizes", "300,1000"))
+                .stream().map(size -> Integer.parseInt(size.trim())).collect(Collectors.toList());
+        log.info(String.format("%-10s %-12s %-16s %12s %12s %12s", "vertices", "dao", "operation", "statements", "entities", "millis"));
+        for (int size : sizes) {
+            for (Map.Entry<String, DagEdgeDao<UUID>> daoEntry : getDaos().entrySet()) {
+                benchmark(size, daoEntry.getKey(), daoEntry.getValue());
+            }
+        }
+    }
+
+    /**
+     * the vertices are arranged in LAYERS layers and each vertex below the first layer has PARENTS random parents in the layer above,
+     * so the number of paths to a vertex grows with PARENTS^layer while the number of its incoming vertices is bounded by the vertices above
+     */
+    private void benchmark(int size, String daoName, DagEdgeDao<UUID> dao) {
+        List<UUID> vertexIds = createParties(size, daoName + size + "_");
+        int width = size / LAYERS;
+        Random random = new Random(size);
+        List<UUID[]> edges = new ArrayList<>();
+        for (int i = width; i < width * LAYERS; i++) {
+            int layerStart = (i / width - 1) * width;
+            UUID childId = vertexIds.get(i);
+            random.ints(layerStart, layerStart + width).distinct().limit(PARENTS)
+                    .forEach(parent -> edges.add(new UUID[]{vertexIds.get(parent), childId}));
+        }
+        List<UUID[]> lastEdges = edges.subList(edges.size() - ROUNDS, edges.size());
+        List<UUID[]> firstEdges = edges.subList(0, ROUNDS);
+        List<UUID> topIds = random.ints(QUERIES, 0, width).mapToObj(vertexIds::get).collect(Collectors.toList());
+        List<UUID> bottomIds = random.ints(QUERIES, width * (LAYERS - 1), width * LAYERS).mapToObj(vertexIds::get).collect(Collectors.toList());
+
+        measure(size, daoName, "addEdges", edges.size() - ROUNDS, () -> edges.subList(0, edges.size() - ROUNDS).forEach(edge -> dao.addEdges(edge[0], edge[1])));
+        measure(size, daoName, "addLastEdges", ROUNDS, () -> lastEdges.forEach(edge -> dao.addEdges(edge[0], edge[1])));
+        String table = dao == dagEdgeDao ? "dag_edge" : "dag_closure_edge";
+        log.info(String.format("%-10d %-12s %-16s %12d", size, daoName, "rows", countRowsInTable(table)));
+        measure(size, daoName, "incoming", QUERIES, () -> bottomIds.forEach(dao::findIncomingVertices));
+        measure(size, daoName, "outgoing", QUERIES, () -> topIds.forEach(dao::findOutgoingVertices));
+        measure(size, daoName, "incomingBatch", QUERIES, () -> dao.findIncomingVertices(new HashSet<>(bottomIds)));
+        if (dao == dagEdgeDao) {
+            // the former implementation which hydrated one entity per path and deduplicated the vertex ids in memory
+            measure(size, daoName, "incomingRows", QUERIES, () -> bottomIds.forEach(vertexId -> findVerticesByEntities("endVertexId", vertexId, PartyDagEdge::getStartVertexId)));
+            measure(size, daoName, "outgoingRows", QUERIES, () -> topIds.forEach(vertexId -> findVerticesByEntities("startVertexId", vertexId, PartyDagEdge::getEndVertexId)));
+        }
+        // the first two vertices get an edge to each vertex of the last layer, which they already reach by paths
+        Set<UUID> lastLayerIds = new HashSet<>(vertexIds.subList(width * (LAYERS - 1), width * LAYERS));
+        measure(size, daoName, "addEdgesInBatch", lastLayerIds.size(), () -> dao.addEdges(vertexIds.get(0), lastLayerIds));
+        measure(size, daoName, "addEdgesOneByOne", lastLayerIds.size(), () -> lastLayerIds.forEach(vertexId -> dao.addEdges(vertexIds.get(1), vertexId)));
+        measure(size, daoName, "removeFirstEdges", ROUNDS, () -> firstEdges.forEach(edge -> dao.removeEdges(edge[0], edge[1])));
+        measure(size, daoName, "removeLastEdges", ROUNDS, () -> lastEdges.forEach(edge -> dao.removeEdges(edge[0], edge[1])));
+        deleteFromTables(table);
+        entityManager.clear();
+    }
+
+    private Set<UUID> findVerticesByEntities(String property, UUID vertexId, Function<PartyDagEdge, UUID> mapper) {
+        QueryParams params = new QueryParams();
+        params.addPredicate(new Predicate(property, Operator.EQ, vertexId));
+        params.addPredicate(new Predicate("dagId", Operator.EQ, PartyDagEdge.DAG_ID));
+        return ((GenericDao<PartyDagEdge, Long>) dagEdgeDao).find(params).stream().map(mapper).collect(Collectors.toSet());
+    }
+
+    private Map<String, DagEdgeDao<UUID>> getDaos() {
+        Map<String, DagEdgeDao<UUID>> daos = new LinkedHashMap<>();
+        daos.put("path", dagEdgeDao);
+        daos.put("pathCount", dagClosureEdgeDao);
+        return daos;
+    }
+
+    private List<UUID> createParties(int size, String identityPrefix) {
+        List<Party> parties = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            Group group = new Group(identityPrefix + i);
+            group.setName(identityPrefix + i);
+            parties.add(group);
+        }
+        partyDao.batchCreate(parties);
+        entityManager.flush();
+        entityManager.clear();
+        return parties.stream().map(Party::getId).collect(Collectors.toList());
+    }
+
+    private void measure(int size, String daoName, String operation, int rounds, Runnable runnable) {
+        entityManager.clear();
+        statistics.clear();
+        long start = System.nanoTime();
+        runnable.run();
+        entityManager.flush();
+        long millis = (System.nanoTime() - start) / 1000000;
+        log.info(String.format("%-10d %-12s %-16s %12.1f %12.1f %12.2f", size, daoName, operation,
+                (double) statistics.getPrepareStatementCount() / rounds, (double) statistics.getEntityLoadCount() / rounds, (double) millis / rounds));
+    }
+}
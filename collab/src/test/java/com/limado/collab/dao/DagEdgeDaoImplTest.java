@@ -3,6 +3,7 @@ package com.limado.collab.dao;
 import com.google.common.collect.Sets;
 import com.limado.collab.model.Group;
 import com.limado.collab.model.Party;
+import com.limado.collab.model.PartyDagEdge;
 import com.limado.collab.model.User;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -12,13 +13,21 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.AbstractTransactionalJUnit4SpringContextTests;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.function.BiConsumer;
 
 /**
  * @author csieflyman
@@ -122,4 +131,240 @@ public class DagEdgeDaoImplTest extends AbstractTransactionalJUnit4SpringContext
         Set<UUID> incomingVertices = dagEdgeDao.findIncomingVertices(user4Id);
         Assert.assertEquals(Sets.newHashSet(group2Id), incomingVertices);
     }
+
+    @Test
+    public void testAddEdgesInBatch() {
+        dagEdgeDao.addEdges(group1Id, Sets.newHashSet(group2Id, group3Id));
+        Map<UUID, Set<UUID>> endVertexIdsMap = new HashMap<>();
+        endVertexIdsMap.put(group2Id, Sets.newHashSet(user4Id, user5Id));
+        endVertexIdsMap.put(group3Id, Sets.newHashSet(user6Id, user7Id));
+        dagEdgeDao.addEdges(endVertexIdsMap);
+        Assert.assertEquals(10, countRowsInTable("dag_edge"));
+        Assert.assertEquals(Sets.newHashSet(group2Id, group3Id, user4Id, user5Id, user6Id, user7Id), dagEdgeDao.findOutgoingVertices(group1Id));
+        Assert.assertEquals(Sets.newHashSet(group1Id, group3Id), dagEdgeDao.findIncomingVertices(user7Id));
+
+        dagEdgeDao.removeEdges(group1Id, group3Id);
+        Assert.assertEquals(Sets.newHashSet(group2Id, user4Id, user5Id), dagEdgeDao.findOutgoingVertices(group1Id));
+        Assert.assertEquals(7, countRowsInTable("dag_edge"));
+    }
+
+    @Test
+    public void testAddDependentEdgesInBatch() {
+        // the edge from group2 extends the paths through the edge to group2
+        Map<UUID, Set<UUID>> endVertexIdsMap = new LinkedHashMap<>();
+        endVertexIdsMap.put(group1Id, Sets.newHashSet(group2Id));
+        endVertexIdsMap.put(group2Id, Sets.newHashSet(group3Id, user4Id));
+        dagEdgeDao.addEdges(endVertexIdsMap);
+        Assert.assertEquals(Sets.newHashSet(group2Id, group3Id, user4Id), dagEdgeDao.findOutgoingVertices(group1Id));
+        Assert.assertEquals(5, countRowsInTable("dag_edge"));
+
+        endVertexIdsMap = new LinkedHashMap<>();
+        endVertexIdsMap.put(user5Id, Sets.newHashSet(group1Id));
+        endVertexIdsMap.put(group3Id, Sets.newHashSet(user5Id));
+        try {
+            dagEdgeDao.addEdges(endVertexIdsMap);
+            Assert.fail("add edges from user5 to group1 and group3 to user5 will cause cycle");
+        } catch (InvalidDataAccessApiUsageException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+        try {
+            dagEdgeDao.addEdges(group2Id, Sets.newHashSet(user6Id, group3Id));
+            Assert.fail("edge from group2 to group3 has been exist");
+        } catch (InvalidDataAccessApiUsageException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+    }
+
+    @Test
+    public void testAddEdgesWithCycleOrDuplicate() {
+        dagEdgeDao.addEdges(group1Id, group2Id);
+        dagEdgeDao.addEdges(group2Id, group3Id);
+        dagEdgeDao.addEdges(group3Id, Sets.newHashSet(user4Id, user5Id));
+        try {
+            dagEdgeDao.addEdges(user4Id, group1Id);
+            Assert.fail("add edge from user4 to group1 will cause cycle");
+        } catch (InvalidDataAccessApiUsageException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+        try {
+            dagEdgeDao.addEdges(group3Id, group3Id);
+            Assert.fail("add edge from group3 to group3 will cause cycle");
+        } catch (InvalidDataAccessApiUsageException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+        try {
+            dagEdgeDao.addEdges(group1Id, group2Id);
+            Assert.fail("edge from group1 to group2 has been exist");
+        } catch (InvalidDataAccessApiUsageException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+        // an indirect path doesn't prevent adding the direct edge
+        dagEdgeDao.addEdges(group1Id, Sets.newHashSet(group3Id, user6Id));
+        Assert.assertEquals(Sets.newHashSet(group2Id, group3Id, user4Id, user5Id, user6Id), dagEdgeDao.findOutgoingVertices(group1Id));
+    }
+
+    @Test
+    public void testFindOutgoingVerticesWithinHops() {
+        dagEdgeDao.addEdges(group1Id, group2Id);
+        dagEdgeDao.addEdges(group2Id, group3Id);
+        dagEdgeDao.addEdges(group3Id, user4Id);
+        dagEdgeDao.addEdges(group1Id, group3Id);
+
+        Assert.assertEquals(Sets.newHashSet(group2Id, group3Id), dagEdgeDao.findOutgoingVertices(group1Id, 1));
+        Assert.assertEquals(Sets.newHashSet(group2Id, group3Id, user4Id), dagEdgeDao.findOutgoingVertices(group1Id, 2));
+        Assert.assertEquals(Sets.newHashSet(group3Id), dagEdgeDao.findOutgoingVertices(group2Id, 1));
+        Map<UUID, Integer> vertexHops = new HashMap<>();
+        vertexHops.put(group2Id, 1);
+        vertexHops.put(group3Id, 1);
+        vertexHops.put(user4Id, 2);
+        Assert.assertEquals(vertexHops, dagEdgeDao.findOutgoingVertexHops(group1Id, Integer.MAX_VALUE));
+        Assert.assertEquals(Collections.singletonMap(user4Id, 1), dagEdgeDao.findOutgoingVertexHops(group3Id, 3));
+        Assert.assertEquals(Collections.emptyMap(), dagEdgeDao.findOutgoingVertexHops(user4Id, 3));
+    }
+
+    @Test
+    public void testFindVerticesOfManyVertices() {
+        dagEdgeDao.addEdges(group1Id, Sets.newHashSet(group2Id, group3Id));
+        dagEdgeDao.addEdges(group2Id, Sets.newHashSet(user4Id, user5Id));
+        dagEdgeDao.addEdges(group3Id, Sets.newHashSet(user4Id, user6Id));
+
+        Map<UUID, Set<UUID>> incomingVerticesMap = dagEdgeDao.findIncomingVertices(Sets.newHashSet(user4Id, user5Id, user7Id));
+        Assert.assertEquals(3, incomingVerticesMap.size());
+        Assert.assertEquals(Sets.newHashSet(group1Id, group2Id, group3Id), incomingVerticesMap.get(user4Id));
+        Assert.assertEquals(Sets.newHashSet(group1Id, group2Id), incomingVerticesMap.get(user5Id));
+        Assert.assertEquals(Sets.newHashSet(), incomingVerticesMap.get(user7Id));
+
+        Map<UUID, Set<UUID>> outgoingVerticesMap = dagEdgeDao.findOutgoingVertices(Sets.newHashSet(group1Id, group3Id));
+        Assert.assertEquals(dagEdgeDao.findOutgoingVertices(group1Id), outgoingVerticesMap.get(group1Id));
+        Assert.assertEquals(Sets.newHashSet(user4Id, user6Id), outgoingVerticesMap.get(group3Id));
+        Assert.assertEquals(Collections.emptyMap(), dagEdgeDao.findOutgoingVertices(Collections.emptySet()));
+    }
+
+    @Test
+    public void testRemoveEdgesWithDependentPaths() {
+        dagEdgeDao.addEdges(group1Id, group2Id);
+        dagEdgeDao.addEdges(group2Id, group3Id);
+        dagEdgeDao.addEdges(group1Id, group3Id);
+        dagEdgeDao.addEdges(group3Id, user4Id);
+        Assert.assertEquals(8, countRowsInTable("dag_edge"));
+
+        // the paths through group2 -> group3 were extended by the later edge group3 -> user4
+        dagEdgeDao.removeEdges(group2Id, group3Id);
+        Assert.assertEquals(4, countRowsInTable("dag_edge"));
+        Assert.assertEquals(Sets.newHashSet(group2Id, group3Id, user4Id), dagEdgeDao.findOutgoingVertices(group1Id));
+        Assert.assertEquals(Sets.newHashSet(group1Id, group3Id), dagEdgeDao.findIncomingVertices(user4Id));
+        Assert.assertEquals(Sets.newHashSet(), dagEdgeDao.findOutgoingVertices(group2Id));
+
+        dagEdgeDao.removeEdges(group1Id, group3Id);
+        Assert.assertEquals(2, countRowsInTable("dag_edge"));
+        Assert.assertEquals(Sets.newHashSet(group3Id), dagEdgeDao.findIncomingVertices(user4Id));
+    }
+
+    @Test
+    public void testRebuild() {
+        dagEdgeDao.addEdges(group1Id, group2Id);
+        dagEdgeDao.addEdges(group2Id, group3Id);
+        dagEdgeDao.addEdges(group1Id, group3Id);
+        dagEdgeDao.addEdges(group3Id, user4Id);
+        addPartyRelationships();
+        jdbcTemplate.update("delete from dag_edge where hops > 0");
+
+        DagRebuildReport report = dagEdgeDao.rebuild();
+        Assert.assertEquals(4, report.getVertexCount());
+        Assert.assertEquals(4, report.getEdgeCount());
+        Assert.assertEquals(8, report.getInsertedRows());
+        Assert.assertEquals(8, countRowsInTable("dag_edge"));
+        Assert.assertEquals(0, countRowsInTable("dag_edge_shadow"));
+        Assert.assertEquals(Sets.newHashSet(group2Id, group3Id, user4Id), dagEdgeDao.findOutgoingVertices(group1Id));
+        Assert.assertEquals(Sets.newHashSet(group1Id, group2Id, group3Id), dagEdgeDao.findIncomingVertices(user4Id));
+
+        // the rebuilt rows refer to each other like the inserted rows
+        dagEdgeDao.removeEdges(group2Id, group3Id);
+        Assert.assertEquals(4, countRowsInTable("dag_edge"));
+        Assert.assertEquals(Sets.newHashSet(group1Id, group3Id), dagEdgeDao.findIncomingVertices(user4Id));
+        dagEdgeDao.addEdges(group2Id, group3Id);
+        Assert.assertEquals(8, countRowsInTable("dag_edge"));
+        Assert.assertEquals(Sets.newHashSet(group1Id, group2Id, group3Id), dagEdgeDao.findIncomingVertices(user4Id));
+    }
+
+    @Test
+    public void testRebuildKeepsEdgesOfOtherDags() {
+        dagEdgeDao.addEdges(group1Id, group2Id);
+        dagEdgeDao.addEdges(group2Id, group3Id);
+        dagEdgeDao.addEdges(group1Id, group3Id);
+        dagEdgeDao.addEdges(group3Id, user4Id);
+        addPartyRelationships();
+        jdbcTemplate.update("delete from dag_edge where hops > 0");
+
+        DagEdgeDao<UUID> rebuildDao = newInterruptedRebuildDao(() -> jdbcTemplate.update(
+                "insert into dag_edge (start_vertex_id, end_vertex_id, hops, dag_id) values (?, ?, 0, 'other')", uuidToBytes(user5Id), uuidToBytes(user6Id)));
+        rebuildDao.rebuild();
+        Assert.assertEquals(1, countRowsInTableWhere("dag_edge", "dag_id = 'other'"));
+        Assert.assertEquals(8, countRowsInTableWhere("dag_edge", "dag_id = '" + PartyDagEdge.DAG_ID + "'"));
+        Assert.assertEquals(0, countRowsInTable("dag_edge_shadow"));
+        Assert.assertEquals(Sets.newHashSet(group1Id, group2Id, group3Id), dagEdgeDao.findIncomingVertices(user4Id));
+        Assert.assertEquals(Sets.newHashSet(), dagEdgeDao.findIncomingVertices(user6Id));
+
+        // the rebuilt rows refer to each other like the inserted rows
+        dagEdgeDao.removeEdges(group2Id, group3Id);
+        Assert.assertEquals(4, countRowsInTableWhere("dag_edge", "dag_id = '" + PartyDagEdge.DAG_ID + "'"));
+        Assert.assertEquals(1, countRowsInTableWhere("dag_edge", "dag_id = 'other'"));
+    }
+
+    @Test(expected = ConcurrencyFailureException.class)
+    public void testRebuildFailsIfDagChanged() {
+        dagEdgeDao.addEdges(group1Id, group2Id);
+        addPartyRelationships();
+
+        DagEdgeDao<UUID> rebuildDao = newInterruptedRebuildDao(() -> partyDao.addChild(partyDao.getById(group2Id), partyDao.getById(user5Id)));
+        rebuildDao.rebuild();
+    }
+
+    /**
+     * the relationships of the parties which the dag is rebuilt from
+     */
+    private void addPartyRelationships() {
+        Party group1 = partyDao.getById(group1Id);
+        Party group2 = partyDao.getById(group2Id);
+        Party group3 = partyDao.getById(group3Id);
+        partyDao.addChild(group1, group2);
+        partyDao.addChild(group2, group3);
+        partyDao.addChild(group1, group3);
+        partyDao.addChild(group3, partyDao.getById(user4Id));
+    }
+
+    /**
+     * the dao of the party dag whose rebuild runs the action after the rebuilt rows are written into the shadow table
+     */
+    private DagEdgeDao<UUID> newInterruptedRebuildDao(Runnable action) {
+        InterruptedRebuildDagEdgeDao dao = new InterruptedRebuildDagEdgeDao(action);
+        applicationContext.getAutowireCapableBeanFactory().autowireBean(dao);
+        return dao;
+    }
+
+    private static byte[] uuidToBytes(UUID uuid) {
+        return ByteBuffer.allocate(16).putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits()).array();
+    }
+
+    /**
+     * the rebuild reads the edges a second time right before it swaps the rebuilt rows in
+     */
+    private static class InterruptedRebuildDagEdgeDao extends PartyDagEdgeDaoImpl {
+
+        private final Runnable action;
+
+        private int scrollCount;
+
+        InterruptedRebuildDagEdgeDao(Runnable action) {
+            this.action = action;
+        }
+
+        @Override
+        protected void scrollEdges(BiConsumer<UUID, UUID> edgeConsumer) {
+            if (++scrollCount == 2) {
+                action.run();
+            }
+            super.scrollEdges(edgeConsumer);
+        }
+    }
 }
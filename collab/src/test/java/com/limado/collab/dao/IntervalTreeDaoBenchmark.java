@@ -0,0 +1,222 @@
+package com.limado.collab.dao;
+
+import com.google.common.base.Splitter;
+import com.limado.collab.model.Organization;
+import com.limado.collab.model.Party;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.AbstractTransactionalJUnit4SpringContextTests;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * Measures statements, materialized entities and elapsed time of the operations of the nested set, nested intervals and materialized path trees.
+ * Run with -Dbenchmark=true, the tree sizes can be changed by -Dbenchmark.sizes=1000,10000,100000.
+ * The queries of the nested set are answered from the snapshot cache if it is enabled by -Dinterval_tree_snapshot_max_nodes=1000000
+ *
+ * @author csieflyman
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = {"/spring-config.xml", "/spring-config-test.xml"})
+@DirtiesContext
+public class IntervalTreeDaoBenchmark extends AbstractTransactionalJUnit4SpringContextTests {
+
+    private static final Logger log = LogManager.getLogger(IntervalTreeDaoBenchmark.class);
+
+    private static final int FANOUT = 10;
+    private static final int ROUNDS = 5;
+    private static final int QUERIES = 100;
+
+    @Autowired
+    @Qualifier("partyNestedSetTreeDao")
+    private IntervalTreeDao<UUID> nestedSetTreeDao;
+
+    @Autowired
+    @Qualifier("partyNestedIntervalTreeDao")
+    private IntervalTreeDao<UUID> nestedIntervalTreeDao;
+
+    @Autowired
+    @Qualifier("partyMaterializedPathTreeDao")
+    private IntervalTreeDao<UUID> materializedPathTreeDao;
+
+    @Autowired
+    private PartyDao partyDao;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private Statistics statistics;
+
+    @Before
+    public void enableStatistics() {
+        Assume.assumeTrue(Boolean.getBoolean("benchmark"));
+        statistics = entityManager.getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+        statistics.setStatisticsEnabled(true);
+    }
+
+    @After
+    public void disableStatistics() {
+        if (statistics != null) {
+            statistics.setStatisticsEnabled(false);
+        }
+    }
+
+    @Test
+    public void benchmarkWriteOperations() {
+        List<Integer> sizes = Splitter.on(",").splitToList(System.getProperty("benchmark.sizes", "1000,10000"))
+                .stream().map(size -> Integer.parseInt(size.trim())).collect(Collectors.toList());
+        log.info(String.format("%-10s %-16s %-12s %12s %12s %12s", "nodes", "dao", "operation", "statements", "entities", "millis"));
+        for (int size : sizes) {
+            for (Map.Entry<String, IntervalTreeDao<UUID>> daoEntry : getDaos().entrySet()) {
+                benchmarkWriteOperations(size, daoEntry.getKey(), daoEntry.getValue());
+            }
+        }
+    }
+
+    private void benchmarkWriteOperations(int size, String daoName, IntervalTreeDao<UUID> intervalTreeDao) {
+        List<UUID> nodeIds = createParties(size + ROUNDS + QUERIES, "t" + daoName + size + "_");
+        buildTree(size, daoName, intervalTreeDao, nodeIds.subList(0, size));
+
+        UUID parentId = nodeIds.get(1);
+        UUID newParentId = nodeIds.get(2);
+        UUID movedId = nodeIds.get(FANOUT + 1);
+        List<UUID> leafIds = nodeIds.subList(size, size + ROUNDS);
+        // insert-heavy workload, the leaves are added under random inner nodes of the first two levels
+        Random random = new Random(size);
+        List<UUID> insertedIds = nodeIds.subList(size + ROUNDS, size + ROUNDS + QUERIES);
+        List<UUID> insertParentIds = random.ints(QUERIES, 1, 1 + FANOUT + FANOUT * FANOUT).mapToObj(nodeIds::get).collect(Collectors.toList());
+
+        measure(size, daoName, "addChild", () -> leafIds.forEach(leafId -> intervalTreeDao.addChild(parentId, leafId)));
+        measure(size, daoName, "removeChild", () -> leafIds.forEach(leafId -> intervalTreeDao.removeChild(parentId, leafId)));
+        measure(size, daoName, "addLeaves", QUERIES, () -> {
+            for (int i = 0; i < QUERIES; i++) {
+                intervalTreeDao.addChild(insertParentIds.get(i), insertedIds.get(i));
+            }
+        });
+        measure(size, daoName, "move", () -> {
+            for (int i = 0; i < ROUNDS; i++) {
+                intervalTreeDao.move(i % 2 == 0 ? newParentId : parentId, movedId);
+            }
+        });
+        Map<UUID, UUID> newParentMap = new HashMap<>();
+        nodeIds.subList(2 * FANOUT + 1, 2 * FANOUT + 1 + ROUNDS).forEach(nodeId -> newParentMap.put(nodeId, parentId));
+        measure(size, daoName, "moveAll", () -> intervalTreeDao.moveAll(newParentMap));
+        // the children of the root and their children have subtrees of about size / FANOUT and size / FANOUT^2 nodes
+        measure(size, daoName, "delete", () -> nodeIds.subList(3, 3 + ROUNDS).forEach(nodeId -> intervalTreeDao.delete(nodeId)));
+        entityManager.clear();
+    }
+
+    @Test
+    public void benchmarkQueries() {
+        List<Integer> sizes = Splitter.on(",").splitToList(System.getProperty("benchmark.sizes", "1000,10000"))
+                .stream().map(size -> Integer.parseInt(size.trim())).collect(Collectors.toList());
+        log.info(String.format("%-10s %-16s %-12s %12s %12s %12s", "nodes", "dao", "query", "statements", "entities", "millis"));
+        for (int size : sizes) {
+            for (Map.Entry<String, IntervalTreeDao<UUID>> daoEntry : getDaos().entrySet()) {
+                benchmarkQueries(size, daoEntry.getKey(), daoEntry.getValue());
+            }
+        }
+    }
+
+    /**
+     * read-heavy workload
+     */
+    private void benchmarkQueries(int size, String daoName, IntervalTreeDao<UUID> intervalTreeDao) {
+        List<UUID> nodeIds = createParties(size, "q" + daoName + size + "_");
+        buildTree(size, daoName, intervalTreeDao, nodeIds);
+
+        Random random = new Random(size);
+        // the inner nodes of the first two levels have subtrees of about size / FANOUT and size / FANOUT^2 nodes
+        List<UUID> innerIds = random.ints(QUERIES, 1, 1 + FANOUT + FANOUT * FANOUT).mapToObj(nodeIds::get).collect(Collectors.toList());
+        List<UUID> sampleIds = random.ints(QUERIES, 0, size).mapToObj(nodeIds::get).collect(Collectors.toList());
+        List<UUID> otherSampleIds = random.ints(QUERIES, 0, size).mapToObj(nodeIds::get).collect(Collectors.toList());
+
+        measure(size, daoName, "subTree", QUERIES, () -> innerIds.forEach(intervalTreeDao::getSubTree));
+        measure(size, daoName, "children", QUERIES, () -> innerIds.forEach(nodeId -> intervalTreeDao.getSubTree(nodeId, 1)));
+        measure(size, daoName, "page", QUERIES, () -> innerIds.forEach(nodeId -> intervalTreeDao.getSubTree(nodeId, Integer.MAX_VALUE, 0, 100)));
+        measure(size, daoName, "ancestors", QUERIES, () -> sampleIds.forEach(intervalTreeDao::getAncestors));
+        measure(size, daoName, "isDescendant", QUERIES, () -> {
+            for (int i = 0; i < QUERIES; i++) {
+                intervalTreeDao.isDescendant(innerIds.get(i), sampleIds.get(i));
+            }
+        });
+        measure(size, daoName, "lca", QUERIES, () -> {
+            for (int i = 0; i < QUERIES; i++) {
+                intervalTreeDao.getLowestCommonAncestor(sampleIds.get(i), otherSampleIds.get(i));
+            }
+        });
+        entityManager.clear();
+    }
+
+    private Map<String, IntervalTreeDao<UUID>> getDaos() {
+        Map<String, IntervalTreeDao<UUID>> daos = new LinkedHashMap<>();
+        daos.put("nestedSet", nestedSetTreeDao);
+        daos.put("nestedInterval", nestedIntervalTreeDao);
+        daos.put("materializedPath", materializedPathTreeDao);
+        return daos;
+    }
+
+    private List<UUID> createParties(int size, String identityPrefix) {
+        List<Party> parties = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            Organization org = new Organization(identityPrefix + i);
+            org.setName(identityPrefix + i);
+            parties.add(org);
+        }
+        partyDao.batchCreate(parties);
+        entityManager.flush();
+        entityManager.clear();
+        return parties.stream().map(Party::getId).collect(Collectors.toList());
+    }
+
+    /**
+     * build a complete tree whose node i has the children FANOUT * i + 1 ... FANOUT * i + FANOUT.
+     */
+    private void buildTree(int size, String daoName, IntervalTreeDao<UUID> intervalTreeDao, List<UUID> nodeIds) {
+        Map<UUID, List<UUID>> childrenMap = new HashMap<>();
+        for (int child = 1; child < nodeIds.size(); child++) {
+            childrenMap.computeIfAbsent(nodeIds.get((child - 1) / FANOUT), parent -> new ArrayList<>()).add(nodeIds.get(child));
+        }
+        long start = System.nanoTime();
+        intervalTreeDao.bulkLoad(childrenMap);
+        entityManager.flush();
+        log.info(String.format("%-10d %-16s %-12s %12s %12s %12d", size, daoName, "bulkLoad", "", "", (System.nanoTime() - start) / 1000000));
+        entityManager.clear();
+    }
+
+    private void measure(int size, String daoName, String operation, Runnable runnable) {
+        measure(size, daoName, operation, ROUNDS, runnable);
+    }
+
+    private void measure(int size, String daoName, String operation, int rounds, Runnable runnable) {
+        entityManager.clear();
+        statistics.clear();
+        long start = System.nanoTime();
+        runnable.run();
+        entityManager.flush();
+        long millis = (System.nanoTime() - start) / 1000000;
+        log.info(String.format("%-10d %-16s %-12s %12.1f %12.1f %12.1f", size, daoName, operation,
+                (double) statistics.getPrepareStatementCount() / rounds, (double) statistics.getEntityLoadCount() / rounds, (double) millis / rounds));
+    }
+}
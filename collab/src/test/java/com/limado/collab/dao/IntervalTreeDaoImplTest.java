@@ -1,173 +1,248 @@
 package com.limado.collab.dao;
 
-import com.limado.collab.model.Organization;
-import com.limado.collab.model.Party;
-import com.limado.collab.model.User;
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
+import com.limado.collab.model.PartyIntervalTreeNode;
+import org.junit.After;
 import org.junit.Assert;
-import org.junit.Before;
 import org.junit.Test;
-import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
-import org.springframework.test.annotation.DirtiesContext;
-import org.springframework.test.context.ContextConfiguration;
-import org.springframework.test.context.junit4.AbstractTransactionalJUnit4SpringContextTests;
-import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.util.AopTestUtils;
 
 import java.util.*;
-import java.util.stream.Collectors;
 
 /**
  * @author csieflyman
  */
-@RunWith(SpringJUnit4ClassRunner.class)
-@ContextConfiguration(locations = {"/spring-config.xml", "/spring-config-test.xml"})
-@DirtiesContext
-public class IntervalTreeDaoImplTest extends AbstractTransactionalJUnit4SpringContextTests {
-
-    private static final Logger log = LogManager.getLogger(IntervalTreeDaoImplTest.class);
+public class IntervalTreeDaoImplTest extends AbstractTreeDaoImplTest<PartyIntervalTreeNode> {
 
     @Autowired
-    @Qualifier("partyIntervalTreeDao")
-    private IntervalTreeDao<UUID> intervalTreeDao;
+    @Qualifier("partyNestedSetTreeDao")
+    private IntervalTreeDao<UUID> partyNestedSetTreeDao;
 
-    @Autowired
-    private PartyDao partyDao;
-
-    private Map<String, Party> userMap;
-    private Map<String, Party> orgMap;
-    private UUID org1Id;
-    private UUID org2Id;
-    private UUID org3Id;
-    private UUID org4Id;
-    private UUID user1Id;
-    private UUID user2Id;
-    private UUID user3Id;
-    private UUID user4Id;
-    private UUID user5Id;
-    private UUID user6Id;
-
-    @Before
-    public void initTestData() {
-        userMap = new HashMap<>();
-        for (int i = 1; i <= 6; i++) {
-            String identity = "user" + i;
-            User user = new User(identity);
-            user.setName(" I am " + identity);
-            userMap.put(identity, user);
-        }
-        orgMap = new HashMap<>();
-        for (int i = 1; i <= 4; i++) {
-            String identity = "org" + i;
-            Organization org = new Organization(identity);
-            org.setName(" I am " + identity);
-            orgMap.put(identity, org);
-        }
-        userMap = userMap.values().stream().map(user -> partyDao.create(user)).collect(Collectors.toMap(Party::getIdentity, user -> user));
-        orgMap = orgMap.values().stream().map(org -> partyDao.create(org)).collect(Collectors.toMap(Party::getIdentity, user -> user));
+    public IntervalTreeDaoImplTest() {
+        super(PartyIntervalTreeNode.class);
+    }
+
+    @Override
+    protected IntervalTreeDao<UUID> getIntervalTreeDao() {
+        return partyNestedSetTreeDao;
+    }
 
-        org1Id = orgMap.get("org1").getId();
-        org2Id = orgMap.get("org2").getId();
-        org3Id = orgMap.get("org3").getId();
-        org4Id = orgMap.get("org4").getId();
-        user1Id = userMap.get("user1").getId();
-        user2Id = userMap.get("user2").getId();
-        user3Id = userMap.get("user3").getId();
-        user4Id = userMap.get("user4").getId();
-        user5Id = userMap.get("user5").getId();
-        user6Id = userMap.get("user6").getId();
+    @Override
+    protected void assertSameEncoding(PartyIntervalTreeNode expected, PartyIntervalTreeNode actual) {
+        Assert.assertEquals(expected.getLow(), actual.getLow());
+        Assert.assertEquals(expected.getHigh(), actual.getHigh());
     }
 
+    @Override
+    protected void assertAddedEncoding() {
+        assertFollowsWithin(org3Id, org4Id, org1Id);
+        assertFollowsWithin(user1Id, user2Id, org2Id);
+    }
+
+    @Override
+    protected void assertMovedEncoding() {
+        assertFollowsWithin(user2Id, org3Id, org2Id);
+        assertFollowsWithin(user3Id, user4Id, org3Id);
+    }
+
+    @Override
+    protected String corruptEncoding() {
+        // the first child of org2 is stretched over the second one
+        PartyIntervalTreeNode firstNode = getNode(user1Id).getLow() < getNode(user2Id).getLow() ? getNode(user1Id) : getNode(user2Id);
+        PartyIntervalTreeNode secondNode = firstNode.getNodeId().equals(user1Id) ? getNode(user2Id) : getNode(user1Id);
+        entityManager.createQuery("update PartyIntervalTreeNode set high = :high where nodeId = :nodeId")
+                .setParameter("high", secondNode.getLow() + 1).setParameter("nodeId", firstNode.getNodeId()).executeUpdate();
+        return "node " + secondNode.getNodeId() + " overlaps node " + firstNode.getNodeId();
+    }
+
+    @After
+    public void resetDao() {
+        setGap(IntervalTreeDaoImpl.DEFAULT_GAP);
+        setSnapshotMaxNodes(IntervalTreeDaoImpl.DEFAULT_SNAPSHOT_MAX_NODES);
+    }
+
+    @Override
     @Test
-    public void testAddRemoveChild() {
-        intervalTreeDao.addChild(org1Id, org2Id);
-        intervalTreeDao.addChild(org1Id, org3Id);
-        intervalTreeDao.addChild(org1Id, org4Id);
-        intervalTreeDao.addChild(org2Id, user1Id);
-        intervalTreeDao.addChild(org2Id, user2Id);
-        intervalTreeDao.addChild(org3Id, user3Id);
-        intervalTreeDao.addChild(org3Id, user4Id);
-        intervalTreeDao.addChild(org4Id, user5Id);
-        intervalTreeDao.addChild(org4Id, user6Id);
-
-        List<UUID> subTreeNodeIds = intervalTreeDao.getSubTree(org1Id);
-        Assert.assertEquals(Arrays.asList(org2Id, user1Id, user2Id, org3Id, user3Id, user4Id, org4Id, user5Id, user6Id), subTreeNodeIds);
-        subTreeNodeIds = intervalTreeDao.getSubTree(org2Id);
-        Assert.assertEquals(Arrays.asList(user1Id, user2Id), subTreeNodeIds);
-        subTreeNodeIds = intervalTreeDao.getSubTree(user1Id);
-        Assert.assertEquals(Collections.emptyList(), subTreeNodeIds);
-
-        intervalTreeDao.removeChild(org2Id, user1Id);
-        subTreeNodeIds = intervalTreeDao.getSubTree(org2Id);
-        Assert.assertEquals(Arrays.asList(user2Id), subTreeNodeIds);
-
-        intervalTreeDao.removeChild(org1Id, org3Id);
-        subTreeNodeIds = intervalTreeDao.getSubTree(org1Id);
-        Assert.assertEquals(Arrays.asList(org2Id, user2Id, org4Id, user5Id, user6Id), subTreeNodeIds);
-        subTreeNodeIds = intervalTreeDao.getSubTree(org3Id);
-        Assert.assertEquals(Arrays.asList(user3Id, user4Id), subTreeNodeIds);
-
-        intervalTreeDao.removeChild(org1Id, org2Id);
-        intervalTreeDao.removeChild(org2Id, user2Id);
-        subTreeNodeIds = intervalTreeDao.getSubTree(org2Id);
-        Assert.assertEquals(Collections.emptyList(), subTreeNodeIds);
-        subTreeNodeIds = intervalTreeDao.getSubTree(org1Id);
-        Assert.assertEquals(Arrays.asList(org4Id, user5Id, user6Id), subTreeNodeIds);
+    public void testAddChildOnlyWritesNewNode() {
+        setGap(1000);
+        super.testAddChildOnlyWritesNewNode();
     }
 
+    @Override
     @Test
-    public void testDeleteNode() {
-        intervalTreeDao.addChild(org1Id, org2Id);
-        intervalTreeDao.addChild(org1Id, org3Id);
-        intervalTreeDao.addChild(org1Id, org4Id);
-        intervalTreeDao.addChild(org2Id, user1Id);
-        intervalTreeDao.addChild(org2Id, user2Id);
-        intervalTreeDao.addChild(org3Id, user3Id);
-        intervalTreeDao.addChild(org3Id, user4Id);
-        intervalTreeDao.addChild(org4Id, user5Id);
-        intervalTreeDao.addChild(org4Id, user6Id);
+    public void testMoveAll() {
+        forEachGap(super::testMoveAll);
+    }
 
-        intervalTreeDao.delete(org2Id);
-        List<UUID> subTreeNodeIds = intervalTreeDao.getSubTree(org2Id);
-        Assert.assertEquals(Collections.emptyList(), subTreeNodeIds);
-        subTreeNodeIds = intervalTreeDao.getSubTree(org1Id);
-        Assert.assertEquals(Arrays.asList(org3Id, user3Id, user4Id, org4Id, user5Id, user6Id), subTreeNodeIds);
+    @Override
+    @Test
+    public void testParentAndDepth() {
+        forEachGap(super::testParentAndDepth);
+    }
 
-        intervalTreeDao.delete(user3Id);
-        subTreeNodeIds = intervalTreeDao.getSubTree(org3Id);
-        Assert.assertEquals(Arrays.asList(user4Id), subTreeNodeIds);
+    @Override
+    @Test
+    public void testSubTreePage() {
+        forEachGap(super::testSubTreePage);
+    }
 
-        intervalTreeDao.delete(org1Id);
-        subTreeNodeIds = intervalTreeDao.getSubTree(org4Id);
-        Assert.assertEquals(Arrays.asList(user5Id, user6Id), subTreeNodeIds);
-        subTreeNodeIds = intervalTreeDao.getSubTree(org1Id);
-        Assert.assertEquals(Collections.emptyList(), subTreeNodeIds);
+    @Override
+    @Test
+    public void testSubTreeSize() {
+        forEachGap(super::testSubTreeSize);
     }
 
+    @Override
     @Test
-    public void testMoveNode() {
+    public void testBulkLoad() {
+        forEachGap(super::testBulkLoad);
+    }
+
+    @Test
+    public void testBulkLoadAndMoveAllEncoding() {
+        Map<UUID, List<UUID>> childrenMap = new LinkedHashMap<>();
+        childrenMap.put(org1Id, Arrays.asList(org2Id, org3Id));
+        childrenMap.put(org2Id, Arrays.asList(user1Id, user2Id));
+        childrenMap.put(org3Id, Arrays.asList(user3Id));
+        childrenMap.put(org4Id, Arrays.asList(user4Id));
+        intervalTreeDao.bulkLoad(childrenMap);
+        Assert.assertEquals(Integer.valueOf(1), getNode(org1Id).getLow());
+        Assert.assertEquals(Integer.valueOf(12), getNode(org1Id).getHigh());
+
+        Map<UUID, UUID> newParentMap = new LinkedHashMap<>();
+        newParentMap.put(user1Id, org3Id);
+        newParentMap.put(org4Id, user2Id);
+        newParentMap.put(user5Id, org4Id);
+        newParentMap.put(user3Id, user6Id);
+        intervalTreeDao.moveAll(newParentMap);
+        Assert.assertEquals(Integer.valueOf(16), getNode(org1Id).getHigh());
+        Assert.assertEquals(Integer.valueOf(7), getNode(user5Id).getLow());
+    }
+
+    @Test
+    public void testDeleteSplitsChildrenAndDeleteSubTree() {
+        for (int gap : Arrays.asList(IntervalTreeDaoImpl.DEFAULT_GAP, 1000)) {
+            setGap(gap);
+            Map<UUID, List<UUID>> childrenMap = new LinkedHashMap<>();
+            childrenMap.put(org1Id, Arrays.asList(org2Id, org4Id));
+            childrenMap.put(org2Id, Arrays.asList(org3Id, user1Id));
+            childrenMap.put(org3Id, Arrays.asList(user2Id, user3Id));
+            childrenMap.put(org4Id, Arrays.asList(user4Id, user5Id));
+            intervalTreeDao.bulkLoad(childrenMap);
+
+            intervalTreeDao.delete(org2Id);
+            Assert.assertNull(getNode(org2Id));
+            Assert.assertNull(getNode(user1Id));
+            Assert.assertEquals(Arrays.asList(org4Id, user4Id, user5Id), intervalTreeDao.getSubTree(org1Id));
+            Assert.assertEquals(Arrays.asList(user2Id, user3Id), intervalTreeDao.getSubTree(org3Id));
+            PartyIntervalTreeNode org3Node = getNode(org3Id);
+            Assert.assertEquals(Integer.valueOf(1), org3Node.getLow());
+            Assert.assertNull(org3Node.getParentNodeId());
+            Assert.assertEquals(Integer.valueOf(0), org3Node.getDepth());
+            Assert.assertEquals(Integer.valueOf(1), getNode(user3Id).getDepth());
+            Assert.assertEquals(org3Node.getTreeId(), getNode(user3Id).getTreeId());
+            Assert.assertNotEquals(getNode(org1Id).getTreeId(), org3Node.getTreeId());
+            if (gap == IntervalTreeDaoImpl.DEFAULT_GAP) {
+                Assert.assertEquals(Integer.valueOf(6), org3Node.getHigh());
+                Assert.assertEquals(Integer.valueOf(8), getNode(org1Id).getHigh());
+                Assert.assertEquals(Integer.valueOf(2), getNode(org4Id).getLow());
+            }
+
+            intervalTreeDao.addChild(org4Id, user1Id);
+            intervalTreeDao.deleteSubTree(user4Id);
+            Assert.assertEquals(Arrays.asList(org4Id, user5Id, user1Id), intervalTreeDao.getSubTree(org1Id));
+            intervalTreeDao.deleteSubTree(org4Id);
+            Assert.assertNull(getNode(org4Id));
+            Assert.assertNull(getNode(user5Id));
+            Assert.assertNull(getNode(org1Id));
+
+            intervalTreeDao.deleteSubTree(org3Id);
+            Assert.assertNull(getNode(org3Id));
+            Assert.assertNull(getNode(user2Id));
+        }
+    }
+
+
+    @Test
+    public void testAddRemoveChildWithGap() {
+        for (int gap : Arrays.asList(4, 1000)) {
+            setGap(gap);
+            intervalTreeDao.addChild(org1Id, org2Id);
+            intervalTreeDao.addChild(org1Id, org3Id);
+            intervalTreeDao.addChild(org1Id, org4Id);
+            intervalTreeDao.addChild(org2Id, user1Id);
+            intervalTreeDao.addChild(org2Id, user2Id);
+            intervalTreeDao.addChild(org3Id, user3Id);
+            intervalTreeDao.addChild(org3Id, user4Id);
+            intervalTreeDao.addChild(org4Id, user5Id);
+            intervalTreeDao.addChild(org4Id, user6Id);
+
+            List<UUID> subTreeNodeIds = intervalTreeDao.getSubTree(org1Id);
+            Assert.assertEquals(Arrays.asList(org2Id, user1Id, user2Id, org3Id, user3Id, user4Id, org4Id, user5Id, user6Id), subTreeNodeIds);
+            subTreeNodeIds = intervalTreeDao.getSubTree(org3Id);
+            Assert.assertEquals(Arrays.asList(user3Id, user4Id), subTreeNodeIds);
+
+            intervalTreeDao.removeChild(org1Id, org3Id);
+            subTreeNodeIds = intervalTreeDao.getSubTree(org1Id);
+            Assert.assertEquals(Arrays.asList(org2Id, user1Id, user2Id, org4Id, user5Id, user6Id), subTreeNodeIds);
+            subTreeNodeIds = intervalTreeDao.getSubTree(org3Id);
+            Assert.assertEquals(Arrays.asList(user3Id, user4Id), subTreeNodeIds);
+
+            intervalTreeDao.move(org2Id, org3Id);
+            subTreeNodeIds = intervalTreeDao.getSubTree(org1Id);
+            Assert.assertEquals(Arrays.asList(org2Id, user1Id, user2Id, org3Id, user3Id, user4Id, org4Id, user5Id, user6Id), subTreeNodeIds);
+
+            intervalTreeDao.delete(org1Id);
+            intervalTreeDao.delete(org2Id);
+            intervalTreeDao.delete(org3Id);
+            intervalTreeDao.delete(org4Id);
+            Assert.assertEquals(Collections.emptyList(), intervalTreeDao.getSubTree(org4Id));
+        }
+    }
+
+
+    @Test
+    public void testSnapshotCacheReadsOwnWrites() {
+        setSnapshotMaxNodes(1000);
         intervalTreeDao.addChild(org1Id, org2Id);
         intervalTreeDao.addChild(org1Id, org3Id);
-        intervalTreeDao.addChild(org1Id, org4Id);
         intervalTreeDao.addChild(org2Id, user1Id);
-        intervalTreeDao.addChild(org2Id, user2Id);
-        intervalTreeDao.addChild(org3Id, user3Id);
-        intervalTreeDao.addChild(org3Id, user4Id);
-        intervalTreeDao.addChild(org4Id, user5Id);
-        intervalTreeDao.addChild(org4Id, user6Id);
-
-        intervalTreeDao.move(org2Id, org3Id);
-        List<UUID> subTreeNodeIds = intervalTreeDao.getSubTree(org2Id);
-        Assert.assertEquals(Arrays.asList(user1Id, user2Id, org3Id, user3Id, user4Id), subTreeNodeIds);
-
-        intervalTreeDao.move(org4Id, org2Id);
-        subTreeNodeIds = intervalTreeDao.getSubTree(org1Id);
-        Assert.assertEquals(Arrays.asList(org4Id, user5Id, user6Id, org2Id, user1Id, user2Id, org3Id, user3Id, user4Id), subTreeNodeIds);
-
-        intervalTreeDao.move(org2Id, user3Id);
-        subTreeNodeIds = intervalTreeDao.getSubTree(org2Id);
-        Assert.assertEquals(Arrays.asList(user1Id, user2Id, org3Id, user4Id, user3Id), subTreeNodeIds);
+        Assert.assertEquals(Arrays.asList(org1Id, org2Id), intervalTreeDao.getAncestors(user1Id));
+        Assert.assertEquals(Arrays.asList(org2Id, user1Id, org3Id), intervalTreeDao.getSubTree(org1Id));
+
+        intervalTreeDao.move(org3Id, org2Id);
+        Assert.assertEquals(Arrays.asList(org1Id, org3Id, org2Id), intervalTreeDao.getAncestors(user1Id));
+        Assert.assertTrue(intervalTreeDao.isDescendant(org3Id, user1Id));
+        Assert.assertEquals(Arrays.asList(org3Id, org2Id, user1Id), intervalTreeDao.getSubTree(org1Id));
+    }
+
+    private void assertFollowsWithin(UUID previousSiblingId, UUID nodeId, UUID parentId) {
+        PartyIntervalTreeNode node = getNode(nodeId);
+        Assert.assertTrue(getNode(previousSiblingId).getHigh() < node.getLow());
+        Assert.assertTrue(node.getHigh() < getNode(parentId).getHigh());
+    }
+
+    /**
+     * run the scenario without and with a gap between the siblings, the trees are dropped between the runs
+     */
+    private void forEachGap(Runnable scenario) {
+        for (int gap : Arrays.asList(IntervalTreeDaoImpl.DEFAULT_GAP, 1000)) {
+            setGap(gap);
+            scenario.run();
+            entityManager.flush();
+            deleteFromTables("interval_tree");
+            entityManager.clear();
+        }
+    }
+
+    private void setGap(int gap) {
+        IntervalTreeDaoImpl dao = AopTestUtils.getUltimateTargetObject(intervalTreeDao);
+        dao.setGap(gap);
+    }
+
+    private void setSnapshotMaxNodes(long snapshotMaxNodes) {
+        IntervalTreeDaoImpl dao = AopTestUtils.getUltimateTargetObject(intervalTreeDao);
+        dao.setSnapshotMaxNodes(snapshotMaxNodes);
     }
 }
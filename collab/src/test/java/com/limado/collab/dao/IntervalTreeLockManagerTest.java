@@ -0,0 +1,162 @@
+package com.limado.collab.dao;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author csieflyman
+ */
+public class IntervalTreeLockManagerTest {
+
+    private IntervalTreeLockManager lockManager;
+
+    private ExecutorService executor;
+
+    @Before
+    public void init() {
+        lockManager = new IntervalTreeLockManager();
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testSameTreeQueuesUntilTransactionCompletes() throws Exception {
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<?> holder = executor.submit(() -> inTransaction(() -> {
+            lockManager.lock(Collections.singleton("party:tree1"));
+            locked.countDown();
+            await(release);
+        }));
+        awaitLocked(locked, holder);
+
+        inTransaction(() -> lockManager.lock(Collections.singleton("party:tree2")));
+        Assert.assertEquals(0, lockManager.getContendedCount());
+
+        new Thread(() -> {
+            sleep(200);
+            release.countDown();
+        }).start();
+        inTransaction(() -> lockManager.lock(Collections.singleton("party:tree1")));
+        holder.get();
+        Assert.assertEquals(3, lockManager.getAcquiredCount());
+        Assert.assertEquals(1, lockManager.getContendedCount());
+        Assert.assertTrue(lockManager.getMaxWaitMillis() >= 100);
+        Assert.assertEquals(0, lockManager.getTimeoutCount());
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        lockManager.setTimeoutMillis(100);
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<?> holder = executor.submit(() -> inTransaction(() -> {
+            lockManager.lock(Collections.singleton("party:tree1"));
+            locked.countDown();
+            await(release);
+        }));
+        awaitLocked(locked, holder);
+        try {
+            inTransaction(() -> lockManager.lock(Collections.singleton("party:tree1")));
+            Assert.fail("lock must time out");
+        } catch (CannotAcquireLockException e) {
+            Assert.assertEquals(1, lockManager.getTimeoutCount());
+        } finally {
+            release.countDown();
+            holder.get();
+        }
+    }
+
+    @Test
+    public void testUnlockBeforeTransactionCompletes() throws Exception {
+        CountDownLatch unlocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<?> holder = executor.submit(() -> inTransaction(() -> {
+            lockManager.lock(Arrays.asList("party:tree1", "party:tree2"));
+            lockManager.lock(Collections.singleton("party:tree1"));
+            lockManager.unlock(Arrays.asList("party:tree1", "party:tree2"));
+            unlocked.countDown();
+            await(release);
+        }));
+        awaitLocked(unlocked, holder);
+
+        lockManager.setTimeoutMillis(100);
+        try {
+            inTransaction(() -> lockManager.lock(Collections.singleton("party:tree2")));
+            try {
+                inTransaction(() -> lockManager.lock(Collections.singleton("party:tree1")));
+                Assert.fail("the lock of the second call must be held until the transaction completes");
+            } catch (CannotAcquireLockException e) {
+                Assert.assertEquals(1, lockManager.getTimeoutCount());
+            }
+        } finally {
+            release.countDown();
+            holder.get();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testUnlockRequiresHeldLock() {
+        inTransaction(() -> lockManager.unlock(Collections.singleton("party:tree1")));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testLockRequiresTransaction() {
+        lockManager.lock(Collections.singleton("party:tree1"));
+    }
+
+    private void inTransaction(Runnable runnable) {
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            runnable.run();
+        } finally {
+            TransactionSynchronizationUtils.invokeAfterCompletion(TransactionSynchronizationManager.getSynchronizations(),
+                    TransactionSynchronization.STATUS_COMMITTED);
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    /**
+     * wait until the holder has locked, a holder which failed before reports its cause by get
+     */
+    private void awaitLocked(CountDownLatch locked, Future<?> holder) throws Exception {
+        if (!locked.await(10, TimeUnit.SECONDS)) {
+            holder.get(1, TimeUnit.SECONDS);
+            Assert.fail("holder didn't lock within 10 seconds");
+        }
+    }
+
+    private void await(CountDownLatch latch) {
+        try {
+            Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.limado.collab.dao;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author csieflyman
+ */
+public class IntervalTreeSnapshotTest {
+
+    private IntervalTreeSnapshot<String> snapshot;
+
+    @Before
+    public void initTestData() {
+        // a(b(d, e), c(f)) numbered with gaps
+        snapshot = new IntervalTreeSnapshot<>(1L, Arrays.asList("a", "b", "d", "e", "c", "f"),
+                new int[]{1, 10, 20, 40, 70, 80}, new int[]{200, 60, 30, 50, 100, 90});
+    }
+
+    @Test
+    public void testSubTree() {
+        Assert.assertEquals(Arrays.asList("b", "d", "e", "c", "f"), snapshot.getSubTree("a"));
+        Assert.assertEquals(Arrays.asList("d", "e"), snapshot.getSubTree("b"));
+        Assert.assertEquals(Collections.emptyList(), snapshot.getSubTree("f"));
+        Assert.assertEquals(Arrays.asList("b", "c"), snapshot.getSubTree("a", 1));
+        Assert.assertEquals(Arrays.asList("f"), snapshot.getSubTree("c", 1));
+    }
+
+    @Test
+    public void testSubTreePage() {
+        Assert.assertEquals(Arrays.asList("d", "e"), snapshot.getSubTree("a", Integer.MAX_VALUE, 1, 2));
+        Assert.assertEquals(Arrays.asList("c"), snapshot.getSubTree("a", 1, 1, 2));
+        Assert.assertEquals(Collections.emptyList(), snapshot.getSubTree("a", 1, 2, 2));
+        Assert.assertEquals(Arrays.asList("b", "d"), snapshot.getSubTree("a", Integer.MAX_VALUE, null, 2));
+        Assert.assertEquals(Arrays.asList("e", "c"), snapshot.getSubTree("a", Integer.MAX_VALUE, "d", 2));
+        Assert.assertEquals(Arrays.asList("c"), snapshot.getSubTree("a", 1, "b", 2));
+        Assert.assertEquals(Collections.emptyList(), snapshot.getSubTree("b", Integer.MAX_VALUE, "e", 2));
+    }
+
+    @Test
+    public void testAncestorsAndIsDescendant() {
+        Assert.assertEquals(Arrays.asList("a", "b"), snapshot.getAncestors("e"));
+        Assert.assertEquals(Collections.emptyList(), snapshot.getAncestors("a"));
+        Assert.assertTrue(snapshot.isDescendant("a", "f"));
+        Assert.assertTrue(snapshot.isDescendant("b", "d"));
+        Assert.assertFalse(snapshot.isDescendant("b", "f"));
+        Assert.assertFalse(snapshot.isDescendant("d", "b"));
+        Assert.assertFalse(snapshot.isDescendant("d", "d"));
+        Assert.assertFalse(snapshot.isDescendant("x", "d"));
+    }
+
+    @Test
+    public void testLowestCommonAncestor() {
+        Assert.assertEquals("a", snapshot.getLowestCommonAncestor("d", "f"));
+        Assert.assertEquals("b", snapshot.getLowestCommonAncestor("d", "e"));
+        Assert.assertEquals("b", snapshot.getLowestCommonAncestor("e", "b"));
+        Assert.assertEquals("f", snapshot.getLowestCommonAncestor("f", "f"));
+        Assert.assertNull(snapshot.getLowestCommonAncestor("f", "x"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNodeNotInTree() {
+        snapshot.getSubTree("x");
+    }
+
+    @Test
+    public void testCache() {
+        AtomicInteger loadCount = new AtomicInteger();
+        IntervalTreeSnapshotCache<String> cache = new IntervalTreeSnapshotCache<>(100);
+        for (int i = 0; i < 2; i++) {
+            Assert.assertSame(snapshot, cache.get("d", nodeId -> 1L, treeId -> {
+                loadCount.incrementAndGet();
+                return snapshot;
+            }));
+        }
+        Assert.assertEquals(1, loadCount.get());
+        Assert.assertNull(cache.get("x", nodeId -> null, treeId -> snapshot));
+        Assert.assertSame(snapshot, cache.getIfPresent("d"));
+        Assert.assertNull(cache.getIfPresent("x"));
+
+        cache.invalidate(1L);
+        Assert.assertNull(cache.getIfPresent("d"));
+        cache.get("d", nodeId -> 1L, treeId -> {
+            loadCount.incrementAndGet();
+            return snapshot;
+        });
+        Assert.assertEquals(2, loadCount.get());
+    }
+}
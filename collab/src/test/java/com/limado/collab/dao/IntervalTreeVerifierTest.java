@@ -0,0 +1,88 @@
+package com.limado.collab.dao;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.stream.Collectors;
+
+/**
+ * @author csieflyman
+ */
+public class IntervalTreeVerifierTest {
+
+    private Map<String, List<String>> childrenMap;
+
+    @Before
+    public void initTestData() {
+        // a(b(d, e), c) and x(y)
+        childrenMap = new HashMap<>();
+        childrenMap.put("a", Arrays.asList("b", "c"));
+        childrenMap.put("b", Arrays.asList("d", "e"));
+        childrenMap.put("x", Arrays.asList("y"));
+    }
+
+    @Test
+    public void testVerifyNodes() {
+        IntervalTreeVerifier<String> verifier = new IntervalTreeVerifier<>(childrenMap);
+        List<String> errors = new ArrayList<>();
+        verifier.verifyNodes("a", treeParentMap("a", null, "b", "a", "c", "a", "d", "b", "e", "b"), errors);
+        Assert.assertEquals(Collections.emptyList(), errors);
+
+        // d is moved under c, e is missing and z doesn't belong to the relationship
+        verifier.verifyNodes("a", treeParentMap("a", null, "b", "a", "c", "a", "d", "c", "z", "b"), errors);
+        Assert.assertEquals(3, errors.size());
+        Assert.assertTrue(errors.stream().anyMatch(error -> error.startsWith("node d has parent c")));
+        Assert.assertTrue(errors.stream().anyMatch(error -> error.startsWith("node z doesn't belong")));
+        Assert.assertTrue(errors.stream().anyMatch(error -> error.startsWith("node e of the relationship is missing")));
+
+        errors.clear();
+        verifier.verifyNodes("b", treeParentMap("b", null, "d", "b", "e", "b"), errors);
+        Assert.assertEquals(Arrays.asList("root b has parent a in the relationship"), errors);
+    }
+
+    @Test
+    public void testVerifyInParallel() {
+        IntervalTreeVerifier<String> verifier = new IntervalTreeVerifier<>(childrenMap);
+        Set<String> threadNames = Collections.synchronizedSet(new HashSet<>());
+        List<IntervalTreeVerifyReport> reports = verifier.verify(Arrays.asList(1L, 2L), 4, treeId -> {
+            Assert.assertTrue(Thread.currentThread() instanceof ForkJoinWorkerThread);
+            threadNames.add(Thread.currentThread().getName());
+            List<String> errors = new ArrayList<>();
+            if (treeId == 1L) {
+                verifier.verifyNodes("a", treeParentMap("a", null, "b", "a", "c", "a", "d", "b", "e", "b"), errors);
+                return verifier.report(treeId, "a", 5, errors);
+            }
+            verifier.verifyNodes("y", treeParentMap("y", null), errors);
+            return verifier.report(treeId, "y", 1, errors);
+        });
+        Assert.assertFalse(threadNames.isEmpty());
+
+        // tree 2 is rooted at y instead of x, so x has no tree
+        Map<String, IntervalTreeVerifyReport> reportMap = reports.stream().collect(Collectors.toMap(IntervalTreeVerifyReport::getRootNodeId, report -> report));
+        Assert.assertEquals(new HashSet<>(Arrays.asList("x", "y")), reportMap.keySet());
+        Assert.assertEquals(Long.valueOf(2L), reportMap.get("y").getTreeId());
+        Assert.assertEquals(Arrays.asList("root y has parent x in the relationship"), reportMap.get("y").getErrors());
+        Assert.assertNull(reportMap.get("x").getTreeId());
+        Assert.assertEquals(Arrays.asList("root x has no tree"), reportMap.get("x").getErrors());
+    }
+
+    @Test
+    public void testReportLimitsErrors() {
+        IntervalTreeVerifier<String> verifier = new IntervalTreeVerifier<>(childrenMap);
+        List<String> errors = Collections.nCopies(IntervalTreeVerifier.MAX_REPORTED_ERRORS + 1, "error");
+        IntervalTreeVerifyReport report = verifier.report(1L, "a", 5, errors);
+        Assert.assertEquals(IntervalTreeVerifier.MAX_REPORTED_ERRORS, report.getErrors().size());
+        Assert.assertEquals(IntervalTreeVerifier.MAX_REPORTED_ERRORS + 1, report.getErrorCount());
+    }
+
+    private static Map<String, String> treeParentMap(String... nodeAndParentIds) {
+        Map<String, String> treeParentMap = new HashMap<>();
+        for (int i = 0; i < nodeAndParentIds.length; i += 2) {
+            treeParentMap.put(nodeAndParentIds[i], nodeAndParentIds[i + 1]);
+        }
+        return treeParentMap;
+    }
+}
@@ -0,0 +1,63 @@
+package com.limado.collab.dao;
+
+import com.limado.collab.model.PartyMaterializedPathTreeNode;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+
+import java.util.UUID;
+
+/**
+ * @author csieflyman
+ */
+public class MaterializedPathTreeDaoImplTest extends AbstractTreeDaoImplTest<PartyMaterializedPathTreeNode> {
+
+    @Autowired
+    @Qualifier("partyMaterializedPathTreeDao")
+    private IntervalTreeDao<UUID> partyMaterializedPathTreeDao;
+
+    public MaterializedPathTreeDaoImplTest() {
+        super(PartyMaterializedPathTreeNode.class);
+    }
+
+    @Override
+    protected IntervalTreeDao<UUID> getIntervalTreeDao() {
+        return partyMaterializedPathTreeDao;
+    }
+
+    @Override
+    protected void assertSameEncoding(PartyMaterializedPathTreeNode expected, PartyMaterializedPathTreeNode actual) {
+        Assert.assertEquals(expected.getPath(), actual.getPath());
+    }
+
+    @Override
+    protected void assertAddedEncoding() {
+        Assert.assertEquals("000000000003", getNode(org4Id).getPath());
+        Assert.assertEquals("000000000001000002", getNode(user2Id).getPath());
+    }
+
+    @Override
+    protected void assertMovedEncoding() {
+        Assert.assertEquals("000000000001000003000002", getNode(user4Id).getPath());
+    }
+
+    @Override
+    protected String corruptEncoding() {
+        // user2 skips a level below org2
+        entityManager.createQuery("update PartyMaterializedPathTreeNode set path = :path where nodeId = :nodeId")
+                .setParameter("path", getNode(org2Id).getPath() + "000009000001").setParameter("nodeId", user2Id).executeUpdate();
+        return "node " + user2Id + " has path";
+    }
+
+    @Test
+    public void testTooDeepTreeIsRejected() {
+        try {
+            bulkLoadChain(MaterializedPathTreeDaoImpl.MAX_PATH_LENGTH / MaterializedPathTreeDaoImpl.SEGMENT_LENGTH);
+            Assert.fail("a tree deeper than the path length must be rejected");
+        } catch (InvalidDataAccessApiUsageException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+}
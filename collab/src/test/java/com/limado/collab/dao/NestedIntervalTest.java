@@ -0,0 +1,58 @@
+package com.limado.collab.dao;
+
+import com.limado.collab.model.PartyNestedIntervalTreeNode;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author csieflyman
+ */
+public class NestedIntervalTest {
+
+    @Test
+    public void testChild() {
+        // the 2nd child of (0/1, 1/1) is (1/4, 1/3) and its 1st child is (3/11, 2/7)
+        PartyNestedIntervalTreeNode node = new PartyNestedIntervalTreeNode();
+        NestedInterval.ROOT.child(2).copyTo(node);
+        Assert.assertEquals(Long.valueOf(1), node.getLowNum());
+        Assert.assertEquals(Long.valueOf(4), node.getLowDen());
+        Assert.assertEquals(Long.valueOf(1), node.getHighNum());
+        Assert.assertEquals(Long.valueOf(3), node.getHighDen());
+
+        NestedInterval.ROOT.child(2).child(1).copyTo(node);
+        Assert.assertEquals(Long.valueOf(3), node.getLowNum());
+        Assert.assertEquals(Long.valueOf(11), node.getLowDen());
+        Assert.assertEquals(Long.valueOf(2), node.getHighNum());
+        Assert.assertEquals(Long.valueOf(7), node.getHighDen());
+        Assert.assertTrue(NestedInterval.ROOT.child(2).child(1).isDistinctlyNestedIn(NestedInterval.ROOT.child(2)));
+        Assert.assertFalse(NestedInterval.ROOT.child(1).isDistinctlyNestedIn(NestedInterval.ROOT.child(2)));
+    }
+
+    @Test
+    public void testMapTo() {
+        NestedInterval from = NestedInterval.ROOT.child(3);
+        NestedInterval to = NestedInterval.ROOT.child(1).child(4);
+        NestedInterval mapping = from.mapTo(to);
+        Assert.assertEquals(to.getScaledLow(), mapping.multiply(from).getScaledLow());
+        Assert.assertEquals(to.getScaledHigh(), mapping.multiply(from).getScaledHigh());
+        NestedInterval descendant = from.child(2).child(5);
+        NestedInterval expected = to.child(2).child(5);
+        Assert.assertEquals(expected.getScaledLow(), mapping.multiply(descendant).getScaledLow());
+        Assert.assertEquals(expected.getScaledHigh(), mapping.multiply(descendant).getScaledHigh());
+    }
+
+    @Test
+    public void testPrecisionLimit() {
+        NestedInterval parent = NestedInterval.ROOT;
+        int depth = 0;
+        while (depth < 100) {
+            NestedInterval child = parent.child(1);
+            if (!child.isDistinctlyNestedIn(parent))
+                break;
+            parent = child;
+            depth++;
+        }
+        Assert.assertTrue(depth >= 20);
+        Assert.assertTrue(depth < 100);
+    }
+}
@@ -0,0 +1,70 @@
+package com.limado.collab.dao;
+
+import com.limado.collab.model.PartyNestedIntervalTreeNode;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+
+import java.util.UUID;
+
+/**
+ * @author csieflyman
+ */
+public class NestedIntervalTreeDaoImplTest extends AbstractTreeDaoImplTest<PartyNestedIntervalTreeNode> {
+
+    @Autowired
+    @Qualifier("partyNestedIntervalTreeDao")
+    private IntervalTreeDao<UUID> partyNestedIntervalTreeDao;
+
+    public NestedIntervalTreeDaoImplTest() {
+        super(PartyNestedIntervalTreeNode.class);
+    }
+
+    @Override
+    protected IntervalTreeDao<UUID> getIntervalTreeDao() {
+        return partyNestedIntervalTreeDao;
+    }
+
+    @Override
+    protected void assertSameEncoding(PartyNestedIntervalTreeNode expected, PartyNestedIntervalTreeNode actual) {
+        Assert.assertEquals(expected.getLow(), actual.getLow());
+        Assert.assertEquals(expected.getHigh(), actual.getHigh());
+    }
+
+    @Override
+    protected void assertAddedEncoding() {
+        // the k-th child of (0/1, 1/1) is (1/(k + 2), 1/(k + 1))
+        PartyNestedIntervalTreeNode org4Node = getNode(org4Id);
+        Assert.assertEquals(Integer.valueOf(3), org4Node.getSiblingIndex());
+        Assert.assertEquals(Long.valueOf(1), org4Node.getLowNum());
+        Assert.assertEquals(Long.valueOf(5), org4Node.getLowDen());
+        Assert.assertEquals(Long.valueOf(1), org4Node.getHighNum());
+        Assert.assertEquals(Long.valueOf(4), org4Node.getHighDen());
+        Assert.assertEquals(Integer.valueOf(2), getNode(user2Id).getSiblingIndex());
+    }
+
+    @Override
+    protected void assertMovedEncoding() {
+        Assert.assertEquals(Integer.valueOf(3), getNode(org3Id).getSiblingIndex());
+        Assert.assertEquals(Integer.valueOf(2), getNode(user4Id).getSiblingIndex());
+    }
+
+    @Override
+    protected String corruptEncoding() {
+        // the sibling index of user2 doesn't match its interval anymore
+        entityManager.createQuery("update PartyNestedIntervalTreeNode set siblingIndex = siblingIndex + 5 where nodeId = :nodeId").setParameter("nodeId", user2Id).executeUpdate();
+        return "node " + user2Id + " has interval";
+    }
+
+    @Test
+    public void testTooDeepTreeIsRejected() {
+        try {
+            bulkLoadChain(40);
+            Assert.fail("a tree deeper than the precision of the intervals must be rejected");
+        } catch (InvalidDataAccessApiUsageException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+}
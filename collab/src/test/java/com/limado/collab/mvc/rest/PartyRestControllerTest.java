@@ -117,6 +117,20 @@ public class PartyRestControllerTest {
         mockMvc.perform(get(API_PATH + "/parties/" + invalidFormatId).accept(MediaType.APPLICATION_JSON_UTF8_VALUE))
                 .andExpect(status().isBadRequest())
                 .andExpect(content().contentType(MediaType.APPLICATION_JSON_UTF8_VALUE));
+
+        String randomId = UUID.randomUUID().toString();
+        for (String[] invalidParam : new String[][]{{QueryParams.Q_LIMIT, "abc"}, {QueryParams.Q_LIMIT, "0"}, {QueryParams.Q_OFFSET, "-1"}, {"q_maxDepth", "0"}}) {
+            mockMvc.perform(get(API_PATH + "/organizations/" + randomId + "/descendants").param(invalidParam[0], invalidParam[1]).accept(MediaType.APPLICATION_JSON_UTF8_VALUE))
+                    .andExpect(status().isBadRequest())
+                    .andExpect(content().contentType(MediaType.APPLICATION_JSON_UTF8_VALUE));
+        }
+        for (String path : new String[]{"/descendants", "/descendants/hops"}) {
+            for (String maxHops : new String[]{"abc", "0", "-1"}) {
+                mockMvc.perform(get(API_PATH + "/parties/" + randomId + path).param("q_maxHops", maxHops).accept(MediaType.APPLICATION_JSON_UTF8_VALUE))
+                        .andExpect(status().isBadRequest())
+                        .andExpect(content().contentType(MediaType.APPLICATION_JSON_UTF8_VALUE));
+            }
+        }
     }
 
     @Test
@@ -165,6 +179,19 @@ public class PartyRestControllerTest {
         params.add(QueryParams.Q_ONLY_SIZE, "true");
         Assert.assertEquals(2, getDescendants(group1, params));
 
+        params = new LinkedMultiValueMap<>();
+        params.add("q_maxHops", "1");
+        Assert.assertEquals(Sets.newHashSet(group2, org1, user1), getDescendants(group1, params));
+        params.add(QueryParams.Q_PREDICATES, "[TYPE(party) in (User)]");
+        Assert.assertEquals(Sets.newHashSet(user1), getDescendants(group1, params));
+        Map<UUID, Integer> descendantHops = new HashMap<>();
+        descendantHops.put(group2.getId(), 1);
+        descendantHops.put(org1.getId(), 1);
+        descendantHops.put(user1.getId(), 1);
+        descendantHops.put(org2.getId(), 2);
+        descendantHops.put(user2.getId(), 2);
+        Assert.assertEquals(descendantHops, getDescendantHops(group1));
+
         params = new LinkedMultiValueMap<>();
         Assert.assertEquals(Sets.newHashSet(group1, group2, org2, org1), getAscendants(user2, params));
         params.add(QueryParams.Q_PREDICATES, "[TYPE(party) in (Organization)]");
@@ -174,10 +201,27 @@ public class PartyRestControllerTest {
 
         params = new LinkedMultiValueMap<>();
         Assert.assertEquals(Sets.newHashSet(org2, user1, user2), getOrganizationDescendants(org1, params));
+        params.add("q_maxDepth", "1");
+        Assert.assertEquals(Sets.newHashSet(user1, org2), getOrganizationDescendants(org1, params));
+        params = new LinkedMultiValueMap<>();
+        params.add(QueryParams.Q_LIMIT, "2");
+        Assert.assertEquals(Sets.newHashSet(user1, org2), getOrganizationDescendants(org1, params));
+        params.add("q_cursor", org2.getId().toString());
+        Assert.assertEquals(Sets.newHashSet(user2), getOrganizationDescendants(org1, params));
+        params = new LinkedMultiValueMap<>();
+        params.add(QueryParams.Q_OFFSET, "1");
+        Assert.assertEquals(Sets.newHashSet(org2, user2), getOrganizationDescendants(org1, params));
+        params = new LinkedMultiValueMap<>();
+        params.add(QueryParams.Q_ONLY_SIZE, "true");
+        Assert.assertEquals(3, getOrganizationDescendants(org1, params));
+        params = new LinkedMultiValueMap<>();
         params.add(QueryParams.Q_PREDICATES, "[TYPE(party) in (Organization)]");
         Assert.assertEquals(Sets.newHashSet(org2), getOrganizationDescendants(org1, params));
         params.add(QueryParams.Q_ONLY_SIZE, "true");
         Assert.assertEquals(1, getOrganizationDescendants(org1, params));
+        Assert.assertEquals(Arrays.asList(true, true, false, false),
+                areOrganizationDescendants(Arrays.asList(Arrays.asList(org1, user2), Arrays.asList(org2, user2), Arrays.asList(org2, user1), Arrays.asList(org1, org1))));
+        Assert.assertEquals("[]", verifyOrganizationTree());
 
         // group
         removeChild(group1, user1);
@@ -478,6 +522,14 @@ public class PartyRestControllerTest {
         return JsonConverter.getInstance().convertInToSet(responseJsonArray, Party.class);
     }
 
+    private Map<UUID, Integer> getDescendantHops(Party party) throws Exception {
+        MvcResult result = mockMvc.perform(get(API_PATH + "/parties/" + party.getId() + "/descendants/hops").accept(MediaType.APPLICATION_JSON_UTF8_VALUE))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON_UTF8_VALUE))
+                .andReturn();
+        return JsonConverter.getInstance().convertInToMap(result.getResponse().getContentAsString(), UUID.class, Integer.class);
+    }
+
     private Object getAscendants(Party party, MultiValueMap params) throws Exception {
         MvcResult result = mockMvc.perform(get(API_PATH + "/parties/" + party.getId() + "/ascendants")
                 .accept(MediaType.APPLICATION_JSON_UTF8_VALUE).params(params))
@@ -491,6 +543,25 @@ public class PartyRestControllerTest {
         return JsonConverter.getInstance().convertInToSet(responseJsonArray, Party.class);
     }
 
+    private List<Boolean> areOrganizationDescendants(List<List<Party>> pairs) throws Exception {
+        List<List<UUID>> idPairs = pairs.stream().map(pair -> pair.stream().map(Party::getId).collect(Collectors.toList())).collect(Collectors.toList());
+        MvcResult result = mockMvc.perform(post(API_PATH + "/organizations/descendants")
+                .contentType(MediaType.APPLICATION_JSON_UTF8_VALUE).content(JsonConverter.getInstance().convertOut(idPairs))
+                .accept(MediaType.APPLICATION_JSON_UTF8_VALUE))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON_UTF8_VALUE))
+                .andReturn();
+        return JsonConverter.getInstance().convertInToList(result.getResponse().getContentAsString(), Boolean.class);
+    }
+
+    private String verifyOrganizationTree() throws Exception {
+        MvcResult result = mockMvc.perform(get(API_PATH + "/organizations/tree/verification").accept(MediaType.APPLICATION_JSON_UTF8_VALUE))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_JSON_UTF8_VALUE))
+                .andReturn();
+        return result.getResponse().getContentAsString();
+    }
+
     private Object getOrganizationDescendants(Party party, MultiValueMap params) throws Exception {
         MvcResult result = mockMvc.perform(get(API_PATH + "/organizations/" + party.getId() + "/descendants")
                 .accept(MediaType.APPLICATION_JSON_UTF8_VALUE).params(params))
@@ -14,10 +14,13 @@ import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.AbstractTransactionalJUnit4SpringContextTests;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 
 /**
  * author flyman
@@ -105,6 +108,30 @@ public class OrganizationServiceImplTest extends AbstractTransactionalJUnit4Spri
         Assert.assertFalse(org2Children.contains(user1));
     }
 
+    @Test
+    public void movePartiesToOrganizations() {
+        Organization org1 = organizationService.create(orgMap.get("org1"));
+        Organization org2 = organizationService.create(orgMap.get("org2"));
+        Organization org3 = organizationService.create(orgMap.get("org3"));
+        User user1 = userService.create(userMap.get("user1"));
+        User user2 = userService.create(userMap.get("user2"));
+        organizationService.addChildren(org1, Sets.newHashSet(org2, user1));
+        organizationService.addChild(org2, user2);
+
+        Map<UUID, UUID> organizationIdMap = new LinkedHashMap<>();
+        organizationIdMap.put(user1.getId(), org2.getId());
+        organizationIdMap.put(user2.getId(), org3.getId());
+        organizationIdMap.put(org3.getId(), org1.getId());
+        // org2 is already a child of org1
+        organizationIdMap.put(org2.getId(), org1.getId());
+        organizationService.movePartiesToOrganizations(organizationIdMap);
+        Assert.assertEquals(Sets.newHashSet(org2, org3), organizationService.getChildren(org1.getId()));
+        Assert.assertEquals(Sets.newHashSet(user1), organizationService.getChildren(org2.getId()));
+        Assert.assertEquals(Sets.newHashSet(user2), organizationService.getChildren(org3.getId()));
+        Assert.assertEquals(Arrays.asList(org1, org3), organizationService.getAncestors(user2.getId()));
+        Assert.assertEquals(Sets.newHashSet(org2, user1, org3, user2), organizationService.getDescendants(org1.getId()));
+    }
+
     @Test
     public void testAddAndRemoveChildren() {
         Organization org1 = organizationService.create(orgMap.get("org1"));
@@ -141,9 +168,31 @@ public class OrganizationServiceImplTest extends AbstractTransactionalJUnit4Spri
         organizationService.addChildren(org2, Sets.newHashSet(user2));
         organizationService.addChildren(org3, Sets.newHashSet(user3));
         Assert.assertEquals(Sets.newHashSet(user1, org2, user2, org3, user3), organizationService.getDescendants(org1.getId()));
+        Assert.assertEquals(5, organizationService.getDescendantsSize(org1.getId()));
 
         organizationService.delete(org2);
         Assert.assertEquals(Sets.newHashSet(user1, org3, user3), organizationService.getDescendants(org1.getId()));
+        Assert.assertEquals(3, organizationService.getDescendantsSize(org1.getId()));
+    }
+
+    @Test
+    public void testAncestorsAndLowestCommonAncestor() {
+        Organization org1 = organizationService.create(orgMap.get("org1"));
+        Organization org2 = organizationService.create(orgMap.get("org2"));
+        Organization org3 = organizationService.create(orgMap.get("org3"));
+        User user1 = userService.create(userMap.get("user1"));
+        User user2 = userService.create(userMap.get("user2"));
+
+        organizationService.addChildren(org1, Sets.newHashSet(org2, org3));
+        organizationService.addChild(org2, user1);
+        organizationService.addChild(org3, user2);
+        Assert.assertEquals(Arrays.asList(org1, org2), organizationService.getAncestors(user1.getId()));
+        Assert.assertEquals(Collections.emptyList(), organizationService.getAncestors(org1.getId()));
+        Assert.assertEquals(org1, organizationService.getLowestCommonAncestor(user1.getId(), user2.getId()));
+        Assert.assertEquals(org2, organizationService.getLowestCommonAncestor(user1.getId(), org2.getId()));
+
+        organizationService.removeChild(org1, org3);
+        Assert.assertNull(organizationService.getLowestCommonAncestor(user1.getId(), user2.getId()));
     }
 
     @Test(expected = IllegalArgumentException.class)
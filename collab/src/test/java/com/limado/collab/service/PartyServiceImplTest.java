@@ -315,5 +315,18 @@ public class PartyServiceImplTest extends AbstractTransactionalJUnit4SpringConte
         Assert.assertEquals(Sets.newHashSet(org1, group2, group1), partyService.getAscendants(user1.getId()));
         Assert.assertEquals(Sets.newHashSet(user1, user2), partyService.getDescendants(group2.getId()));
         Assert.assertEquals(Sets.newHashSet(group1), partyService.getAscendants(group2.getId()));
+
+        Assert.assertEquals(Sets.newHashSet(org1, group2), partyService.getDescendants(group1.getId(), 1));
+        Map<UUID, Integer> descendantHops = new HashMap<>();
+        descendantHops.put(org1.getId(), 1);
+        descendantHops.put(group2.getId(), 1);
+        descendantHops.put(user1.getId(), 2);
+        descendantHops.put(user2.getId(), 2);
+        Assert.assertEquals(descendantHops, partyService.getDescendantHops(group1.getId(), 2));
+
+        Map<UUID, Set<UUID>> ascendantIds = partyService.getAscendantIds(Sets.newHashSet(user1.getId(), group2.getId(), group1.getId()));
+        Assert.assertEquals(Sets.newHashSet(org1.getId(), group2.getId(), group1.getId()), ascendantIds.get(user1.getId()));
+        Assert.assertEquals(Sets.newHashSet(group1.getId()), ascendantIds.get(group2.getId()));
+        Assert.assertEquals(Sets.newHashSet(), ascendantIds.get(group1.getId()));
     }
 }
@@ -19,11 +19,34 @@ CREATE INDEX exit_edge_id_idx ON dag_edge (exit_edge_id);
 CREATE INDEX start_vertex_id_idx ON dag_edge (start_vertex_id);
 CREATE INDEX end_vertex_id_idx ON dag_edge (end_vertex_id);
 CREATE INDEX hops_idx ON dag_edge (hops);
+CREATE INDEX dag_end_start_idx ON dag_edge (dag_id, end_vertex_id, start_vertex_id);
+CREATE INDEX dag_start_end_idx ON dag_edge (dag_id, start_vertex_id, end_vertex_id);
+CREATE INDEX dag_start_hops_idx ON dag_edge (dag_id, start_vertex_id, hops, end_vertex_id);
 
-CREATE TABLE interval_tree (id BIGINT GENERATED BY DEFAULT AS IDENTITY (START WITH 1, INCREMENT BY 1) NOT NULL PRIMARY KEY, node_id BINARY(16) NOT NULL, low INT NOT NULL, high INT NOT NULL, tree_id VARCHAR(50) NOT NULL, tree_type VARCHAR(50) NOT NULL, CONSTRAINT FK_interval_tree_node_id FOREIGN KEY (node_id) REFERENCES party (id));
+CREATE TABLE dag_edge_shadow (id BIGINT GENERATED BY DEFAULT AS IDENTITY (START WITH 1, INCREMENT BY 1) NOT NULL PRIMARY KEY, entry_edge_id BIGINT, direct_edge_id BIGINT, exit_edge_id BIGINT, start_vertex_id BINARY(16) NOT NULL, end_vertex_id BINARY(16) NOT NULL, hops INT NOT NULL, dag_id VARCHAR(150) NOT NULL, CONSTRAINT FK_dag_edge_shadow_start_vertex_id FOREIGN KEY (start_vertex_id) REFERENCES party (id), CONSTRAINT FK_dag_edge_shadow_end_vertex_id FOREIGN KEY (end_vertex_id) REFERENCES party (id));
+
+CREATE TABLE dag_closure_edge (id BIGINT GENERATED BY DEFAULT AS IDENTITY (START WITH 1, INCREMENT BY 1) NOT NULL PRIMARY KEY, start_vertex_id BINARY(16) NOT NULL, end_vertex_id BINARY(16) NOT NULL, path_count BIGINT NOT NULL, direct_edge BOOLEAN DEFAULT FALSE NOT NULL, dag_id VARCHAR(150) NOT NULL, CONSTRAINT FK_dag_closure_edge_start_vertex_id FOREIGN KEY (start_vertex_id) REFERENCES party (id), CONSTRAINT FK_dag_closure_edge_end_vertex_id FOREIGN KEY (end_vertex_id) REFERENCES party (id));
+CREATE UNIQUE INDEX closure_dag_start_end_idx ON dag_closure_edge (dag_id, start_vertex_id, end_vertex_id);
+CREATE INDEX closure_dag_end_start_idx ON dag_closure_edge (dag_id, end_vertex_id, start_vertex_id);
+
+CREATE TABLE dag_closure_edge_shadow (id BIGINT GENERATED BY DEFAULT AS IDENTITY (START WITH 1, INCREMENT BY 1) NOT NULL PRIMARY KEY, start_vertex_id BINARY(16) NOT NULL, end_vertex_id BINARY(16) NOT NULL, path_count BIGINT NOT NULL, direct_edge BOOLEAN DEFAULT FALSE NOT NULL, dag_id VARCHAR(150) NOT NULL, CONSTRAINT FK_dag_closure_edge_shadow_start_vertex_id FOREIGN KEY (start_vertex_id) REFERENCES party (id), CONSTRAINT FK_dag_closure_edge_shadow_end_vertex_id FOREIGN KEY (end_vertex_id) REFERENCES party (id));
+
+CREATE TABLE interval_tree (id BIGINT GENERATED BY DEFAULT AS IDENTITY (START WITH 1, INCREMENT BY 1) NOT NULL PRIMARY KEY, node_id BINARY(16) NOT NULL, low INT NOT NULL, high INT NOT NULL, parent_node_id BINARY(16), depth INT DEFAULT 0 NOT NULL, tree_id BIGINT NOT NULL, tree_type SMALLINT NOT NULL, CONSTRAINT FK_interval_tree_node_id FOREIGN KEY (node_id) REFERENCES party (id));
 CREATE UNIQUE INDEX unique_node_type_idx ON interval_tree (node_id, tree_type);
-CREATE INDEX node_idx ON interval_tree (node_id);
-CREATE INDEX left_idx ON interval_tree (low);
-CREATE INDEX right_idx ON interval_tree (high);
-CREATE INDEX tree_id_idx ON interval_tree (tree_id);
-CREATE INDEX tree_type_idx ON interval_tree (tree_type);
\ No newline at end of file
+CREATE INDEX parent_node_type_idx ON interval_tree (parent_node_id, tree_type);
+CREATE INDEX tree_range_idx ON interval_tree (tree_type, tree_id, low, high);
+CREATE INDEX tree_depth_idx ON interval_tree (tree_type, tree_id, depth);
+
+CREATE TABLE nested_interval_tree (id BIGINT GENERATED BY DEFAULT AS IDENTITY (START WITH 1, INCREMENT BY 1) NOT NULL PRIMARY KEY, node_id BINARY(16) NOT NULL, parent_node_id BINARY(16), sibling_index INT NOT NULL, depth INT DEFAULT 0 NOT NULL, low_num BIGINT NOT NULL, low_den BIGINT NOT NULL, high_num BIGINT NOT NULL, high_den BIGINT NOT NULL, low BIGINT NOT NULL, high BIGINT NOT NULL, tree_id BIGINT NOT NULL, tree_type SMALLINT NOT NULL, CONSTRAINT FK_nested_interval_tree_node_id FOREIGN KEY (node_id) REFERENCES party (id));
+CREATE UNIQUE INDEX nested_node_type_idx ON nested_interval_tree (node_id, tree_type);
+CREATE INDEX nested_parent_node_type_idx ON nested_interval_tree (parent_node_id, tree_type);
+CREATE INDEX nested_tree_range_idx ON nested_interval_tree (tree_type, tree_id, high, low);
+CREATE INDEX nested_tree_depth_idx ON nested_interval_tree (tree_type, tree_id, depth);
+
+CREATE TABLE materialized_path_tree (id BIGINT GENERATED BY DEFAULT AS IDENTITY (START WITH 1, INCREMENT BY 1) NOT NULL PRIMARY KEY, node_id BINARY(16) NOT NULL, parent_node_id BINARY(16), path VARCHAR(1024) NOT NULL, depth INT DEFAULT 0 NOT NULL, tree_id BIGINT NOT NULL, tree_type SMALLINT NOT NULL, CONSTRAINT FK_materialized_path_tree_node_id FOREIGN KEY (node_id) REFERENCES party (id));
+CREATE UNIQUE INDEX path_node_type_idx ON materialized_path_tree (node_id, tree_type);
+CREATE INDEX path_parent_node_type_idx ON materialized_path_tree (parent_node_id, tree_type);
+CREATE INDEX path_tree_path_idx ON materialized_path_tree (tree_type, tree_id, path);
+
+CREATE TABLE interval_tree_seq (tree_type SMALLINT NOT NULL PRIMARY KEY, next_val BIGINT NOT NULL);
+INSERT INTO interval_tree_seq VALUES (1, 1);
\ No newline at end of file